@@ -0,0 +1,840 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.EnumSet;
+import java.util.Set;
+import net.antonioshome.nbtweeting.entities.Tweet;
+
+/**
+ * AtomByteScanner is an alternative to the StAX based AtomParseEngine for
+ * bulk work, such as replaying archived feeds. It works directly over the
+ * UTF-8 bytes of a feed in a ByteBuffer (possibly memory-mapped from a file)
+ * locating the boundaries of entries and the position of the fields we're
+ * interested in. No Strings are built until a field is requested.
+ * AtomByteScanners are not thread safe.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class AtomByteScanner {
+
+  private static final int EOF = 0;
+  private static final int START = 1;
+  private static final int END = 2;
+  private static final int EMPTY = 3;
+
+  private final ByteBuffer buffer;
+  private final int limit;
+  private int position;
+
+  // The last tag found by nextTag()
+  private int tagType;
+  private int tagStart;
+  private int tagLocalNameStart;
+  private int tagNameEnd;
+  private int tagAttributesStart;
+  private int tagAttributesEnd;
+
+  // Ranges [start, end) of the fields of the current entry, -1 if absent
+  private final int[] id = new int[2];
+  private final int[] published = new int[2];
+  private final int[] href = new int[2];
+  private final int[] title = new int[2];
+  private final int[] authorName = new int[2];
+  private final int[] authorURI = new int[2];
+  private final int[] authorImage = new int[2];
+  private boolean hasAuthor;
+
+  // Ranges of the feed-level links, -1 if absent
+  private final int[] refreshURL = {-1, -1};
+  private final int[] nextURL = {-1, -1};
+
+  /**
+   * Creates a scanner over the remaining bytes of a buffer. The buffer
+   * position is not modified.
+   * @param buffer The buffer with an Atom feed in UTF-8.
+   */
+  public AtomByteScanner(ByteBuffer buffer) {
+    this.buffer = buffer.duplicate();
+    this.position = buffer.position();
+    this.limit = buffer.limit();
+    clearEntry();
+  }
+
+  /**
+   * Creates a scanner over a memory-mapped file.
+   * @param file The file with an Atom feed in UTF-8.
+   * @return The scanner.
+   * @throws IOException If the file cannot be mapped.
+   */
+  public static AtomByteScanner open(File file) throws IOException {
+    FileInputStream input = new FileInputStream(file);
+    try {
+      // The mapping remains valid after the channel is closed
+      FileChannel channel = input.getChannel();
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new AtomByteScanner(mapped);
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Scans the rest of the feed and returns a page with all the fields.
+   * @return A SearchPage.
+   */
+  public SearchPage scanPage() {
+    return scanPage(EnumSet.allOf(AtomField.class));
+  }
+
+  /**
+   * Scans the rest of the feed and returns a page, decoding only some fields.
+   * @param projection The fields to decode.
+   * @return A SearchPage.
+   */
+  public SearchPage scanPage(Set<AtomField> projection) {
+    SearchPage page = new SearchPage();
+    while (nextEntry()) {
+      page.getTweets().add(getTweet(projection));
+    }
+    page.setRefreshURL(getRefreshURL());
+    page.setNextURL(getNextURL());
+    return page;
+  }
+
+  /**
+   * Moves to the next entry in the feed. Feed-level links found on the
+   * way are remembered.
+   * @return true if an entry was found, false at the end of the feed.
+   */
+  public boolean nextEntry() {
+    clearEntry();
+    for (int type = nextTag(); type != EOF; type = nextTag()) {
+      if (type == END) {
+        continue;
+      }
+      if (isTag("entry")) { // NOI18N
+        if (type == START) {
+          readEntry();
+        }
+        return true;
+      } else if (isTag("link")) { // NOI18N
+        // Feed-level links tell how to refresh and paginate this search
+        int[] rel = attribute("rel"); // NOI18N
+        if (rel != null && valueEquals(rel, "refresh")) { // NOI18N
+          copy(attribute("href"), refreshURL); // NOI18N
+        } else if (rel != null && valueEquals(rel, "next")) { // NOI18N
+          copy(attribute("href"), nextURL); // NOI18N
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Builds a Tweet from the current entry. The id and timestamp are decoded
+   * right away, the url, content and author are kept as raw bytes and
+   * decoded only if the tweet is looked at.
+   * @param projection The fields to decode.
+   * @return The Tweet.
+   */
+  public Tweet getTweet(Set<AtomField> projection) {
+    // The text fields are copied together, so the buffer is not retained
+    int[][] ranges = {
+      projection.contains(AtomField.URL) ? href : null,
+      projection.contains(AtomField.CONTENT) ? title : null,
+      projection.contains(AtomField.AUTHOR) && hasAuthor ? authorName : null,
+      projection.contains(AtomField.AUTHOR) && hasAuthor ? authorURI : null,
+      projection.contains(AtomField.AUTHOR) && hasAuthor ? authorImage : null
+    };
+    int length = 0;
+    for (int[] range : ranges) {
+      if (range != null && range[0] != -1) {
+        length += range[1] - range[0];
+      }
+    }
+    byte[] bytes = new byte[length];
+    int[] ends = new int[ranges.length * 2];
+    ByteBuffer source = buffer.duplicate();
+    int offset = 0;
+    for (int i = 0; i < ranges.length; i++) {
+      int[] range = ranges[i];
+      if (range == null || range[0] == -1) {
+        ends[2 * i] = ends[2 * i + 1] = -1;
+      } else {
+        source.limit(range[1]).position(range[0]);
+        source.get(bytes, offset, range[1] - range[0]);
+        ends[2 * i] = offset;
+        offset += range[1] - range[0];
+        ends[2 * i + 1] = offset;
+      }
+    }
+
+    Tweet tweet = new Tweet(new EntryText(bytes, ends));
+    if (projection.contains(AtomField.ID) && id[0] != -1) {
+      tweet.setId(getId());
+    }
+    if (projection.contains(AtomField.TIMESTAMP) && published[0] != -1) {
+      tweet.setTimestamp(getTimestamp());
+    }
+    return tweet;
+  }
+
+  /**
+   * @return the id of the current entry, 0 if none.
+   */
+  public long getId() {
+    if (id[0] == -1) {
+      return 0;
+    }
+    // Fast path, digits after the last colon
+    int start = id[1];
+    while (start > id[0] && buffer.get(start - 1) != ':') {
+      start--;
+    }
+    int digits = id[1] - start;
+    if (digits > 0 && digits < 19) {
+      long value = 0;
+      for (int i = start; i < id[1]; i++) {
+        byte b = buffer.get(i);
+        if (b < '0' || b > '9') {
+          return AtomParseEngine.parseId(decode(id, false));
+        }
+        value = value * 10 + (b - '0');
+      }
+      return value;
+    }
+    return AtomParseEngine.parseId(decode(id, false));
+  }
+
+  /**
+   * @return the published timestamp of the current entry, 0 if none.
+   */
+  public long getTimestamp() {
+    if (published[0] == -1) {
+      return 0;
+    }
+    return AtomParseEngine.parseTimestamp(isPlain(published) ? new AsciiSequence(published[0], published[1]) : decode(published, false));
+  }
+
+  /**
+   * @return the alternate link of the current entry, or null.
+   */
+  public String getUrlSpec() {
+    return href[0] == -1 ? null : decode(href, true);
+  }
+
+  /**
+   * @return the title of the current entry, or null.
+   */
+  public String getTitle() {
+    return title[0] == -1 ? null : decode(title, false);
+  }
+
+  /**
+   * @return the author name of the current entry, or null.
+   */
+  public String getAuthorName() {
+    return authorName[0] == -1 ? null : decode(authorName, false);
+  }
+
+  /**
+   * @return the author URI of the current entry, or null.
+   */
+  public String getAuthorURI() {
+    return authorURI[0] == -1 ? null : decode(authorURI, false);
+  }
+
+  /**
+   * @return the rel="image" link of the current entry, or null.
+   */
+  public String getAuthorImage() {
+    return authorImage[0] == -1 ? null : decode(authorImage, true);
+  }
+
+  /**
+   * @return the rel="refresh" feed link seen so far, or null.
+   */
+  public String getRefreshURL() {
+    return refreshURL[0] == -1 ? null : decode(refreshURL, true);
+  }
+
+  /**
+   * @return the rel="next" feed link seen so far, or null.
+   */
+  public String getNextURL() {
+    return nextURL[0] == -1 ? null : decode(nextURL, true);
+  }
+
+  private void clearEntry() {
+    id[0] = published[0] = href[0] = title[0] = authorName[0] = authorURI[0] = authorImage[0] = -1;
+    hasAuthor = false;
+  }
+
+  /**
+   * Locates the fields of an entry. On return the scanner is positioned
+   * after the end tag of the entry.
+   */
+  private void readEntry() {
+    for (int type = nextTag(); type != EOF && type != END; type = nextTag()) {
+      if (isTag("id")) { // NOI18N
+        content(type, id);
+      } else if (isTag("published")) { // NOI18N
+        content(type, published);
+      } else if (isTag("title")) { // NOI18N
+        content(type, title);
+      } else if (isTag("link")) { // NOI18N
+        int[] rel = attribute("rel"); // NOI18N
+        if (rel == null || valueEquals(rel, "alternate")) { // NOI18N
+          copy(attribute("href"), href); // NOI18N
+        } else if (valueEquals(rel, "image")) { // NOI18N
+          copy(attribute("href"), authorImage); // NOI18N
+        }
+        skip(type);
+      } else if (isTag("author") && type == START) { // NOI18N
+        hasAuthor = true;
+        for (type = nextTag(); type != EOF && type != END; type = nextTag()) {
+          if (isTag("name")) { // NOI18N
+            content(type, authorName);
+          } else if (isTag("uri")) { // NOI18N
+            content(type, authorURI);
+          } else {
+            skip(type);
+          }
+        }
+      } else if (isTag("author")) { // NOI18N
+        hasAuthor = true;
+      } else {
+        skip(type);
+      }
+    }
+  }
+
+  /**
+   * Stores the range of the contents of the current element, and moves
+   * after its end tag.
+   */
+  private void content(int type, int[] range) {
+    range[0] = position;
+    if (type == START) {
+      skip(type);
+      range[1] = tagStart;
+    } else {
+      range[1] = position;
+    }
+  }
+
+  /**
+   * Moves after the end tag of the current element.
+   */
+  private void skip(int type) {
+    if (type != START) {
+      return;
+    }
+    int depth = 1;
+    while (depth > 0) {
+      type = nextTag();
+      if (type == START) {
+        depth++;
+      } else if (type == END) {
+        depth--;
+      } else if (type == EOF) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Moves to the next start, end or empty tag, skipping comments,
+   * processing instructions, declarations and CDATA sections.
+   * @return The type of tag found.
+   */
+  private int nextTag() {
+    while (true) {
+      int lt = indexOf('<', position);
+      if (lt == -1) {
+        position = limit;
+        return tagType = EOF;
+      }
+      tagStart = lt;
+      if (startsWith(lt + 1, "!--")) { // NOI18N
+        position = skipPast(lt + 4, "-->"); // NOI18N
+      } else if (startsWith(lt + 1, "![CDATA[")) { // NOI18N
+        position = skipPast(lt + 9, "]]>"); // NOI18N
+      } else if (startsWith(lt + 1, "?")) { // NOI18N
+        position = skipPast(lt + 2, "?>"); // NOI18N
+      } else if (startsWith(lt + 1, "!")) { // NOI18N
+        position = skipDeclaration(lt + 2);
+      } else if (startsWith(lt + 1, "/")) { // NOI18N
+        readName(lt + 2);
+        int gt = indexOf('>', tagNameEnd);
+        position = gt == -1 ? limit : gt + 1;
+        return tagType = END;
+      } else {
+        readName(lt + 1);
+        // Look for the end of the tag, attribute values may contain '>'
+        int quote = 0;
+        int p = tagNameEnd;
+        for (; p < limit; p++) {
+          byte b = buffer.get(p);
+          if (quote != 0) {
+            if (b == quote) {
+              quote = 0;
+            }
+          } else if (b == '"' || b == '\'') {
+            quote = b;
+          } else if (b == '>') {
+            break;
+          }
+        }
+        tagAttributesStart = tagNameEnd;
+        position = p < limit ? p + 1 : limit;
+        if (p > tagNameEnd && p < limit && buffer.get(p - 1) == '/') {
+          tagAttributesEnd = p - 1;
+          return tagType = EMPTY;
+        }
+        tagAttributesEnd = p;
+        return tagType = START;
+      }
+    }
+  }
+
+  private void readName(int start) {
+    int p = start;
+    tagLocalNameStart = start;
+    for (; p < limit; p++) {
+      byte b = buffer.get(p);
+      if (b == ':') {
+        tagLocalNameStart = p + 1;
+      } else if (b == '>' || b == '/' || isWhitespace(b)) {
+        break;
+      }
+    }
+    tagNameEnd = p;
+  }
+
+  /**
+   * @return true if the local name of the current tag is the given one.
+   */
+  private boolean isTag(String localName) {
+    return tagNameEnd - tagLocalNameStart == localName.length()
+      && startsWith(tagLocalNameStart, localName);
+  }
+
+  /**
+   * Finds an attribute of the current tag.
+   * @return the range of the (undecoded) attribute value, or null.
+   */
+  private int[] attribute(String name) {
+    int p = tagAttributesStart;
+    while (p < tagAttributesEnd) {
+      while (p < tagAttributesEnd && isWhitespace(buffer.get(p))) {
+        p++;
+      }
+      int nameStart = p;
+      while (p < tagAttributesEnd && buffer.get(p) != '=' && !isWhitespace(buffer.get(p))) {
+        p++;
+      }
+      int nameEnd = p;
+      while (p < tagAttributesEnd && buffer.get(p) != '"' && buffer.get(p) != '\'') {
+        p++;
+      }
+      if (p >= tagAttributesEnd) {
+        return null;
+      }
+      byte quote = buffer.get(p);
+      int valueStart = ++p;
+      while (p < tagAttributesEnd && buffer.get(p) != quote) {
+        p++;
+      }
+      int valueEnd = p++;
+      if (nameEnd - nameStart == name.length() && startsWith(nameStart, name)) {
+        return new int[]{valueStart, valueEnd};
+      }
+    }
+    return null;
+  }
+
+  private static void copy(int[] from, int[] to) {
+    if (from == null) {
+      to[0] = to[1] = -1;
+    } else {
+      to[0] = from[0];
+      to[1] = from[1];
+    }
+  }
+
+  /**
+   * @return true if an attribute value equals the given ASCII string.
+   */
+  private boolean valueEquals(int[] range, String value) {
+    if (!isPlain(range)) {
+      return value.equals(decode(range, true));
+    }
+    return range[1] - range[0] == value.length() && startsWith(range[0], value);
+  }
+
+  /**
+   * @return true if a range contains only ASCII characters with no markup nor references.
+   */
+  private boolean isPlain(int[] range) {
+    for (int i = range[0]; i < range[1]; i++) {
+      byte b = buffer.get(i);
+      if (b < ' ' || b == '&' || b == '<') { // Negative bytes are non-ASCII
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Decodes a range of UTF-8 bytes, replacing character and entity
+   * references, and normalizing line ends as an XML parser does.
+   * @param range The range to decode.
+   * @param attribute true if the range is an attribute value, whose
+   *   whitespace is normalized to spaces.
+   * @return The decoded String.
+   */
+  private String decode(int[] range, boolean attribute) {
+    StringBuilder sb = new StringBuilder(range[1] - range[0]);
+    int p = range[0];
+    int end = range[1];
+    while (p < end) {
+      int b = buffer.get(p) & 0xFF;
+      if (b == '<') {
+        if (startsWith(p + 1, "![CDATA[")) { // NOI18N
+          int cdataEnd = indexOf("]]>", p + 9, end); // NOI18N
+          cdataEnd = cdataEnd == -1 ? end : cdataEnd;
+          decodeUTF8(sb, p + 9, cdataEnd, attribute);
+          p = Math.min(end, cdataEnd + 3);
+        } else if (startsWith(p + 1, "!--")) { // NOI18N
+          int commentEnd = indexOf("-->", p + 4, end); // NOI18N
+          p = commentEnd == -1 ? end : commentEnd + 3;
+        } else if (startsWith(p + 1, "?")) { // NOI18N
+          int piEnd = indexOf("?>", p + 2, end); // NOI18N
+          p = piEnd == -1 ? end : piEnd + 2;
+        } else {
+          sb.append('<');
+          p++;
+        }
+      } else if (b == '&') {
+        int semicolon = indexOf(";", p + 1, Math.min(end, p + 12)); // NOI18N
+        if (semicolon == -1 || !appendReference(sb, p + 1, semicolon)) {
+          sb.append('&');
+          p++;
+        } else {
+          p = semicolon + 1;
+        }
+      } else {
+        int next = p + 1;
+        while (next < end && buffer.get(next) != '<' && buffer.get(next) != '&') {
+          next++;
+        }
+        decodeUTF8(sb, p, next, attribute);
+        p = next;
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Appends a character or entity reference.
+   * @return false if the reference is not known.
+   */
+  private boolean appendReference(StringBuilder sb, int start, int end) {
+    if (start < end && buffer.get(start) == '#') {
+      int radix = 10;
+      int p = start + 1;
+      if (p < end && (buffer.get(p) == 'x' || buffer.get(p) == 'X')) {
+        radix = 16;
+        p++;
+      }
+      if (p == end) {
+        return false;
+      }
+      int codePoint = 0;
+      for (; p < end; p++) {
+        int digit = Character.digit((char) buffer.get(p), radix);
+        if (digit < 0 || codePoint > 0x10FFFF) {
+          return false;
+        }
+        codePoint = codePoint * radix + digit;
+      }
+      if (codePoint > 0x10FFFF) {
+        return false;
+      }
+      sb.appendCodePoint(codePoint);
+      return true;
+    }
+    if (isName(start, end, "amp")) { // NOI18N
+      sb.append('&');
+    } else if (isName(start, end, "lt")) { // NOI18N
+      sb.append('<');
+    } else if (isName(start, end, "gt")) { // NOI18N
+      sb.append('>');
+    } else if (isName(start, end, "quot")) { // NOI18N
+      sb.append('"');
+    } else if (isName(start, end, "apos")) { // NOI18N
+      sb.append('\'');
+    } else {
+      return false;
+    }
+    return true;
+  }
+
+  private boolean isName(int start, int end, String name) {
+    return end - start == name.length() && startsWith(start, name);
+  }
+
+  /**
+   * Decodes UTF-8 bytes with no markup, normalizing line ends.
+   */
+  private void decodeUTF8(StringBuilder sb, int start, int end, boolean attribute) {
+    int p = start;
+    while (p < end) {
+      int b = buffer.get(p++) & 0xFF;
+      if (b < 0x80) {
+        if (b == '\r') {
+          // \r\n and \r are normalized to \n
+          if (p < end && buffer.get(p) == '\n') {
+            p++;
+          }
+          b = '\n';
+        }
+        if (attribute && (b == '\n' || b == '\t')) {
+          b = ' ';
+        }
+        sb.append((char) b);
+        continue;
+      }
+      int extra;
+      int codePoint;
+      if (b >= 0xF0) {
+        extra = 3;
+        codePoint = b & 0x07;
+      } else if (b >= 0xE0) {
+        extra = 2;
+        codePoint = b & 0x0F;
+      } else if (b >= 0xC0) {
+        extra = 1;
+        codePoint = b & 0x1F;
+      } else {
+        sb.append('\uFFFD');
+        continue;
+      }
+      if (p + extra > end) {
+        sb.append('\uFFFD');
+        return;
+      }
+      for (int i = 0; i < extra; i++) {
+        codePoint = (codePoint << 6) | (buffer.get(p++) & 0x3F);
+      }
+      sb.appendCodePoint(codePoint <= 0x10FFFF ? codePoint : 0xFFFD);
+    }
+  }
+
+  private int skipDeclaration(int start) {
+    // Declarations may have an internal subset between brackets
+    int brackets = 0;
+    for (int p = start; p < limit; p++) {
+      byte b = buffer.get(p);
+      if (b == '[') {
+        brackets++;
+      } else if (b == ']') {
+        brackets--;
+      } else if (b == '>' && brackets <= 0) {
+        return p + 1;
+      }
+    }
+    return limit;
+  }
+
+  private int skipPast(int start, String marker) {
+    int found = indexOf(marker, start, limit);
+    return found == -1 ? limit : found + marker.length();
+  }
+
+  private int indexOf(char c, int start) {
+    for (int p = start; p < limit; p++) {
+      if (buffer.get(p) == c) {
+        return p;
+      }
+    }
+    return -1;
+  }
+
+  private int indexOf(String marker, int start, int end) {
+    char first = marker.charAt(0);
+    for (int p = start; p <= end - marker.length(); p++) {
+      if (buffer.get(p) == first && startsWith(p, marker)) {
+        return p;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return true if the bytes at a position are the given ASCII string.
+   */
+  private boolean startsWith(int start, String ascii) {
+    if (start + ascii.length() > limit) {
+      return false;
+    }
+    for (int i = 0; i < ascii.length(); i++) {
+      if (buffer.get(start + i) != ascii.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+  }
+
+  /**
+   * EntryText keeps the raw UTF-8 bytes of the text fields of an entry
+   * and decodes them on demand, as this scanner would have done. The raw
+   * url and content may be kept elsewhere, and decoded later on with
+   * {@link #ENCODING}.
+   */
+  private static final class EntryText implements Tweet.RawText {
+
+    private static final Tweet.Encoding ENCODING = new Tweet.Encoding() {
+
+      public String decode(int field, byte[] bytes, int start, int end) {
+        AtomByteScanner scanner = new AtomByteScanner(ByteBuffer.wrap(bytes));
+        return scanner.decode(new int[]{start, end}, field == URL);
+      }
+    };
+
+    private final byte[] bytes;
+    /** Ranges [start, end) of url, content, author name, author URI and author image, -1 if absent */
+    private final int[] ranges;
+
+    EntryText(byte[] bytes, int[] ranges) {
+      this.bytes = bytes;
+      this.ranges = ranges;
+    }
+
+    public String getUrlSpec() {
+      return decode(0, true);
+    }
+
+    public String getContent() {
+      return decode(1, false);
+    }
+
+    public String getAuthorName() {
+      return decode(2, false);
+    }
+
+    public String getAuthorURI() {
+      return decode(3, false);
+    }
+
+    public String getAuthorImage() {
+      return decode(4, true);
+    }
+
+    public int getLength(int field) {
+      int start = ranges[2 * field];
+      return start == -1 ? -1 : ranges[2 * field + 1] - start;
+    }
+
+    public void copy(int field, byte[] target, int offset) {
+      int start = ranges[2 * field];
+      System.arraycopy(bytes, start, target, offset, ranges[2 * field + 1] - start);
+    }
+
+    public Tweet.Encoding getEncoding() {
+      return ENCODING;
+    }
+
+    private String decode(int field, boolean attribute) {
+      int start = ranges[2 * field];
+      if (start == -1) {
+        return null;
+      }
+      AtomByteScanner scanner = new AtomByteScanner(ByteBuffer.wrap(bytes));
+      return scanner.decode(new int[]{start, ranges[2 * field + 1]}, attribute);
+    }
+  }
+
+  /**
+   * AsciiSequence is a view of a range of ASCII bytes as a CharSequence,
+   * so that values such as timestamps are decoded without building Strings.
+   */
+  private final class AsciiSequence implements CharSequence {
+
+    private final int start;
+    private final int end;
+
+    AsciiSequence(int start, int end) {
+      this.start = start;
+      this.end = end;
+    }
+
+    public int length() {
+      return end - start;
+    }
+
+    public char charAt(int index) {
+      return (char) buffer.get(start + index);
+    }
+
+    public CharSequence subSequence(int from, int to) {
+      return new AsciiSequence(start + from, start + to);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder(length());
+      return sb.append(this).toString();
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,61 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+/**
+ * AtomField enumerates the parts of an Atom entry that can be decoded
+ * into a Tweet. A set of AtomFields is used as a projection, so that
+ * parsers skip the parts nobody is interested in.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public enum AtomField {
+  /** The tweet id, from the entry id */
+  ID,
+  /** The tweet timestamp, from the published element */
+  TIMESTAMP,
+  /** The tweet URL, from the alternate link */
+  URL,
+  /** The tweet text, from the title element */
+  CONTENT,
+  /** The author name and URL, from the author element, and image, from the image link */
+  AUTHOR
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,403 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import net.antonioshome.nbtweeting.entities.AuthorRegistry;
+import net.antonioshome.nbtweeting.entities.Tweet;
+
+/**
+ * AtomParseEngine parses Atom feeds from the Twitter Search API into
+ * SearchPages. The StAX factory is created and configured once, timestamps
+ * are decoded without SimpleDateFormat and URLs are kept as strings until
+ * somebody asks for them. An engine may be restricted to a projection of
+ * AtomFields, the rest of the entry is skipped without being decoded.
+ * AtomParseEngines are immutable and thread safe.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class AtomParseEngine {
+
+  private static final Logger LOGGER = Logger.getLogger(AtomParseEngine.class.getName());
+  private static final XMLInputFactory FACTORY = createFactory();
+  private static final AtomParseEngine DEFAULT = new AtomParseEngine(EnumSet.allOf(AtomField.class));
+
+  private final Set<AtomField> projection;
+
+  /**
+   * @return an engine that decodes all AtomFields.
+   */
+  public static AtomParseEngine getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Creates an engine that decodes only some fields.
+   * @param projection The fields to decode.
+   */
+  public AtomParseEngine(Set<AtomField> projection) {
+    EnumSet<AtomField> fields = EnumSet.noneOf(AtomField.class);
+    fields.addAll(projection);
+    this.projection = Collections.unmodifiableSet(fields);
+  }
+
+  /**
+   * @return the fields decoded by this engine.
+   */
+  public Set<AtomField> getProjection() {
+    return projection;
+  }
+
+  /**
+   * @return true if this engine decodes all AtomFields.
+   */
+  public boolean isComplete() {
+    return projection.size() == AtomField.values().length;
+  }
+
+  private static XMLInputFactory createFactory() {
+    // We use Stax for parsing the XML output, only some parts of the atom feed required.
+    XMLInputFactory factory = XMLInputFactory.newInstance();
+    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+    factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
+    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+    factory.setXMLResolver(new XMLResolver()   {
+
+      public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) throws XMLStreamException {
+        LOGGER.log(Level.FINE, "Resolving entity: {0}:{1}:{2}:{3}", new Object[]{publicID, systemID, baseURI, namespace});
+        return null;
+      }
+    });
+    return factory;
+  }
+
+  /**
+   * Parses the XML output from Twitter (Atom format) and returns a page
+   * with the tweets and the feed-level links.
+   * @param input An InputSream with Atom format from Twitter Search API.
+   * @return A SearchPage.
+   * @throws XMLStreamException If an I/O error happens.
+   */
+  public SearchPage parse(InputStream input) throws XMLStreamException {
+    return parse(input, null);
+  }
+
+  /**
+   * Parses the XML output from Twitter (Atom format) and returns a page
+   * with the tweets and the feed-level links. Each tweet is also given to
+   * a TweetSink as soon as its entry is parsed.
+   * @param input An InputSream with Atom format from Twitter Search API.
+   * @param sink Where tweets go as they are parsed, may be null.
+   * @return A SearchPage.
+   * @throws XMLStreamException If an I/O error happens.
+   */
+  public SearchPage parse(InputStream input, TweetSink sink) throws XMLStreamException {
+
+    if (input == null) {
+      throw new NullPointerException("Input cannot be null");
+    }
+
+    XMLStreamReader reader;
+    // Factories are not guaranteed to be thread safe, readers are used by one thread only
+    synchronized (FACTORY) {
+      reader = FACTORY.createXMLStreamReader(input);
+    }
+
+    try {
+      SearchPage page = new SearchPage();
+      while (reader.hasNext()) {
+        if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+          continue;
+        }
+        String name = reader.getLocalName();
+        if ("entry".equals(name)) {
+          Tweet tweet = parseTweet(reader);
+          page.getTweets().add(tweet);
+          if (sink != null) {
+            sink.add(tweet);
+          }
+        } else if ("link".equals(name)) {
+          // Feed-level links tell how to refresh and paginate this search
+          String rel = reader.getAttributeValue(null, "rel");
+          if ("refresh".equals(rel)) {
+            page.setRefreshURL(reader.getAttributeValue(null, "href"));
+          } else if ("next".equals(rel)) {
+            page.setNextURL(reader.getAttributeValue(null, "href"));
+          }
+        }
+      }
+      return page;
+    } finally {
+      reader.close();
+    }
+  }
+
+  /**
+   * Parses an 'entry' XML element and returns a Tweet. The children of
+   * the entry may come in any order, and those not in the projection
+   * are skipped.
+   * @param reader The XMLStreamReader located on a entry element
+   * @return The Tweet. The reader is left on the end of the entry.
+   * @throws XMLStreamException
+   */
+  private Tweet parseTweet(XMLStreamReader reader) throws XMLStreamException {
+
+//    <entry>
+//    <id>tag:search.twitter.com,2005:43911377227755521</id>
+//    <published>2011-03-05T05:51:02Z</published>
+//    <link type="text/html" href="http://twitter.com/nrcpts/statuses/43911377227755521" rel="alternate"/>
+//    <title>RT @netbeans: Go show some love on the #NetBeans #PHP blog if you're one of the 25% of NetBeans 6.9 users using a PHP project: http://bit.ly/fG74xF :)</title>
+//    <content type="html">RT &lt;a href=&quot;http://twitter.com/netbeans&quot;&gt;@netbeans&lt;/a&gt;: Go show some love on the &lt;a href=&quot;http://search.twitter.com/search?q=%23NetBeans&quot; onclick=&quot;pageTracker._setCustomVar(2, 'result_type', 'recent', 3);pageTracker._trackPageview('/intra/hashtag/#NetBeans');&quot;&gt;&lt;b&gt;#NetBeans&lt;/b&gt;&lt;/a&gt; &lt;a href=&quot;http://search.twitter.com/search?q=%23PHP&quot; onclick=&quot;pageTracker._setCustomVar(2, 'result_type', 'recent', 3);pageTracker._trackPageview('/intra/hashtag/#PHP');&quot;&gt;#PHP&lt;/a&gt; blog if you&amp;apos;re one of the 25% of NetBeans 6.9 users using a PHP project: &lt;a href=&quot;http://bit.ly/fG74xF&quot;&gt;http://bit.ly/fG74xF&lt;/a&gt; :)</content>
+//    <updated>2011-03-05T05:51:02Z</updated>
+//    <link type="image/png" href="http://a3.twimg.com/profile_images/1151565712/198436690_normal.jpg" rel="image"/>
+//    <twitter:geo>
+//    </twitter:geo>
+//    <twitter:metadata>
+//      <twitter:result_type>recent</twitter:result_type>
+//    </twitter:metadata>
+//    <twitter:source>&lt;a href=&quot;http://www.tweetdeck.com&quot; rel=&quot;nofollow&quot;&gt;TweetDeck&lt;/a&gt;</twitter:source>
+//    <twitter:lang>en</twitter:lang>
+//    <author>
+//      <name>nrcpts (Andri Burman)</name>
+//      <uri>http://twitter.com/nrcpts</uri>
+//    </author>
+//  </entry>
+
+    Tweet tweet = new Tweet();
+    String image = null;
+
+    for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      String name = reader.getLocalName();
+      if ("id".equals(name) && projection.contains(AtomField.ID)) {
+        tweet.setId(parseId(reader.getElementText()));
+      } else if ("published".equals(name) && projection.contains(AtomField.TIMESTAMP)) {
+        tweet.setTimestamp(parseTimestamp(reader.getElementText()));
+      } else if ("link".equals(name) && projection.contains(AtomField.URL)
+        && isAlternate(reader.getAttributeValue(null, "rel"))) {
+        tweet.setUrlSpec(reader.getAttributeValue(null, "href"));
+        skipElement(reader);
+      } else if ("link".equals(name) && projection.contains(AtomField.AUTHOR)
+        && "image".equals(reader.getAttributeValue(null, "rel"))) {
+        image = reader.getAttributeValue(null, "href");
+        skipElement(reader);
+      } else if ("title".equals(name) && projection.contains(AtomField.CONTENT)) {
+        tweet.setContent(reader.getElementText());
+      } else if ("author".equals(name) && projection.contains(AtomField.AUTHOR)) {
+        parseAuthor(reader, tweet, image);
+      } else {
+        skipElement(reader);
+      }
+    }
+    // The image link usually comes before the author
+    if (image != null && tweet.getAuthor() != null && !tweet.getAuthor().hasImage()) {
+      tweet.getAuthor().setImageURLSpec(image);
+    }
+    return tweet;
+  }
+
+  /**
+   * Parses an 'author' XML element. Authors are shared through the AuthorRegistry.
+   * @param reader The XMLStreamReader located on an author element.
+   * @param tweet The tweet whose author is to be filled in.
+   * @param image The URL of the image of the author, or null if not seen yet.
+   * @throws XMLStreamException
+   */
+  private static void parseAuthor(XMLStreamReader reader, Tweet tweet, String image) throws XMLStreamException {
+    String authorName = null;
+    String authorURI = null;
+    for (int event = reader.next(); event != XMLStreamConstants.END_ELEMENT; event = reader.next()) {
+      if (event != XMLStreamConstants.START_ELEMENT) {
+        continue;
+      }
+      String name = reader.getLocalName();
+      if ("name".equals(name)) {
+        authorName = reader.getElementText();
+      } else if ("uri".equals(name)) {
+        authorURI = reader.getElementText();
+      } else {
+        skipElement(reader);
+      }
+    }
+    tweet.setAuthor(AuthorRegistry.getDefault().intern(authorURI, authorName, image));
+  }
+
+  /**
+   * Moves the reader to the end of the current element, skipping its contents.
+   * @param reader The XMLStreamReader located on a start element.
+   * @throws XMLStreamException
+   */
+  private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+    int depth = 1;
+    while (depth > 0) {
+      int event = reader.next();
+      if (event == XMLStreamConstants.START_ELEMENT) {
+        depth++;
+      } else if (event == XMLStreamConstants.END_ELEMENT) {
+        depth--;
+      }
+    }
+  }
+
+  private static boolean isAlternate(String rel) {
+    return rel == null || "alternate".equals(rel);
+  }
+
+  /**
+   * Parses the numeric id of a tweet from an Atom id.
+   * @param txt The Atom id, such as "tag:search.twitter.com,2005:43911377227755521"
+   * @return The tweet id, or 0 if it cannot be parsed.
+   */
+  static long parseId(String txt) {
+    try {
+      return Long.parseLong(txt.substring(txt.lastIndexOf(':') + 1).trim());
+    } catch (NumberFormatException ex) {
+      LOGGER.log(Level.SEVERE, "Wrong id: " + txt, ex);
+      return 0;
+    }
+  }
+
+  /**
+   * Decodes an ISO-8601 timestamp with the fixed layout used by Atom,
+   * "yyyy-MM-ddTHH:mm:ss", optionally followed by fractional seconds,
+   * and followed by either "Z" or a "+HH:MM"/"-HH:MM" offset.
+   * @param txt The timestamp.
+   * @return The number of milliseconds since the epoch, or -1 if the
+   *   timestamp is not valid.
+   */
+  static long parseTimestamp(CharSequence txt) {
+    int length = txt.length();
+    if (length < 20
+      || txt.charAt(4) != '-' || txt.charAt(7) != '-'
+      || (txt.charAt(10) != 'T' && txt.charAt(10) != 't')
+      || txt.charAt(13) != ':' || txt.charAt(16) != ':') {
+      return invalidTimestamp(txt);
+    }
+    int year = digits(txt, 0, 4);
+    int month = digits(txt, 5, 2);
+    int day = digits(txt, 8, 2);
+    int hour = digits(txt, 11, 2);
+    int minute = digits(txt, 14, 2);
+    int second = digits(txt, 17, 2);
+    if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31
+      || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 60) {
+      return invalidTimestamp(txt);
+    }
+
+    int position = 19;
+    int millis = 0;
+    if (txt.charAt(position) == '.') {
+      position++;
+      int scale = 100;
+      while (position < length && Character.isDigit(txt.charAt(position))) {
+        millis += (txt.charAt(position) - '0') * scale;
+        scale /= 10;
+        position++;
+      }
+    }
+
+    int offsetMinutes;
+    if (position == length - 1 && (txt.charAt(position) == 'Z' || txt.charAt(position) == 'z')) {
+      offsetMinutes = 0;
+    } else if (position == length - 6 && txt.charAt(position + 3) == ':'
+      && (txt.charAt(position) == '+' || txt.charAt(position) == '-')) {
+      int offsetHours = digits(txt, position + 1, 2);
+      int offsetMins = digits(txt, position + 4, 2);
+      if (offsetHours < 0 || offsetMins < 0) {
+        return invalidTimestamp(txt);
+      }
+      offsetMinutes = (offsetHours * 60 + offsetMins) * (txt.charAt(position) == '-' ? -1 : 1);
+    } else {
+      return invalidTimestamp(txt);
+    }
+
+    long seconds = ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute - offsetMinutes) * 60 + second;
+    return seconds * 1000 + millis;
+  }
+
+  private static long invalidTimestamp(CharSequence txt) {
+    LOGGER.log(Level.SEVERE, "Wrong timestamp: {0}", txt);
+    return -1;
+  }
+
+  /**
+   * Decodes a fixed number of decimal digits.
+   * @return The value, or -1 if there are non-digit characters.
+   */
+  private static int digits(CharSequence txt, int start, int count) {
+    int value = 0;
+    for (int i = start; i < start + count; i++) {
+      char c = txt.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * Number of days since 1970-01-01 of a date in the proleptic gregorian calendar.
+   */
+  private static long daysFromCivil(int year, int month, int day) {
+    int y = month <= 2 ? year - 1 : year;
+    int era = (y >= 0 ? y : y - 399) / 400;
+    int yearOfEra = y - era * 400;
+    int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+    return era * 146097L + dayOfEra - 719468;
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
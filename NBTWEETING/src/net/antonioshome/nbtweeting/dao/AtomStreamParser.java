@@ -0,0 +1,290 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.nio.ByteBuffer;
+import java.util.Set;
+import net.antonioshome.nbtweeting.entities.Tweet;
+
+/**
+ * AtomStreamParser is a push parser for Atom feeds that arrive in pieces,
+ * such as the body of a response read from a non-blocking channel. Bytes
+ * are fed as they arrive, and each entry is parsed (with an AtomByteScanner)
+ * as soon as its end tag has been received. Only the bytes of the entry
+ * being received are kept in memory.
+ * AtomStreamParsers are not thread safe.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+final class AtomStreamParser {
+
+  private final Set<AtomField> projection;
+  private final TweetSink sink;
+  private final SearchPage page = new SearchPage();
+  private byte[] buffer = new byte[16 * 1024];
+  /** Number of bytes in the buffer */
+  private int count;
+  /** The first byte not yet tokenized */
+  private int position;
+  /** Element depth at position: 1 inside the feed, 2 inside an entry */
+  private int depth;
+  /** Where the entry being received starts, -1 if none */
+  private int entryStart = -1;
+
+  /**
+   * Creates a parser.
+   * @param projection The fields to decode.
+   */
+  AtomStreamParser(Set<AtomField> projection) {
+    this(projection, null);
+  }
+
+  /**
+   * Creates a parser that gives each tweet to a TweetSink as soon as it's parsed.
+   * @param projection The fields to decode.
+   * @param sink Where tweets go as they are parsed, may be null.
+   */
+  AtomStreamParser(Set<AtomField> projection, TweetSink sink) {
+    this.projection = projection;
+    this.sink = sink;
+  }
+
+  /**
+   * Feeds more bytes of the feed, parsing the entries completed with them.
+   * @param bytes The bytes, in UTF-8.
+   * @param offset The offset of the first byte.
+   * @param length The number of bytes.
+   */
+  void feed(byte[] bytes, int offset, int length) {
+    compact();
+    if (count + length > buffer.length) {
+      byte[] bigger = new byte[Math.max(buffer.length * 2, count + length)];
+      System.arraycopy(buffer, 0, bigger, 0, count);
+      buffer = bigger;
+    }
+    System.arraycopy(bytes, offset, buffer, count, length);
+    count += length;
+    tokenize();
+  }
+
+  /**
+   * @return the page with the entries parsed so far.
+   */
+  SearchPage getPage() {
+    return page;
+  }
+
+  /**
+   * Tokenizes the complete tags in the buffer, stopping at the first
+   * incomplete one, that will be completed by the next bytes fed.
+   */
+  private void tokenize() {
+    while (true) {
+      int lt = indexOf((byte) '<', position);
+      if (lt == -1) {
+        position = count;
+        return;
+      }
+      int end;
+      if (startsWith(lt + 1, "!--")) { // NOI18N
+        end = indexOf("-->", lt + 4); // NOI18N
+      } else if (startsWith(lt + 1, "![CDATA[")) { // NOI18N
+        end = indexOf("]]>", lt + 9); // NOI18N
+      } else if (startsWith(lt + 1, "?")) { // NOI18N
+        end = indexOf("?>", lt + 2); // NOI18N
+      } else if (lt + 2 > count || (buffer[lt + 1] == '!' && lt + 9 > count)) {
+        // Not enough bytes to know what this is
+        end = -1;
+      } else if (buffer[lt + 1] == '!') {
+        end = endOfDeclaration(lt + 2);
+      } else {
+        end = endOfTag(lt + 1);
+      }
+      if (end == -1) {
+        position = lt;
+        return;
+      }
+      position = end;
+      if (buffer[lt + 1] == '/') {
+        depth--;
+        if (depth == 1 && entryStart != -1) {
+          entry(entryStart, end);
+          entryStart = -1;
+        }
+      } else if (buffer[lt + 1] != '!' && buffer[lt + 1] != '?') {
+        boolean empty = buffer[end - 2] == '/';
+        if (depth == 1 && isName(lt + 1, "entry")) { // NOI18N
+          if (empty) {
+            entry(lt, end);
+          } else {
+            entryStart = lt;
+          }
+        } else if (depth == 1 && isName(lt + 1, "link")) { // NOI18N
+          // Feed-level links tell how to refresh and paginate this search
+          AtomByteScanner scanner = new AtomByteScanner(ByteBuffer.wrap(buffer, lt, end - lt));
+          scanner.nextEntry();
+          if (scanner.getRefreshURL() != null) {
+            page.setRefreshURL(scanner.getRefreshURL());
+          }
+          if (scanner.getNextURL() != null) {
+            page.setNextURL(scanner.getNextURL());
+          }
+        }
+        if (!empty) {
+          depth++;
+        }
+      }
+    }
+  }
+
+  private void entry(int start, int end) {
+    AtomByteScanner scanner = new AtomByteScanner(ByteBuffer.wrap(buffer, start, end - start));
+    if (scanner.nextEntry()) {
+      Tweet tweet = scanner.getTweet(projection);
+      page.getTweets().add(tweet);
+      if (sink != null) {
+        sink.add(tweet);
+      }
+    }
+  }
+
+  /**
+   * Discards the bytes no longer needed.
+   */
+  private void compact() {
+    int keep = entryStart != -1 ? entryStart : position;
+    if (keep > 0) {
+      System.arraycopy(buffer, keep, buffer, 0, count - keep);
+      count -= keep;
+      position -= keep;
+      if (entryStart != -1) {
+        entryStart -= keep;
+      }
+    }
+  }
+
+  /**
+   * @return the position after the end of a start, end or empty tag, -1 if incomplete.
+   */
+  private int endOfTag(int start) {
+    // Attribute values may contain '>'
+    int quote = 0;
+    for (int p = start; p < count; p++) {
+      byte b = buffer[p];
+      if (quote != 0) {
+        if (b == quote) {
+          quote = 0;
+        }
+      } else if (b == '"' || b == '\'') {
+        quote = b;
+      } else if (b == '>') {
+        return p + 1;
+      }
+    }
+    return -1;
+  }
+
+  private int endOfDeclaration(int start) {
+    // Declarations may have an internal subset between brackets
+    int brackets = 0;
+    for (int p = start; p < count; p++) {
+      byte b = buffer[p];
+      if (b == '[') {
+        brackets++;
+      } else if (b == ']') {
+        brackets--;
+      } else if (b == '>' && brackets <= 0) {
+        return p + 1;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return true if the (possibly prefixed) name at a position has a local name.
+   */
+  private boolean isName(int start, String localName) {
+    int p = start;
+    int localStart = start;
+    for (; p < count; p++) {
+      byte b = buffer[p];
+      if (b == ':') {
+        localStart = p + 1;
+      } else if (b == '>' || b == '/' || b == ' ' || b == '\t' || b == '\n' || b == '\r') {
+        break;
+      }
+    }
+    return p - localStart == localName.length() && startsWith(localStart, localName);
+  }
+
+  private int indexOf(byte b, int start) {
+    for (int p = start; p < count; p++) {
+      if (buffer[p] == b) {
+        return p;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @return the position after a marker, -1 if not found.
+   */
+  private int indexOf(String marker, int start) {
+    for (int p = start; p <= count - marker.length(); p++) {
+      if (startsWith(p, marker)) {
+        return p + marker.length();
+      }
+    }
+    return -1;
+  }
+
+  private boolean startsWith(int start, String ascii) {
+    if (start + ascii.length() > count) {
+      return false;
+    }
+    for (int i = 0; i < ascii.length(); i++) {
+      if (buffer[start + i] != ascii.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,320 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import org.openide.util.RequestProcessor;
+
+/**
+ * AvatarLoader loads the images of the authors of tweets in the
+ * background. Each image is downscaled once to icon size and kept in a
+ * least recently used memory cache, backed by a directory with the
+ * downscaled images, so that each avatar is downloaded once. Requests
+ * for an image that is being loaded wait for the same load.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class AvatarLoader {
+
+  private static final Logger LOGGER = Logger.getLogger(AvatarLoader.class.getName());
+  private static final String EXTENSION = ".png"; // NOI18N
+  private static final String TEMP_EXTENSION = ".tmp"; // NOI18N
+  /** Loads at most this many images at once */
+  private static final int MAX_CONCURRENT_LOADS = 4;
+  private static final RequestProcessor LOADER =
+    new RequestProcessor(AvatarLoader.class.getName(), MAX_CONCURRENT_LOADS, true);
+  /** Images that could not be loaded are tried again after this time (milliseconds) */
+  private static final long RETRY_DELAY = 5 * 60 * 1000L;
+
+  private static AvatarLoader defaultLoader;
+
+  private final File directory;
+  private final int size;
+  /** The images, least recently used first */
+  private final Map<String, Image> images;
+  /** When each image that could not be loaded failed, least recently used first */
+  private final Map<String, Long> failures;
+  private volatile long retryDelay = RETRY_DELAY;
+  /** The listeners waiting for each image being loaded */
+  private final Map<String, List<ChangeListener>> pending = new HashMap<String, List<ChangeListener>>();
+
+  /**
+   * @return the loader of 16x16 avatars in the user's home directory.
+   */
+  public static synchronized AvatarLoader getDefault() {
+    if (defaultLoader == null) {
+      defaultLoader = new AvatarLoader(new File(new File(System.getProperty("user.home"), ".nbtweeting"), "avatars"), 16, 512); // NOI18N
+    }
+    return defaultLoader;
+  }
+
+  /**
+   * Creates a loader.
+   * @param directory The directory where downscaled images are stored.
+   * @param size The width and height of the images, in pixels.
+   * @param capacity The number of images kept in memory.
+   */
+  public AvatarLoader(File directory, int size, final int capacity) {
+    this.directory = directory;
+    this.size = size;
+    this.images = new LinkedHashMap<String, Image>(capacity, 0.75f, true) {
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+        return size() > capacity;
+      }
+    };
+    this.failures = new LinkedHashMap<String, Long>(capacity, 0.75f, true) {
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Sets the time after which images that could not be loaded are tried
+   * again.
+   * @param retryDelay The time, in milliseconds.
+   */
+  void setRetryDelay(long retryDelay) {
+    this.retryDelay = retryDelay;
+  }
+
+  /**
+   * @return the width and height of the images, in pixels.
+   */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Returns an image if already loaded, or starts loading it in the
+   * background otherwise. This method never blocks on I/O.
+   * @param url The URL of the image.
+   * @param listener Notified in the event dispatch thread when the image
+   *   is loaded, if not loaded yet. The ChangeEvent source is the URL.
+   * @return The downscaled image, or null if not loaded (yet), or if it
+   *   could not be loaded a short while ago.
+   */
+  public Image getAvatar(URL url, ChangeListener listener) {
+    String key = url.toString();
+    synchronized (this) {
+      Image image = images.get(key);
+      if (image != null) {
+        return image;
+      }
+      Long failed = failures.get(key);
+      if (failed != null) {
+        if (System.currentTimeMillis() - failed.longValue() < retryDelay) {
+          return null;
+        }
+        failures.remove(key);
+      }
+      List<ChangeListener> listeners = pending.get(key);
+      if (listeners != null) {
+        if (listener != null && !listeners.contains(listener)) {
+          listeners.add(listener);
+        }
+        return null;
+      }
+      listeners = new ArrayList<ChangeListener>(1);
+      if (listener != null) {
+        listeners.add(listener);
+      }
+      pending.put(key, listeners);
+    }
+    LOADER.post(new Load(url));
+    return null;
+  }
+
+  /**
+   * Forgets the images in memory and in the directory.
+   */
+  public synchronized void clear() {
+    images.clear();
+    failures.clear();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+  }
+
+  /**
+   * Reads a downscaled image from the directory, or downloads, downscales
+   * and stores it there.
+   * @param url The URL of the image.
+   * @return The downscaled image.
+   * @throws IOException If the image can't be read.
+   */
+  private Image load(URL url) throws IOException {
+    File file = new File(directory, FeedCache.fileName(url.toString()) + EXTENSION);
+    if (file.isFile()) {
+      BufferedImage image = ImageIO.read(file);
+      if (image != null) {
+        return image;
+      }
+    }
+    BufferedImage original;
+    HttpTransport.Response response = HttpTransport.getDefault().get(url, null, null);
+    try {
+      InputStream body = response.getBody();
+      original = ImageIO.read(body);
+    } finally {
+      response.close();
+    }
+    if (original == null) {
+      throw new IOException("Unknown image format " + url); // NOI18N
+    }
+    BufferedImage image = downscale(original, size);
+    directory.mkdirs();
+    File temp = new File(directory, file.getName() + TEMP_EXTENSION);
+    if (ImageIO.write(image, "png", temp)) { // NOI18N
+      file.delete();
+      if (!temp.renameTo(file)) {
+        temp.delete();
+      }
+    }
+    return image;
+  }
+
+  /**
+   * Scales an image to fit in a square, halving it while it's more than
+   * twice as big, so that bilinear scaling doesn't skip pixels.
+   * @param image The image.
+   * @param size The width and height of the square.
+   * @return The image scaled and centered in the square.
+   */
+  static BufferedImage downscale(BufferedImage image, int size) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    int max = Math.max(width, height);
+    int targetWidth = Math.max(1, width * size / max);
+    int targetHeight = Math.max(1, height * size / max);
+    Image current = image;
+    while (width / 2 >= targetWidth && height / 2 >= targetHeight) {
+      width /= 2;
+      height /= 2;
+      current = scale(current, width, height, width, height, 0, 0);
+    }
+    return scale(current, targetWidth, targetHeight, size, size, (size - targetWidth) / 2, (size - targetHeight) / 2);
+  }
+
+  private static BufferedImage scale(Image image, int width, int height, int canvasWidth, int canvasHeight, int x, int y) {
+    BufferedImage scaled = new BufferedImage(canvasWidth, canvasHeight, BufferedImage.TYPE_INT_ARGB);
+    Graphics2D g = scaled.createGraphics();
+    try {
+      g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.drawImage(image, x, y, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    return scaled;
+  }
+
+  /**
+   * Load loads an image and notifies the listeners waiting for it.
+   */
+  private final class Load implements Runnable {
+
+    private final URL url;
+
+    Load(URL url) {
+      this.url = url;
+    }
+
+    public void run() {
+      String key = url.toString();
+      Image image = null;
+      try {
+        image = load(url);
+      } catch (IOException ex) {
+        LOGGER.log(Level.FINE, "Cannot load avatar " + key, ex); // NOI18N
+      } catch (RuntimeException ex) {
+        // Broken images may make ImageIO fail in unexpected ways
+        LOGGER.log(Level.FINE, "Cannot load avatar " + key, ex); // NOI18N
+      }
+      final List<ChangeListener> listeners;
+      synchronized (AvatarLoader.this) {
+        if (image == null) {
+          // Tried again once the retry delay is over
+          failures.put(key, Long.valueOf(System.currentTimeMillis()));
+        } else {
+          images.put(key, image);
+        }
+        listeners = pending.remove(key);
+      }
+      if (image == null || listeners == null || listeners.isEmpty()) {
+        return;
+      }
+      SwingUtilities.invokeLater(new Runnable() {
+
+        public void run() {
+          ChangeEvent event = new ChangeEvent(url);
+          for (ChangeListener listener : listeners) {
+            listener.stateChanged(event);
+          }
+        }
+      });
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,109 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import net.antonioshome.nbtweeting.entities.Query;
+
+/**
+ * BatchSearchResult is the result of searching several queries at once.
+ * Each query has either a page of results or the reason why it failed
+ * (a java.util.concurrent.TimeoutException if it didn't finish in time).
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class BatchSearchResult {
+
+  private final Map<Query, SearchPage> pages;
+  private final Map<Query, Exception> failures;
+
+  BatchSearchResult() {
+    this.pages = new LinkedHashMap<Query, SearchPage>();
+    this.failures = new LinkedHashMap<Query, Exception>();
+  }
+
+  void succeeded(Query query, SearchPage page) {
+    pages.put(query, page);
+  }
+
+  void failed(Query query, Exception failure) {
+    failures.put(query, failure);
+  }
+
+  /**
+   * @return the pages of results of the queries that succeeded.
+   */
+  public Map<Query, SearchPage> getPages() {
+    return Collections.unmodifiableMap(pages);
+  }
+
+  /**
+   * @return the failures of the queries that did not succeed.
+   */
+  public Map<Query, Exception> getFailures() {
+    return Collections.unmodifiableMap(failures);
+  }
+
+  /**
+   * @param query The query.
+   * @return the page of results of a query, or null if it failed.
+   */
+  public SearchPage getPage(Query query) {
+    return pages.get(query);
+  }
+
+  /**
+   * @param query The query.
+   * @return why a query failed, or null if it succeeded.
+   */
+  public Exception getFailure(Query query) {
+    return failures.get(query);
+  }
+
+  /**
+   * @return true if all queries succeeded.
+   */
+  public boolean isComplete() {
+    return failures.isEmpty();
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
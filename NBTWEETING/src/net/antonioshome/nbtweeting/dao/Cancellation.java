@@ -0,0 +1,145 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.HashSet;
+import java.util.Set;
+import org.openide.util.Cancellable;
+
+/**
+ * Cancellation is a handle to cancel searches. Cancelling closes the
+ * connections the searches have open and interrupts the threads waiting
+ * for them, so that the searches fail right away with an
+ * InterruptedIOException and the threads are free again.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class Cancellation
+  implements Cancellable {
+
+  private final Set<Thread> threads = new HashSet<Thread>();
+  private final Set<Closeable> connections = new HashSet<Closeable>();
+  private boolean cancelled;
+
+  /**
+   * Cancels the searches.
+   * @return true, searches can always be cancelled.
+   */
+  public boolean cancel() {
+    Closeable[] open;
+    synchronized (this) {
+      if (cancelled) {
+        return true;
+      }
+      cancelled = true;
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+      open = connections.toArray(new Closeable[connections.size()]);
+      connections.clear();
+    }
+    // Closing the sockets unblocks the threads reading from them
+    for (Closeable connection : open) {
+      try {
+        connection.close();
+      } catch (IOException ex) {
+        // Closed anyway
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return true if cancelled.
+   */
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Registers the current thread, to be interrupted if cancelled.
+   * @throws InterruptedIOException If already cancelled.
+   */
+  synchronized void enter() throws InterruptedIOException {
+    check();
+    threads.add(Thread.currentThread());
+  }
+
+  /**
+   * Unregisters the current thread, clearing the interrupt caused by cancelling.
+   */
+  synchronized void exit() {
+    threads.remove(Thread.currentThread());
+    if (cancelled) {
+      Thread.interrupted();
+    }
+  }
+
+  /**
+   * Registers an open connection, to be closed if cancelled.
+   * @param connection The connection.
+   * @throws InterruptedIOException If already cancelled.
+   */
+  synchronized void attach(Closeable connection) throws InterruptedIOException {
+    check();
+    connections.add(connection);
+  }
+
+  /**
+   * Unregisters a connection.
+   * @param connection The connection.
+   */
+  synchronized void detach(Closeable connection) {
+    connections.remove(connection);
+  }
+
+  /**
+   * @throws InterruptedIOException If cancelled.
+   */
+  synchronized void check() throws InterruptedIOException {
+    if (cancelled) {
+      throw new InterruptedIOException("Search cancelled");
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,500 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * FeedCache is a persistent cache of the Atom feeds retrieved from Twitter.
+ * Each entry keeps the (decompressed) body of a response, in UTF-8, with
+ * its validators and the time it was retrieved. Entries younger than the
+ * time to live are served without asking the server, older ones are
+ * revalidated and entries older than the maximum age are removed. When the
+ * cache grows bigger than its maximum size the least recently used entries
+ * are removed.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class FeedCache {
+
+  private static final Logger LOGGER = Logger.getLogger(FeedCache.class.getName());
+  private static final String BODY_EXTENSION = ".atom"; // NOI18N
+  private static final String META_EXTENSION = ".properties"; // NOI18N
+  private static final String TEMP_EXTENSION = ".tmp"; // NOI18N
+  private static final String URL_PROPERTY = "url"; // NOI18N
+  private static final String ETAG_PROPERTY = "etag"; // NOI18N
+  private static final String LAST_MODIFIED_PROPERTY = "last-modified"; // NOI18N
+  private static final String FETCHED_PROPERTY = "fetched"; // NOI18N
+
+  private static FeedCache defaultCache;
+
+  private final File directory;
+  /** The entries, least recently used first */
+  private Map<String, Entry> entries;
+  private long size;
+  private long maxSize = 20L * 1024 * 1024;
+  private long timeToLive = 60L * 1000;
+  private long maxAge = 7L * 24 * 60 * 60 * 1000;
+  private volatile boolean offline;
+
+  /**
+   * @return the cache in the user's home directory.
+   */
+  public static synchronized FeedCache getDefault() {
+    if (defaultCache == null) {
+      defaultCache = new FeedCache(new File(new File(System.getProperty("user.home"), ".nbtweeting"), "cache")); // NOI18N
+    }
+    return defaultCache;
+  }
+
+  /**
+   * Creates a cache in a directory.
+   * @param directory The directory where entries are stored.
+   */
+  public FeedCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * @return the maximum size of the bodies in the cache, in bytes.
+   */
+  public synchronized long getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @param maxSize the maximum size of the bodies in the cache, in bytes.
+   */
+  public synchronized void setMaxSize(long maxSize) {
+    this.maxSize = maxSize;
+    evict();
+  }
+
+  /**
+   * @return the time (milliseconds) an entry is served without asking the server.
+   */
+  public synchronized long getTimeToLive() {
+    return timeToLive;
+  }
+
+  /**
+   * @param timeToLive the time (milliseconds) an entry is served without asking the server.
+   */
+  public synchronized void setTimeToLive(long timeToLive) {
+    this.timeToLive = timeToLive;
+  }
+
+  /**
+   * @return the time (milliseconds) after which entries are removed.
+   */
+  public synchronized long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * @param maxAge the time (milliseconds) after which entries are removed.
+   */
+  public synchronized void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * @return true if searches are served from the cache only.
+   */
+  public boolean isOffline() {
+    return offline;
+  }
+
+  /**
+   * @param offline true to serve searches from the cache only, without
+   *   using the network, even if the cached responses are not fresh.
+   */
+  public void setOffline(boolean offline) {
+    this.offline = offline;
+  }
+
+  /**
+   * Returns the entry for an URL, marking it as recently used.
+   * @param url The URL.
+   * @return The entry, or null if not in the cache.
+   */
+  public synchronized Entry get(String url) {
+    Entry entry = getEntries().get(url);
+    if (entry == null) {
+      return null;
+    }
+    if (System.currentTimeMillis() - entry.getFetched() > maxAge || !entry.getBody().isFile()) {
+      remove(url);
+      return null;
+    }
+    // Last access time survives restarts as the modification time of the body
+    entry.getBody().setLastModified(System.currentTimeMillis());
+    return entry;
+  }
+
+  /**
+   * Marks an entry as just retrieved, after the server has told us it's not modified.
+   * @param url The URL.
+   */
+  public synchronized void touch(String url) {
+    Entry entry = getEntries().get(url);
+    if (entry != null) {
+      Entry touched = new Entry(entry.getBody(), url, entry.getETag(), entry.getLastModified(), System.currentTimeMillis());
+      if (writeMeta(touched)) {
+        entries.put(url, touched);
+      }
+    }
+  }
+
+  /**
+   * Removes all entries.
+   */
+  public synchronized void clear() {
+    for (String url : new ArrayList<String>(getEntries().keySet())) {
+      remove(url);
+    }
+  }
+
+  /**
+   * Starts storing a new body for an URL.
+   * @param url The URL.
+   * @return A Writer to write the body to, that must be either committed or aborted.
+   * @throws IOException If the body cannot be created.
+   */
+  public Writer store(String url) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Cannot create " + directory);
+    }
+    File temp = File.createTempFile(fileName(url), TEMP_EXTENSION, directory);
+    return new Writer(url, temp);
+  }
+
+  private synchronized void commit(Writer writer, String etag, String lastModified) throws IOException {
+    File body = new File(directory, fileName(writer.url) + BODY_EXTENSION);
+    remove(writer.url);
+    if (!writer.temp.renameTo(body)) {
+      writer.temp.delete();
+      throw new IOException("Cannot store " + body);
+    }
+    Entry entry = new Entry(body, writer.url, etag, lastModified, System.currentTimeMillis());
+    if (!writeMeta(entry)) {
+      body.delete();
+      return;
+    }
+    getEntries().put(writer.url, entry);
+    size += body.length();
+    evict();
+  }
+
+  /**
+   * Removes least recently used entries until the cache fits in its maximum size.
+   */
+  private void evict() {
+    if (entries == null) {
+      return;
+    }
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (size > maxSize && iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      iterator.remove();
+      delete(entry);
+    }
+  }
+
+  private void remove(String url) {
+    Entry entry = getEntries().remove(url);
+    if (entry != null) {
+      delete(entry);
+    }
+  }
+
+  private void delete(Entry entry) {
+    size -= entry.getBody().length();
+    entry.getBody().delete();
+    metaFile(entry.getBody()).delete();
+  }
+
+  /**
+   * Loads the index of entries from disk the first time it's required.
+   */
+  private Map<String, Entry> getEntries() {
+    if (entries != null) {
+      return entries;
+    }
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return entries;
+    }
+    List<File> bodies = new ArrayList<File>();
+    for (File file : files) {
+      if (file.getName().endsWith(BODY_EXTENSION)) {
+        bodies.add(file);
+      } else if (file.getName().endsWith(TEMP_EXTENSION)) {
+        // Left behind by an interrupted download
+        file.delete();
+      }
+    }
+    // Least recently used first
+    Collections.sort(bodies, new Comparator<File>() {
+
+      public int compare(File a, File b) {
+        return a.lastModified() < b.lastModified() ? -1 : (a.lastModified() == b.lastModified() ? 0 : 1);
+      }
+    });
+    for (File body : bodies) {
+      Entry entry = readMeta(body);
+      if (entry == null) {
+        body.delete();
+        metaFile(body).delete();
+      } else {
+        entries.put(entry.getURL(), entry);
+        size += body.length();
+      }
+    }
+    evict();
+    return entries;
+  }
+
+  private Entry readMeta(File body) {
+    Properties properties = new Properties();
+    try {
+      InputStream input = new FileInputStream(metaFile(body));
+      try {
+        properties.load(input);
+      } finally {
+        input.close();
+      }
+      return new Entry(body,
+        properties.getProperty(URL_PROPERTY),
+        properties.getProperty(ETAG_PROPERTY),
+        properties.getProperty(LAST_MODIFIED_PROPERTY),
+        Long.parseLong(properties.getProperty(FETCHED_PROPERTY)));
+    } catch (IOException ex) {
+      LOGGER.log(Level.FINE, "Wrong cache entry " + body, ex);
+    } catch (RuntimeException ex) {
+      LOGGER.log(Level.FINE, "Wrong cache entry " + body, ex);
+    }
+    return null;
+  }
+
+  private boolean writeMeta(Entry entry) {
+    Properties properties = new Properties();
+    properties.setProperty(URL_PROPERTY, entry.getURL());
+    if (entry.getETag() != null) {
+      properties.setProperty(ETAG_PROPERTY, entry.getETag());
+    }
+    if (entry.getLastModified() != null) {
+      properties.setProperty(LAST_MODIFIED_PROPERTY, entry.getLastModified());
+    }
+    properties.setProperty(FETCHED_PROPERTY, Long.toString(entry.getFetched()));
+    try {
+      OutputStream output = new FileOutputStream(metaFile(entry.getBody()));
+      try {
+        properties.store(output, null);
+      } finally {
+        output.close();
+      }
+      return true;
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Cannot write cache entry " + entry.getBody(), ex);
+      return false;
+    }
+  }
+
+  private static File metaFile(File body) {
+    String name = body.getName();
+    return new File(body.getParentFile(), name.substring(0, name.length() - BODY_EXTENSION.length()) + META_EXTENSION);
+  }
+
+  /**
+   * @return the name of the files for an URL, a SHA-1 of the URL.
+   */
+  static String fileName(String url) {
+    try {
+      byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8")); // NOI18N
+      StringBuilder sb = new StringBuilder(digest.length * 2);
+      for (byte b : digest) {
+        sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+
+  /**
+   * Entry is a cached response.
+   */
+  public final class Entry {
+
+    private final File body;
+    private final String url;
+    private final String etag;
+    private final String lastModified;
+    private final long fetched;
+
+    Entry(File body, String url, String etag, String lastModified, long fetched) {
+      this.body = body;
+      this.url = url;
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.fetched = fetched;
+    }
+
+    /**
+     * @return the file with the (decompressed) body of the response.
+     */
+    public File getBody() {
+      return body;
+    }
+
+    /**
+     * @return the URL of the response.
+     */
+    public String getURL() {
+      return url;
+    }
+
+    /**
+     * @return the ETag validator, or null.
+     */
+    public String getETag() {
+      return etag;
+    }
+
+    /**
+     * @return the Last-Modified validator, or null.
+     */
+    public String getLastModified() {
+      return lastModified;
+    }
+
+    /**
+     * @return when the response was retrieved or last revalidated.
+     */
+    public long getFetched() {
+      return fetched;
+    }
+
+    /**
+     * @return true if this entry may be served without asking the server.
+     */
+    public boolean isFresh() {
+      return System.currentTimeMillis() - fetched < getTimeToLive();
+    }
+  }
+
+  /**
+   * Writer receives the body of a response to be cached.
+   */
+  public final class Writer {
+
+    private final String url;
+    private final File temp;
+    private final OutputStream output;
+    private boolean closed;
+
+    Writer(String url, File temp) throws IOException {
+      this.url = url;
+      this.temp = temp;
+      this.output = new BufferedOutputStream(new FileOutputStream(temp));
+    }
+
+    /**
+     * @return the stream where the body is to be written.
+     */
+    public OutputStream getOutput() {
+      return output;
+    }
+
+    /**
+     * Adds the body written so far to the cache.
+     * @param etag The ETag validator, or null.
+     * @param lastModified The Last-Modified validator, or null.
+     * @throws IOException If the body cannot be stored.
+     */
+    public void commit(String etag, String lastModified) throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      output.close();
+      FeedCache.this.commit(this, etag, lastModified);
+    }
+
+    /**
+     * Discards the body written so far.
+     */
+    public void abort() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        output.close();
+      } catch (IOException ex) {
+        LOGGER.log(Level.FINE, null, ex);
+      }
+      temp.delete();
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
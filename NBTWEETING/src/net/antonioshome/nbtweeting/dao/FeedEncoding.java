@@ -0,0 +1,282 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * FeedEncoding finds out the character encoding of an Atom feed, from the
+ * charset of its Content-Type or else from its first bytes, as an XML
+ * parser would. The byte scanners read UTF-8 only, so feeds in any other
+ * encoding are transcoded to UTF-8 before they are scanned.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+final class FeedEncoding {
+
+  /** The encoding of a feed is known from this many bytes at most */
+  static final int HEAD = 512;
+  private static final Charset UTF8 = Charset.forName("UTF-8"); // NOI18N
+  private static final Charset ASCII = Charset.forName("US-ASCII"); // NOI18N
+  private static final Pattern CHARSET =
+    Pattern.compile(";\\s*charset\\s*=\\s*\"?([^\";\\s]+)", Pattern.CASE_INSENSITIVE); // NOI18N
+  private static final Pattern DECLARED =
+    Pattern.compile("^<\\?xml[^>]*?\\sencoding\\s*=\\s*[\"']([^\"']+)[\"']"); // NOI18N
+
+  private FeedEncoding() {
+  }
+
+  /**
+   * Tells if a feed can be scanned as it is.
+   * @param contentType The Content-Type of the feed, may be null.
+   * @param head The first bytes of the feed.
+   * @param length The number of bytes in head.
+   * @return true if the feed is in UTF-8 (or ASCII), false if in another
+   *   encoding or in one that is not supported.
+   */
+  static boolean isUTF8(String contentType, byte[] head, int length) {
+    try {
+      return charset(contentType, head, length).equals(UTF8);
+    } catch (UnsupportedEncodingException ex) {
+      return false;
+    }
+  }
+
+  /**
+   * Returns a feed in UTF-8, transcoding it if it's in another encoding.
+   * The XML declaration of a transcoded feed is left out, so that it
+   * doesn't tell readers of the transcoded bytes the wrong encoding.
+   * @param input The feed.
+   * @param contentType The Content-Type of the feed, may be null.
+   * @return The feed, in UTF-8.
+   * @throws IOException If the feed cannot be read, or if its encoding
+   *   is not supported.
+   */
+  static InputStream toUTF8(InputStream input, String contentType) throws IOException {
+    BufferedInputStream buffered = new BufferedInputStream(input, Math.max(8192, HEAD));
+    buffered.mark(HEAD);
+    byte[] head = new byte[HEAD];
+    int length = readHead(buffered, head);
+    buffered.reset();
+    Charset charset = charset(contentType, head, length);
+    return charset.equals(UTF8) ? buffered : new UTF8InputStream(new InputStreamReader(buffered, charset));
+  }
+
+  /**
+   * Reads the first bytes of a feed.
+   * @param input The feed.
+   * @param head Where the bytes go, filled unless the feed is shorter.
+   * @return The number of bytes read.
+   * @throws IOException If the feed cannot be read.
+   */
+  static int readHead(InputStream input, byte[] head) throws IOException {
+    int length = 0;
+    for (int n = 0; n != -1 && length < head.length; n = input.read(head, length, head.length - length)) {
+      length += n;
+    }
+    return length;
+  }
+
+  /**
+   * @return the encoding of a feed, UTF-8 for ASCII too.
+   * @throws UnsupportedEncodingException If the encoding is not supported.
+   */
+  private static Charset charset(String contentType, byte[] head, int length) throws UnsupportedEncodingException {
+    String name = null;
+    if (contentType != null) {
+      Matcher matcher = CHARSET.matcher(contentType);
+      if (matcher.find()) {
+        name = matcher.group(1);
+      }
+    }
+    if (name == null) {
+      name = sniff(head, length);
+    }
+    if (name == null) {
+      return UTF8;
+    }
+    try {
+      Charset charset = Charset.forName(name);
+      return charset.equals(ASCII) ? UTF8 : charset;
+    } catch (IllegalCharsetNameException ex) {
+      throw (UnsupportedEncodingException) new UnsupportedEncodingException(name).initCause(ex);
+    } catch (UnsupportedCharsetException ex) {
+      throw (UnsupportedEncodingException) new UnsupportedEncodingException(name).initCause(ex);
+    }
+  }
+
+  /**
+   * Guesses the encoding of a feed from its byte order mark or from the
+   * encoding in its XML declaration.
+   * @return the name of the encoding, or null if not known.
+   */
+  private static String sniff(byte[] head, int length) {
+    if (length >= 2) {
+      int first = head[0] & 0xFF;
+      int second = head[1] & 0xFF;
+      if ((first == 0xFE && second == 0xFF) || (first == 0xFF && second == 0xFE)) {
+        return "UTF-16"; // NOI18N
+      }
+      if (first == 0 && second == '<') {
+        return "UTF-16BE"; // NOI18N
+      }
+      if (first == '<' && second == 0) {
+        return "UTF-16LE"; // NOI18N
+      }
+    }
+    if (length >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+      return null;
+    }
+    // ASCII is enough to read the declaration of any other encoding
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; i < length && head[i] != '>'; i++) {
+      sb.append((char) (head[i] & 0xFF));
+    }
+    Matcher matcher = DECLARED.matcher(sb);
+    return matcher.find() ? matcher.group(1) : null;
+  }
+
+  /**
+   * UTF8InputStream encodes the characters of a Reader in UTF-8, without
+   * the byte order mark and the XML declaration, if any.
+   */
+  private static final class UTF8InputStream extends InputStream {
+
+    private final Reader reader;
+    private final char[] chars = new char[4096];
+    /** A high surrogate kept until its low surrogate is read, if any */
+    private int pending;
+    private boolean started;
+    private byte[] bytes = new byte[0];
+    private int position;
+
+    UTF8InputStream(Reader reader) {
+      this.reader = reader;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) == -1 ? -1 : one[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      while (position == bytes.length) {
+        if (!fill()) {
+          return -1;
+        }
+      }
+      int n = Math.min(length, bytes.length - position);
+      System.arraycopy(bytes, position, b, offset, n);
+      position += n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      reader.close();
+    }
+
+    /**
+     * Encodes the next characters.
+     * @return false at the end of the stream.
+     */
+    private boolean fill() throws IOException {
+      int count = pending;
+      pending = 0;
+      // The declaration is read as a whole before it's left out
+      int wanted = started ? count + 1 : HEAD;
+      boolean eof = false;
+      while (count < wanted && !eof) {
+        int n = reader.read(chars, count, chars.length - count);
+        if (n == -1) {
+          eof = true;
+        } else {
+          count += n;
+        }
+      }
+      if (count == 0) {
+        return false;
+      }
+      int start = 0;
+      if (!started) {
+        started = true;
+        if (chars[0] == '\uFEFF') {
+          start++;
+        }
+        if (new String(chars, start, Math.min(5, count - start)).equals("<?xml")) { // NOI18N
+          for (int i = start + 5; i + 1 < count; i++) {
+            if (chars[i] == '?' && chars[i + 1] == '>') {
+              start = i + 2;
+              break;
+            }
+          }
+        }
+      }
+      int end = count;
+      if (!eof && end > start && Character.isHighSurrogate(chars[end - 1])) {
+        // Encoded together with its low surrogate, next time
+        end--;
+        pending = 1;
+      }
+      bytes = new String(chars, start, end - start).getBytes(UTF8);
+      position = 0;
+      if (pending == 1) {
+        chars[0] = chars[end];
+      }
+      return true;
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,442 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HttpConnection is an HTTP/1.1 connection to a server, that may be used
+ * for several requests in a row. We own the socket so that the connection
+ * may be closed at any time from any thread, even while another thread is
+ * blocked reading a response.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+final class HttpConnection
+  implements Closeable {
+
+  private static final int MAX_LINE = 8192;
+
+  private final String key;
+  private final Socket socket;
+  private final InputStream input;
+  private final OutputStream output;
+  /** True if connected through an HTTP proxy without a tunnel, requests go with absolute URLs */
+  private final boolean proxied;
+  private long lastUsed;
+
+  /**
+   * Opens a connection.
+   * @param url The URL to connect to.
+   * @param proxy The proxy to use.
+   * @param connectTimeout The connect timeout (milliseconds), 0 for no limit.
+   * @param readTimeout The read timeout (milliseconds), 0 for no limit.
+   * @param sslSocketFactory Creates the TLS sockets of https URLs.
+   * @throws IOException If the connection cannot be opened.
+   */
+  HttpConnection(URL url, Proxy proxy, int connectTimeout, int readTimeout, SSLSocketFactory sslSocketFactory) throws IOException {
+    this.key = key(url);
+    boolean https = "https".equalsIgnoreCase(url.getProtocol()); // NOI18N
+    InetSocketAddress address = new InetSocketAddress(url.getHost(), port(url));
+    Socket s;
+    if (proxy.type() == Proxy.Type.HTTP) {
+      s = new Socket();
+      address = (InetSocketAddress) proxy.address();
+    } else {
+      s = proxy.type() == Proxy.Type.SOCKS ? new Socket(proxy) : new Socket();
+    }
+    this.proxied = proxy.type() == Proxy.Type.HTTP && !https;
+    Socket connected = s;
+    try {
+      s.connect(address.isUnresolved() ? new InetSocketAddress(address.getHostName(), address.getPort()) : address,
+        connectTimeout);
+      s.setSoTimeout(readTimeout);
+      s.setTcpNoDelay(true);
+      if (https) {
+        if (proxy.type() == Proxy.Type.HTTP) {
+          // TLS goes end to end, through a tunnel in the proxy
+          tunnel(s, url.getHost(), port(url));
+        }
+        SSLSocket ssl = (SSLSocket) sslSocketFactory.createSocket(s, url.getHost(), port(url), true);
+        connected = ssl;
+        // The certificate must be that of the host, not just any valid one
+        SSLParameters parameters = ssl.getSSLParameters();
+        parameters.setEndpointIdentificationAlgorithm("HTTPS"); // NOI18N
+        ssl.setSSLParameters(parameters);
+        ssl.startHandshake();
+      }
+    } catch (IOException ex) {
+      connected.close();
+      throw ex;
+    }
+    this.socket = connected;
+    // Through TLS, if any
+    this.input = new BufferedInputStream(connected.getInputStream());
+    this.output = new BufferedOutputStream(connected.getOutputStream());
+    this.lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Asks an HTTP proxy for a tunnel to a server.
+   * @param s The socket connected to the proxy.
+   * @param host The server.
+   * @param port The port of the server.
+   * @throws IOException If the proxy refuses to open the tunnel.
+   */
+  private static void tunnel(Socket s, String host, int port) throws IOException {
+    String authority = host + ":" + port;
+    OutputStream out = s.getOutputStream();
+    out.write(("CONNECT " + authority + " HTTP/1.1\r\nHost: " + authority + "\r\n\r\n").getBytes("ISO-8859-1")); // NOI18N
+    out.flush();
+    // Unbuffered, the bytes after the response belong to the TLS handshake
+    InputStream in = s.getInputStream();
+    String statusLine = readLine(in);
+    if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12 || !statusLine.substring(9, 12).equals("200")) { // NOI18N
+      throw new IOException("Proxy refused tunnel to " + authority + ": " + statusLine);
+    }
+    while (readLine(in).length() > 0) {
+      // Headers of the proxy, ignored
+    }
+  }
+
+  /**
+   * @return the key of the server of an URL, connections to the same key may be reused.
+   */
+  static String key(URL url) {
+    return url.getProtocol().toLowerCase(Locale.ENGLISH) + "://" // NOI18N
+      + url.getHost().toLowerCase(Locale.ENGLISH) + ":" + port(url);
+  }
+
+  private static int port(URL url) {
+    return url.getPort() == -1 ? url.getDefaultPort() : url.getPort();
+  }
+
+  String getKey() {
+    return key;
+  }
+
+  long getLastUsed() {
+    return lastUsed;
+  }
+
+  void setReadTimeout(int readTimeout) throws IOException {
+    socket.setSoTimeout(readTimeout);
+  }
+
+  boolean isClosed() {
+    return socket.isClosed();
+  }
+
+  /**
+   * Closes the socket, a thread blocked reading from it gets an exception.
+   */
+  public void close() {
+    try {
+      socket.close();
+    } catch (IOException ex) {
+      // Nothing else to do
+    }
+  }
+
+  /**
+   * Sends a request.
+   * @param method The method.
+   * @param url The URL.
+   * @param headers The request headers.
+   * @throws IOException If the request cannot be sent.
+   */
+  void send(String method, URL url, Map<String, String> headers) throws IOException {
+    StringBuilder sb = new StringBuilder(256);
+    sb.append(method).append(' ');
+    if (proxied) {
+      sb.append(url.toExternalForm());
+    } else {
+      sb.append(url.getPath().length() == 0 ? "/" : url.getPath());
+      if (url.getQuery() != null) {
+        sb.append('?').append(url.getQuery());
+      }
+    }
+    sb.append(" HTTP/1.1\r\n"); // NOI18N
+    sb.append("Host: ").append(url.getHost()); // NOI18N
+    if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+      sb.append(':').append(url.getPort());
+    }
+    sb.append("\r\n");
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+    }
+    sb.append("\r\n");
+    output.write(sb.toString().getBytes("ISO-8859-1")); // NOI18N
+    output.flush();
+    lastUsed = System.currentTimeMillis();
+  }
+
+  /**
+   * Reads the status line and the headers of a response.
+   * @param headers Where the headers are stored, with lowercase names.
+   * @return The status code.
+   * @throws IOException If the response cannot be read.
+   */
+  int readHead(Map<String, String> headers) throws IOException {
+    int status;
+    do {
+      // 1xx responses are skipped
+      String statusLine = readLine();
+      if (!statusLine.startsWith("HTTP/") || statusLine.length() < 12) { // NOI18N
+        throw new IOException("Wrong status line: " + statusLine);
+      }
+      try {
+        status = Integer.parseInt(statusLine.substring(9, 12));
+      } catch (NumberFormatException ex) {
+        throw (IOException) new IOException("Wrong status line: " + statusLine).initCause(ex);
+      }
+      headers.clear();
+      headers.put(":version", statusLine.substring(0, 8)); // NOI18N
+      for (String line = readLine(); line.length() > 0; line = readLine()) {
+        int colon = line.indexOf(':');
+        if (colon > 0) {
+          headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), line.substring(colon + 1).trim());
+        }
+      }
+    } while (status >= 100 && status < 200);
+    return status;
+  }
+
+  /**
+   * Returns the body of a response, that ends where the response ends so
+   * that the connection may be used for the next request.
+   * @param method The method of the request.
+   * @param status The status of the response.
+   * @param headers The headers of the response.
+   * @return The body of the response.
+   */
+  InputStream getBody(String method, int status, Map<String, String> headers) {
+    if ("HEAD".equals(method) || status == 204 || status == 304) { // NOI18N
+      return new BoundedInputStream(input, 0);
+    }
+    String transferEncoding = headers.get("transfer-encoding"); // NOI18N
+    if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) { // NOI18N
+      return new ChunkedInputStream(this);
+    }
+    String contentLength = headers.get("content-length"); // NOI18N
+    if (contentLength != null) {
+      try {
+        return new BoundedInputStream(input, Long.parseLong(contentLength));
+      } catch (NumberFormatException ex) {
+        // Until the connection is closed, then
+      }
+    }
+    return input;
+  }
+
+  /**
+   * @return true if the connection may be reused after a response with these headers.
+   */
+  static boolean isKeepAlive(Map<String, String> headers) {
+    String connection = headers.get("connection"); // NOI18N
+    String transferEncoding = headers.get("transfer-encoding"); // NOI18N
+    if (transferEncoding == null && headers.get("content-length") == null) { // NOI18N
+      // The body ends when the connection is closed
+      return false;
+    }
+    if ("HTTP/1.0".equals(headers.get(":version"))) { // NOI18N
+      return connection != null && "keep-alive".equalsIgnoreCase(connection); // NOI18N
+    }
+    return connection == null || !"close".equalsIgnoreCase(connection); // NOI18N
+  }
+
+  private String readLine() throws IOException {
+    return readLine(input);
+  }
+
+  private static String readLine(InputStream input) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    for (int c = input.read(); c != '\n'; c = input.read()) {
+      if (c == -1) {
+        throw new EOFException("Connection closed by the server");
+      }
+      if (sb.length() > MAX_LINE) {
+        throw new IOException("Line too long");
+      }
+      if (c != '\r') {
+        sb.append((char) c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * BoundedInputStream reads a body with a Content-Length.
+   */
+  private static final class BoundedInputStream extends InputStream {
+
+    private final InputStream input;
+    private long remaining;
+
+    BoundedInputStream(InputStream input, long length) {
+      this.input = input;
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = input.read();
+      if (b == -1) {
+        throw new EOFException("Premature end of response");
+      }
+      remaining--;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = input.read(b, off, (int) Math.min(len, remaining));
+      if (n == -1) {
+        throw new EOFException("Premature end of response");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(input.available(), remaining);
+    }
+
+    @Override
+    public void close() {
+      // The connection stays open
+    }
+  }
+
+  /**
+   * ChunkedInputStream reads a body with "Transfer-Encoding: chunked".
+   */
+  private static final class ChunkedInputStream extends InputStream {
+
+    private final HttpConnection connection;
+    private long remaining;
+    private boolean eof;
+
+    ChunkedInputStream(HttpConnection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) == -1 ? -1 : (b[0] & 0xFF);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (!nextChunk()) {
+        return -1;
+      }
+      int n = connection.input.read(b, off, (int) Math.min(len, remaining));
+      if (n == -1) {
+        throw new EOFException("Premature end of response");
+      }
+      remaining -= n;
+      if (remaining == 0) {
+        // The CRLF after the chunk
+        connection.readLine();
+      }
+      return n;
+    }
+
+    /**
+     * @return false if there are no more chunks.
+     */
+    private boolean nextChunk() throws IOException {
+      if (eof) {
+        return false;
+      }
+      if (remaining == 0) {
+        String line = connection.readLine();
+        int semicolon = line.indexOf(';');
+        try {
+          remaining = Long.parseLong((semicolon == -1 ? line : line.substring(0, semicolon)).trim(), 16);
+        } catch (NumberFormatException ex) {
+          throw (IOException) new IOException("Wrong chunk size: " + line).initCause(ex);
+        }
+        if (remaining == 0) {
+          // Trailers, up to an empty line
+          while (connection.readLine().length() > 0) {
+            // Ignored
+          }
+          eof = true;
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void close() {
+      // The connection stays open
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,489 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HttpTransport is responsible for the HTTP conversation with Twitter.
+ * Connections are kept alive and reused from a pool of idle connections,
+ * response bodies are requested gzip compressed and are decompressed
+ * while being read, and previous responses may be revalidated with
+ * ETag/If-Modified-Since validators. Connections time out if the server
+ * doesn't answer, and may be closed at any time with a {@link Cancellation}.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class HttpTransport {
+
+  private static final Logger LOGGER = Logger.getLogger(HttpTransport.class.getName());
+  /** Number of idle persistent connections kept per host */
+  private static final int MAX_IDLE_CONNECTIONS = 10;
+  /** Idle connections older than this are probably closed by the server */
+  private static final long MAX_IDLE_TIME = 15000;
+  /** Twitter's "Enhance Your Calm" status */
+  private static final int HTTP_ENHANCE_YOUR_CALM = 420;
+  private static final int HTTP_TOO_MANY_REQUESTS = 429;
+  private static final int HTTP_TEMPORARY_REDIRECT = 307;
+  private static final int HTTP_PERMANENT_REDIRECT = 308;
+  /** Maximum number of redirects followed for a request */
+  private static final int MAX_REDIRECTS = 5;
+  private static final HttpTransport DEFAULT = new HttpTransport();
+
+  /** Idle connections, by server */
+  private final Map<String, LinkedList<HttpConnection>> idle = new HashMap<String, LinkedList<HttpConnection>>();
+  private volatile int connectTimeout = 10000;
+  private volatile int readTimeout = 30000;
+  private volatile SSLSocketFactory sslSocketFactory = (SSLSocketFactory) SSLSocketFactory.getDefault();
+
+  /**
+   * @return the shared HttpTransport instance.
+   */
+  public static HttpTransport getDefault() {
+    return DEFAULT;
+  }
+
+  private HttpTransport() {
+  }
+
+  /**
+   * @return the time (milliseconds) to wait for a connection, 0 for no limit.
+   */
+  public int getConnectTimeout() {
+    return connectTimeout;
+  }
+
+  /**
+   * @param connectTimeout the time (milliseconds) to wait for a connection, 0 for no limit.
+   */
+  public void setConnectTimeout(int connectTimeout) {
+    this.connectTimeout = connectTimeout;
+  }
+
+  /**
+   * @return the time (milliseconds) to wait for data from the server, 0 for no limit.
+   */
+  public int getReadTimeout() {
+    return readTimeout;
+  }
+
+  /**
+   * @param readTimeout the time (milliseconds) to wait for data from the server, 0 for no limit.
+   */
+  public void setReadTimeout(int readTimeout) {
+    this.readTimeout = readTimeout;
+  }
+
+  /**
+   * Sets what creates the TLS sockets of https URLs, so that tests may
+   * trust their own certificates. Idle connections are closed.
+   * @param sslSocketFactory The SSLSocketFactory.
+   */
+  void setSSLSocketFactory(SSLSocketFactory sslSocketFactory) {
+    this.sslSocketFactory = sslSocketFactory;
+    synchronized (this) {
+      for (List<HttpConnection> connections : idle.values()) {
+        for (HttpConnection conn : connections) {
+          conn.close();
+        }
+      }
+      idle.clear();
+    }
+  }
+
+  /**
+   * Performs a GET request.
+   * @param url The URL to retrieve.
+   * @param etag The ETag of a previous response, or null.
+   * @param lastModified The Last-Modified header of a previous response, or null.
+   * @return The Response, that must be closed after use.
+   * @throws IOException If an I/O error happens or the server returns an error.
+   * @throws ThrottledException If the server refuses the request because of
+   *   the rate of requests or because it's overloaded.
+   */
+  public Response get(URL url, String etag, String lastModified) throws IOException {
+    return get(url, etag, lastModified, null);
+  }
+
+  /**
+   * Performs a GET request that may be cancelled. Redirects are followed.
+   * @param url The URL to retrieve.
+   * @param etag The ETag of a previous response, or null.
+   * @param lastModified The Last-Modified header of a previous response, or null.
+   * @param cancellation Closes the connection if cancelled, may be null.
+   * @return The Response, that must be closed after use.
+   * @throws IOException If an I/O error happens, the server returns an error,
+   *   or the request is cancelled (InterruptedIOException).
+   * @throws ThrottledException If the server refuses the request because of
+   *   the rate of requests or because it's overloaded.
+   */
+  public Response get(URL url, String etag, String lastModified, Cancellation cancellation) throws IOException {
+    Map<String, String> requestHeaders = new LinkedHashMap<String, String>();
+    requestHeaders.put("Accept-Encoding", "gzip"); // NOI18N
+    if (etag != null) {
+      requestHeaders.put("If-None-Match", etag); // NOI18N
+    }
+    if (lastModified != null) {
+      requestHeaders.put("If-Modified-Since", lastModified); // NOI18N
+    }
+
+    for (int redirects = 0;; redirects++) {
+      Response response = send(url, requestHeaders, cancellation);
+      int status = response.getStatus();
+      if (!isRedirect(status)) {
+        return response;
+      }
+      String location = response.headers.get("location"); // NOI18N
+      // Read the body to the end, so the connection can be reused
+      response.close();
+      if (location == null) {
+        throw new IOException("HTTP " + status + " without Location retrieving " + url);
+      }
+      if (redirects >= MAX_REDIRECTS) {
+        throw new IOException("Too many redirects retrieving " + url);
+      }
+      url = new URL(url, location);
+    }
+  }
+
+  /**
+   * Sends a GET request, without following redirects.
+   * @param url The URL to retrieve.
+   * @param requestHeaders The headers of the request.
+   * @param cancellation Closes the connection if cancelled, may be null.
+   * @return The Response, that must be closed after use.
+   * @throws IOException If an I/O error happens, the server returns an error,
+   *   or the request is cancelled (InterruptedIOException).
+   * @throws ThrottledException If the server refuses the request because of
+   *   the rate of requests or because it's overloaded.
+   */
+  private Response send(URL url, Map<String, String> requestHeaders, Cancellation cancellation) throws IOException {
+    Map<String, String> headers = new HashMap<String, String>();
+    HttpConnection conn = null;
+    int status = -1;
+    try {
+      // An idle connection may have been closed by the server in the
+      // meanwhile, if so we try again with a new one
+      while (status == -1) {
+        conn = borrow(url);
+        boolean reused = conn != null;
+        if (conn == null) {
+          conn = open(url);
+        }
+        try {
+          // Closes the connection if already cancelled
+          if (cancellation != null) {
+            cancellation.attach(conn);
+          }
+          conn.send("GET", url, requestHeaders); // NOI18N
+          status = conn.readHead(headers);
+        } catch (IOException ex) {
+          if (cancellation != null) {
+            cancellation.detach(conn);
+          }
+          conn.close();
+          if (!reused || (cancellation != null && cancellation.isCancelled())) {
+            throw ex;
+          }
+          LOGGER.log(Level.FINE, "Stale connection to " + conn.getKey(), ex);
+        }
+      }
+    } catch (IOException ex) {
+      if (cancellation != null) {
+        // A closed socket means we've been cancelled
+        cancellation.check();
+      }
+      throw ex;
+    }
+
+    Response response = new Response(conn, status, headers, conn.getBody("GET", status, headers), cancellation); // NOI18N
+    if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+      // Read the error body to the end, so the connection can be reused
+      response.close();
+      if (isThrottled(status)) {
+        throw new ThrottledException("HTTP " + status + " retrieving " + url,
+          status, parseRetryAfter(headers.get("retry-after"))); // NOI18N
+      }
+      throw new IOException("HTTP " + status + " retrieving " + url);
+    }
+    return response;
+  }
+
+  /**
+   * Opens connections to the given hosts so that later requests
+   * find an established connection in the pool. Errors are ignored.
+   * This is a blocking method, invoke it from a background thread.
+   * @param hosts The host names to connect to.
+   */
+  public void warmUp(String... hosts) {
+    for (String host : hosts) {
+      try {
+        release(open(new URL("http://" + host + "/"))); // NOI18N
+      } catch (IOException ex) {
+        LOGGER.log(Level.FINE, "Cannot warm up " + host, ex);
+      }
+    }
+  }
+
+  /**
+   * Opens a new connection, through the proxy configured for the URL, if any.
+   */
+  private HttpConnection open(URL url) throws IOException {
+    Proxy proxy = Proxy.NO_PROXY;
+    try {
+      List<Proxy> proxies = ProxySelector.getDefault() == null ? null : ProxySelector.getDefault().select(url.toURI());
+      if (proxies != null && !proxies.isEmpty()) {
+        proxy = proxies.get(0);
+      }
+    } catch (URISyntaxException ex) {
+      LOGGER.log(Level.FINE, null, ex);
+    }
+    return new HttpConnection(url, proxy, connectTimeout, readTimeout, sslSocketFactory);
+  }
+
+  /**
+   * @return an idle connection to the server of an URL, or null if none.
+   */
+  private synchronized HttpConnection borrow(URL url) throws IOException {
+    LinkedList<HttpConnection> connections = idle.get(HttpConnection.key(url));
+    long now = System.currentTimeMillis();
+    while (connections != null && !connections.isEmpty()) {
+      // Most recently used first, it's the one most likely to be alive
+      HttpConnection conn = connections.removeLast();
+      if (now - conn.getLastUsed() < MAX_IDLE_TIME && !conn.isClosed()) {
+        conn.setReadTimeout(readTimeout);
+        return conn;
+      }
+      conn.close();
+    }
+    return null;
+  }
+
+  /**
+   * Keeps a connection for later use.
+   */
+  private synchronized void release(HttpConnection conn) {
+    LinkedList<HttpConnection> connections = idle.get(conn.getKey());
+    if (connections == null) {
+      connections = new LinkedList<HttpConnection>();
+      idle.put(conn.getKey(), connections);
+    }
+    connections.addLast(conn);
+    if (connections.size() > MAX_IDLE_CONNECTIONS) {
+      connections.removeFirst().close();
+    }
+    // Forget about connections that have been idle for too long
+    long now = System.currentTimeMillis();
+    for (Iterator<HttpConnection> i = connections.iterator(); i.hasNext();) {
+      HttpConnection c = i.next();
+      if (now - c.getLastUsed() >= MAX_IDLE_TIME) {
+        i.remove();
+        c.close();
+      }
+    }
+  }
+
+  /**
+   * @return true if a status tells that the resource is somewhere else.
+   */
+  static boolean isRedirect(int status) {
+    return status == HttpURLConnection.HTTP_MOVED_PERM || status == HttpURLConnection.HTTP_MOVED_TEMP
+      || status == HttpURLConnection.HTTP_SEE_OTHER || status == HTTP_TEMPORARY_REDIRECT
+      || status == HTTP_PERMANENT_REDIRECT;
+  }
+
+  /**
+   * @return true if a status tells that the server is throttling us.
+   */
+  static boolean isThrottled(int status) {
+    return status == HTTP_ENHANCE_YOUR_CALM || status == HTTP_TOO_MANY_REQUESTS
+      || status == HttpURLConnection.HTTP_UNAVAILABLE;
+  }
+
+  /**
+   * Parses a Retry-After header, either a number of seconds or an HTTP date.
+   * @param retryAfter The header, may be null.
+   * @return The time to wait (milliseconds), or -1 if unknown.
+   */
+  static long parseRetryAfter(String retryAfter) {
+    if (retryAfter == null) {
+      return -1;
+    }
+    retryAfter = retryAfter.trim();
+    try {
+      return Math.max(0, Long.parseLong(retryAfter) * 1000);
+    } catch (NumberFormatException ex) {
+      // Not a number of seconds, let's try a date
+    }
+    try {
+      SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US); // NOI18N
+      return Math.max(0, format.parse(retryAfter).getTime() - System.currentTimeMillis());
+    } catch (ParseException ex) {
+      LOGGER.log(Level.FINE, "Wrong Retry-After " + retryAfter, ex);
+      return -1;
+    }
+  }
+
+  /**
+   * Response is the result of a GET request.
+   */
+  public static final class Response {
+
+    private final HttpConnection conn;
+    private final int status;
+    private final Map<String, String> headers;
+    private final InputStream raw;
+    private final Cancellation cancellation;
+    private InputStream body;
+    private boolean closed;
+
+    private Response(HttpConnection conn, int status, Map<String, String> headers, InputStream raw,
+      Cancellation cancellation) {
+      this.conn = conn;
+      this.status = status;
+      this.headers = headers;
+      this.raw = raw;
+      this.cancellation = cancellation;
+    }
+
+    /**
+     * @return the HTTP status code
+     */
+    public int getStatus() {
+      return status;
+    }
+
+    /**
+     * @return true if the server answered 304 Not Modified.
+     */
+    public boolean isNotModified() {
+      return status == HttpURLConnection.HTTP_NOT_MODIFIED;
+    }
+
+    /**
+     * @return the (already decompressed) response body.
+     * @throws IOException If the compressed body cannot be read.
+     */
+    public InputStream getBody() throws IOException {
+      if (body == null) {
+        // Decompress on the fly if the server honoured our Accept-Encoding
+        body = "gzip".equalsIgnoreCase(headers.get("content-encoding")) // NOI18N
+          ? new GZIPInputStream(raw)
+          : raw;
+      }
+      return body;
+    }
+
+    /**
+     * @return the Content-Type of the body, or null.
+     */
+    public String getContentType() {
+      return headers.get("content-type"); // NOI18N
+    }
+
+    /**
+     * @return the ETag validator, or null.
+     */
+    public String getETag() {
+      return headers.get("etag"); // NOI18N
+    }
+
+    /**
+     * @return the Last-Modified validator, or null.
+     */
+    public String getLastModified() {
+      return headers.get("last-modified"); // NOI18N
+    }
+
+    /**
+     * Closes this response. The remaining bytes are read so that
+     * the underlying connection goes back to the pool.
+     */
+    public void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (cancellation != null) {
+        cancellation.detach(conn);
+        if (cancellation.isCancelled()) {
+          // The connection is closed already
+          conn.close();
+          return;
+        }
+      }
+      byte[] buffer = new byte[4096];
+      try {
+        while (raw.read(buffer) != -1) {
+          // Discard
+        }
+      } catch (IOException ex) {
+        LOGGER.log(Level.FINE, null, ex);
+        conn.close();
+        return;
+      }
+      if (HttpConnection.isKeepAlive(headers)) {
+        DEFAULT.release(conn);
+      } else {
+        conn.close();
+      }
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,693 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketTimeoutException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import org.openide.util.RequestProcessor;
+
+/**
+ * NioHttpClient performs HTTP GET requests over non-blocking channels.
+ * A single thread multiplexes all the requests in progress with a
+ * Selector, and the bodies of the responses are handed to the Handlers
+ * (dechunked and decompressed) as they arrive, so that many requests
+ * may be in progress without having a blocked thread each. Host names
+ * are looked up before requests reach the selector thread, as lookups
+ * may block. Handlers are invoked in the selector thread and must not block.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+final class NioHttpClient
+  implements Runnable {
+
+  private static final Logger LOGGER = Logger.getLogger(NioHttpClient.class.getName());
+  private static final int MAX_HEAD = 64 * 1024;
+  /** Looks up the addresses of the requests, before they are started */
+  private static final RequestProcessor RESOLVER =
+    new RequestProcessor(NioHttpClient.class.getName() + ".resolver", 4); // NOI18N
+  private static NioHttpClient defaultClient;
+
+  private final Selector selector;
+  private final ConcurrentLinkedQueue<Exchange> pending = new ConcurrentLinkedQueue<Exchange>();
+  private final ConcurrentLinkedQueue<Exchange> cancelled = new ConcurrentLinkedQueue<Exchange>();
+  private final List<Exchange> active = new ArrayList<Exchange>();
+  private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(32 * 1024);
+  private final byte[] bytes = new byte[32 * 1024];
+
+  /**
+   * Handler receives the response of a request.
+   */
+  interface Handler {
+
+    /**
+     * Invoked when the status and headers have been received.
+     * @param status The status code.
+     * @param headers The headers, with lowercase names.
+     */
+    void head(int status, Map<String, String> headers);
+
+    /**
+     * Invoked with each piece of the body, already decompressed.
+     */
+    void body(byte[] bytes, int offset, int length);
+
+    /**
+     * Invoked when the whole body has been received.
+     */
+    void completed();
+
+    /**
+     * Invoked if the request fails or is cancelled.
+     * @param failure The reason.
+     */
+    void failed(IOException failure);
+  }
+
+  /**
+   * @return the shared client, whose thread is started the first time.
+   * @throws IOException If the selector cannot be opened.
+   */
+  static synchronized NioHttpClient getDefault() throws IOException {
+    if (defaultClient == null) {
+      defaultClient = new NioHttpClient();
+      Thread thread = new Thread(defaultClient, NioHttpClient.class.getName());
+      thread.setDaemon(true);
+      thread.start();
+    }
+    return defaultClient;
+  }
+
+  private NioHttpClient() throws IOException {
+    this.selector = Selector.open();
+  }
+
+  /**
+   * Starts a GET request.
+   * @param url The URL, must be an http URL.
+   * @param requestHeaders Headers to send.
+   * @param connectTimeout The connect timeout (milliseconds), 0 for no limit.
+   * @param readTimeout The read timeout (milliseconds), 0 for no limit.
+   * @param handler Receives the response.
+   * @return The exchange, that may be cancelled.
+   */
+  Exchange get(URL url, Map<String, String> requestHeaders, int connectTimeout, int readTimeout, Handler handler) {
+    final Exchange exchange = new Exchange(url, requestHeaders, connectTimeout, readTimeout, handler);
+    RESOLVER.post(new Runnable() {
+
+      public void run() {
+        exchange.resolve();
+        pending.add(exchange);
+        selector.wakeup();
+      }
+    });
+    return exchange;
+  }
+
+  /**
+   * Cancels a request, whose handler will be told it failed.
+   * @param exchange The request.
+   */
+  void cancel(Exchange exchange) {
+    cancelled.add(exchange);
+    selector.wakeup();
+  }
+
+  public void run() {
+    while (true) {
+      try {
+        selector.select(1000);
+        for (Exchange exchange = pending.poll(); exchange != null; exchange = pending.poll()) {
+          start(exchange);
+        }
+        for (Exchange exchange = cancelled.poll(); exchange != null; exchange = cancelled.poll()) {
+          exchange.fail(new InterruptedIOException("Request cancelled"));
+        }
+        Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+          SelectionKey key = keys.next();
+          keys.remove();
+          Exchange exchange = (Exchange) key.attachment();
+          try {
+            if (key.isConnectable()) {
+              exchange.connected();
+            } else if (key.isWritable()) {
+              exchange.write();
+            } else if (key.isReadable()) {
+              exchange.read();
+            }
+          } catch (CancelledKeyException ex) {
+            // Closed in the meanwhile
+          } catch (IOException ex) {
+            exchange.fail(ex);
+          } catch (RuntimeException ex) {
+            // A bad handler fails its own exchange only
+            exchange.broken(ex);
+          }
+        }
+        // Requests that have been waiting for too long
+        long now = System.currentTimeMillis();
+        for (Exchange exchange : new ArrayList<Exchange>(active)) {
+          if (exchange.deadline > 0 && now > exchange.deadline) {
+            exchange.fail(new SocketTimeoutException("Timed out: " + exchange.url));
+          }
+        }
+      } catch (IOException ex) {
+        LOGGER.log(Level.WARNING, null, ex);
+      } catch (RuntimeException ex) {
+        // Never let a bad handler stop the selector thread
+        LOGGER.log(Level.WARNING, null, ex);
+      }
+    }
+  }
+
+  private void start(Exchange exchange) {
+    if (exchange.done) {
+      return;
+    }
+    try {
+      exchange.open();
+      active.add(exchange);
+    } catch (IOException ex) {
+      exchange.fail(ex);
+    }
+  }
+
+  /**
+   * Exchange is a request and its response.
+   */
+  final class Exchange {
+
+    private static final int HEAD = 0;
+    private static final int BODY = 1;
+    private static final int CHUNK_SIZE = 2;
+    private static final int CHUNK_DATA = 3;
+    private static final int CHUNK_END = 4;
+    private static final int TRAILERS = 5;
+
+    private final URL url;
+    private final Map<String, String> requestHeaders;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final Handler handler;
+    private SocketChannel channel;
+    private SelectionKey key;
+    private InetSocketAddress address;
+    private ByteBuffer request;
+    /** Why the request could not be prepared, null if it could */
+    private IOException failure;
+    private long deadline;
+    private volatile boolean done;
+
+    private int state = HEAD;
+    private final StringBuilder line = new StringBuilder();
+    private final List<String> head = new ArrayList<String>();
+    private int headSize;
+    /** Remaining bytes of the body or chunk, -1 until the connection is closed */
+    private long remaining;
+    private GzipDecoder gzip;
+
+    Exchange(URL url, Map<String, String> requestHeaders, int connectTimeout, int readTimeout, Handler handler) {
+      this.url = url;
+      this.requestHeaders = requestHeaders;
+      this.connectTimeout = connectTimeout;
+      this.readTimeout = readTimeout;
+      this.handler = handler;
+    }
+
+    /**
+     * Selects the proxy, looks up the address and builds the request,
+     * which may block, out of the selector thread.
+     */
+    private void resolve() {
+      if (done) {
+        return;
+      }
+      try {
+        prepare();
+      } catch (IOException ex) {
+        failure = ex;
+      }
+    }
+
+    private void prepare() throws IOException {
+      Proxy proxy = Proxy.NO_PROXY;
+      try {
+        List<Proxy> proxies = ProxySelector.getDefault() == null ? null : ProxySelector.getDefault().select(url.toURI());
+        if (proxies != null && !proxies.isEmpty()) {
+          proxy = proxies.get(0);
+        }
+      } catch (URISyntaxException ex) {
+        LOGGER.log(Level.FINE, null, ex);
+      }
+      boolean proxied = proxy.type() == Proxy.Type.HTTP;
+      address = proxied
+        ? (InetSocketAddress) proxy.address()
+        : new InetSocketAddress(url.getHost(), url.getPort() == -1 ? url.getDefaultPort() : url.getPort());
+      if (address.isUnresolved()) {
+        address = new InetSocketAddress(address.getHostName(), address.getPort());
+        if (address.isUnresolved()) {
+          throw new UnknownHostException(address.getHostName());
+        }
+      }
+
+      StringBuilder sb = new StringBuilder(256);
+      sb.append("GET "); // NOI18N
+      if (proxied) {
+        sb.append(url.toExternalForm());
+      } else {
+        sb.append(url.getPath().length() == 0 ? "/" : url.getPath());
+        if (url.getQuery() != null) {
+          sb.append('?').append(url.getQuery());
+        }
+      }
+      sb.append(" HTTP/1.1\r\nHost: ").append(url.getHost()); // NOI18N
+      if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+        sb.append(':').append(url.getPort());
+      }
+      sb.append("\r\nConnection: close\r\n"); // NOI18N
+      for (Map.Entry<String, String> header : requestHeaders.entrySet()) {
+        sb.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+      }
+      sb.append("\r\n");
+      request = ByteBuffer.wrap(sb.toString().getBytes("ISO-8859-1")); // NOI18N
+    }
+
+    private void open() throws IOException {
+      if (failure != null) {
+        throw failure;
+      }
+      channel = SocketChannel.open();
+      try {
+        channel.configureBlocking(false);
+        deadline = connectTimeout > 0 ? System.currentTimeMillis() + connectTimeout : 0;
+        if (channel.connect(address)) {
+          key = channel.register(selector, SelectionKey.OP_WRITE, this);
+        } else {
+          key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+        }
+      } catch (IOException ex) {
+        channel.close();
+        throw ex;
+      }
+    }
+
+    private void connected() throws IOException {
+      channel.finishConnect();
+      key.interestOps(SelectionKey.OP_WRITE);
+      touch();
+    }
+
+    private void write() throws IOException {
+      channel.write(request);
+      if (!request.hasRemaining()) {
+        key.interestOps(SelectionKey.OP_READ);
+      }
+      touch();
+    }
+
+    private void read() throws IOException {
+      readBuffer.clear();
+      int n = channel.read(readBuffer);
+      if (n == -1) {
+        if (state == BODY && remaining == -1) {
+          finish();
+          return;
+        }
+        throw new IOException("Connection closed by the server: " + url);
+      }
+      touch();
+      readBuffer.flip();
+      readBuffer.get(bytes, 0, n);
+      received(bytes, 0, n);
+    }
+
+    private void touch() {
+      deadline = readTimeout > 0 ? System.currentTimeMillis() + readTimeout : 0;
+    }
+
+    /**
+     * Processes the bytes received: the head first, and then the body.
+     */
+    private void received(byte[] b, int offset, int length) throws IOException {
+      int p = offset;
+      int end = offset + length;
+      while (p < end && !done) {
+        switch (state) {
+          case HEAD:
+          case CHUNK_SIZE:
+          case CHUNK_END:
+          case TRAILERS:
+            p = readLine(b, p, end);
+            break;
+          case CHUNK_DATA:
+          case BODY:
+            int n = remaining == -1 ? end - p : (int) Math.min(remaining, end - p);
+            content(b, p, n);
+            p += n;
+            if (remaining != -1) {
+              remaining -= n;
+              if (remaining == 0) {
+                if (state == BODY) {
+                  finish();
+                } else {
+                  state = CHUNK_END;
+                }
+              }
+            }
+            break;
+          default:
+            throw new IllegalStateException();
+        }
+      }
+    }
+
+    private int readLine(byte[] b, int p, int end) throws IOException {
+      for (; p < end; p++) {
+        char c = (char) (b[p] & 0xFF);
+        if (++headSize > MAX_HEAD) {
+          throw new IOException("Response head too long: " + url);
+        }
+        if (c == '\n') {
+          String text = line.toString();
+          line.setLength(0);
+          line(text);
+          return p + 1;
+        } else if (c != '\r') {
+          line.append(c);
+        }
+      }
+      return p;
+    }
+
+    private void line(String text) throws IOException {
+      switch (state) {
+        case HEAD:
+          if (text.length() > 0) {
+            head.add(text);
+          } else {
+            headers();
+          }
+          break;
+        case CHUNK_SIZE:
+          int semicolon = text.indexOf(';');
+          try {
+            remaining = Long.parseLong((semicolon == -1 ? text : text.substring(0, semicolon)).trim(), 16);
+          } catch (NumberFormatException ex) {
+            throw (IOException) new IOException("Wrong chunk size: " + text).initCause(ex);
+          }
+          state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+          break;
+        case CHUNK_END:
+          state = CHUNK_SIZE;
+          break;
+        case TRAILERS:
+          if (text.length() == 0) {
+            finish();
+          }
+          break;
+        default:
+          throw new IllegalStateException();
+      }
+    }
+
+    private void headers() throws IOException {
+      String statusLine = head.isEmpty() ? "" : head.get(0);
+      int status;
+      try {
+        status = Integer.parseInt(statusLine.substring(9, 12));
+      } catch (RuntimeException ex) {
+        throw (IOException) new IOException("Wrong status line: " + statusLine).initCause(ex);
+      }
+      if (status >= 100 && status < 200) {
+        // Informational, the real response comes next
+        head.clear();
+        return;
+      }
+      Map<String, String> headers = new HashMap<String, String>();
+      for (String header : head.subList(1, head.size())) {
+        int colon = header.indexOf(':');
+        if (colon > 0) {
+          headers.put(header.substring(0, colon).trim().toLowerCase(Locale.ENGLISH), header.substring(colon + 1).trim());
+        }
+      }
+      handler.head(status, headers);
+      if (done) {
+        return;
+      }
+      if ("gzip".equalsIgnoreCase(headers.get("content-encoding"))) { // NOI18N
+        gzip = new GzipDecoder();
+      }
+      String transferEncoding = headers.get("transfer-encoding"); // NOI18N
+      String contentLength = headers.get("content-length"); // NOI18N
+      if (status == 204 || status == 304) {
+        finish();
+      } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.ENGLISH).contains("chunked")) { // NOI18N
+        state = CHUNK_SIZE;
+      } else if (contentLength != null) {
+        try {
+          remaining = Long.parseLong(contentLength);
+        } catch (NumberFormatException ex) {
+          remaining = -1;
+        }
+        state = BODY;
+        if (remaining == 0) {
+          finish();
+        }
+      } else {
+        remaining = -1;
+        state = BODY;
+      }
+    }
+
+    private void content(byte[] b, int offset, int length) throws IOException {
+      if (gzip == null) {
+        handler.body(b, offset, length);
+      } else {
+        gzip.decode(b, offset, length, handler);
+      }
+    }
+
+    private void finish() throws IOException {
+      if (gzip != null) {
+        gzip.finish();
+      }
+      close();
+      handler.completed();
+    }
+
+    /**
+     * Fails this exchange, unless it's already done.
+     */
+    void fail(IOException failure) {
+      if (done) {
+        return;
+      }
+      close();
+      handler.failed(failure);
+    }
+
+    /**
+     * Fails this exchange because its handler threw an exception. The
+     * handler is told even if the exchange is done, because it may have
+     * thrown before it finished with the response.
+     */
+    void broken(RuntimeException ex) {
+      LOGGER.log(Level.FINE, "Cannot handle " + url, ex); // NOI18N
+      close();
+      handler.failed((IOException) new IOException("Cannot handle " + url).initCause(ex));
+    }
+
+    private void close() {
+      done = true;
+      active.remove(this);
+      if (key != null) {
+        key.cancel();
+      }
+      if (channel != null) {
+        try {
+          channel.close();
+        } catch (IOException ex) {
+          LOGGER.log(Level.FINE, null, ex);
+        }
+      }
+    }
+  }
+
+  /**
+   * GzipDecoder decompresses a gzip stream that arrives in pieces.
+   */
+  private static final class GzipDecoder {
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc = new CRC32();
+    private final byte[] output = new byte[32 * 1024];
+    /** Header and trailer bytes received so far */
+    private byte[] pending = new byte[0];
+    private boolean inflating;
+    private boolean finished;
+
+    void decode(byte[] b, int offset, int length, Handler handler) throws IOException {
+      if (!inflating && !finished) {
+        append(b, offset, length);
+        int headerLength = headerLength();
+        if (headerLength == -1) {
+          return;
+        }
+        inflating = true;
+        b = pending;
+        offset = headerLength;
+        length = pending.length - headerLength;
+        pending = new byte[0];
+      }
+      if (finished) {
+        append(b, offset, length);
+        return;
+      }
+      inflater.setInput(b, offset, length);
+      try {
+        while (!inflater.needsInput() && !inflater.finished()) {
+          int n = inflater.inflate(output);
+          if (n > 0) {
+            crc.update(output, 0, n);
+            handler.body(output, 0, n);
+          } else if (inflater.needsDictionary()) {
+            throw new IOException("Wrong gzip stream");
+          }
+        }
+      } catch (DataFormatException ex) {
+        throw (IOException) new IOException("Wrong gzip stream").initCause(ex);
+      }
+      if (inflater.finished()) {
+        finished = true;
+        int left = inflater.getRemaining();
+        append(b, offset + length - left, left);
+      }
+    }
+
+    void finish() throws IOException {
+      if (!finished) {
+        throw new IOException("Truncated gzip stream");
+      }
+      if (pending.length >= 4) {
+        long expected = (pending[0] & 0xFFL) | (pending[1] & 0xFFL) << 8 | (pending[2] & 0xFFL) << 16 | (pending[3] & 0xFFL) << 24;
+        if (expected != crc.getValue()) {
+          throw new IOException("Corrupt gzip stream");
+        }
+      }
+      inflater.end();
+    }
+
+    private void append(byte[] b, int offset, int length) {
+      byte[] bigger = new byte[pending.length + length];
+      System.arraycopy(pending, 0, bigger, 0, pending.length);
+      System.arraycopy(b, offset, bigger, pending.length, length);
+      pending = bigger;
+    }
+
+    /**
+     * @return the length of the gzip header, -1 if not complete yet.
+     */
+    private int headerLength() throws IOException {
+      if (pending.length < 10) {
+        return -1;
+      }
+      if ((pending[0] & 0xFF) != 0x1F || (pending[1] & 0xFF) != 0x8B || pending[2] != 8) {
+        throw new IOException("Not a gzip stream");
+      }
+      int flags = pending[3];
+      int p = 10;
+      if ((flags & FEXTRA) != 0) {
+        if (p + 2 > pending.length) {
+          return -1;
+        }
+        p += 2 + ((pending[p] & 0xFF) | (pending[p + 1] & 0xFF) << 8);
+      }
+      if ((flags & FNAME) != 0) {
+        p = skipZero(p);
+      }
+      if ((flags & FCOMMENT) != 0 && p != -1) {
+        p = skipZero(p);
+      }
+      if ((flags & FHCRC) != 0 && p != -1) {
+        p += 2;
+      }
+      return p == -1 || p > pending.length ? -1 : p;
+    }
+
+    private int skipZero(int p) {
+      for (; p < pending.length; p++) {
+        if (pending[p] == 0) {
+          return p + 1;
+        }
+      }
+      return -1;
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
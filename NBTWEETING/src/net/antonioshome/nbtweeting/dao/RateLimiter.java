@@ -0,0 +1,251 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * RateLimiter controls the rate of requests sent to Twitter. Each request
+ * takes a token from a bucket that is refilled at a constant rate, and
+ * requests waiting for a token are served by priority and then in order
+ * of arrival.
+ * <p>
+ * When the server throttles us nobody gets a token until the server's
+ * Retry-After (or, if it didn't say, a jittered exponential backoff) has
+ * elapsed. The refill rate is halved on each throttle and slowly recovers
+ * with each success, so the rate settles around what the server allows.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class RateLimiter {
+
+  /**
+   * Priority of a request.
+   */
+  public enum Priority {
+    /** Requests the user is waiting for */
+    HIGH,
+    /** Requests for more pages of results */
+    NORMAL,
+    /** Background refreshes */
+    LOW
+  }
+
+  /** Backoff after the first throttle, when the server doesn't say */
+  private static final long BASE_BACKOFF = 1000;
+  private static final long MAX_BACKOFF = 5 * 60 * 1000;
+  private static final RateLimiter DEFAULT = new RateLimiter(1.0, 10);
+
+  private final double maxRate;
+  private final double minRate;
+  private final int capacity;
+  private final Random random = new Random();
+  private final PriorityQueue<Waiter> waiters = new PriorityQueue<Waiter>();
+  private double rate;
+  private double tokens;
+  private long lastRefill;
+  private long blockedUntil;
+  private int failures;
+  private long sequence;
+
+  /**
+   * @return the rate limiter shared by all searches.
+   */
+  public static RateLimiter getDefault() {
+    return DEFAULT;
+  }
+
+  /**
+   * Creates a rate limiter.
+   * @param maxRate The maximum number of requests per second.
+   * @param capacity The maximum number of requests that can be sent at once
+   *   after a period of inactivity.
+   */
+  public RateLimiter(double maxRate, int capacity) {
+    if (maxRate <= 0 || capacity < 1) {
+      throw new IllegalArgumentException("Wrong rate " + maxRate + " or capacity " + capacity);
+    }
+    this.maxRate = maxRate;
+    this.minRate = maxRate / 64;
+    this.capacity = capacity;
+    this.rate = maxRate;
+    this.tokens = capacity;
+    this.lastRefill = System.currentTimeMillis();
+  }
+
+  /**
+   * Waits until a request may be sent.
+   * @param priority The priority of the request.
+   * @throws InterruptedException If interrupted while waiting.
+   */
+  public synchronized void acquire(Priority priority) throws InterruptedException {
+    Waiter waiter = new Waiter(priority, sequence++);
+    waiters.add(waiter);
+    try {
+      while (true) {
+        long now = System.currentTimeMillis();
+        refill(now);
+        if (waiters.peek() != waiter) {
+          // Somebody with a higher priority (or earlier) goes first
+          wait();
+          continue;
+        }
+        long delay = blockedUntil - now;
+        if (delay <= 0) {
+          if (tokens >= 1) {
+            tokens -= 1;
+            return;
+          }
+          delay = (long) Math.ceil((1 - tokens) * 1000 / rate);
+        }
+        wait(Math.max(delay, 1));
+      }
+    } finally {
+      waiters.remove(waiter);
+      notifyAll();
+    }
+  }
+
+  /**
+   * Takes a token if one is available right now, without waiting. Requests
+   * waiting in {@link #acquire(Priority)} with the same or a higher priority
+   * go first.
+   * @param priority The priority of the request.
+   * @return 0 if the request may be sent, or the time (milliseconds) to wait
+   *   before trying again.
+   */
+  public synchronized long tryAcquire(Priority priority) {
+    long now = System.currentTimeMillis();
+    refill(now);
+    if (blockedUntil > now) {
+      return blockedUntil - now;
+    }
+    Waiter first = waiters.peek();
+    if (tokens >= 1 && (first == null || first.priority.compareTo(priority) > 0)) {
+      tokens -= 1;
+      return 0;
+    }
+    return Math.max(1, (long) Math.ceil((Math.max(0, 1 - tokens) + (first == null ? 0 : 1)) * 1000 / rate));
+  }
+
+  /**
+   * Tells that a request has succeeded, so the rate may grow again.
+   */
+  public synchronized void succeeded() {
+    failures = 0;
+    if (rate < maxRate) {
+      refill(System.currentTimeMillis());
+      rate = Math.min(maxRate, rate + maxRate / 16);
+    }
+  }
+
+  /**
+   * Tells that the server has throttled a request. Nobody gets a token
+   * until the server's delay (or our own backoff) has elapsed.
+   * @param retryAfter The time (milliseconds) the server asked us to wait,
+   *   or -1 if it didn't say.
+   * @return The time (milliseconds) until requests are allowed again.
+   */
+  public synchronized long throttled(long retryAfter) {
+    long now = System.currentTimeMillis();
+    failures++;
+    long delay = retryAfter >= 0 ? retryAfter : backoff(failures);
+    blockedUntil = Math.max(blockedUntil, now + delay);
+    refill(now);
+    rate = Math.max(minRate, rate / 2);
+    // Just one request goes when the delay has elapsed, to probe the server
+    tokens = Math.min(tokens, 1);
+    notifyAll();
+    return blockedUntil - now;
+  }
+
+  /**
+   * @return the current rate, in requests per second.
+   */
+  public synchronized double getRate() {
+    return rate;
+  }
+
+  /**
+   * Computes an exponential backoff with "equal jitter": half of it is
+   * fixed and half of it random, so that clients don't retry all at once.
+   */
+  private long backoff(int attempt) {
+    long delay = BASE_BACKOFF << Math.min(attempt - 1, 20);
+    delay = Math.min(delay, MAX_BACKOFF);
+    return delay / 2 + (long) (random.nextDouble() * (delay / 2));
+  }
+
+  /**
+   * Adds the tokens earned since the last refill. No tokens are earned
+   * while throttled, so there's no burst of requests afterwards.
+   */
+  private void refill(long now) {
+    long from = Math.max(lastRefill, blockedUntil);
+    if (now > from) {
+      tokens = Math.min(capacity, tokens + (now - from) * rate / 1000);
+    }
+    lastRefill = Math.max(lastRefill, now);
+  }
+
+  /**
+   * Waiter is a request waiting for a token.
+   */
+  private static final class Waiter implements Comparable<Waiter> {
+
+    private final Priority priority;
+    private final long sequence;
+
+    Waiter(Priority priority, long sequence) {
+      this.priority = priority;
+      this.sequence = sequence;
+    }
+
+    public int compareTo(Waiter other) {
+      int byPriority = priority.compareTo(other.priority);
+      if (byPriority != 0) {
+        return byPriority;
+      }
+      return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,163 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.openide.util.RequestProcessor;
+
+/**
+ * SearchFuture is the result of an asynchronous search. Nobody has to
+ * wait for it: the SearchCallback, if any, is told when it's done.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class SearchFuture
+  implements Future<SearchPage> {
+
+  /** Runs the callbacks, so that they don't hold up the network thread */
+  private static final RequestProcessor CALLBACKS = new RequestProcessor(SearchFuture.class.getName(), 2);
+
+  private final CountDownLatch done = new CountDownLatch(1);
+  private final SearchCallback callback;
+  private SearchPage page;
+  private Exception failure;
+  private boolean cancelled;
+  private Runnable onCancel;
+
+  SearchFuture(SearchCallback callback) {
+    this.callback = callback;
+  }
+
+  /**
+   * Sets what to do to abandon the search if cancelled.
+   */
+  synchronized void setOnCancel(Runnable onCancel) {
+    this.onCancel = onCancel;
+  }
+
+  void completed(final SearchPage result) {
+    synchronized (this) {
+      if (isDone()) {
+        return;
+      }
+      page = result;
+      done.countDown();
+    }
+    if (callback != null) {
+      CALLBACKS.post(new Runnable() {
+
+        public void run() {
+          callback.completed(result);
+        }
+      });
+    }
+  }
+
+  void failed(final Exception reason) {
+    synchronized (this) {
+      if (isDone()) {
+        return;
+      }
+      failure = reason;
+      done.countDown();
+    }
+    if (callback != null) {
+      CALLBACKS.post(new Runnable() {
+
+        public void run() {
+          callback.failed(reason);
+        }
+      });
+    }
+  }
+
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    Runnable abandon;
+    synchronized (this) {
+      if (isDone()) {
+        return false;
+      }
+      cancelled = true;
+      abandon = onCancel;
+    }
+    failed(new CancellationException());
+    if (abandon != null) {
+      abandon.run();
+    }
+    return true;
+  }
+
+  public synchronized boolean isCancelled() {
+    return cancelled;
+  }
+
+  public boolean isDone() {
+    return done.getCount() == 0;
+  }
+
+  public SearchPage get() throws InterruptedException, ExecutionException {
+    done.await();
+    return result();
+  }
+
+  public SearchPage get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+    if (!done.await(timeout, unit)) {
+      throw new TimeoutException();
+    }
+    return result();
+  }
+
+  private synchronized SearchPage result() throws ExecutionException {
+    if (cancelled) {
+      throw new CancellationException();
+    }
+    if (failure != null) {
+      throw new ExecutionException(failure);
+    }
+    // Each caller gets its own page, the tweets are shared
+    return new SearchPage(page);
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,139 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import net.antonioshome.nbtweeting.entities.Tweet;
+
+/**
+ * SearchPage is a page of results of the Twitter Search API: the
+ * tweets in an Atom feed plus the feed-level links that tell how to
+ * refresh the search or how to retrieve the next page.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class SearchPage {
+
+  private final List<Tweet> tweets;
+  private String refreshURL;
+  private String nextURL;
+
+  SearchPage() {
+    this.tweets = new ArrayList<Tweet>();
+  }
+
+  SearchPage(SearchPage other) {
+    this.tweets = new ArrayList<Tweet>(other.tweets);
+    this.refreshURL = other.refreshURL;
+    this.nextURL = other.nextURL;
+  }
+
+  /**
+   * @return the tweets in this page, newest first.
+   */
+  public List<Tweet> getTweets() {
+    return tweets;
+  }
+
+  /**
+   * @return the URL of the rel="refresh" link, or null.
+   */
+  public String getRefreshURL() {
+    return refreshURL;
+  }
+
+  void setRefreshURL(String refreshURL) {
+    this.refreshURL = refreshURL;
+  }
+
+  /**
+   * @return the URL of the rel="next" link, or null if this is the last page.
+   */
+  public String getNextURL() {
+    return nextURL;
+  }
+
+  void setNextURL(String nextURL) {
+    this.nextURL = nextURL;
+  }
+
+  /**
+   * Returns the id of the newest tweet known to the server when this page
+   * was built. This is the "since_id" of the refresh link or, if there's
+   * no such link, the biggest tweet id in this page.
+   * @return The newest tweet id, or 0 if unknown.
+   */
+  public long getSinceId() {
+    long sinceId = parseParameter(refreshURL, "since_id"); // NOI18N
+    for (Tweet tweet : tweets) {
+      sinceId = Math.max(sinceId, tweet.getId());
+    }
+    return sinceId;
+  }
+
+  /**
+   * Extracts a numeric query parameter from an URL.
+   * @param url The URL, may be null.
+   * @param name The parameter name.
+   * @return The value of the parameter, or 0 if not found or not numeric.
+   */
+  private static long parseParameter(String url, String name) {
+    if (url == null) {
+      return 0;
+    }
+    int start = url.indexOf('?');
+    while (start != -1) {
+      start++;
+      int end = url.indexOf('&', start);
+      String parameter = end == -1 ? url.substring(start) : url.substring(start, end);
+      if (parameter.startsWith(name + "=")) {
+        try {
+          return Long.parseLong(parameter.substring(name.length() + 1));
+        } catch (NumberFormatException ex) {
+          return 0;
+        }
+      }
+      start = end;
+    }
+    return 0;
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
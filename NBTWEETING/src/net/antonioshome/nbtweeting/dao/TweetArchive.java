@@ -0,0 +1,570 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.antonioshome.nbtweeting.entities.Tweet;
+import net.antonioshome.nbtweeting.entities.TweetAuthor;
+
+/**
+ * TweetArchive is an append-only log of the tweets of a query, kept on
+ * disk so that history survives restarts and queries may be shown
+ * without searching again. The log is split in segments of a fixed size
+ * that are memory-mapped. Each segment has a compact index with the id,
+ * timestamp and position of its tweets, that is written to disk when the
+ * segment is full, so opening the archive reads the indexes only, and
+ * tweets are read from the mapped segments when required.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class TweetArchive {
+
+  private static final Logger LOGGER = Logger.getLogger(TweetArchive.class.getName());
+  private static final Charset UTF8 = Charset.forName("UTF-8"); // NOI18N
+  private static final String SEGMENT_EXTENSION = ".log"; // NOI18N
+  private static final String INDEX_EXTENSION = ".idx"; // NOI18N
+  private static final int MAGIC = 0x4e425441; // "NBTA"
+  private static final int FORMAT = 1;
+  /** Magic, format, number of tweets and end of the last tweet */
+  private static final int HEADER_SIZE = 16;
+  private static final int COUNT_OFFSET = 8;
+  private static final int END_OFFSET = 12;
+  /** Length, id and timestamp, before the text fields */
+  private static final int RECORD_HEADER_SIZE = 20;
+  private static final int FIELDS = 4;
+
+  private static Map<String, TweetArchive> archives = new HashMap<String, TweetArchive>();
+
+  private final File directory;
+  private final int segmentSize;
+  /** The segments, oldest first, null until opened */
+  private List<Segment> segments;
+  /** The number of the next segment */
+  private int nextSegment;
+
+  /**
+   * Returns the archive of a search term in the user's home directory.
+   * @param keyword The search term.
+   * @return The archive.
+   */
+  public static synchronized TweetArchive getDefault(String keyword) {
+    TweetArchive archive = archives.get(keyword);
+    if (archive == null) {
+      File root = new File(new File(System.getProperty("user.home"), ".nbtweeting"), "archive"); // NOI18N
+      archive = new TweetArchive(new File(root, FeedCache.fileName(keyword)));
+      archives.put(keyword, archive);
+    }
+    return archive;
+  }
+
+  /**
+   * Creates an archive in a directory, with segments of 8 MB.
+   * @param directory The directory where segments are stored.
+   */
+  public TweetArchive(File directory) {
+    this(directory, 8 * 1024 * 1024);
+  }
+
+  /**
+   * Creates an archive in a directory.
+   * @param directory The directory where segments are stored.
+   * @param segmentSize The size of each segment, in bytes.
+   */
+  public TweetArchive(File directory, int segmentSize) {
+    this.directory = directory;
+    this.segmentSize = segmentSize;
+  }
+
+  /**
+   * Appends a tweet to the archive.
+   * @param tweet The tweet.
+   * @return false if the tweet could not be archived.
+   */
+  public synchronized boolean append(Tweet tweet) {
+    TweetAuthor author = tweet.getAuthor();
+    URL url = tweet.getUrl();
+    URL authorURL = author == null ? null : author.getTwitterURL();
+    byte[][] fields = {
+      encode(url == null ? null : url.toExternalForm()),
+      encode(tweet.getContent()),
+      encode(author == null ? null : author.getName()),
+      encode(authorURL == null ? null : authorURL.toExternalForm())
+    };
+    int length = RECORD_HEADER_SIZE;
+    for (byte[] field : fields) {
+      length += 4 + (field == null ? 0 : field.length);
+    }
+    if (HEADER_SIZE + length > segmentSize) {
+      LOGGER.log(Level.WARNING, "Tweet {0} is too big to be archived", tweet.getId());
+      return false;
+    }
+    try {
+      Segment segment = getSegments().isEmpty() ? null : segments.get(segments.size() - 1);
+      if (segment == null || segment.getEnd() + length > segment.buffer.capacity()) {
+        if (segment != null) {
+          segment.seal();
+        }
+        segment = Segment.create(directory, nextSegment++, segmentSize);
+        segments.add(segment);
+      }
+      segment.append(tweet.getId(), tweet.getTimestamp(), length, fields);
+      return true;
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Cannot archive tweets in " + directory, ex);
+      return false;
+    }
+  }
+
+  /**
+   * @return the number of tweets in the archive.
+   */
+  public synchronized int size() {
+    int size = 0;
+    for (Segment segment : getSegments()) {
+      size += segment.count;
+    }
+    return size;
+  }
+
+  /**
+   * Reads the newest tweets (those with the greatest ids) in the archive.
+   * Segments with no tweets newer than a timestamp are skipped.
+   * Text fields are decoded from the archive when first required.
+   * @param max The maximum number of tweets to read, 0 for no limit.
+   * @param oldest The timestamp of the oldest tweet to read, 0 for no limit.
+   * @param sink Where tweets go, newest first.
+   * @return The number of tweets read.
+   */
+  public synchronized int read(int max, long oldest, TweetSink sink) {
+    List<long[]> candidates = new ArrayList<long[]>();
+    List<Segment> all = getSegments();
+    for (int s = 0; s < all.size(); s++) {
+      Segment segment = all.get(s);
+      if (segment.count == 0 || segment.maxTimestamp < oldest) {
+        continue;
+      }
+      for (int i = 0; i < segment.count; i++) {
+        if (segment.timestamps[i] >= oldest) {
+          candidates.add(new long[]{segment.ids[i], s, i});
+        }
+      }
+    }
+    // Newest first
+    Collections.sort(candidates, new Comparator<long[]>() {
+
+      public int compare(long[] a, long[] b) {
+        return a[0] > b[0] ? -1 : (a[0] == b[0] ? 0 : 1);
+      }
+    });
+    int count = max > 0 ? Math.min(max, candidates.size()) : candidates.size();
+    for (int i = 0; i < count; i++) {
+      long[] candidate = candidates.get(i);
+      sink.add(all.get((int) candidate[1]).read((int) candidate[2]));
+    }
+    return count;
+  }
+
+  /**
+   * Removes all tweets.
+   */
+  public synchronized void clear() {
+    for (Segment segment : getSegments()) {
+      segment.delete();
+    }
+    segments.clear();
+    nextSegment = 0;
+  }
+
+  /**
+   * Writes the tweets appended so far to disk.
+   */
+  public synchronized void flush() {
+    if (segments != null && !segments.isEmpty()) {
+      segments.get(segments.size() - 1).buffer.force();
+    }
+  }
+
+  /**
+   * Opens the segments the first time they're required.
+   */
+  private List<Segment> getSegments() {
+    if (segments != null) {
+      return segments;
+    }
+    segments = new ArrayList<Segment>();
+    File[] files = directory.listFiles(new FilenameFilter() {
+
+      public boolean accept(File dir, String name) {
+        return name.endsWith(SEGMENT_EXTENSION);
+      }
+    });
+    if (files == null) {
+      return segments;
+    }
+    // Segment names are zero padded numbers, oldest first
+    Arrays.sort(files);
+    if (files.length > 0) {
+      String last = files[files.length - 1].getName();
+      try {
+        nextSegment = Integer.parseInt(last.substring(0, last.length() - SEGMENT_EXTENSION.length())) + 1;
+      } catch (NumberFormatException ex) {
+        nextSegment = files.length;
+      }
+    }
+    for (int i = 0; i < files.length; i++) {
+      try {
+        segments.add(Segment.open(files[i], i < files.length - 1));
+      } catch (IOException ex) {
+        LOGGER.log(Level.WARNING, "Wrong archive segment " + files[i], ex);
+      }
+    }
+    return segments;
+  }
+
+  private static byte[] encode(String text) {
+    if (text == null) {
+      return null;
+    }
+    ByteBuffer bytes = UTF8.encode(text);
+    byte[] field = new byte[bytes.remaining()];
+    bytes.get(field);
+    return field;
+  }
+
+  /**
+   * Segment is a memory-mapped file with a header and tweets one after
+   * the other, and the index of its tweets in memory.
+   * Each tweet is its length, id and timestamp, followed by the url,
+   * content, author name and author URI as their length (-1 if absent)
+   * and UTF-8 bytes.
+   */
+  private static final class Segment {
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private int count;
+    private long[] ids;
+    private long[] timestamps;
+    private int[] positions;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    private Segment(File file, MappedByteBuffer buffer, int capacity) {
+      this.file = file;
+      this.buffer = buffer;
+      this.ids = new long[capacity];
+      this.timestamps = new long[capacity];
+      this.positions = new int[capacity];
+    }
+
+    static Segment create(File directory, int number, int size) throws IOException {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("Cannot create " + directory);
+      }
+      File file = new File(directory, String.format("%08d", number) + SEGMENT_EXTENSION); // NOI18N
+      Segment segment = new Segment(file, map(file, FileChannel.MapMode.READ_WRITE, size), 64);
+      segment.buffer.putInt(0, MAGIC);
+      segment.buffer.putInt(4, FORMAT);
+      segment.buffer.putInt(COUNT_OFFSET, 0);
+      segment.buffer.putInt(END_OFFSET, HEADER_SIZE);
+      return segment;
+    }
+
+    /**
+     * Opens a segment, reading its index if it's full and the index is
+     * there, or else scanning its tweets.
+     */
+    static Segment open(File file, boolean sealed) throws IOException {
+      int size = (int) file.length();
+      MappedByteBuffer buffer = map(file, sealed ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, size);
+      if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != FORMAT) {
+        throw new IOException("Not an archive segment");
+      }
+      int count = buffer.getInt(COUNT_OFFSET);
+      Segment segment = new Segment(file, buffer, Math.max(count, 64));
+      if (!sealed || !segment.readIndex(count)) {
+        segment.scan(count);
+      }
+      return segment;
+    }
+
+    private static MappedByteBuffer map(File file, FileChannel.MapMode mode, int size) throws IOException {
+      RandomAccessFile raf = new RandomAccessFile(file, mode == FileChannel.MapMode.READ_ONLY ? "r" : "rw"); // NOI18N
+      try {
+        // The mapping remains valid once the channel is closed
+        return raf.getChannel().map(mode, 0, size);
+      } finally {
+        raf.close();
+      }
+    }
+
+    int getEnd() {
+      return buffer.getInt(END_OFFSET);
+    }
+
+    void append(long id, long timestamp, int length, byte[][] fields) {
+      int position = getEnd();
+      ByteBuffer record = buffer.duplicate();
+      record.position(position);
+      record.putInt(length);
+      record.putLong(id);
+      record.putLong(timestamp);
+      for (byte[] field : fields) {
+        if (field == null) {
+          record.putInt(-1);
+        } else {
+          record.putInt(field.length);
+          record.put(field);
+        }
+      }
+      // The header is updated after the tweet is written
+      buffer.putInt(END_OFFSET, position + length);
+      buffer.putInt(COUNT_OFFSET, count + 1);
+      index(id, timestamp, position);
+    }
+
+    /**
+     * Reads a tweet, whose text fields are decoded when required.
+     * @param i The number of the tweet in this segment.
+     */
+    Tweet read(int i) {
+      int position = positions[i];
+      int length = buffer.getInt(position);
+      byte[] bytes = new byte[length - RECORD_HEADER_SIZE];
+      ByteBuffer record = buffer.duplicate();
+      record.position(position + RECORD_HEADER_SIZE);
+      record.get(bytes);
+      Tweet tweet = new Tweet(new RecordText(bytes));
+      tweet.setId(ids[i]);
+      tweet.setTimestamp(timestamps[i]);
+      return tweet;
+    }
+
+    /**
+     * Writes the index to disk, once the segment is full.
+     */
+    void seal() {
+      buffer.force();
+      try {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile())));
+        try {
+          output.writeInt(count);
+          for (int i = 0; i < count; i++) {
+            output.writeLong(ids[i]);
+            output.writeLong(timestamps[i]);
+            output.writeInt(positions[i]);
+          }
+        } finally {
+          output.close();
+        }
+      } catch (IOException ex) {
+        // The segment will be scanned instead
+        LOGGER.log(Level.FINE, "Cannot write index " + indexFile(), ex);
+        indexFile().delete();
+      }
+    }
+
+    void delete() {
+      file.delete();
+      indexFile().delete();
+    }
+
+    private boolean readIndex(int expected) {
+      File index = indexFile();
+      if (!index.isFile()) {
+        return false;
+      }
+      try {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(index)));
+        try {
+          if (input.readInt() != expected) {
+            return false;
+          }
+          for (int i = 0; i < expected; i++) {
+            long id = input.readLong();
+            long timestamp = input.readLong();
+            index(id, timestamp, input.readInt());
+          }
+          return true;
+        } finally {
+          input.close();
+        }
+      } catch (IOException ex) {
+        LOGGER.log(Level.FINE, "Wrong index " + index, ex);
+        count = 0;
+        maxTimestamp = Long.MIN_VALUE;
+        return false;
+      }
+    }
+
+    private void scan(int expected) throws IOException {
+      int end = getEnd();
+      int position = HEADER_SIZE;
+      for (int i = 0; i < expected; i++) {
+        int length = buffer.getInt(position);
+        if (length < RECORD_HEADER_SIZE + 4 * FIELDS || position + length > end) {
+          throw new IOException("Wrong tweet at " + position);
+        }
+        index(buffer.getLong(position + 4), buffer.getLong(position + 12), position);
+        position += length;
+      }
+    }
+
+    private void index(long id, long timestamp, int position) {
+      if (count == ids.length) {
+        ids = copyOf(ids, count * 2);
+        timestamps = copyOf(timestamps, count * 2);
+        int[] bigger = new int[count * 2];
+        System.arraycopy(positions, 0, bigger, 0, count);
+        positions = bigger;
+      }
+      ids[count] = id;
+      timestamps[count] = timestamp;
+      positions[count] = position;
+      maxTimestamp = Math.max(maxTimestamp, timestamp);
+      count++;
+    }
+
+    private File indexFile() {
+      String name = file.getName();
+      return new File(file.getParentFile(), name.substring(0, name.length() - SEGMENT_EXTENSION.length()) + INDEX_EXTENSION);
+    }
+
+    private static long[] copyOf(long[] array, int capacity) {
+      long[] copy = new long[capacity];
+      System.arraycopy(array, 0, copy, 0, array.length);
+      return copy;
+    }
+  }
+
+  /**
+   * RecordText decodes the text fields of an archived tweet. The url and
+   * content are plain UTF-8, so they may be kept elsewhere as they are.
+   */
+  private static final class RecordText implements Tweet.RawText {
+
+    private final byte[] bytes;
+
+    RecordText(byte[] bytes) {
+      this.bytes = bytes;
+    }
+
+    public String getUrlSpec() {
+      return decode(0);
+    }
+
+    public String getContent() {
+      return decode(1);
+    }
+
+    public String getAuthorName() {
+      return decode(2);
+    }
+
+    public String getAuthorURI() {
+      return decode(3);
+    }
+
+    public String getAuthorImage() {
+      // Not archived, known again when the author is seen in a feed
+      return null;
+    }
+
+    public int getLength(int field) {
+      return ByteBuffer.wrap(bytes, start(field), 4).getInt();
+    }
+
+    public void copy(int field, byte[] target, int offset) {
+      int start = start(field);
+      int length = ByteBuffer.wrap(bytes, start, 4).getInt();
+      System.arraycopy(bytes, start + 4, target, offset, length);
+    }
+
+    public Tweet.Encoding getEncoding() {
+      return null;
+    }
+
+    private String decode(int field) {
+      int start = start(field);
+      int length = ByteBuffer.wrap(bytes, start, 4).getInt();
+      if (length == -1) {
+        return null;
+      }
+      return UTF8.decode(ByteBuffer.wrap(bytes, start + 4, length)).toString();
+    }
+
+    /**
+     * @return where the length of a field is, followed by its bytes.
+     */
+    private int start(int field) {
+      ByteBuffer fields = ByteBuffer.wrap(bytes);
+      for (int i = 0; i < field; i++) {
+        int length = fields.getInt();
+        if (length > 0) {
+          fields.position(fields.position() + length);
+        }
+      }
+      return fields.position();
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -1,25 +1,41 @@
 /* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
 package net.antonioshome.nbtweeting.dao;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.InputStream;
-import java.net.HttpURLConnection;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLEncoder;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import javax.xml.stream.XMLInputFactory;
-import javax.xml.stream.XMLResolver;
-import javax.xml.stream.XMLStreamConstants;
 import javax.xml.stream.XMLStreamException;
-import javax.xml.stream.XMLStreamReader;
 import net.antonioshome.nbtweeting.entities.Query;
 import net.antonioshome.nbtweeting.entities.Tweet;
+import org.openide.util.RequestProcessor;
 
 /**
  * TwitterSearchDAO is responsible for performing a search on Twitter
@@ -27,38 +43,601 @@ import net.antonioshome.nbtweeting.entities.Tweet;
  */
 public final class TwitterSearchDAO {
 
-  private static final String ATOM_NS = "http://www.w3.org/2005/Atom";
+  private static final Logger LOGGER = Logger.getLogger(TwitterSearchDAO.class.getName());
+  private static final String SEARCH_URL = "http://search.twitter.com/search.atom";
+  /** Cached bodies bigger than this are memory-mapped instead of read */
+  private static final long MAPPED_THRESHOLD = 64 * 1024;
+  /** Maximum number of times a throttled request is sent */
+  private static final int MAX_ATTEMPTS = 4;
+  /** Maximum number of searches running at the same time in batch searches */
+  private static final int MAX_CONCURRENT_SEARCHES = 8;
+  private static final RequestProcessor BATCH_PROCESSOR =
+    new RequestProcessor(TwitterSearchDAO.class.getName(), MAX_CONCURRENT_SEARCHES, true);
+  /** Starts asynchronous searches that had to wait for the rate limiter */
+  private static final RequestProcessor ASYNC_PROCESSOR =
+    new RequestProcessor(TwitterSearchDAO.class.getName() + ".async", 1); // NOI18N
+  /** Reads and writes the cache for asynchronous searches, out of the network thread */
+  private static final RequestProcessor CACHE_PROCESSOR =
+    new RequestProcessor(TwitterSearchDAO.class.getName() + ".cache", 1); // NOI18N
+  /** Cancels the searches of a batch that run out of time */
+  private static final RequestProcessor TIMEOUTS =
+    new RequestProcessor(TwitterSearchDAO.class.getName() + ".timeouts", 1); // NOI18N
+  /** Requests being retrieved right now, by request key */
+  private static final ConcurrentMap<String, Fetch> IN_FLIGHT = new ConcurrentHashMap<String, Fetch>();
+  /** Maximum number of previous searches whose results are kept for revalidation */
+  private static final int MAX_REVALIDATIONS = 64;
+  /** Validators and results of the last previous searches, by request key, least recently used first */
+  private static final Map<String, Revalidation> REVALIDATIONS = Collections.synchronizedMap(
+    new LinkedHashMap<String, Revalidation>(MAX_REVALIDATIONS, 0.75f, true) {
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Revalidation> eldest) {
+        return size() > MAX_REVALIDATIONS;
+      }
+    });
+
+  private HttpTransport transport;
+  private AtomParseEngine engine;
+  private FeedCache cache;
+  private RateLimiter limiter;
+  private String searchURL = SEARCH_URL;
 
   public TwitterSearchDAO() {
+    this(AtomParseEngine.getDefault());
+  }
+
+  /**
+   * Creates a DAO that parses the results with a given engine.
+   * @param engine The AtomParseEngine, possibly with a restricted projection.
+   */
+  public TwitterSearchDAO(AtomParseEngine engine) {
+    this(engine, FeedCache.getDefault());
+  }
+
+  /**
+   * Creates a DAO that parses the results with a given engine and keeps
+   * the responses in a given cache.
+   * @param engine The AtomParseEngine, possibly with a restricted projection.
+   * @param cache The FeedCache.
+   */
+  public TwitterSearchDAO(AtomParseEngine engine, FeedCache cache) {
+    this.transport = HttpTransport.getDefault();
+    this.engine = engine;
+    this.cache = cache;
+    this.limiter = RateLimiter.getDefault();
+  }
+
+  /**
+   * Changes the rate limiter shared with other DAOs.
+   * @param limiter The RateLimiter to use.
+   */
+  void setRateLimiter(RateLimiter limiter) {
+    this.limiter = limiter;
+  }
+
+  /**
+   * Changes the URL searches are sent to.
+   * @param searchURL The URL of the Twitter Search API, or a replacement.
+   */
+  void setSearchURL(String searchURL) {
+    this.searchURL = searchURL;
   }
 
   public List<Tweet> search(String query)
     throws IOException, XMLStreamException {
+    return search(query, 0).getTweets();
+  }
 
-    // Prepare the twitter search url
-    // This should be something like:
-    // http://search.twitter.com/search.atom?q=%23netbeans&lang=en&rpp=100
-    StringBuilder sb = new StringBuilder();
-    sb.append("http://search.twitter.com/search.atom");
-    sb.append("?q=").append(URLEncoder.encode(query, "UTF-8"));
-    sb.append("&rpp=100");
+  /**
+   * Searches for tweets newer than a given one.
+   * @param query The query term.
+   * @param sinceId The id of the newest tweet already known, or 0 to retrieve
+   *   a full page of results.
+   * @return The page of results, with tweets newer than sinceId only.
+   * @throws IOException If an I/O error happens.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  public SearchPage search(String query, long sinceId)
+    throws IOException, XMLStreamException {
+    return search(query, sinceId, null);
+  }
 
-    URL searchURL = new URL(sb.toString());
+  /**
+   * Searches for tweets newer than a given one. The search may be cancelled
+   * at any time, and then fails with an InterruptedIOException.
+   * @param query The query term.
+   * @param sinceId The id of the newest tweet already known, or 0 to retrieve
+   *   a full page of results.
+   * @param cancellation The handle to cancel the search, may be null.
+   * @return The page of results, with tweets newer than sinceId only.
+   * @throws IOException If an I/O error happens, or if cancelled.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  public SearchPage search(String query, long sinceId, Cancellation cancellation)
+    throws IOException, XMLStreamException {
+    return search(query, sinceId, RateLimiter.Priority.HIGH, cancellation, null);
+  }
 
-    // Open an HTTPUrlConnection to twitter...
-    HttpURLConnection conn = (HttpURLConnection) searchURL.openConnection();
+  /**
+   * Searches for tweets newer than a given one, giving each tweet to a
+   * TweetSink as soon as it's parsed.
+   * @param query The query term.
+   * @param sinceId The id of the newest tweet already known, or 0 to retrieve
+   *   a full page of results.
+   * @param cancellation The handle to cancel the search, may be null.
+   * @param sink Receives the tweets of the page, in order, as they arrive.
+   * @return The page of results, with tweets newer than sinceId only.
+   * @throws IOException If an I/O error happens, or if cancelled.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  public SearchPage search(String query, long sinceId, Cancellation cancellation, TweetSink sink)
+    throws IOException, XMLStreamException {
+    return search(query, sinceId, RateLimiter.Priority.HIGH, cancellation, sink);
+  }
 
-    conn.setDoInput(true);
-    conn.connect();
-    InputStream input = conn.getInputStream();
+  private SearchPage search(String query, long sinceId, RateLimiter.Priority priority,
+    Cancellation cancellation, TweetSink sink) throws IOException, XMLStreamException {
+    String url = buildSearchURL(query);
+    if (sinceId > 0) {
+      url = url + "&since_id=" + sinceId;
+    }
+    return fetch(new URL(url), priority, cancellation, sink);
+  }
 
-    // Parse the XML output anc reate a list of tweet entities
-    List<Tweet> tweets = scan(input);
+  /**
+   * Retrieves the page that follows another one.
+   * @param nextURL The rel="next" link of the previous page, as returned
+   *   by {@link SearchPage#getNextURL()}.
+   * @return The next page of results.
+   * @throws IOException If an I/O error happens.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  public SearchPage searchNext(String nextURL)
+    throws IOException, XMLStreamException {
+    return searchNext(nextURL, null);
+  }
+
+  /**
+   * Retrieves the page that follows another one. The search may be cancelled
+   * at any time, and then fails with an InterruptedIOException.
+   * @param nextURL The rel="next" link of the previous page, as returned
+   *   by {@link SearchPage#getNextURL()}.
+   * @param cancellation The handle to cancel the search, may be null.
+   * @return The next page of results.
+   * @throws IOException If an I/O error happens, or if cancelled.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  public SearchPage searchNext(String nextURL, Cancellation cancellation)
+    throws IOException, XMLStreamException {
+    return searchNext(nextURL, cancellation, null);
+  }
+
+  /**
+   * Retrieves the page that follows another one, giving each tweet to a
+   * TweetSink as soon as it's parsed.
+   * @param nextURL The rel="next" link of the previous page.
+   * @param cancellation The handle to cancel the search, may be null.
+   * @param sink Receives the tweets of the page, in order, as they arrive.
+   * @return The next page of results.
+   * @throws IOException If an I/O error happens, or if cancelled.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  public SearchPage searchNext(String nextURL, Cancellation cancellation, TweetSink sink)
+    throws IOException, XMLStreamException {
+    return fetch(new URL(new URL(searchURL), nextURL), RateLimiter.Priority.NORMAL, cancellation, sink);
+  }
+
+  /**
+   * Searches several queries concurrently, for tweets newer than the ones
+   * each query has already seen. Queries that fail or don't finish in time
+   * are reported in the result, without holding up the rest. These are
+   * background searches, so they wait for other searches in the rate limiter.
+   * The pages are not merged into the queries, see {@link Query#update(SearchPage)}.
+   * @param queries The queries to search.
+   * @param queryTimeout Maximum time (milliseconds) for each query, counted
+   *   from the moment its search starts running.
+   * @param batchTimeout Maximum time (milliseconds) to wait for all queries.
+   * @return The pages of results and the failures, by query.
+   * @throws InterruptedException If the calling thread is interrupted while waiting.
+   */
+  public BatchSearchResult search(Collection<Query> queries, long queryTimeout, long batchTimeout)
+    throws InterruptedException {
+
+    long batchDeadline = System.currentTimeMillis() + batchTimeout;
+
+    // Start all searches, at most MAX_CONCURRENT_SEARCHES run at the same time...
+    Map<Query, BatchSearch> searches = new LinkedHashMap<Query, BatchSearch>();
+    Map<Query, Future<SearchPage>> futures = new LinkedHashMap<Query, Future<SearchPage>>();
+    for (Query query : queries) {
+      BatchSearch search = new BatchSearch(query.getKeyword(), query.getSinceId(), queryTimeout);
+      searches.put(query, search);
+      futures.put(query, BATCH_PROCESSOR.submit(search));
+    }
+
+    // ... and collect whatever is ready before the batch deadline. Each
+    // search gives up by itself when its own time is over
+    BatchSearchResult result = new BatchSearchResult();
+    for (Map.Entry<Query, Future<SearchPage>> entry : futures.entrySet()) {
+      Future<SearchPage> future = entry.getValue();
+      long wait = batchDeadline - System.currentTimeMillis();
+      try {
+        result.succeeded(entry.getKey(), future.get(Math.max(wait, 0), TimeUnit.MILLISECONDS));
+      } catch (TimeoutException ex) {
+        // Searches still waiting don't start, running ones close their connection
+        future.cancel(true);
+        searches.get(entry.getKey()).cancel();
+        result.failed(entry.getKey(), ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        result.failed(entry.getKey(), cause instanceof Exception ? (Exception) cause : ex);
+      }
+    }
+    return result;
+  }
 
-    // Clean up and return the list
-    input.close();
-    conn.disconnect();
-    return tweets;
+  /**
+   * Loads a page of results from an Atom feed stored in a file, such as
+   * an archived search. The file is memory-mapped and scanned directly,
+   * which is faster than StAX for big files. Feeds in encodings other
+   * than UTF-8 are transcoded while they are read instead.
+   * @param feed The file with an Atom feed.
+   * @return The page of results.
+   * @throws IOException If the file cannot be read.
+   */
+  public SearchPage load(File feed) throws IOException {
+    InputStream input = new FileInputStream(feed);
+    try {
+      byte[] head = new byte[FeedEncoding.HEAD];
+      if (!FeedEncoding.isUTF8(null, head, FeedEncoding.readHead(input, head))) {
+        input.close();
+        input = FeedEncoding.toUTF8(new FileInputStream(feed), null);
+        return parse(input, null);
+      }
+    } finally {
+      input.close();
+    }
+    return AtomByteScanner.open(feed).scanPage(engine.getProjection());
+  }
+
+  /**
+   * Retrieves and parses a page of results.
+   * @param searchURL The URL of the page.
+   * @param priority The priority of the request in the rate limiter.
+   * @param cancellation The handle to cancel the search, may be null.
+   * @param sink Receives the tweets of the page, may be null.
+   * @return The page of results.
+   * @throws IOException If an I/O error happens, or if cancelled.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  private SearchPage fetch(URL searchURL, RateLimiter.Priority priority, Cancellation cancellation,
+    TweetSink sink) throws IOException, XMLStreamException {
+    if (sink == null) {
+      return fetchCancellable(searchURL, priority, cancellation, null);
+    }
+    // Tweets are streamed only when the page is parsed from the network,
+    // those that were not (cached pages, pages retrieved by somebody else)
+    // are given to the sink afterwards
+    CountingSink counting = new CountingSink(sink);
+    SearchPage page = fetchCancellable(searchURL, priority, cancellation, counting);
+    List<Tweet> tweets = page.getTweets();
+    for (int i = counting.getCount(); i < tweets.size(); i++) {
+      sink.add(tweets.get(i));
+    }
+    return page;
+  }
+
+  /**
+   * Retrieves and parses a page of results, interrupting the wait if the
+   * search is cancelled.
+   */
+  private SearchPage fetchCancellable(URL searchURL, RateLimiter.Priority priority,
+    Cancellation cancellation, TweetSink sink) throws IOException, XMLStreamException {
+    if (cancellation == null) {
+      return coalesce(searchURL, priority, null, sink);
+    }
+    // The thread is interrupted if cancelled while waiting
+    cancellation.enter();
+    try {
+      return coalesce(searchURL, priority, cancellation, sink);
+    } catch (IOException ex) {
+      // A closed socket or an interrupted wait means we've been cancelled
+      cancellation.check();
+      throw ex;
+    } catch (XMLStreamException ex) {
+      cancellation.check();
+      throw ex;
+    } finally {
+      cancellation.exit();
+    }
+  }
+
+  /**
+   * Retrieves and parses a page of results, unless somebody else is
+   * already retrieving it.
+   * @param searchURL The URL of the page.
+   * @param priority The priority of the request in the rate limiter.
+   * @param cancellation The handle to cancel the search, may be null.
+   * @param sink Receives the tweets if we parse the page ourselves, may be null.
+   * @return The page of results.
+   * @throws IOException If an I/O error happens, or if cancelled.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  private SearchPage coalesce(URL searchURL, RateLimiter.Priority priority, Cancellation cancellation,
+    TweetSink sink) throws IOException, XMLStreamException {
+
+    String key = requestKey(searchURL);
+
+    // If somebody else is already retrieving this same page then
+    // we just wait for it, instead of retrieving and parsing it again
+    Fetch inFlight;
+    do {
+      Fetch fetch = new Fetch(searchURL, key, priority, cancellation, sink);
+      inFlight = IN_FLIGHT.putIfAbsent(key, fetch);
+      if (inFlight == null) {
+        try {
+          fetch.run();
+        } finally {
+          IN_FLIGHT.remove(key, fetch);
+        }
+        inFlight = fetch;
+      } else {
+        try {
+          inFlight.get();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+          throw (IOException) new InterruptedIOException("Interrupted while waiting for " + searchURL).initCause(ex);
+        } catch (ExecutionException ex) {
+          // Handled below
+        }
+      }
+      // If whoever was retrieving the page gave up then we retrieve it ourselves
+    } while (inFlight.isAbandoned() && (cancellation == null || !cancellation.isCancelled()));
+
+    try {
+      // Each caller gets its own page, the tweets are shared
+      return new SearchPage(inFlight.get());
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw (IOException) new InterruptedIOException("Interrupted while waiting for " + searchURL).initCause(ex);
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof XMLStreamException) {
+        throw (XMLStreamException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw (IOException) new IOException("Cannot retrieve " + searchURL).initCause(cause);
+    }
+  }
+
+  /**
+   * Retrieves and parses a page of results. Fresh responses in the cache
+   * are used as they are, stale ones are revalidated and, when offline,
+   * only the cache is used.
+   * @param searchURL The URL of the page.
+   * @param key The key of the request, see {@link #requestKey(URL)}.
+   * @param priority The priority of the request in the rate limiter.
+   * @param cancellation The handle to cancel the search, may be null.
+   * @param sink Receives the tweets as they are parsed from the response, may be null.
+   * @return The page of results.
+   * @throws IOException If an I/O error happens, or if offline and not in the cache.
+   * @throws XMLStreamException If the response cannot be parsed.
+   */
+  private SearchPage fetch(URL searchURL, String key, RateLimiter.Priority priority,
+    Cancellation cancellation, TweetSink sink)
+    throws IOException, XMLStreamException {
+
+    String cacheKey = normalize(searchURL);
+    FeedCache.Entry cached = cache.get(cacheKey);
+    Revalidation previous = REVALIDATIONS.get(key);
+    if (previous != null && cached != null && !previous.matches(cached)) {
+      // The cache has a newer response, probably retrieved by a different DAO
+      previous = null;
+    }
+
+    if (cache.isOffline()) {
+      if (cached == null) {
+        throw new IOException("Not available offline: " + searchURL);
+      }
+      return previous != null ? new SearchPage(previous.getPage()) : load(cached);
+    }
+    if (cached != null && cached.isFresh()) {
+      return previous != null ? new SearchPage(previous.getPage()) : load(cached);
+    }
+
+    // If we already have a response for this URL we ask the server
+    // to revalidate it instead of sending the whole feed again
+    String etag = cached != null ? cached.getETag() : (previous == null ? null : previous.getETag());
+    String lastModified = cached != null ? cached.getLastModified() : (previous == null ? null : previous.getLastModified());
+    HttpTransport.Response response = get(searchURL, etag, lastModified, priority, cancellation);
+
+    FeedCache.Writer writer = null;
+    try {
+      // Not modified? Then there's nothing to parse
+      if (response.isNotModified() && (previous != null || cached != null)) {
+        if (cached != null) {
+          cache.touch(cacheKey);
+        }
+        return previous != null ? new SearchPage(previous.getPage()) : load(cached);
+      }
+
+      // Parse the XML output (decompressed while reading) and create a page
+      // of tweet entities, keeping a copy of the body in the cache
+      writer = openWriter(cacheKey);
+      // The cache keeps the body in UTF-8, as the parser reads it
+      InputStream feed = FeedEncoding.toUTF8(response.getBody(), response.getContentType());
+      CopyInputStream body = new CopyInputStream(feed, writer == null ? null : writer.getOutput());
+      SearchPage page = parse(body, sink);
+      if (writer != null) {
+        body.copyRemaining();
+        body.closeInput();
+        if (body.isCopied()) {
+          try {
+            writer.commit(response.getETag(), response.getLastModified());
+          } catch (IOException ex) {
+            LOGGER.log(Level.WARNING, "Cannot cache " + searchURL, ex);
+          }
+        }
+      }
+
+      // Keep the validators for the next time
+      if (response.getETag() != null || response.getLastModified() != null) {
+        REVALIDATIONS.put(key, new Revalidation(response.getETag(), response.getLastModified(), page));
+      } else {
+        REVALIDATIONS.remove(key);
+      }
+      return page;
+    } finally {
+      if (writer != null) {
+        // Does nothing if already committed
+        writer.abort();
+      }
+      // Clean up, the connection goes back to the pool
+      response.close();
+    }
+  }
+
+  /**
+   * Sends a request when the rate limiter allows it, retrying it if the
+   * server throttles it.
+   * @param searchURL The URL to retrieve.
+   * @param etag The ETag of a previous response, or null.
+   * @param lastModified The Last-Modified header of a previous response, or null.
+   * @param priority The priority of the request in the rate limiter.
+   * @param cancellation The handle to cancel the request, may be null.
+   * @return The Response, that must be closed after use.
+   * @throws IOException If an I/O error happens, if cancelled or if still
+   *   throttled after several attempts.
+   */
+  private HttpTransport.Response get(URL searchURL, String etag, String lastModified,
+    RateLimiter.Priority priority, Cancellation cancellation) throws IOException {
+    for (int attempt = 1;; attempt++) {
+      try {
+        limiter.acquire(priority);
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw (IOException) new InterruptedIOException("Interrupted while waiting for " + searchURL).initCause(ex);
+      }
+      try {
+        HttpTransport.Response response = transport.get(searchURL, etag, lastModified, cancellation);
+        limiter.succeeded();
+        return response;
+      } catch (ThrottledException ex) {
+        // Everybody waits, and we try again when allowed
+        long delay = limiter.throttled(ex.getRetryAfter());
+        if (attempt >= MAX_ATTEMPTS) {
+          throw ex;
+        }
+        LOGGER.log(Level.INFO, "{0}, retrying in {1} ms", new Object[]{ex.getMessage(), delay});
+      }
+    }
+  }
+
+  /**
+   * Parses a response in the cache, memory-mapping it if it's big.
+   * @param entry The cache entry.
+   * @return The page of results.
+   * @throws IOException If the body cannot be read.
+   */
+  private SearchPage load(FeedCache.Entry entry) throws IOException {
+    File body = entry.getBody();
+    if (body.length() > MAPPED_THRESHOLD) {
+      return load(body);
+    }
+    InputStream input = new FileInputStream(body);
+    try {
+      return parse(FeedEncoding.toUTF8(input, null), null);
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Parses a feed as it's read, keeping the text of the tweets undecoded
+   * until it's needed.
+   * @param input The feed.
+   * @param sink Where tweets go as they are parsed, may be null.
+   * @return The page of results.
+   * @throws IOException If the feed cannot be read.
+   */
+  private SearchPage parse(InputStream input, TweetSink sink) throws IOException {
+    AtomStreamParser parser = new AtomStreamParser(engine.getProjection(), sink);
+    byte[] buffer = new byte[8192];
+    for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+      parser.feed(buffer, 0, n);
+    }
+    return parser.getPage();
+  }
+
+  private FeedCache.Writer openWriter(String cacheKey) {
+    try {
+      return cache.store(cacheKey);
+    } catch (IOException ex) {
+      LOGGER.log(Level.WARNING, "Cannot cache " + cacheKey, ex);
+      return null;
+    }
+  }
+
+  /**
+   * Builds the key that identifies a request: the normalized URL plus
+   * the projection used to parse the results, if any.
+   * @param url The URL.
+   * @return The key.
+   */
+  private String requestKey(URL url) {
+    // Results parsed with a projection are kept apart from complete ones
+    if (!engine.isComplete()) {
+      return normalize(url) + '#' + engine.getProjection();
+    }
+    return normalize(url);
+  }
+
+  /**
+   * Normalizes an URL: lowercase scheme and host, without the default port
+   * and with the query parameters sorted.
+   * @param url The URL.
+   * @return The normalized URL.
+   */
+  private static String normalize(URL url) {
+    StringBuilder sb = new StringBuilder();
+    sb.append(url.getProtocol().toLowerCase(Locale.ENGLISH)).append("://");
+    sb.append(url.getHost().toLowerCase(Locale.ENGLISH));
+    if (url.getPort() != -1 && url.getPort() != url.getDefaultPort()) {
+      sb.append(':').append(url.getPort());
+    }
+    sb.append(url.getPath().length() == 0 ? "/" : url.getPath());
+    if (url.getQuery() != null) {
+      String[] parameters = url.getQuery().split("&");
+      Arrays.sort(parameters);
+      char separator = '?';
+      for (String parameter : parameters) {
+        if (parameter.length() > 0) {
+          sb.append(separator).append(parameter);
+          separator = '&';
+        }
+      }
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Builds the Twitter Search URL for a given query.
+   * @param query The query term.
+   * @return The search URL.
+   * @throws IOException If UTF-8 is not supported, shouldn't happen.
+   */
+  private String buildSearchURL(String query) throws IOException {
+    // This should be something like:
+    // http://search.twitter.com/search.atom?q=%23netbeans&lang=en&rpp=100
+    StringBuilder sb = new StringBuilder();
+    sb.append(searchURL);
+    sb.append("?q=").append(URLEncoder.encode(query, "UTF-8"));
+    sb.append("&rpp=100");
+    return sb.toString();
   }
 
   /**
@@ -70,156 +649,670 @@ public final class TwitterSearchDAO {
    * @throws MalformedURLException If the ATOM namespace is wrong, shouldn't happen.
    */
   List<Tweet> scan(InputStream input) throws XMLStreamException, MalformedURLException {
+    return scanPage(input).getTweets();
+  }
 
-    if (input == null) {
-      throw new NullPointerException("Input cannot be null");
+  /**
+   * Parses the XML output from Twitter (Atom format) and returns a page
+   * with the tweets and the feed-level links.
+   * @param input An InputSream with Atom format from Twitter Search API.
+   * @return A SearchPage.
+   * @throws XMLStreamException If an I/O error happens.
+   * @throws MalformedURLException If the ATOM namespace is wrong, shouldn't happen.
+   */
+  SearchPage scanPage(InputStream input) throws XMLStreamException, MalformedURLException {
+    return engine.parse(input);
+  }
+
+  /**
+   * Searches for tweets newer than a given one, without blocking. The
+   * response is read with non-blocking I/O and parsed as it arrives, so
+   * that many searches may be in progress with just a few threads.
+   * @param query The query term.
+   * @param sinceId The id of the newest tweet already known, or 0 to retrieve
+   *   a full page of results.
+   * @param callback Told when the search is done, may be null.
+   * @return The SearchFuture, that may be cancelled.
+   */
+  public SearchFuture searchAsync(String query, long sinceId, SearchCallback callback) {
+    SearchFuture future = new SearchFuture(callback);
+    try {
+      String url = buildSearchURL(query);
+      if (sinceId > 0) {
+        url = url + "&since_id=" + sinceId;
+      }
+      fetchShared(new URL(url), future);
+    } catch (IOException ex) {
+      future.failed(ex);
+    }
+    return future;
+  }
+
+  /**
+   * Retrieves the page that follows another one, without blocking.
+   * @param nextURL The rel="next" link of the previous page.
+   * @param callback Told when the search is done, may be null.
+   * @return The SearchFuture, that may be cancelled.
+   */
+  public SearchFuture searchNextAsync(String nextURL, SearchCallback callback) {
+    SearchFuture future = new SearchFuture(callback);
+    try {
+      fetchShared(new URL(new URL(searchURL), nextURL), future);
+    } catch (IOException ex) {
+      future.failed(ex);
+    }
+    return future;
+  }
+
+  /**
+   * Starts retrieving a page of results, unless somebody else is already
+   * retrieving it, in which case the result is shared.
+   * @param searchURL The URL of the page.
+   * @param future Where the result goes.
+   */
+  private void fetchShared(URL searchURL, SearchFuture future) {
+    if (future.isDone()) {
+      return;
+    }
+    String key = requestKey(searchURL);
+    Fetch fetch = new Fetch(searchURL, key);
+    Fetch inFlight = IN_FLIGHT.putIfAbsent(key, fetch);
+    if (inFlight != null) {
+      inFlight.join(future);
+      return;
     }
+    fetch.join(future);
+    fetchAsync(searchURL, fetch.getSearchFuture(), 1);
+  }
 
-    // We use Stax for parsing the XML output, only some parts of the atom feed required.
-    XMLInputFactory factory = XMLInputFactory.newInstance();
-    factory.setProperty(XMLInputFactory.IS_COALESCING, true);
-    factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
-    factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
-    factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
-    factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, false);
-    factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
-    factory.setXMLResolver(new XMLResolver()   {
+  /**
+   * Retrieves a page of results with the blocking transport, in the
+   * background, for the requests that the non-blocking client can't make.
+   * The request is shared already, so it's not coalesced again: it would
+   * wait for itself.
+   * @param searchURL The URL of the page.
+   * @param future Completed with the page.
+   */
+  private void fetchBlocking(final URL searchURL, final SearchFuture future) {
+    BATCH_PROCESSOR.post(new Runnable() {
 
-      public Object resolveEntity(String publicID, String systemID, String baseURI, String namespace) throws XMLStreamException {
-        System.out.println("Resolving entity: " + publicID + ":" + systemID + ":" + baseURI + ":" + namespace);
-        return null;
+      public void run() {
+        try {
+          future.completed(fetch(searchURL, requestKey(searchURL), RateLimiter.Priority.HIGH, null, null));
+        } catch (Exception ex) {
+          future.failed(ex);
+        }
       }
     });
+  }
 
-    XMLStreamReader reader = factory.createXMLStreamReader(input);
+  /**
+   * Starts retrieving a page of results, from the cache if possible.
+   * @param searchURL The URL of the page.
+   * @param future Where the result goes.
+   * @param attempt The number of times the request has been sent.
+   */
+  private void fetchAsync(final URL searchURL, final SearchFuture future, final int attempt) {
+    if (future.isDone()) {
+      return;
+    }
+    try {
+      String key = requestKey(searchURL);
+      String cacheKey = normalize(searchURL);
+      FeedCache.Entry cached = cache.get(cacheKey);
+      Revalidation previous = REVALIDATIONS.get(key);
+      if (previous != null && cached != null && !previous.matches(cached)) {
+        previous = null;
+      }
+      if (cache.isOffline() && cached == null) {
+        throw new IOException("Not available offline: " + searchURL);
+      }
+      if (cache.isOffline() || (cached != null && cached.isFresh())) {
+        future.completed(previous != null ? new SearchPage(previous.getPage()) : load(cached));
+        return;
+      }
+      if (!"http".equalsIgnoreCase(searchURL.getProtocol())) { // NOI18N
+        // There's no non-blocking TLS, this one goes the blocking way
+        fetchBlocking(searchURL, future);
+        return;
+      }
+      long wait = limiter.tryAcquire(RateLimiter.Priority.HIGH);
+      if (wait > 0) {
+        // Try again later, without holding a thread in the meanwhile
+        ASYNC_PROCESSOR.post(new Runnable() {
 
+          public void run() {
+            fetchAsync(searchURL, future, attempt);
+          }
+        }, (int) Math.min(wait, Integer.MAX_VALUE));
+        return;
+      }
 
-    ArrayList<Tweet> tweets = new ArrayList<Tweet>();
+      Map<String, String> headers = new LinkedHashMap<String, String>();
+      headers.put("Accept-Encoding", "gzip"); // NOI18N
+      String etag = cached != null ? cached.getETag() : (previous == null ? null : previous.getETag());
+      String lastModified = cached != null ? cached.getLastModified() : (previous == null ? null : previous.getLastModified());
+      if (etag != null) {
+        headers.put("If-None-Match", etag); // NOI18N
+      }
+      if (lastModified != null) {
+        headers.put("If-Modified-Since", lastModified); // NOI18N
+      }
+      final NioHttpClient client = NioHttpClient.getDefault();
+      final NioHttpClient.Exchange exchange = client.get(searchURL, headers,
+        transport.getConnectTimeout(), transport.getReadTimeout(),
+        new AsyncFetch(searchURL, key, cacheKey, cached, previous, future, attempt));
+      future.setOnCancel(new Runnable() {
 
-    do {
-      reader = moveTo(reader, "entry");
-      if (reader == null) {
-        break;
-      }
-      tweets.add(parseTweet(reader));
-
-    } while (reader.hasNext());
-
-
-    return tweets;
-  }
-
-  /**
-   * Parses a 'entry' XML element and returns a Tweet
-   * @param reader The XMLStreamReader located on a entry element
-   * @return The Tweet
-   * @throws XMLStreamException
-   * @throws MalformedURLException 
-   */
-  private Tweet parseTweet(XMLStreamReader reader) throws XMLStreamException, MalformedURLException {
-
-//    <entry>
-//    <id>tag:search.twitter.com,2005:43911377227755521</id>
-//    <published>2011-03-05T05:51:02Z</published>
-//    <link type="text/html" href="http://twitter.com/nrcpts/statuses/43911377227755521" rel="alternate"/>
-//    <title>RT @netbeans: Go show some love on the #NetBeans #PHP blog if you're one of the 25% of NetBeans 6.9 users using a PHP project: http://bit.ly/fG74xF :)</title>
-//    <content type="html">RT &lt;a href=&quot;http://twitter.com/netbeans&quot;&gt;@netbeans&lt;/a&gt;: Go show some love on the &lt;a href=&quot;http://search.twitter.com/search?q=%23NetBeans&quot; onclick=&quot;pageTracker._setCustomVar(2, 'result_type', 'recent', 3);pageTracker._trackPageview('/intra/hashtag/#NetBeans');&quot;&gt;&lt;b&gt;#NetBeans&lt;/b&gt;&lt;/a&gt; &lt;a href=&quot;http://search.twitter.com/search?q=%23PHP&quot; onclick=&quot;pageTracker._setCustomVar(2, 'result_type', 'recent', 3);pageTracker._trackPageview('/intra/hashtag/#PHP');&quot;&gt;#PHP&lt;/a&gt; blog if you&amp;apos;re one of the 25% of NetBeans 6.9 users using a PHP project: &lt;a href=&quot;http://bit.ly/fG74xF&quot;&gt;http://bit.ly/fG74xF&lt;/a&gt; :)</content>
-//    <updated>2011-03-05T05:51:02Z</updated>
-//    <link type="image/png" href="http://a3.twimg.com/profile_images/1151565712/198436690_normal.jpg" rel="image"/>
-//    <twitter:geo>
-//    </twitter:geo>
-//    <twitter:metadata>
-//      <twitter:result_type>recent</twitter:result_type>
-//    </twitter:metadata>
-//    <twitter:source>&lt;a href=&quot;http://www.tweetdeck.com&quot; rel=&quot;nofollow&quot;&gt;TweetDeck&lt;/a&gt;</twitter:source>
-//    <twitter:lang>en</twitter:lang>
-//    <author>
-//      <name>nrcpts (Andri Burman)</name>
-//      <uri>http://twitter.com/nrcpts</uri>
-//    </author>
-//  </entry>
-
-    Tweet tweet = new Tweet();
-
-    reader = moveTo(reader, "published");
-    if (reader != null) {
-      String txt = reader.getElementText();
-      tweet.setTimestamp(parseTime(txt));
-    } else {
-      return tweet;
-    }
-    reader = moveTo(reader, "link");
-    if (reader != null) {
-      tweet.setUrl(parseURL(reader.getAttributeValue(null, "href")));
-    } else {
-      return tweet;
-    }
-    reader = moveTo(reader, "title");
-    if (reader != null) {
-      tweet.setContent(reader.getElementText());
-    } else {
-      return tweet;
-    }
-    reader = moveTo(reader, "author");
-    if (reader != null) {
-      reader = moveTo(reader, "name");
-      if (reader != null) {
-        tweet.getAuthor().setName(reader.getElementText());
-      } else {
-        return tweet;
+        public void run() {
+          client.cancel(exchange);
+        }
+      });
+      if (future.isCancelled()) {
+        client.cancel(exchange);
+      }
+    } catch (IOException ex) {
+      future.failed(ex);
+    }
+  }
+
+  public List<Tweet> search(Query query) throws IOException, XMLStreamException {
+    return search( query.toString() );
+  }
+
+  /**
+   * AsyncFetch receives a response from the NioHttpClient, parsing the
+   * entries as the bytes arrive. Handlers run in the network thread, so
+   * the body is kept in memory and written to the cache in CACHE_PROCESSOR.
+   */
+  private final class AsyncFetch
+    implements NioHttpClient.Handler {
+
+    private final URL searchURL;
+    private final String key;
+    private final String cacheKey;
+    private final FeedCache.Entry cached;
+    private final Revalidation previous;
+    private final SearchFuture future;
+    private final int attempt;
+    private int status;
+    private Map<String, String> headers;
+    /** Parses the body as it arrives, null until it's known to be in UTF-8 */
+    private AtomStreamParser parser;
+    private ByteArrayOutputStream body;
+
+    AsyncFetch(URL searchURL, String key, String cacheKey, FeedCache.Entry cached,
+      Revalidation previous, SearchFuture future, int attempt) {
+      this.searchURL = searchURL;
+      this.key = key;
+      this.cacheKey = cacheKey;
+      this.cached = cached;
+      this.previous = previous;
+      this.future = future;
+      this.attempt = attempt;
+    }
+
+    public void head(int status, Map<String, String> headers) {
+      this.status = status;
+      this.headers = headers;
+      if (HttpTransport.isThrottled(status)) {
+        return;
+      }
+      limiter.succeeded();
+      if (status < 300) {
+        body = new ByteArrayOutputStream();
       }
-      reader = moveTo(reader, "uri");
-      if (reader != null) {
-        tweet.getAuthor().setTwitterURL(parseURL(reader.getElementText()));
+    }
+
+    public void body(byte[] bytes, int offset, int length) {
+      if (body == null) {
+        // The body of an error
+        return;
+      }
+      body.write(bytes, offset, length);
+      if (parser != null) {
+        parser.feed(bytes, offset, length);
+      } else if (body.size() >= FeedEncoding.HEAD && body.size() - length < FeedEncoding.HEAD) {
+        // Once the encoding is known UTF-8 feeds are parsed as they arrive
+        byte[] received = body.toByteArray();
+        if (FeedEncoding.isUTF8(headers.get("content-type"), received, received.length)) { // NOI18N
+          parser = new AtomStreamParser(engine.getProjection());
+          parser.feed(received, 0, received.length);
+        }
+      }
+    }
+
+    public void completed() {
+      if (HttpTransport.isThrottled(status)) {
+        // Everybody waits, and we try again when allowed
+        ThrottledException ex = new ThrottledException("HTTP " + status + " retrieving " + searchURL,
+          status, HttpTransport.parseRetryAfter(headers.get("retry-after"))); // NOI18N
+        limiter.throttled(ex.getRetryAfter());
+        if (attempt >= MAX_ATTEMPTS) {
+          future.failed(ex);
+          return;
+        }
+        ASYNC_PROCESSOR.post(new Runnable() {
+
+          public void run() {
+            fetchAsync(searchURL, future, attempt + 1);
+          }
+        });
+      } else if (status == 304 && (previous != null || cached != null)) {
+        CACHE_PROCESSOR.post(new Runnable() {
+
+          public void run() {
+            try {
+              if (cached != null) {
+                cache.touch(cacheKey);
+              }
+              future.completed(previous != null ? new SearchPage(previous.getPage()) : load(cached));
+            } catch (IOException ex) {
+              future.failed(ex);
+            }
+          }
+        });
+      } else if (HttpTransport.isRedirect(status)) {
+        // Redirects are followed the blocking way, to https too
+        fetchBlocking(searchURL, future);
+      } else if (body == null) {
+        future.failed(new IOException("HTTP " + status + " retrieving " + searchURL));
       } else {
-        return tweet;
+        final SearchPage page;
+        try {
+          page = parser != null ? parser.getPage() : transcode();
+        } catch (IOException ex) {
+          future.failed(ex);
+          return;
+        }
+        final String etag = headers.get("etag"); // NOI18N
+        final String lastModified = headers.get("last-modified"); // NOI18N
+        if (etag != null || lastModified != null) {
+          REVALIDATIONS.put(key, new Revalidation(etag, lastModified, page));
+        } else {
+          REVALIDATIONS.remove(key);
+        }
+        CACHE_PROCESSOR.post(new Runnable() {
+
+          public void run() {
+            store(etag, lastModified);
+            future.completed(page);
+          }
+        });
       }
     }
 
-    return tweet;
-  }
+    public void failed(IOException failure) {
+      future.failed(failure);
+    }
 
-  private static XMLStreamReader moveTo(XMLStreamReader reader, String tagName) throws XMLStreamException {
-    if (reader == null) {
-      return null;
+    /**
+     * Parses a short body, or one in an encoding other than UTF-8, which
+     * is then kept in UTF-8 for the cache.
+     */
+    private SearchPage transcode() throws IOException {
+      InputStream feed = FeedEncoding.toUTF8(new ByteArrayInputStream(body.toByteArray()), headers.get("content-type")); // NOI18N
+      ByteArrayOutputStream utf8 = new ByteArrayOutputStream(body.size());
+      CopyInputStream copy = new CopyInputStream(feed, utf8);
+      SearchPage page = parse(copy, null);
+      copy.copyRemaining();
+      body = utf8;
+      return page;
     }
-    boolean found = false;
-    for (int event = reader.nextTag(); event != XMLStreamConstants.END_DOCUMENT; event = reader.next()) {
-      if (event == XMLStreamConstants.START_ELEMENT && reader.getLocalName().equals(tagName)) {
-        found = true;
-        break;
+
+    /**
+     * Writes the body to the cache. The page was retrieved anyway, so
+     * failures are just logged.
+     */
+    private void store(String etag, String lastModified) {
+      FeedCache.Writer writer = openWriter(cacheKey);
+      if (writer == null) {
+        return;
+      }
+      try {
+        body.writeTo(writer.getOutput());
+        writer.commit(etag, lastModified);
+      } catch (IOException ex) {
+        LOGGER.log(Level.WARNING, "Cannot cache " + searchURL, ex);
+      } finally {
+        writer.abort();
       }
     }
-    return found ? reader : null;
   }
 
-  private static long parseTime(String txt) {
-    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
-    try {
-      return sdf.parse(txt).getTime();
-    } catch (ParseException ex) {
-      Logger.getLogger(TwitterSearchDAO.class.getName()).log(Level.SEVERE, null, ex);
-      return -1;
+  /**
+   * Fetch is a page of results being retrieved by a caller, that other
+   * callers may wait for. Asynchronous searches join it instead, and are
+   * told when it's done. A Fetch retrieved asynchronously is completed by
+   * its own SearchFuture, and abandoned once all the searches joined are
+   * cancelled.
+   */
+  private final class Fetch extends FutureTask<SearchPage>
+    implements SearchCallback {
+
+    private final URL searchURL;
+    private final String key;
+    private final Cancellation cancellation;
+    /** Retrieves the page asynchronously, null if retrieved by a caller */
+    private final SearchFuture shared;
+    /** The asynchronous searches waiting for the page */
+    private final List<SearchFuture> joined = new ArrayList<SearchFuture>();
+    private volatile boolean failed;
+    private volatile boolean abandoned;
+
+    Fetch(final URL searchURL, final String key, final RateLimiter.Priority priority,
+      final Cancellation cancellation, final TweetSink sink) {
+      super(new Callable<SearchPage>() {
+
+        public SearchPage call() throws Exception {
+          return fetch(searchURL, key, priority, cancellation, sink);
+        }
+      });
+      this.searchURL = searchURL;
+      this.key = key;
+      this.cancellation = cancellation;
+      this.shared = null;
+    }
+
+    Fetch(URL searchURL, String key) {
+      super(new Callable<SearchPage>() {
+
+        public SearchPage call() throws Exception {
+          throw new IllegalStateException("Retrieved asynchronously"); // NOI18N
+        }
+      });
+      this.searchURL = searchURL;
+      this.key = key;
+      this.cancellation = null;
+      this.shared = new SearchFuture(this);
+    }
+
+    /**
+     * @return the SearchFuture that retrieves the page asynchronously, or null.
+     */
+    SearchFuture getSearchFuture() {
+      return shared;
+    }
+
+    /**
+     * Tells an asynchronous search when the page is retrieved.
+     * @param future The search.
+     */
+    void join(final SearchFuture future) {
+      synchronized (this) {
+        if (!isDone()) {
+          joined.add(future);
+          future.setOnCancel(new Runnable() {
+
+            public void run() {
+              leave(future);
+            }
+          });
+          return;
+        }
+      }
+      tell(future);
+    }
+
+    private void leave(SearchFuture future) {
+      synchronized (this) {
+        joined.remove(future);
+        if (shared == null || !joined.isEmpty() || isDone()) {
+          return;
+        }
+        abandoned = true;
+      }
+      shared.cancel(true);
+    }
+
+    @Override
+    protected void done() {
+      List<SearchFuture> waiting;
+      synchronized (this) {
+        waiting = new ArrayList<SearchFuture>(joined);
+        joined.clear();
+      }
+      for (SearchFuture future : waiting) {
+        tell(future);
+      }
+    }
+
+    private void tell(SearchFuture future) {
+      if (isAbandoned()) {
+        // Whoever was retrieving the page gave up, so we retrieve it ourselves
+        fetchShared(searchURL, future);
+        return;
+      }
+      try {
+        // Each search gets its own page, the tweets are shared
+        future.completed(new SearchPage(get()));
+      } catch (InterruptedException ex) {
+        // Done, so get() doesn't wait
+        future.failed(ex);
+      } catch (CancellationException ex) {
+        future.failed(ex);
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        future.failed(cause instanceof Exception ? (Exception) cause : ex);
+      }
+    }
+
+    public void completed(SearchPage page) {
+      IN_FLIGHT.remove(key, this);
+      set(page);
+    }
+
+    public void failed(Exception failure) {
+      IN_FLIGHT.remove(key, this);
+      setException(failure);
+    }
+
+    @Override
+    protected void setException(Throwable t) {
+      failed = true;
+      super.setException(t);
+    }
+
+    /**
+     * @return true if the caller retrieving the page cancelled it before
+     *   it was retrieved, or if all the searches joined were cancelled.
+     */
+    boolean isAbandoned() {
+      return abandoned || (failed && cancellation != null && cancellation.isCancelled());
     }
   }
 
-  private static URL parseURL(String txt) {
-    try {
-      URL url = new URL(txt);
-      return url;
-    } catch (MalformedURLException ex) {
-      Logger.getLogger(TwitterSearchDAO.class.getName()).log(Level.SEVERE, "Wrong url: " + txt, ex);
+  /**
+   * BatchSearch is the search of a query in a batch. Its time starts
+   * counting when it starts running, and when it's over the search is
+   * cancelled, closing its connection.
+   */
+  private final class BatchSearch implements Callable<SearchPage> {
+
+    private final String keyword;
+    private final long sinceId;
+    private final long timeout;
+    private final Cancellation cancellation = new Cancellation();
+    private volatile boolean timedOut;
+
+    BatchSearch(String keyword, long sinceId, long timeout) {
+      this.keyword = keyword;
+      this.sinceId = sinceId;
+      this.timeout = timeout;
+    }
+
+    public SearchPage call() throws Exception {
+      RequestProcessor.Task timer = TIMEOUTS.post(new Runnable() {
+
+        public void run() {
+          timedOut = true;
+          cancellation.cancel();
+        }
+      }, (int) Math.min(timeout, Integer.MAX_VALUE));
       try {
-        return new URL("http://www.twitter.com");
-      } catch (MalformedURLException ex1) {
-        Logger.getLogger(TwitterSearchDAO.class.getName()).log(Level.SEVERE, null, ex1);
-        return null;
+        return search(keyword, sinceId, RateLimiter.Priority.LOW, cancellation, null);
+      } catch (InterruptedIOException ex) {
+        if (timedOut) {
+          throw (TimeoutException) new TimeoutException("Search for " + keyword + " timed out").initCause(ex); // NOI18N
+        }
+        throw ex;
+      } finally {
+        timer.cancel();
       }
     }
+
+    /**
+     * Cancels the search, closing its connection if it's running.
+     */
+    void cancel() {
+      cancellation.cancel();
+    }
   }
 
-  public List<Tweet> search(Query query) throws IOException, XMLStreamException {
-    return search( query.toString() );
+  /**
+   * CountingSink counts the tweets streamed to another sink.
+   */
+  private static final class CountingSink implements TweetSink {
+
+    private final TweetSink sink;
+    private int count;
+
+    CountingSink(TweetSink sink) {
+      this.sink = sink;
+    }
+
+    public void add(Tweet tweet) {
+      count++;
+      sink.add(tweet);
+    }
+
+    int getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * Revalidation keeps the validators of a response together with
+   * the page parsed from it, to be reused on a 304 Not Modified.
+   */
+  private static final class Revalidation {
+
+    private final String etag;
+    private final String lastModified;
+    private final SearchPage page;
+
+    Revalidation(String etag, String lastModified, SearchPage page) {
+      this.etag = etag;
+      this.lastModified = lastModified;
+      this.page = new SearchPage(page);
+    }
+
+    String getETag() {
+      return etag;
+    }
+
+    String getLastModified() {
+      return lastModified;
+    }
+
+    SearchPage getPage() {
+      return page;
+    }
+
+    /**
+     * @return true if the cache entry has the same validators as this one.
+     */
+    boolean matches(FeedCache.Entry entry) {
+      return (etag == null ? entry.getETag() == null : etag.equals(entry.getETag()))
+        && (lastModified == null ? entry.getLastModified() == null : lastModified.equals(entry.getLastModified()));
+    }
+  }
+
+  /**
+   * CopyInputStream copies everything that is read into an OutputStream.
+   * If the copy fails reading goes on, but the copy is no longer complete.
+   */
+  private static final class CopyInputStream extends FilterInputStream {
+
+    private final OutputStream copy;
+    private boolean copied;
+
+    CopyInputStream(InputStream input, OutputStream copy) {
+      super(input);
+      this.copy = copy;
+      this.copied = copy != null;
+    }
+
+    /**
+     * @return true if everything read has been copied.
+     */
+    boolean isCopied() {
+      return copied;
+    }
+
+    /**
+     * Reads (and copies) whatever the parser left unread.
+     */
+    void copyRemaining() throws IOException {
+      byte[] buffer = new byte[8192];
+      while (read(buffer, 0, buffer.length) != -1) {
+        // Empty
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        write(new byte[]{(byte) b}, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0) {
+        write(b, off, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes must be copied too
+      byte[] buffer = new byte[(int) Math.min(n, 8192)];
+      int read = read(buffer, 0, buffer.length);
+      return read == -1 ? 0 : read;
+    }
+
+    /**
+     * Does nothing, the parser closes the stream when it's done but the
+     * rest of the response may still need to be copied.
+     */
+    @Override
+    public void close() {
+    }
+
+    void closeInput() throws IOException {
+      super.close();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void write(byte[] b, int off, int len) {
+      if (copied) {
+        try {
+          copy.write(b, off, len);
+        } catch (IOException ex) {
+          LOGGER.log(Level.FINE, "Cannot copy response", ex);
+          copied = false;
+        }
+      }
+    }
   }
 }
 
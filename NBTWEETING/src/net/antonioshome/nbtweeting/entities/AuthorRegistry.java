@@ -0,0 +1,130 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * AuthorRegistry keeps a single TweetAuthor per account, keyed by the
+ * author URI, so that all tweets from one account share it wherever they
+ * come from. Authors are weakly referenced, and forgotten when no tweet
+ * refers to them.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class AuthorRegistry 
+{
+  private static final AuthorRegistry DEFAULT = new AuthorRegistry();
+
+  /** Each key is kept alive by the author it maps to */
+  private final Map<String, WeakReference<TweetAuthor>> authors = new WeakHashMap<String, WeakReference<TweetAuthor>>();
+
+  /**
+   * @return the registry shared by all the application.
+   */
+  public static AuthorRegistry getDefault()
+  {
+    return DEFAULT;
+  }
+
+  /**
+   * Returns the author of an account, if known.
+   * @param twitterURLSpec The author URI, may be null.
+   * @return The TweetAuthor, or null if unknown.
+   */
+  public synchronized TweetAuthor get(String twitterURLSpec)
+  {
+    if (twitterURLSpec == null) {
+      return null;
+    }
+    WeakReference<TweetAuthor> reference = authors.get( twitterURLSpec );
+    return reference == null ? null : reference.get();
+  }
+
+  /**
+   * Returns the author of an account, registering it if unknown.
+   * @param twitterURLSpec The author URI. Authors with no URI are not registered.
+   * @param name The author name, used if the author was unknown or had no name.
+   * @return The TweetAuthor.
+   */
+  public TweetAuthor intern(String twitterURLSpec, String name)
+  {
+    return intern( twitterURLSpec, name, null );
+  }
+
+  /**
+   * Returns the author of an account, registering it if unknown.
+   * @param twitterURLSpec The author URI. Authors with no URI are not registered.
+   * @param name The author name, used if the author was unknown or had no name.
+   * @param imageURLSpec The URL of the author image, used if the author
+   *   was unknown or had no image. May be null.
+   * @return The TweetAuthor.
+   */
+  public synchronized TweetAuthor intern(String twitterURLSpec, String name, String imageURLSpec)
+  {
+    TweetAuthor author = get( twitterURLSpec );
+    if (author == null) {
+      author = new TweetAuthor();
+      author.setName( name );
+      author.setTwitterURLSpec( twitterURLSpec );
+      if (twitterURLSpec != null) {
+        author.setRegistryKey( twitterURLSpec );
+        authors.put( twitterURLSpec, new WeakReference<TweetAuthor>( author ) );
+      }
+    } else if (author.getName() == null) {
+      author.setName( name );
+    }
+    if (imageURLSpec != null && !author.hasImage()) {
+      author.setImageURLSpec( imageURLSpec );
+    }
+    return author;
+  }
+
+  /**
+   * @return the number of authors known.
+   */
+  public synchronized int size()
+  {
+    return authors.size();
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
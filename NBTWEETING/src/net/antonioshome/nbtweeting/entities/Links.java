@@ -0,0 +1,88 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Links builds the URLs of entities lazily, from the strings found in the feeds.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+final class Links 
+{
+  /** The URL used when the feed contains a wrong one, shared by all entities */
+  private static URL fallback;
+
+  private Links()
+  {
+  }
+
+  /**
+   * Builds an URL.
+   * @param spec The URL as a String.
+   * @return The URL, or a link to Twitter if spec is not a valid URL.
+   */
+  static URL toURL(String spec)
+  {
+    try {
+      return new URL(spec);
+    } catch (MalformedURLException ex) {
+      Logger.getLogger(Links.class.getName()).log(Level.SEVERE, "Wrong url: " + spec, ex);
+      return getFallback();
+    }
+  }
+
+  private static synchronized URL getFallback()
+  {
+    if (fallback == null) {
+      try {
+        fallback = new URL("http://www.twitter.com");
+      } catch (MalformedURLException ex) {
+        Logger.getLogger(Links.class.getName()).log(Level.SEVERE, null, ex);
+      }
+    }
+    return fallback;
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
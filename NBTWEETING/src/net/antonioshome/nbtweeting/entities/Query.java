@@ -2,13 +2,23 @@
 package net.antonioshome.nbtweeting.entities;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import net.antonioshome.nbtweeting.dao.Cancellation;
+import net.antonioshome.nbtweeting.dao.SearchPage;
+import net.antonioshome.nbtweeting.dao.TweetArchive;
+import net.antonioshome.nbtweeting.dao.TweetSink;
 import net.antonioshome.nbtweeting.dao.TwitterSearchDAO;
 import net.antonioshome.nbtweeting.entities.abilities.HasTextContent;
+import net.antonioshome.nbtweeting.entities.abilities.Pageable;
 import net.antonioshome.nbtweeting.entities.abilities.Reloadable;
+import net.antonioshome.nbtweeting.entities.abilities.Searchable;
+import net.antonioshome.nbtweeting.entities.abilities.Streamable;
+import net.antonioshome.nbtweeting.entities.abilities.Trending;
+import org.openide.util.Cancellable;
 import org.openide.util.Lookup;
-import org.openide.util.lookup.AbstractLookup;
-import org.openide.util.lookup.InstanceContent;
+import org.openide.util.lookup.Lookups;
 
 /**
  * Query represents a query against the Twitter Search API.
@@ -18,38 +28,173 @@ import org.openide.util.lookup.InstanceContent;
 public final class Query 
 implements Lookup.Provider
 {
+  /** Hashtags and mentions are counted over the last hour, in 12 buckets of 5 minutes */
+  private static final long TRENDS_WINDOW = 60L * 60 * 1000;
+  private static final int TRENDS_BUCKETS = 12;
+  private static final int TRENDS_CAPACITY = 100;
   private String keyword;
-  private List<Tweet> tweets;
-  /** The lookup for Lookup.Provider */
+  /** The tweets, newest first */
+  private TweetStore tweets;
+  /** The words of the tweets */
+  private TextIndex textIndex;
+  /** The hashtags and mentions of recent tweets */
+  private TrendCounter trends;
+  /** The last snapshot of the tweets published */
+  private volatile TweetStore.Snapshot snapshot;
+  /** Notified when a new snapshot is published */
+  private List<TweetsListener> listeners;
+  /**
+   * Held while tweets are merged, so that loads and updates run one after
+   * the other, and guards the state of the refresh below. Not the monitor
+   * of the query, so that loads may be cancelled while they run.
+   */
+  private final Object merging = new Object();
+  /** The id of the newest tweet seen so far, 0 if none */
+  private volatile long sinceId;
+  /** The since_id used in the last refresh, older pages are filtered with it */
+  private long pageSinceId;
+  /** The rel="next" link of the last page retrieved, null if none */
+  private String nextURL;
+  /** Where tweets of the next page are to be inserted */
+  private int pageInsertIndex;
+  /** Number of pages retrieved in the last refresh */
+  private int pagesLoaded;
+  /** Maximum number of pages to retrieve on each refresh */
+  private int maxPages = 1;
+  /** Maximum time to spend retrieving pages on each refresh, 0 for no limit */
+  private long pagingTimeBudget;
+  /** When paging has to stop, 0 for no limit */
+  private long pagingDeadline;
+  /** Maximum number of tweets kept, 0 for no limit */
+  private int maxTweets;
+  /** Maximum age (milliseconds) of the tweets kept, 0 for no limit */
+  private long maxAge;
+  /** Where new tweets are archived, null if none */
+  private TweetArchive archive;
+  /** True once the tweets in the archive have been restored */
+  private boolean restored;
+  /** Cancels the search in progress, null if none */
+  private Cancellation loading;
+  /** Where new tweets go as soon as they are retrieved */
+  private List<TweetSink> sinks;
+  /** The lookup for Lookup.Provider, null until first requested */
   private Lookup lookup;
-  /** The InstanceContent that keeps this entity's abilities */
-  private InstanceContent instanceContent;
   /**
    * Simple constructor, not much to say here.
    */
   public Query()
   {
-    this.tweets = new ArrayList<Tweet>();
-    // Create an InstanceContent to hold abilities...
-    this.instanceContent = new InstanceContent();
-    // Create an AbstractLookup to expose InstanceContent contents...
-    this.lookup = new AbstractLookup( instanceContent );
+    this.tweets = new TweetStore();
+    this.textIndex = new TextIndex();
+    this.trends = new TrendCounter( TRENDS_WINDOW, TRENDS_BUCKETS, TRENDS_CAPACITY );
+    this.snapshot = tweets.snapshot();
+    this.sinks = new CopyOnWriteArrayList<TweetSink>();
+    this.listeners = new CopyOnWriteArrayList<TweetsListener>();
+  }
+  /**
+   * Creates the lookup with the abilities of this entity, that never change.
+   * @return The lookup.
+   */
+  private Lookup createLookup()
+  {
+    List<Object> abilities = new ArrayList<Object>();
     // Add a "Reloadable" ability to this entity
-    this.instanceContent.add( new Reloadable() {
+    abilities.add( new Reloadable() {
 
       public void reload() throws Exception {
         TwitterSearchDAO dao = new TwitterSearchDAO();
-        getTweets().clear();
-        getTweets().addAll( dao.search( keyword ) );
+        Cancellation cancellation = startLoading();
+        try {
+          // Wait for the load cancelled, if any, to stop merging
+          synchronized (merging) {
+            // Ask only for tweets newer than the newest one we've seen,
+            // merging them as they arrive...
+            pageSinceId = sinceId;
+            Merge merge = new Merge( 0 );
+            SearchPage page = dao.search( keyword, sinceId, cancellation, merge );
+            // ... and get ready for older pages
+            updated( page, merge.getIndex() );
+            published( 0, merge.getIndex() );
+          }
+        } finally {
+          finishLoading( cancellation );
+        }
+      }
+    } );
+    // Add a "Trending" ability with the most frequent hashtags and mentions
+    abilities.add( new Trending() {
+
+      public List<Trend> getTrends(int count) {
+        return trends.getTrends( count );
+      }
+    } );
+    // Add a "Pageable" ability so that older pages of results may be loaded progressively
+    abilities.add( new Pageable() {
+
+      public boolean hasNextPage() {
+        synchronized (merging) {
+          return nextURL != null
+            && pagesLoaded < maxPages
+            && (pagingDeadline == 0 || System.currentTimeMillis() < pagingDeadline);
+        }
+      }
+
+      public void loadNextPage() throws Exception {
+        if (! hasNextPage()) {
+          return;
+        }
+        TwitterSearchDAO dao = new TwitterSearchDAO();
+        Cancellation cancellation = startLoading();
+        try {
+          synchronized (merging) {
+            // A reload or update may have finished the refresh meanwhile
+            if (! hasNextPage()) {
+              return;
+            }
+            // Older tweets go right after the ones retrieved in this refresh
+            int start = pageInsertIndex;
+            Merge merge = new Merge( start );
+            SearchPage page = dao.searchNext( nextURL, cancellation, merge );
+            pageInsertIndex = merge.getIndex();
+            nextURL = page.getNextURL();
+            pagesLoaded++;
+            published( start, merge.getIndex() );
+          }
+        } finally {
+          finishLoading( cancellation );
+        }
+      }
+    } );
+    // Add a "Cancellable" ability so that searches in progress may be abandoned
+    abilities.add( new Cancellable() {
+
+      public boolean cancel() {
+        return cancelLoading();
+      }
+    } );
+    // Add a "Streamable" ability so that new tweets may be shown as they arrive
+    abilities.add( new Streamable() {
+      public void addTweetSink(TweetSink sink) {
+        sinks.add( sink );
+      }
+      public void removeTweetSink(TweetSink sink) {
+        sinks.remove( sink );
+      }
+    } );
+    // Add a "Searchable" ability so that tweets may be found without searching again
+    abilities.add( new Searchable() {
+      public List<Tweet> search(String search) {
+        return Query.this.search( search );
       }
     } );
     // Add a "HasTextContent" ability to this entity so we may discover this entity has text content
-    this.instanceContent.add( new HasTextContent() {
+    abilities.add( new HasTextContent() {
 
       public String getText() {
         return "Query term: " + keyword;
       }
     } );
+    return Lookups.fixed( abilities.toArray() );
   }
 
   /**
@@ -63,7 +208,123 @@ implements Lookup.Provider
    * @param keyword the keyword to set
    */
   public void setKeyword(String keyword) {
-    this.keyword = keyword;
+    // A different keyword means different results
+    cancelLoading();
+    synchronized (merging) {
+      this.keyword = keyword;
+      int[] removed = positions( 0, snapshot.size() );
+      this.tweets.clear();
+      this.textIndex.clear();
+      this.trends.clear();
+      this.sinceId = 0;
+      this.nextURL = null;
+      publish( null, removed );
+    }
+  }
+
+  /**
+   * @return the maximum number of pages retrieved on each refresh.
+   */
+  public int getMaxPages() {
+    return maxPages;
+  }
+
+  /**
+   * @param maxPages the maximum number of pages to retrieve on each refresh.
+   */
+  public void setMaxPages(int maxPages) {
+    this.maxPages = maxPages;
+  }
+
+  /**
+   * @return the maximum time (in milliseconds) spent retrieving pages on each refresh, 0 for no limit.
+   */
+  public long getPagingTimeBudget() {
+    return pagingTimeBudget;
+  }
+
+  /**
+   * @param pagingTimeBudget the maximum time (in milliseconds) to spend retrieving pages on each refresh, 0 for no limit.
+   */
+  public void setPagingTimeBudget(long pagingTimeBudget) {
+    this.pagingTimeBudget = pagingTimeBudget;
+  }
+
+  /**
+   * @return the maximum number of tweets kept, 0 for no limit.
+   */
+  public int getMaxTweets() {
+    return maxTweets;
+  }
+
+  /**
+   * Limits the number of tweets kept, so that queries open for a long
+   * time don't use more and more memory. The oldest ones, in display
+   * order, are evicted each time new ones are merged.
+   * @param maxTweets the maximum number of tweets to keep, 0 for no limit.
+   */
+  public void setMaxTweets(int maxTweets) {
+    this.maxTweets = maxTweets;
+  }
+
+  /**
+   * @return the maximum age (in milliseconds) of the tweets kept, 0 for no limit.
+   */
+  public long getMaxAge() {
+    return maxAge;
+  }
+
+  /**
+   * Limits the age of the tweets kept. Older ones are evicted each time
+   * the query is reloaded.
+   * @param maxAge the maximum age (in milliseconds) of the tweets to keep, 0 for no limit.
+   */
+  public void setMaxAge(long maxAge) {
+    this.maxAge = maxAge;
+  }
+
+  /**
+   * @return the archive where new tweets are kept, or null if none.
+   */
+  public TweetArchive getArchive() {
+    return archive;
+  }
+
+  /**
+   * @param archive the archive where new tweets are to be kept, so that
+   *   they may be restored when the query is created again, or null.
+   */
+  public void setArchive(TweetArchive archive) {
+    this.archive = archive;
+  }
+
+  /**
+   * Restores the newest tweets kept in the archive, within the retention
+   * limits, without searching. Following reloads ask only for tweets
+   * newer than the ones restored. Tweets are restored once, following
+   * invocations restore nothing. The archive is read in the invoking
+   * thread, so this should not be invoked in the event dispatch thread.
+   * @return The number of tweets restored, after the ones known.
+   */
+  public int restore() {
+    synchronized (merging) {
+      if (archive == null || restored) {
+        return 0;
+      }
+      restored = true;
+      final int start = tweets.size();
+      long oldest = maxAge > 0 ? System.currentTimeMillis() - maxAge : 0;
+      int count = archive.read( maxTweets, oldest, new TweetSink() {
+        private int index = start;
+        public void add(Tweet tweet) {
+          tweets.add( index++, tweet );
+          analyze( tweet );
+          sinceId = Math.max( sinceId, tweet.getId() );
+        }
+      } );
+      published( start, start + count );
+      return count;
+    }
   }
 
   @Override
@@ -72,16 +333,253 @@ implements Lookup.Provider
     return keyword;
   }
 
-  public Lookup getLookup() {
+  public synchronized Lookup getLookup() {
+    if (lookup == null) {
+      lookup = createLookup();
+    }
     return lookup;
   }
 
   /**
-   * @return the tweets
+   * @return the tweets, newest first, as they were when last published. 
+   *   The list never changes, and tweets are views built on demand from
+   *   the TweetStore, so changes to them are not kept.
    */
   public List<Tweet> getTweets() {
+    return snapshot.getTweets();
+  }
+  /**
+   * @return the last snapshot of the tweets published. Snapshots never
+   *   change, so they may be read from any thread.
+   */
+  public TweetStore.Snapshot getSnapshot() {
+    return snapshot;
+  }
+  /**
+   * Adds a listener notified each time a new snapshot of the tweets is published.
+   * @param listener The listener.
+   */
+  public void addTweetsListener(TweetsListener listener) {
+    listeners.add( listener );
+  }
+  /**
+   * Removes a listener added with {@link #addTweetsListener(TweetsListener)}.
+   * @param listener The listener.
+   */
+  public void removeTweetsListener(TweetsListener listener) {
+    listeners.remove( listener );
+  }
+  /**
+   * Finds the tweets with all the words of a search in the text index,
+   * without using the network.
+   * @param search The search (see {@link TextIndex#search(String)}), an empty search finds all tweets.
+   * @return The tweets found, newest first, from the last snapshot published.
+   */
+  public List<Tweet> search(String search) {
+    TweetStore.Snapshot current = snapshot;
+    if (search.trim().length() == 0) {
+      return current.getTweets();
+    }
+    long[] found = textIndex.search( search );
+    Arrays.sort( found );
+    List<Tweet> result = new ArrayList<Tweet>( found.length );
+    for (int i=0; i<current.size() && result.size() < found.length; i++) {
+      if (Arrays.binarySearch( found, current.getId( i ) ) >= 0) {
+        result.add( current.get( i ) );
+      }
+    }
+    return result;
+  }
+  /**
+   * @return the TextIndex with the words of the tweets.
+   */
+  public TextIndex getTextIndex() {
+    return textIndex;
+  }
+  /**
+   * @return the TweetStore that keeps the tweets, for range scans and sorted views.
+   */
+  public TweetStore getTweetStore() {
     return tweets;
   }
+  /**
+   * Returns the tweets of an author. Authors are shared by all their
+   * tweets (see {@link AuthorRegistry}), so tweets are grouped by author
+   * once, and then each author's tweets are found right away.
+   * @param author The author.
+   * @return the tweets of the author, newest first, maybe empty.
+   */
+  public List<Tweet> getTweetsBy(TweetAuthor author) {
+    return tweets.getTweetsBy( author );
+  }
+  /**
+   * Merges the results of a search for tweets newer than {@link #getSinceId()}
+   * at the head of the list of tweets. This is invoked when this query is
+   * reloaded, and may be invoked with pages retrieved in batch searches,
+   * from any thread. Waits for the load in progress, if any, to finish.
+   * @param page The page of results.
+   */
+  public void update(SearchPage page) {
+    synchronized (merging) {
+      pageSinceId = sinceId;
+      Merge merge = new Merge( 0 );
+      for (Tweet tweet : page.getTweets()) {
+        merge.add( tweet );
+      }
+      updated( page, merge.getIndex() );
+      published( 0, merge.getIndex() );
+    }
+  }
+  /**
+   * Invoked when the tweets of the first page of a refresh are merged,
+   * with the merging lock held.
+   * @param page The page of results.
+   * @param insertIndex Where tweets of the next page are to be inserted.
+   */
+  private void updated(SearchPage page, int insertIndex) {
+    pageInsertIndex = insertIndex;
+    sinceId = Math.max( sinceId, page.getSinceId() );
+    // Older pages of this same refresh may be retrieved later on
+    nextURL = page.getNextURL();
+    pagesLoaded = 1;
+    pagingDeadline = pagingTimeBudget > 0 ? System.currentTimeMillis() + pagingTimeBudget : 0;
+  }
+
+  /**
+   * Invoked when the tweets in [from, to) have been merged: publishes them,
+   * and then evicts the tweets beyond the retention limits, if any.
+   * @param from Position of the first new tweet.
+   * @param to Position after the last new tweet.
+   */
+  private void published(int from, int to) {
+    publish( positions( from, to ), null );
+    if (maxTweets > 0 || maxAge > 0) {
+      long oldest = maxAge > 0 ? System.currentTimeMillis() - maxAge : 0;
+      TweetStore.Snapshot before = snapshot;
+      int[] evicted = tweets.retain( maxTweets, oldest );
+      if (evicted.length > 0) {
+        publish( null, evicted );
+        for (int position : evicted) {
+          textIndex.remove( before.getId( position ) );
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds the text content of a tweet to the text index, and counts its
+   * hashtags and mentions.
+   * @param tweet The tweet.
+   */
+  private void analyze(Tweet tweet) {
+    HasTextContent content = tweet.getLookup().lookup( HasTextContent.class );
+    String text = content == null ? null : content.getText();
+    textIndex.add( tweet.getId(), text );
+    long timestamp = tweet.getTimestamp();
+    trends.add( timestamp > 0 ? timestamp : System.currentTimeMillis(), text );
+  }
+
+  /**
+   * Publishes a new snapshot of the tweets, and tells the listeners what
+   * changed since the previous one.
+   * @param added The positions of the tweets added, in the new snapshot.
+   * @param removed The positions of the tweets removed, in the previous snapshot.
+   */
+  private void publish(int[] added, int[] removed) {
+    TweetStore.Snapshot previous;
+    TweetStore.Snapshot current;
+    synchronized (listeners) {
+      previous = snapshot;
+      current = tweets.snapshot();
+      if (current.getVersion() == previous.getVersion()) {
+        return;
+      }
+      snapshot = current;
+    }
+    if (listeners.isEmpty()) {
+      return;
+    }
+    TweetsEvent event = new TweetsEvent( this, previous, current, added, removed );
+    for (TweetsListener listener : listeners) {
+      listener.tweetsChanged( event );
+    }
+  }
+
+  private static int[] positions(int from, int to) {
+    int[] positions = new int[to - from];
+    for (int i=0; i<positions.length; i++) {
+      positions[i] = from + i;
+    }
+    return positions;
+  }
+
+  /**
+   * @return the id of the newest tweet seen so far, or 0 if none.
+   */
+  public long getSinceId() {
+    return sinceId;
+  }
+
+  /**
+   * Starts a new search, cancelling the one in progress, if any.
+   * @return The handle to cancel the new search.
+   */
+  private synchronized Cancellation startLoading() {
+    if (loading != null) {
+      loading.cancel();
+    }
+    loading = new Cancellation();
+    return loading;
+  }
+
+  private synchronized void finishLoading(Cancellation cancellation) {
+    if (loading == cancellation) {
+      loading = null;
+    }
+  }
+
+  /**
+   * Cancels the search in progress, if any, without waiting for it to stop.
+   * @return true, searches can always be cancelled.
+   */
+  private boolean cancelLoading() {
+    Cancellation cancellation;
+    synchronized (this) {
+      cancellation = loading;
+      loading = null;
+    }
+    return cancellation == null || cancellation.cancel();
+  }
+
+  /**
+   * Merge inserts tweets newer than the ones known before the last refresh,
+   * one after the other, analyzes and archives them and passes them on to
+   * the TweetSinks, if any. Tweets that were already known are ignored.
+   */
+  private final class Merge implements TweetSink {
+    private int index;
+    Merge(int index) {
+      this.index = index;
+    }
+    public void add(Tweet tweet) {
+      if (tweet.getId() == 0 || tweet.getId() > pageSinceId) {
+        tweets.add( index++, tweet );
+        analyze( tweet );
+        if (archive != null) {
+          archive.append( tweet );
+        }
+        for (TweetSink sink : sinks) {
+          sink.add( tweet );
+        }
+      }
+    }
+    /**
+     * @return where the next tweet is to be inserted.
+     */
+    int getIndex() {
+      return index;
+    }
+  }
 }
 /*
 Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
@@ -0,0 +1,499 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * TextIndex is an inverted index of the text of tweets, so that tweets
+ * may be found by the words they contain without searching again.
+ * Each word has a posting list with the documents (the tweets, numbered
+ * in the order they're added) it appears in, and its positions in each
+ * document, compressed as variable length deltas.
+ * Searches are made of words, that all have to be found. A word ending
+ * in '*' matches the words starting with it, and words between double
+ * quotes have to be found one after the other.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class TextIndex
+{
+  private static final long[] NONE = new long[0];
+  /** Documents are renumbered when more than this number, and than half of them, have been removed */
+  private static final int COMPACT_THRESHOLD = 1024;
+
+  /** The posting lists, by word */
+  private TreeMap<String, Postings> terms;
+  /** The id of the tweet of each document */
+  private long[] ids;
+  private int documents;
+  /** The number of each tweet id */
+  private Map<Long, Integer> numbers;
+  private BitSet removed;
+  private int removedCount;
+
+  public TextIndex()
+  {
+    clear();
+  }
+
+  /**
+   * Removes all documents.
+   */
+  public synchronized void clear()
+  {
+    terms = new TreeMap<String, Postings>();
+    ids = new long[128];
+    documents = 0;
+    numbers = new HashMap<Long, Integer>();
+    removed = new BitSet();
+    removedCount = 0;
+  }
+
+  /**
+   * @return the number of tweets indexed.
+   */
+  public synchronized int size()
+  {
+    return documents - removedCount;
+  }
+
+  /**
+   * Indexes the text of a tweet.
+   * @param id The id of the tweet.
+   * @param text The text, may be null.
+   */
+  public synchronized void add(long id, String text)
+  {
+    remove( id );
+    if (documents == ids.length) {
+      long[] bigger = new long[ids.length * 2];
+      System.arraycopy( ids, 0, bigger, 0, documents );
+      ids = bigger;
+    }
+    int document = documents++;
+    ids[document] = id;
+    numbers.put( Long.valueOf( id ), Integer.valueOf( document ) );
+    if (text == null) {
+      return;
+    }
+    // Positions of each word in this document
+    Map<String, List<Integer>> words = new HashMap<String, List<Integer>>();
+    List<String> tokens = tokenize( text );
+    for (int position=0; position<tokens.size(); position++) {
+      List<Integer> positions = words.get( tokens.get( position ) );
+      if (positions == null) {
+        positions = new ArrayList<Integer>( 2 );
+        words.put( tokens.get( position ), positions );
+      }
+      positions.add( Integer.valueOf( position ) );
+    }
+    for (Map.Entry<String, List<Integer>> word : words.entrySet()) {
+      Postings postings = terms.get( word.getKey() );
+      if (postings == null) {
+        postings = new Postings();
+        terms.put( word.getKey(), postings );
+      }
+      List<Integer> positions = word.getValue();
+      int[] p = new int[positions.size()];
+      for (int i=0; i<p.length; i++) {
+        p[i] = positions.get( i ).intValue();
+      }
+      postings.add( document, p );
+    }
+  }
+
+  /**
+   * Removes a tweet from the index.
+   * @param id The id of the tweet.
+   */
+  public synchronized void remove(long id)
+  {
+    Integer document = numbers.remove( Long.valueOf( id ) );
+    if (document == null) {
+      return;
+    }
+    removed.set( document.intValue() );
+    removedCount++;
+    if (removedCount > COMPACT_THRESHOLD && removedCount * 2 > documents) {
+      compact();
+    }
+  }
+
+  /**
+   * @param word A word.
+   * @return the ids of the tweets that contain the word, in the order they were added.
+   */
+  public synchronized long[] term(String word)
+  {
+    List<String> tokens = tokenize( word );
+    return tokens.size() == 1 ? ids( docs( terms.get( tokens.get( 0 ) ) ) ) : NONE;
+  }
+
+  /**
+   * @param prefix The start of some words.
+   * @return the ids of the tweets that contain a word starting with prefix, in the order they were added.
+   */
+  public synchronized long[] prefix(String prefix)
+  {
+    List<String> tokens = tokenize( prefix );
+    return tokens.size() == 1 ? ids( prefixDocs( tokens.get( 0 ) ) ) : NONE;
+  }
+
+  /**
+   * @param phrase Some words.
+   * @return the ids of the tweets that contain the words, one after the other, in the order they were added.
+   */
+  public synchronized long[] phrase(String phrase)
+  {
+    return ids( phraseDocs( tokenize( phrase ) ) );
+  }
+
+  /**
+   * Finds the tweets with all the words of a search. Words ending in '*'
+   * are prefixes, and words between double quotes are phrases.
+   * @param search The search.
+   * @return the ids of the tweets found, in the order they were added.
+   */
+  public synchronized long[] search(String search)
+  {
+    int[] result = null;
+    String[] parts = search.split( "\"", -1 ); // NOI18N
+    for (int i=0; i<parts.length; i++) {
+      if (i % 2 == 1) {
+        List<String> tokens = tokenize( parts[i] );
+        if (! tokens.isEmpty()) {
+          result = intersect( result, phraseDocs( tokens ) );
+        }
+        continue;
+      }
+      for (String word : parts[i].trim().split( "\\s+" )) { // NOI18N
+        List<String> tokens = tokenize( word );
+        if (tokens.isEmpty()) {
+          continue;
+        }
+        if (word.endsWith( "*" ) && tokens.size() == 1) {
+          result = intersect( result, prefixDocs( tokens.get( 0 ) ) );
+        } else {
+          // Words such as "don't" are a phrase
+          result = intersect( result, phraseDocs( tokens ) );
+        }
+      }
+    }
+    return result == null ? NONE : ids( result );
+  }
+
+  /**
+   * Splits a text in lower case words, made of letters, digits and '_'.
+   * @param text The text.
+   * @return The words.
+   */
+  static List<String> tokenize(String text)
+  {
+    List<String> tokens = new ArrayList<String>();
+    StringBuilder token = new StringBuilder();
+    for (int i=0; i<=text.length(); i++) {
+      char c = i < text.length() ? text.charAt( i ) : ' ';
+      if (Character.isLetterOrDigit( c ) || c == '_') {
+        token.append( Character.toLowerCase( c ) );
+      } else if (token.length() > 0) {
+        tokens.add( token.toString() );
+        token.setLength( 0 );
+      }
+    }
+    return tokens;
+  }
+
+  private int[] docs(Postings postings)
+  {
+    return postings == null ? new int[0] : postings.decode( removed, null );
+  }
+
+  private int[] prefixDocs(String prefix)
+  {
+    SortedMap<String, Postings> matches = terms.subMap( prefix, prefix + Character.MAX_VALUE );
+    BitSet found = new BitSet( documents );
+    for (Postings postings : matches.values()) {
+      for (int document : postings.decode( removed, null )) {
+        found.set( document );
+      }
+    }
+    int[] result = new int[found.cardinality()];
+    for (int i=0, document=found.nextSetBit( 0 ); document >= 0; document=found.nextSetBit( document + 1 )) {
+      result[i++] = document;
+    }
+    return result;
+  }
+
+  private int[] phraseDocs(List<String> tokens)
+  {
+    if (tokens.size() == 1) {
+      return docs( terms.get( tokens.get( 0 ) ) );
+    }
+    // The documents with all the words, and the positions of each word
+    int[][][] positions = new int[tokens.size()][][];
+    int[][] docs = new int[tokens.size()][];
+    int[] candidates = null;
+    for (int t=0; t<tokens.size(); t++) {
+      Postings postings = terms.get( tokens.get( t ) );
+      if (postings == null) {
+        return new int[0];
+      }
+      List<int[]> p = new ArrayList<int[]>();
+      docs[t] = postings.decode( removed, p );
+      positions[t] = p.toArray( new int[p.size()][] );
+      candidates = intersect( candidates, docs[t] );
+    }
+    int[] result = new int[candidates.length];
+    int found = 0;
+    int[] cursors = new int[tokens.size()];
+    for (int document : candidates) {
+      int[][] at = new int[tokens.size()][];
+      for (int t=0; t<tokens.size(); t++) {
+        while (docs[t][cursors[t]] != document) {
+          cursors[t]++;
+        }
+        at[t] = positions[t][cursors[t]];
+      }
+      if (consecutive( at )) {
+        result[found++] = document;
+      }
+    }
+    int[] trimmed = new int[found];
+    System.arraycopy( result, 0, trimmed, 0, found );
+    return trimmed;
+  }
+
+  /**
+   * @param at The positions of each word in a document, ascending.
+   * @return true if there's a position where each word follows the previous one.
+   */
+  private static boolean consecutive(int[][] at)
+  {
+    for (int start : at[0]) {
+      boolean all = true;
+      for (int t=1; t<at.length && all; t++) {
+        all = Arrays.binarySearch( at[t], start + t ) >= 0;
+      }
+      if (all) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the documents in both lists, all of b if a is null.
+   */
+  private static int[] intersect(int[] a, int[] b)
+  {
+    if (a == null) {
+      return b;
+    }
+    int[] result = new int[Math.min( a.length, b.length )];
+    int found = 0;
+    for (int i=0, j=0; i<a.length && j<b.length; ) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        result[found++] = a[i];
+        i++;
+        j++;
+      }
+    }
+    int[] trimmed = new int[found];
+    System.arraycopy( result, 0, trimmed, 0, found );
+    return trimmed;
+  }
+
+  private long[] ids(int[] docs)
+  {
+    long[] result = new long[docs.length];
+    for (int i=0; i<docs.length; i++) {
+      result[i] = ids[docs[i]];
+    }
+    return result;
+  }
+
+  /**
+   * Renumbers the documents, leaving the removed ones out of the posting lists.
+   */
+  private void compact()
+  {
+    int[] renumbered = new int[documents];
+    int kept = 0;
+    for (int document=0; document<documents; document++) {
+      if (removed.get( document )) {
+        renumbered[document] = -1;
+      } else {
+        renumbered[document] = kept;
+        ids[kept++] = ids[document];
+      }
+    }
+    for (Iterator<Postings> i = terms.values().iterator(); i.hasNext(); ) {
+      Postings postings = i.next();
+      List<int[]> positions = new ArrayList<int[]>();
+      int[] docs = postings.decode( removed, positions );
+      if (docs.length == 0) {
+        i.remove();
+        continue;
+      }
+      Postings compacted = new Postings();
+      for (int d=0; d<docs.length; d++) {
+        compacted.add( renumbered[docs[d]], positions.get( d ) );
+      }
+      postings.replace( compacted );
+    }
+    for (Map.Entry<Long, Integer> number : numbers.entrySet()) {
+      number.setValue( Integer.valueOf( renumbered[number.getValue().intValue()] ) );
+    }
+    documents = kept;
+    removed = new BitSet();
+    removedCount = 0;
+  }
+
+  /**
+   * Postings is the posting list of a word: for each document the
+   * difference with the previous document, the number of positions and
+   * the differences between positions, as variable length integers.
+   */
+  private static final class Postings
+  {
+    private byte[] data = new byte[8];
+    private int length;
+    private int last = -1;
+    private int count;
+
+    void add(int document, int[] positions)
+    {
+      write( document - last );
+      write( positions.length );
+      int previous = 0;
+      for (int position : positions) {
+        write( position - previous );
+        previous = position;
+      }
+      last = document;
+      count++;
+    }
+
+    void replace(Postings other)
+    {
+      data = other.data;
+      length = other.length;
+      last = other.last;
+      count = other.count;
+    }
+
+    /**
+     * @param removed The documents to leave out.
+     * @param positions Where the positions of each document go, or null if not required.
+     * @return The documents, ascending.
+     */
+    int[] decode(BitSet removed, List<int[]> positions)
+    {
+      int[] docs = new int[count];
+      int found = 0;
+      int document = -1;
+      int[] cursor = {0};
+      while (cursor[0] < length) {
+        document += read( cursor );
+        int n = read( cursor );
+        int[] p = positions == null ? null : new int[n];
+        int position = 0;
+        for (int i=0; i<n; i++) {
+          position += read( cursor );
+          if (p != null) {
+            p[i] = position;
+          }
+        }
+        if (! removed.get( document )) {
+          docs[found++] = document;
+          if (p != null) {
+            positions.add( p );
+          }
+        }
+      }
+      if (found == docs.length) {
+        return docs;
+      }
+      int[] trimmed = new int[found];
+      System.arraycopy( docs, 0, trimmed, 0, found );
+      return trimmed;
+    }
+
+    private void write(int value)
+    {
+      if (length + 5 > data.length) {
+        byte[] bigger = new byte[data.length * 2];
+        System.arraycopy( data, 0, bigger, 0, length );
+        data = bigger;
+      }
+      while ((value & ~0x7F) != 0) {
+        data[length++] = (byte) ((value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      data[length++] = (byte) value;
+    }
+
+    private int read(int[] cursor)
+    {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        byte b = data[cursor[0]++];
+        value |= (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return value;
+        }
+      }
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
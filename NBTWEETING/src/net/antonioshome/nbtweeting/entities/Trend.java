@@ -0,0 +1,83 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+/**
+ * Trend is a hashtag or mention, and how many times it has been seen.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class Trend 
+{
+  private final String tag;
+  private final int count;
+
+  /**
+   * Creates a trend.
+   * @param tag The hashtag or mention, such as "#netbeans" or "@antonio".
+   * @param count The times it has been seen.
+   */
+  public Trend(String tag, int count)
+  {
+    this.tag = tag;
+    this.count = count;
+  }
+
+  /**
+   * @return the hashtag or mention, in lower case, with its '#' or '@'.
+   */
+  public String getTag() {
+    return tag;
+  }
+
+  /**
+   * @return an estimate of the times the tag has been seen.
+   */
+  public int getCount() {
+    return count;
+  }
+
+  @Override
+    public String toString()
+  {
+    return tag + " (" + count + ")";
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
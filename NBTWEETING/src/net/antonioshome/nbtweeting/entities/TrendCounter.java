@@ -0,0 +1,302 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TrendCounter counts the hashtags and mentions of tweets in a sliding
+ * window of time, in constant memory. The window is split in buckets,
+ * each one with a count-min sketch: a few rows of counters where each
+ * tag adds to one counter per row, so the smallest of its counters is
+ * an estimate of its count that may be a little too big, but never too
+ * small. The most frequent tags are kept in a small min-heap, so that
+ * each tag is counted in constant time.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class TrendCounter
+{
+  private static final int DEPTH = 4;
+  private static final int WIDTH = 2048;
+
+  private final long bucketMillis;
+  /** The count-min sketch of each bucket, as DEPTH rows of WIDTH counters */
+  private final int[][] sketches;
+  /** The number of the newest bucket, in bucketMillis since the epoch, -1 if none */
+  private long newest = -1;
+  /** The candidates to be the most frequent tags, least frequent first */
+  private final String[] heap;
+  private final int[] heapCounts;
+  private int heapSize;
+  private final Map<String, Integer> heapIndex;
+
+  /**
+   * Creates a counter.
+   * @param windowMillis The length of the window of time, in milliseconds.
+   * @param buckets The number of buckets the window is split in.
+   * @param capacity The number of most frequent tags kept.
+   */
+  public TrendCounter(long windowMillis, int buckets, int capacity)
+  {
+    this.bucketMillis = Math.max( 1, windowMillis / buckets );
+    this.sketches = new int[buckets][DEPTH * WIDTH];
+    this.heap = new String[capacity];
+    this.heapCounts = new int[capacity];
+    this.heapIndex = new HashMap<String, Integer>();
+  }
+
+  /**
+   * Forgets all tags.
+   */
+  public synchronized void clear()
+  {
+    for (int[] sketch : sketches) {
+      Arrays.fill( sketch, 0 );
+    }
+    newest = -1;
+    heapSize = 0;
+    heapIndex.clear();
+  }
+
+  /**
+   * Counts the hashtags and mentions in the text of a tweet.
+   * @param timestamp When the tweet was written, tweets older than the window are ignored.
+   * @param text The text, may be null.
+   */
+  public synchronized void add(long timestamp, String text)
+  {
+    if (text == null) {
+      return;
+    }
+    long bucket = timestamp / bucketMillis;
+    if (bucket > newest) {
+      slide( bucket );
+    } else if (bucket <= newest - sketches.length) {
+      return;
+    }
+    int[] sketch = sketches[(int) (bucket % sketches.length)];
+    for (String tag : tags( text )) {
+      int h1 = tag.hashCode();
+      int h2 = mix( h1 );
+      for (int row=0; row<DEPTH; row++) {
+        sketch[row * WIDTH + ((h1 + row * h2) & (WIDTH - 1))]++;
+      }
+      offer( tag, estimate( tag ) );
+    }
+  }
+
+  /**
+   * @param tag A hashtag or mention, such as "#netbeans" or "@antonio".
+   * @return An estimate of the times the tag has been seen within the window.
+   */
+  public synchronized int estimate(String tag)
+  {
+    int h1 = tag.hashCode();
+    int h2 = mix( h1 );
+    int[] counts = new int[DEPTH];
+    for (int[] sketch : sketches) {
+      for (int row=0; row<DEPTH; row++) {
+        counts[row] += sketch[row * WIDTH + ((h1 + row * h2) & (WIDTH - 1))];
+      }
+    }
+    int estimate = counts[0];
+    for (int row=1; row<DEPTH; row++) {
+      estimate = Math.min( estimate, counts[row] );
+    }
+    return estimate;
+  }
+
+  /**
+   * @param count The maximum number of trends.
+   * @return the most frequent tags within the window, most frequent first.
+   */
+  public synchronized List<Trend> getTrends(int count)
+  {
+    List<Trend> trends = new ArrayList<Trend>( heapSize );
+    for (int i=0; i<heapSize; i++) {
+      int estimate = estimate( heap[i] );
+      if (estimate > 0) {
+        trends.add( new Trend( heap[i], estimate ) );
+      }
+    }
+    Collections.sort( trends, new Comparator<Trend>() {
+      public int compare(Trend a, Trend b) {
+        return a.getCount() > b.getCount() ? -1 : (a.getCount() == b.getCount() ? a.getTag().compareTo( b.getTag() ) : 1);
+      }
+    } );
+    return trends.size() > count ? new ArrayList<Trend>( trends.subList( 0, count ) ) : trends;
+  }
+
+  /**
+   * Extracts the hashtags and mentions of a text, in lower case.
+   * @param text The text.
+   * @return The tags, with their '#' or '@'.
+   */
+  static List<String> tags(String text)
+  {
+    List<String> tags = new ArrayList<String>( 2 );
+    int length = text.length();
+    for (int i=0; i<length; i++) {
+      char c = text.charAt( i );
+      if ((c != '#' && c != '@') || (i > 0 && isTagChar( text.charAt( i - 1 ) ))) {
+        continue;
+      }
+      int end = i + 1;
+      while (end < length && isTagChar( text.charAt( end ) )) {
+        end++;
+      }
+      if (end > i + 1) {
+        tags.add( text.substring( i, end ).toLowerCase() );
+      }
+      i = end - 1;
+    }
+    return tags;
+  }
+
+  private static boolean isTagChar(char c)
+  {
+    return Character.isLetterOrDigit( c ) || c == '_';
+  }
+
+  /**
+   * Moves the window forward, forgetting the buckets left behind, and
+   * the counts of the candidates with them.
+   */
+  private void slide(long bucket)
+  {
+    // With no buckets yet all are clear, and the first ones may be close to 0
+    long from = newest == -1 ? Math.max( -1, bucket - sketches.length ) : newest;
+    for (long b = Math.max( from, bucket - sketches.length ) + 1; b <= bucket; b++) {
+      Arrays.fill( sketches[(int) (b % sketches.length)], 0 );
+    }
+    newest = bucket;
+    for (int i=0; i<heapSize; i++) {
+      heapCounts[i] = estimate( heap[i] );
+    }
+    for (int i=heapSize / 2 - 1; i>=0; i--) {
+      down( i );
+    }
+  }
+
+  /**
+   * Updates the count of a candidate, or replaces the least frequent
+   * candidate if the tag is more frequent.
+   */
+  private void offer(String tag, int count)
+  {
+    Integer index = heapIndex.get( tag );
+    if (index != null) {
+      heapCounts[index.intValue()] = count;
+      down( index.intValue() );
+    } else if (heapSize < heap.length) {
+      heap[heapSize] = tag;
+      heapCounts[heapSize] = count;
+      heapIndex.put( tag, Integer.valueOf( heapSize ) );
+      up( heapSize++ );
+    } else if (heap.length > 0 && count > heapCounts[0]) {
+      heapIndex.remove( heap[0] );
+      heap[0] = tag;
+      heapCounts[0] = count;
+      heapIndex.put( tag, Integer.valueOf( 0 ) );
+      down( 0 );
+    }
+  }
+
+  private void up(int i)
+  {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (heapCounts[parent] <= heapCounts[i]) {
+        return;
+      }
+      swap( i, parent );
+      i = parent;
+    }
+  }
+
+  private void down(int i)
+  {
+    while (true) {
+      int smallest = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < heapSize && heapCounts[left] < heapCounts[smallest]) {
+        smallest = left;
+      }
+      if (right < heapSize && heapCounts[right] < heapCounts[smallest]) {
+        smallest = right;
+      }
+      if (smallest == i) {
+        return;
+      }
+      swap( i, smallest );
+      i = smallest;
+    }
+  }
+
+  private void swap(int i, int j)
+  {
+    String tag = heap[i];
+    heap[i] = heap[j];
+    heap[j] = tag;
+    int count = heapCounts[i];
+    heapCounts[i] = heapCounts[j];
+    heapCounts[j] = count;
+    heapIndex.put( heap[i], Integer.valueOf( i ) );
+    heapIndex.put( heap[j], Integer.valueOf( j ) );
+  }
+
+  private static int mix(int h)
+  {
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    // Odd, so that rows differ
+    return h | 1;
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
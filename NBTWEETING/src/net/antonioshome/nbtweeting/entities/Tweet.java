@@ -4,41 +4,68 @@ package net.antonioshome.nbtweeting.entities;
 import java.net.URL;
 import net.antonioshome.nbtweeting.entities.abilities.HasTextContent;
 import org.openide.util.Lookup;
-import org.openide.util.lookup.AbstractLookup;
-import org.openide.util.lookup.InstanceContent;
+import org.openide.util.lookup.Lookups;
 
 /**
  * Tweet is an entity that represents a tweet.
  * This class has special abilities, so implements the Lookup.Provider interface.
+ * The abilities of a tweet don't change, and most tweets are never asked
+ * for them, so the lookup is built on first access.
  * @author Antonio Vieiro (antonio@antonioshome.net)
  */
 public final class Tweet 
 implements Lookup.Provider
 {
+  private static final int FIELD_URL = 1;
+  private static final int FIELD_CONTENT = 2;
+  private static final int FIELD_AUTHOR = 4;
+
+  private long id;
   private long timestamp;
+  private String urlSpec;
   private URL url;
   private String content;
   private TweetAuthor author;
+  /** Decodes the fields not decoded yet, null if none */
+  private Decoder decoder;
+  /** The fields not decoded yet */
+  private int undecoded;
+  /** The lookup, null until first requested */
   private Lookup lookup;
-  private InstanceContent instanceContent;
 
   /**
    * Basic constructor.
    */
   public Tweet()
   {
-    author = new TweetAuthor();
-    // Create an InstanceContent to hold abilities...
-    instanceContent = new InstanceContent();
-    // Create an AbstractContent to expose InstanceContent contents...
-    lookup = new AbstractLookup( instanceContent );
-    // Add a "HasTextContent" ability, so we know this entity has text content
-    instanceContent.add( new HasTextContent() {
-
-      public String getText() {
-        return content;
-      }
-    });
+    this( null );
+  }
+
+  /**
+   * Creates a tweet whose url, content and author are decoded on first
+   * access, so that tweets that are never looked at are cheap.
+   * @param decoder The Decoder, or null if the fields are to be set.
+   */
+  public Tweet(Decoder decoder)
+  {
+    if (decoder != null) {
+      this.decoder = decoder;
+      this.undecoded = FIELD_URL | FIELD_CONTENT | FIELD_AUTHOR;
+    }
+  }
+
+  /**
+   * @return the id
+   */
+  public long getId() {
+    return id;
+  }
+
+  /**
+   * @param id the id to set
+   */
+  public void setId(long id) {
+    this.id = id;
   }
 
   /**
@@ -56,58 +83,242 @@ implements Lookup.Provider
   }
 
   /**
-   * @return the url
+   * @return the url, built on first access from the url spec if required.
    */
-  public URL getUrl() {
+  public synchronized URL getUrl() {
+    String spec = getUrlSpec();
+    if (url == null && spec != null) {
+      url = Links.toURL(spec);
+    }
     return url;
   }
 
+  /**
+   * @return the url as a string, without building the URL object.
+   */
+  synchronized String getUrlSpec() {
+    Decoder d = take( FIELD_URL );
+    if (d != null) {
+      urlSpec = d.getUrlSpec();
+    }
+    return urlSpec != null || url == null ? urlSpec : url.toString();
+  }
+
   /**
    * @param url the url to set
    */
-  public void setUrl(URL url) {
+  public synchronized void setUrl(URL url) {
+    take( FIELD_URL );
     this.url = url;
+    this.urlSpec = null;
+  }
+
+  /**
+   * Sets the url as a string. The URL object will be built on first access.
+   * @param urlSpec the url to set
+   */
+  public synchronized void setUrlSpec(String urlSpec) {
+    take( FIELD_URL );
+    this.urlSpec = urlSpec;
+    this.url = null;
   }
 
   /**
    * @return the content
    */
-  public String getContent() {
+  public synchronized String getContent() {
+    Decoder d = take( FIELD_CONTENT );
+    if (d != null) {
+      content = d.getContent();
+    }
     return content;
   }
 
   /**
    * @param content the content to set
    */
-  public void setContent(String content) {
+  public synchronized void setContent(String content) {
+    take( FIELD_CONTENT );
     this.content = content;
   }
 
   /**
-   * @return the author
+   * @return the author, shared with other tweets of the same account.
    */
-  public TweetAuthor getAuthor() {
+  public synchronized TweetAuthor getAuthor() {
+    Decoder d = take( FIELD_AUTHOR );
+    if (d != null) {
+      // The name is decoded only the first time the account is seen,
+      // and the image until one is known
+      String uri = d.getAuthorURI();
+      author = AuthorRegistry.getDefault().get( uri );
+      if (author == null) {
+        author = AuthorRegistry.getDefault().intern( uri, d.getAuthorName(), d.getAuthorImage() );
+      } else if (!author.hasImage()) {
+        AuthorRegistry.getDefault().intern( uri, null, d.getAuthorImage() );
+      }
+    } else if (author == null) {
+      author = new TweetAuthor();
+    }
     return author;
   }
 
   /**
    * @param author the author to set
    */
-  public void setAuthor(TweetAuthor author) {
+  public synchronized void setAuthor(TweetAuthor author) {
+    take( FIELD_AUTHOR );
     this.author = author;
   }
 
+  /**
+   * Takes the decoder for a field that has not been decoded yet, if any.
+   * The decoder is released once all fields are decoded or set.
+   * @param field The field.
+   * @return The decoder to decode the field now, or null if already done.
+   */
+  private Decoder take(int field) {
+    if ((undecoded & field) == 0) {
+      return null;
+    }
+    Decoder d = decoder;
+    undecoded &= ~field;
+    if (undecoded == 0) {
+      decoder = null;
+    }
+    return d;
+  }
+
+  /**
+   * Returns the raw bytes of the url and content, if none of them has
+   * been decoded or set yet, so that they may be kept without decoding.
+   * @return The RawText, or null if the url or content have to be read.
+   */
+  synchronized RawText getRawText() {
+    int fields = FIELD_URL | FIELD_CONTENT;
+    if ((undecoded & fields) != fields || !(decoder instanceof RawText)) {
+      return null;
+    }
+    return (RawText) decoder;
+  }
+
   @Override
     public String toString()
   {
     StringBuilder sb = new StringBuilder();
-    sb.append("[TWEET, author=").append( author ).append(",TS=").append( timestamp ).append( ",CONTENT=").append( content ).append("]");
+    sb.append("[TWEET, author=").append( getAuthor() ).append(",TS=").append( timestamp ).append( ",CONTENT=").append( getContent() ).append("]");
     return sb.toString();
   }
 
-  public Lookup getLookup() {
+  /**
+   * Tweets with the same id are equal, so that the views of the same tweet
+   * built by a TweetStore are interchangeable. Tweets with no id are equal
+   * only to themselves.
+   */
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof Tweet)) {
+      return false;
+    }
+    return id != 0 && id == ((Tweet) obj).id;
+  }
+
+  @Override
+  public int hashCode() {
+    return id != 0 ? (int) (id ^ (id >>> 32)) : System.identityHashCode( this );
+  }
+
+  public synchronized Lookup getLookup() {
+    if (lookup == null) {
+      // The entity itself, and a "HasTextContent" ability, so we know this entity has text content
+      lookup = Lookups.fixed( this, new HasTextContent() {
+
+        public String getText() {
+          return getContent();
+        }
+      });
+    }
     return lookup;
   }
+
+  /**
+   * Decoder decodes the text fields of a tweet from the raw feed, on
+   * demand. Each method is invoked once at most.
+   */
+  public interface Decoder {
+
+    /**
+     * @return the url of the tweet, or null.
+     */
+    String getUrlSpec();
+
+    /**
+     * @return the content of the tweet, or null.
+     */
+    String getContent();
+
+    /**
+     * @return the name of the author, or null.
+     */
+    String getAuthorName();
+
+    /**
+     * @return the twitter URL of the author, or null.
+     */
+    String getAuthorURI();
+
+    /**
+     * @return the URL of the image of the author, or null.
+     */
+    String getAuthorImage();
+  }
+
+  /**
+   * RawText is a Decoder that keeps the url and content of a tweet as
+   * raw bytes, which may be copied elsewhere and decoded later on.
+   */
+  public interface RawText extends Decoder {
+
+    int URL = 0;
+    int CONTENT = 1;
+
+    /**
+     * @param field {@link #URL} or {@link #CONTENT}.
+     * @return the number of raw bytes of the field, or -1 if absent.
+     */
+    int getLength(int field);
+
+    /**
+     * Copies the raw bytes of a field.
+     * @param field {@link #URL} or {@link #CONTENT}.
+     * @param target Where the bytes are copied.
+     * @param offset Where the bytes go in the target.
+     */
+    void copy(int field, byte[] target, int offset);
+
+    /**
+     * @return how the raw bytes are decoded, or null if they are plain UTF-8.
+     */
+    Encoding getEncoding();
+  }
+
+  /**
+   * Encoding decodes the raw bytes of a field of a {@link RawText}.
+   */
+  public interface Encoding {
+
+    /**
+     * @param field {@link RawText#URL} or {@link RawText#CONTENT}.
+     * @param bytes The bytes.
+     * @param start The position of the first byte of the field.
+     * @param end The position after the last byte of the field.
+     * @return The decoded field.
+     */
+    String decode(int field, byte[] bytes, int start, int end);
+  }
 }
 /*
 Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
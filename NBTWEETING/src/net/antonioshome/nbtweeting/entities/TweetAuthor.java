@@ -5,13 +5,18 @@ import java.net.URL;
 
 /**
  * TweetAuthor encapsulates information about the author of a tweet.
+ * Authors of tweets parsed from feeds are shared through the AuthorRegistry.
  * @author Antonio Vieiro (antonio@antonioshome.net)
  */
 public final class TweetAuthor 
 {
   private URL imageURL;
+  private String imageURLSpec;
   private String name;
+  private String twitterURLSpec;
   private URL twitterURL;
+  /** The key of this author in the AuthorRegistry, that keeps the entry alive */
+  private String registryKey;
   public TweetAuthor()
   {
   }
@@ -20,22 +25,43 @@ public final class TweetAuthor
   public String toString()
   {
     StringBuilder sb = new StringBuilder();
-    sb.append("[AUTHOR:name=").append( name ).append(",url=").append( twitterURL ).append("]");
+    sb.append("[AUTHOR:name=").append( name ).append(",url=").append( getTwitterURL() ).append("]");
     return sb.toString();
   }
 
   /**
-   * @return the imageURL
+   * @return the imageURL, built on first access from the url spec if required.
    */
-  public URL getImageURL() {
+  public synchronized URL getImageURL() {
+    if (imageURL == null && imageURLSpec != null) {
+      imageURL = Links.toURL(imageURLSpec);
+      imageURLSpec = null;
+    }
     return imageURL;
   }
 
   /**
    * @param imageURL the imageURL to set
    */
-  public void setImageURL(URL imageURL) {
+  public synchronized void setImageURL(URL imageURL) {
     this.imageURL = imageURL;
+    this.imageURLSpec = null;
+  }
+
+  /**
+   * Sets the imageURL as a string. The URL object will be built on first access.
+   * @param imageURLSpec the imageURL to set
+   */
+  public synchronized void setImageURLSpec(String imageURLSpec) {
+    this.imageURLSpec = imageURLSpec;
+    this.imageURL = null;
+  }
+
+  /**
+   * @return true if this author has an image, or an image spec.
+   */
+  public synchronized boolean hasImage() {
+    return imageURL != null || imageURLSpec != null;
   }
 
   /**
@@ -53,9 +79,12 @@ public final class TweetAuthor
   }
 
   /**
-   * @return the twitterURL
+   * @return the twitterURL, built on first access from the url spec if required.
    */
   public URL getTwitterURL() {
+    if (twitterURL == null && twitterURLSpec != null) {
+      twitterURL = Links.toURL(twitterURLSpec);
+    }
     return twitterURL;
   }
 
@@ -64,6 +93,20 @@ public final class TweetAuthor
    */
   public void setTwitterURL(URL twitterURL) {
     this.twitterURL = twitterURL;
+    this.twitterURLSpec = null;
+  }
+
+  /**
+   * Sets the twitterURL as a string. The URL object will be built on first access.
+   * @param twitterURLSpec the twitterURL to set
+   */
+  public void setTwitterURLSpec(String twitterURLSpec) {
+    this.twitterURLSpec = twitterURLSpec;
+    this.twitterURL = null;
+  }
+
+  void setRegistryKey(String registryKey) {
+    this.registryKey = registryKey;
   }
 }
 /*
@@ -0,0 +1,864 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TweetStore keeps the tweets of a query in columns of primitive arrays:
+ * ids, timestamps, author ids into a dictionary of shared authors, and
+ * the url and content as UTF-8 in a byte arena. This takes a fraction of
+ * the memory of Tweet objects, so long histories may be kept. The url
+ * and content of tweets not decoded yet are kept as raw bytes, along with
+ * their {@link Tweet.Encoding}, and are only decoded when read.
+ * Tweets are kept in display order, newest first, and the Tweets returned
+ * are views built on demand: changes to them are not stored.
+ * Rows are never modified once written, and arrays are replaced instead
+ * of modified when they grow, so immutable Snapshots of the store are
+ * cheap and may be read by any thread without locking.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class TweetStore 
+{
+  private static final Charset UTF8 = Charset.forName( "UTF-8" ); // NOI18N
+  private static final int NO_URL = 1;
+  private static final int NO_CONTENT = 2;
+  private static final int INITIAL_CAPACITY = 128;
+
+  /** Number of rows */
+  private int size;
+  /** The rows, in the order they were added */
+  private long[] ids;
+  private long[] timestamps;
+  private int[] authorIds;
+  /** The url of a row is [textStart, urlEnd) in the arena, the content [urlEnd, textEnd) */
+  private int[] textStart;
+  private int[] urlEnd;
+  private int[] textEnd;
+  private byte[] flags;
+  /** How the url and content of a row are decoded, null for plain UTF-8 */
+  private Tweet.Encoding[] encodings;
+  private byte[] arena;
+  private int arenaSize;
+  /** The rows in display order */
+  private int[] order;
+  /** The dictionary of authors */
+  private TweetAuthor[] authors;
+  private int authorCount;
+  private Map<TweetAuthor, Integer> authorIndex;
+  /** The rows of each author, in display order, built on demand, null if not built */
+  private int[][] rowsByAuthor;
+  /** The rows by timestamp, newest first, built on demand, null if not built */
+  private int[] byTimestamp;
+  /** Changes when rows are removed, so that views know they're no longer valid */
+  private int generation;
+  /** Changes whenever tweets are added or removed */
+  private long version;
+
+  public TweetStore()
+  {
+    clear();
+  }
+
+  /**
+   * Removes all tweets.
+   */
+  public synchronized void clear()
+  {
+    size = 0;
+    ids = new long[INITIAL_CAPACITY];
+    timestamps = new long[INITIAL_CAPACITY];
+    authorIds = new int[INITIAL_CAPACITY];
+    textStart = new int[INITIAL_CAPACITY];
+    urlEnd = new int[INITIAL_CAPACITY];
+    textEnd = new int[INITIAL_CAPACITY];
+    flags = new byte[INITIAL_CAPACITY];
+    encodings = new Tweet.Encoding[INITIAL_CAPACITY];
+    order = new int[INITIAL_CAPACITY];
+    arena = new byte[INITIAL_CAPACITY * 128];
+    arenaSize = 0;
+    authors = new TweetAuthor[16];
+    authorCount = 0;
+    authorIndex = new HashMap<TweetAuthor, Integer>();
+    changed();
+    generation++;
+  }
+
+  /**
+   * @return the number of tweets.
+   */
+  public synchronized int size()
+  {
+    return size;
+  }
+
+  /**
+   * Adds a tweet after the rest.
+   * @param tweet The tweet.
+   */
+  public synchronized void add(Tweet tweet)
+  {
+    add( size, tweet );
+  }
+
+  /**
+   * Inserts a tweet.
+   * @param index Where the tweet goes in display order.
+   * @param tweet The tweet.
+   */
+  public synchronized void add(int index, Tweet tweet)
+  {
+    if (index < 0 || index > size) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", size: " + size );
+    }
+    if (size == ids.length) {
+      grow();
+    }
+    int row = size;
+    ids[row] = tweet.getId();
+    timestamps[row] = tweet.getTimestamp();
+    authorIds[row] = authorId( tweet.getAuthor() );
+    // Tweets not decoded yet are kept as they are, and decoded when read
+    Tweet.RawText raw = tweet.getRawText();
+    int f = 0;
+    textStart[row] = arenaSize;
+    if (raw == null ? ! append( tweet.getUrlSpec() ) : ! append( raw, Tweet.RawText.URL )) {
+      f |= NO_URL;
+    }
+    urlEnd[row] = arenaSize;
+    if (raw == null ? ! append( tweet.getContent() ) : ! append( raw, Tweet.RawText.CONTENT )) {
+      f |= NO_CONTENT;
+    }
+    textEnd[row] = arenaSize;
+    flags[row] = (byte) f;
+    encodings[row] = raw == null ? null : raw.getEncoding();
+    System.arraycopy( order, index, order, index + 1, size - index );
+    order[index] = row;
+    size++;
+    changed();
+  }
+
+  /**
+   * Evicts the tweets beyond a maximum count, in display order, and the
+   * tweets older than a timestamp. The rows kept are copied to new arrays,
+   * so that the memory of evicted rows and authors is released and
+   * snapshots already taken are not affected.
+   * @param maxCount The maximum number of tweets to keep, 0 for no limit.
+   * @param oldest The timestamp of the oldest tweet to keep, 0 for no limit.
+   * @return the positions, in ascending order, of the tweets evicted, maybe empty.
+   */
+  public synchronized int[] retain(int maxCount, long oldest)
+  {
+    boolean[] evict = new boolean[size];
+    int evicted = 0;
+    for (int i=0; i<size; i++) {
+      if ((maxCount > 0 && i >= maxCount) || (oldest > 0 && timestamps[order[i]] < oldest)) {
+        evict[order[i]] = true;
+        evicted++;
+      }
+    }
+    int[] positions = new int[evicted];
+    if (evicted == 0) {
+      return positions;
+    }
+    for (int i=0, p=0; i<size; i++) {
+      if (evict[order[i]]) {
+        positions[p++] = i;
+      }
+    }
+    compact( evict, size - evicted );
+    changed();
+    generation++;
+    return positions;
+  }
+
+  /**
+   * @param index The position in display order.
+   * @return the id of the tweet.
+   */
+  public synchronized long getId(int index)
+  {
+    return ids[row( index )];
+  }
+
+  /**
+   * @param index The position in display order.
+   * @return the timestamp of the tweet.
+   */
+  public synchronized long getTimestamp(int index)
+  {
+    return timestamps[row( index )];
+  }
+
+  /**
+   * @param index The position in display order.
+   * @return the author of the tweet, or null.
+   */
+  public synchronized TweetAuthor getAuthor(int index)
+  {
+    int authorId = authorIds[row( index )];
+    return authorId == -1 ? null : authors[authorId];
+  }
+
+  /**
+   * @param index The position in display order.
+   * @return the content of the tweet, or null.
+   */
+  public synchronized String getContent(int index)
+  {
+    int row = row( index );
+    return (flags[row] & NO_CONTENT) != 0 ? null : decode( encodings[row], Tweet.RawText.CONTENT, arena, urlEnd[row], textEnd[row] );
+  }
+
+  /**
+   * Builds a view of a tweet, whose url and content are decoded on first access.
+   * @param index The position in display order.
+   * @return The Tweet.
+   */
+  public synchronized Tweet get(int index)
+  {
+    return view( row( index ) );
+  }
+
+  /**
+   * @return the number of changes made to the store so far.
+   */
+  public synchronized long getVersion()
+  {
+    return version;
+  }
+
+  /**
+   * @return an immutable copy of the tweets in display order, as they are now.
+   */
+  public synchronized Snapshot snapshot()
+  {
+    int[] rows = new int[size];
+    System.arraycopy( order, 0, rows, 0, size );
+    return new Snapshot( this, version, rows );
+  }
+
+  /**
+   * @return the tweets in display order, as a live view.
+   */
+  public List<Tweet> asList()
+  {
+    return new AbstractList<Tweet>() {
+      @Override
+      public Tweet get(int index) {
+        return TweetStore.this.get( index );
+      }
+      @Override
+      public int size() {
+        return TweetStore.this.size();
+      }
+      @Override
+      public Object[] toArray() {
+        synchronized (TweetStore.this) {
+          return super.toArray();
+        }
+      }
+    };
+  }
+
+  /**
+   * @return the tweets sorted by timestamp, newest first, as they are now.
+   */
+  public synchronized List<Tweet> sortedByTimestamp()
+  {
+    int[] rows = sortByTimestamp();
+    return new RowList( rows, 0, rows.length );
+  }
+
+  /**
+   * Returns the tweets published in a range of time.
+   * @param from The first timestamp, inclusive.
+   * @param to The last timestamp, exclusive.
+   * @return the tweets, newest first, as they are now.
+   */
+  public synchronized List<Tweet> range(long from, long to)
+  {
+    int[] rows = sortByTimestamp();
+    // Newest first, so the range is [first timestamp < to, first timestamp < from)
+    return new RowList( rows, firstBefore( rows, to ), firstBefore( rows, from ) );
+  }
+
+  /**
+   * Returns the tweets of an author. Rows are grouped by author once, and
+   * then each author's tweets are found right away.
+   * @param author The author.
+   * @return the tweets of the author, in display order, as they are now.
+   */
+  public synchronized List<Tweet> getTweetsBy(TweetAuthor author)
+  {
+    Integer authorId = authorIndex.get( author );
+    if (authorId == null) {
+      return new RowList( new int[0], 0, 0 );
+    }
+    if (rowsByAuthor == null) {
+      int[] counts = new int[authorCount];
+      for (int i = 0; i < size; i++) {
+        int a = authorIds[order[i]];
+        if (a != -1) {
+          counts[a]++;
+        }
+      }
+      rowsByAuthor = new int[authorCount][];
+      for (int a = 0; a < counts.length; a++) {
+        rowsByAuthor[a] = new int[counts[a]];
+        counts[a] = 0;
+      }
+      for (int i = 0; i < size; i++) {
+        int a = authorIds[order[i]];
+        if (a != -1) {
+          rowsByAuthor[a][counts[a]++] = order[i];
+        }
+      }
+    }
+    int[] rows = rowsByAuthor[authorId];
+    return new RowList( rows, 0, rows.length );
+  }
+
+  /**
+   * @return the number of bytes used by the store, roughly.
+   */
+  public synchronized long getMemoryUsage()
+  {
+    return ids.length * (8L + 8 + 4 + 4 + 4 + 4 + 1 + 4 + 4) + arena.length;
+  }
+
+  private int row(int index)
+  {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException( "Index: " + index + ", size: " + size );
+    }
+    return order[index];
+  }
+
+  private Tweet view(int row)
+  {
+    int authorId = authorIds[row];
+    return view( ids[row], timestamps[row], authorId == -1 ? null : authors[authorId],
+      new RowText( arena, textStart[row], urlEnd[row], textEnd[row], flags[row], encodings[row] ) );
+  }
+
+  private static Tweet view(long id, long timestamp, TweetAuthor author, RowText text)
+  {
+    Tweet tweet = new Tweet( text );
+    tweet.setId( id );
+    tweet.setTimestamp( timestamp );
+    tweet.setAuthor( author );
+    return tweet;
+  }
+
+  private int authorId(TweetAuthor author)
+  {
+    if (author == null) {
+      return -1;
+    }
+    Integer authorId = authorIndex.get( author );
+    if (authorId == null) {
+      if (authorCount == authors.length) {
+        TweetAuthor[] bigger = new TweetAuthor[authors.length * 2];
+        System.arraycopy( authors, 0, bigger, 0, authorCount );
+        authors = bigger;
+      }
+      authorId = Integer.valueOf( authorCount );
+      authors[authorCount++] = author;
+      authorIndex.put( author, authorId );
+    }
+    return authorId.intValue();
+  }
+
+  /**
+   * Appends a text to the arena as UTF-8.
+   * @return false if the text is null.
+   */
+  private boolean append(String text)
+  {
+    if (text == null) {
+      return false;
+    }
+    ByteBuffer bytes = UTF8.encode( text );
+    int length = bytes.remaining();
+    reserve( length );
+    bytes.get( arena, arenaSize, length );
+    arenaSize += length;
+    return true;
+  }
+
+  /**
+   * Appends the raw bytes of a field to the arena, without decoding them.
+   * @return false if the field is absent.
+   */
+  private boolean append(Tweet.RawText raw, int field)
+  {
+    int length = raw.getLength( field );
+    if (length == -1) {
+      return false;
+    }
+    reserve( length );
+    raw.copy( field, arena, arenaSize );
+    arenaSize += length;
+    return true;
+  }
+
+  private void reserve(int length)
+  {
+    if (arenaSize + length > arena.length) {
+      byte[] bigger = new byte[Math.max( arena.length * 2, arenaSize + length )];
+      System.arraycopy( arena, 0, bigger, 0, arenaSize );
+      arena = bigger;
+    }
+  }
+
+  private void grow()
+  {
+    int capacity = ids.length * 2;
+    ids = copyOf( ids, capacity );
+    timestamps = copyOf( timestamps, capacity );
+    authorIds = copyOf( authorIds, capacity );
+    textStart = copyOf( textStart, capacity );
+    urlEnd = copyOf( urlEnd, capacity );
+    textEnd = copyOf( textEnd, capacity );
+    order = copyOf( order, capacity );
+    byte[] biggerFlags = new byte[capacity];
+    System.arraycopy( flags, 0, biggerFlags, 0, size );
+    flags = biggerFlags;
+    Tweet.Encoding[] biggerEncodings = new Tweet.Encoding[capacity];
+    System.arraycopy( encodings, 0, biggerEncodings, 0, size );
+    encodings = biggerEncodings;
+  }
+
+  /**
+   * Copies the rows not evicted to new arrays, in the order they were added.
+   * @param evict Which rows are evicted.
+   * @param kept The number of rows kept.
+   */
+  private void compact(boolean[] evict, int kept)
+  {
+    int capacity = INITIAL_CAPACITY;
+    while (capacity < kept) {
+      capacity *= 2;
+    }
+    int[] newRows = new int[size];
+    long[] newIds = new long[capacity];
+    long[] newTimestamps = new long[capacity];
+    int[] newAuthorIds = new int[capacity];
+    int[] newTextStart = new int[capacity];
+    int[] newUrlEnd = new int[capacity];
+    int[] newTextEnd = new int[capacity];
+    byte[] newFlags = new byte[capacity];
+    Tweet.Encoding[] newEncodings = new Tweet.Encoding[capacity];
+    int newArenaSize = 0;
+    for (int row=0; row<size; row++) {
+      if (! evict[row]) {
+        newArenaSize += textEnd[row] - textStart[row];
+      }
+    }
+    byte[] newArena = new byte[Math.max( INITIAL_CAPACITY * 128, newArenaSize + newArenaSize / 2 )];
+    TweetAuthor[] oldAuthors = authors;
+    authors = new TweetAuthor[16];
+    authorCount = 0;
+    authorIndex = new HashMap<TweetAuthor, Integer>();
+    newArenaSize = 0;
+    int newSize = 0;
+    for (int row=0; row<size; row++) {
+      if (evict[row]) {
+        continue;
+      }
+      int newRow = newSize++;
+      newRows[row] = newRow;
+      newIds[newRow] = ids[row];
+      newTimestamps[newRow] = timestamps[row];
+      newAuthorIds[newRow] = authorId( authorIds[row] == -1 ? null : oldAuthors[authorIds[row]] );
+      int length = textEnd[row] - textStart[row];
+      System.arraycopy( arena, textStart[row], newArena, newArenaSize, length );
+      newTextStart[newRow] = newArenaSize;
+      newUrlEnd[newRow] = newArenaSize + urlEnd[row] - textStart[row];
+      newTextEnd[newRow] = newArenaSize + length;
+      newFlags[newRow] = flags[row];
+      newEncodings[newRow] = encodings[row];
+      newArenaSize += length;
+    }
+    int[] newOrder = new int[capacity];
+    for (int i=0, j=0; i<size; i++) {
+      if (! evict[order[i]]) {
+        newOrder[j++] = newRows[order[i]];
+      }
+    }
+    ids = newIds;
+    timestamps = newTimestamps;
+    authorIds = newAuthorIds;
+    textStart = newTextStart;
+    urlEnd = newUrlEnd;
+    textEnd = newTextEnd;
+    flags = newFlags;
+    encodings = newEncodings;
+    arena = newArena;
+    arenaSize = newArenaSize;
+    order = newOrder;
+    size = newSize;
+  }
+
+  private void changed()
+  {
+    rowsByAuthor = null;
+    byTimestamp = null;
+    version++;
+  }
+
+  private int[] sortByTimestamp()
+  {
+    if (byTimestamp == null) {
+      int[] rows = new int[size];
+      System.arraycopy( order, 0, rows, 0, size );
+      mergeSort( rows, new int[size], 0, size );
+      byTimestamp = rows;
+    }
+    return byTimestamp;
+  }
+
+  /**
+   * Sorts rows by timestamp, newest first. Merge sort is stable, so rows
+   * with the same timestamp keep their display order.
+   */
+  private void mergeSort(int[] rows, int[] scratch, int from, int to)
+  {
+    if (to - from < 2) {
+      return;
+    }
+    int middle = (from + to) >>> 1;
+    mergeSort( rows, scratch, from, middle );
+    mergeSort( rows, scratch, middle, to );
+    if (timestamps[rows[middle - 1]] >= timestamps[rows[middle]]) {
+      // Already in order
+      return;
+    }
+    System.arraycopy( rows, from, scratch, from, to - from );
+    int left = from;
+    int right = middle;
+    for (int i = from; i < to; i++) {
+      if (right >= to || (left < middle && timestamps[scratch[left]] >= timestamps[scratch[right]])) {
+        rows[i] = scratch[left++];
+      } else {
+        rows[i] = scratch[right++];
+      }
+    }
+  }
+
+  /**
+   * @return the position of the first row older than a timestamp, in rows sorted newest first.
+   */
+  private int firstBefore(int[] rows, long timestamp)
+  {
+    int low = 0;
+    int high = rows.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (timestamps[rows[middle]] >= timestamp) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static String decode(Tweet.Encoding encoding, int field, byte[] bytes, int start, int end)
+  {
+    if (encoding != null) {
+      return encoding.decode( field, bytes, start, end );
+    }
+    return UTF8.decode( ByteBuffer.wrap( bytes, start, end - start ) ).toString();
+  }
+
+  private static long[] copyOf(long[] array, int capacity)
+  {
+    long[] copy = new long[capacity];
+    System.arraycopy( array, 0, copy, 0, array.length );
+    return copy;
+  }
+
+  private static int[] copyOf(int[] array, int capacity)
+  {
+    int[] copy = new int[capacity];
+    System.arraycopy( array, 0, copy, 0, array.length );
+    return copy;
+  }
+
+  /**
+   * Snapshot is an immutable version of the tweets of a store. It refers
+   * to the arrays of the store as they were when it was taken, whose rows
+   * are never modified, so it may be read without locking.
+   */
+  public static final class Snapshot
+  {
+    private final long version;
+    private final int[] rows;
+    private final long[] ids;
+    private final long[] timestamps;
+    private final int[] authorIds;
+    private final TweetAuthor[] authors;
+    private final int[] textStart;
+    private final int[] urlEnd;
+    private final int[] textEnd;
+    private final byte[] flags;
+    private final Tweet.Encoding[] encodings;
+    private final byte[] arena;
+    private final List<Tweet> tweets;
+
+    /** Invoked with the lock of the store held */
+    private Snapshot(TweetStore store, long version, int[] rows)
+    {
+      this.version = version;
+      this.rows = rows;
+      this.ids = store.ids;
+      this.timestamps = store.timestamps;
+      this.authorIds = store.authorIds;
+      this.authors = store.authors;
+      this.textStart = store.textStart;
+      this.urlEnd = store.urlEnd;
+      this.textEnd = store.textEnd;
+      this.flags = store.flags;
+      this.encodings = store.encodings;
+      this.arena = store.arena;
+      this.tweets = new AbstractList<Tweet>() {
+        @Override
+        public Tweet get(int index) {
+          return Snapshot.this.get( index );
+        }
+        @Override
+        public int size() {
+          return Snapshot.this.size();
+        }
+      };
+    }
+
+    /**
+     * @return the version of the store this snapshot was taken from.
+     */
+    public long getVersion()
+    {
+      return version;
+    }
+
+    /**
+     * @return the number of tweets.
+     */
+    public int size()
+    {
+      return rows.length;
+    }
+
+    /**
+     * @param index The position in display order.
+     * @return the id of the tweet.
+     */
+    public long getId(int index)
+    {
+      return ids[rows[index]];
+    }
+
+    /**
+     * @param index The position in display order.
+     * @return the timestamp of the tweet.
+     */
+    public long getTimestamp(int index)
+    {
+      return timestamps[rows[index]];
+    }
+
+    /**
+     * @param index The position in display order.
+     * @return the author of the tweet, or null.
+     */
+    public TweetAuthor getAuthor(int index)
+    {
+      int authorId = authorIds[rows[index]];
+      return authorId == -1 ? null : authors[authorId];
+    }
+
+    /**
+     * @param index The position in display order.
+     * @return the content of the tweet, or null.
+     */
+    public String getContent(int index)
+    {
+      int row = rows[index];
+      return (flags[row] & NO_CONTENT) != 0 ? null : decode( encodings[row], Tweet.RawText.CONTENT, arena, urlEnd[row], textEnd[row] );
+    }
+
+    /**
+     * Builds a view of a tweet, whose url and content are decoded on first access.
+     * @param index The position in display order.
+     * @return The Tweet.
+     */
+    public Tweet get(int index)
+    {
+      int row = rows[index];
+      return view( ids[row], timestamps[row], getAuthor( index ),
+        new RowText( arena, textStart[row], urlEnd[row], textEnd[row], flags[row], encodings[row] ) );
+    }
+
+    /**
+     * @return the tweets, as an unmodifiable list.
+     */
+    public List<Tweet> getTweets()
+    {
+      return tweets;
+    }
+  }
+
+  /**
+   * RowList is a view of some rows of the store.
+   */
+  private final class RowList extends AbstractList<Tweet>
+  {
+    private final int[] rows;
+    private final int from;
+    private final int to;
+    private final int viewGeneration;
+
+    RowList(int[] rows, int from, int to)
+    {
+      this.rows = rows;
+      this.from = from;
+      this.to = to;
+      this.viewGeneration = generation;
+    }
+
+    @Override
+    public Tweet get(int index)
+    {
+      if (index < 0 || index >= to - from) {
+        throw new IndexOutOfBoundsException( "Index: " + index + ", size: " + (to - from) );
+      }
+      synchronized (TweetStore.this) {
+        if (viewGeneration != generation) {
+          throw new ConcurrentModificationException();
+        }
+        return view( rows[from + index] );
+      }
+    }
+
+    @Override
+    public int size()
+    {
+      return to - from;
+    }
+  }
+
+  /**
+   * RowText decodes the url and content of a row on demand. The arena
+   * is only appended to, so the bytes of a row don't change. Rows are
+   * copied to other stores as they are, without decoding them.
+   */
+  private static final class RowText implements Tweet.RawText
+  {
+    private final byte[] arena;
+    private final int start;
+    private final int urlEnd;
+    private final int end;
+    private final int flags;
+    private final Tweet.Encoding encoding;
+
+    RowText(byte[] arena, int start, int urlEnd, int end, int flags, Tweet.Encoding encoding)
+    {
+      this.arena = arena;
+      this.start = start;
+      this.urlEnd = urlEnd;
+      this.end = end;
+      this.flags = flags;
+      this.encoding = encoding;
+    }
+
+    public String getUrlSpec()
+    {
+      return (flags & NO_URL) != 0 ? null : decode( encoding, Tweet.RawText.URL, arena, start, urlEnd );
+    }
+
+    public String getContent()
+    {
+      return (flags & NO_CONTENT) != 0 ? null : decode( encoding, Tweet.RawText.CONTENT, arena, urlEnd, end );
+    }
+
+    public int getLength(int field)
+    {
+      if (field == URL) {
+        return (flags & NO_URL) != 0 ? -1 : urlEnd - start;
+      }
+      return (flags & NO_CONTENT) != 0 ? -1 : end - urlEnd;
+    }
+
+    public void copy(int field, byte[] target, int offset)
+    {
+      System.arraycopy( arena, field == URL ? start : urlEnd, target, offset, getLength( field ) );
+    }
+
+    public Tweet.Encoding getEncoding()
+    {
+      return encoding;
+    }
+
+    public String getAuthorName()
+    {
+      return null;
+    }
+
+    public String getAuthorURI()
+    {
+      return null;
+    }
+
+    public String getAuthorImage()
+    {
+      return null;
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
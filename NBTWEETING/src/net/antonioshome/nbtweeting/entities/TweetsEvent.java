@@ -0,0 +1,117 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import java.util.EventObject;
+
+/**
+ * TweetsEvent describes a change in the tweets of a Query, from one
+ * snapshot to the next.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public final class TweetsEvent
+extends EventObject
+{
+  private static final long serialVersionUID = 1L;
+  private static final int[] NONE = new int[0];
+  private final transient TweetStore.Snapshot oldSnapshot;
+  private final transient TweetStore.Snapshot newSnapshot;
+  private final int[] added;
+  private final int[] removed;
+
+  /**
+   * Creates a new event.
+   * @param source The Query.
+   * @param oldSnapshot The tweets before the change.
+   * @param newSnapshot The tweets after the change.
+   * @param added The positions, in ascending order, of the new tweets in newSnapshot.
+   * @param removed The positions, in ascending order, of the removed tweets in oldSnapshot.
+   */
+  public TweetsEvent(Query source, TweetStore.Snapshot oldSnapshot, TweetStore.Snapshot newSnapshot, int[] added, int[] removed)
+  {
+    super( source );
+    this.oldSnapshot = oldSnapshot;
+    this.newSnapshot = newSnapshot;
+    this.added = added == null ? NONE : added;
+    this.removed = removed == null ? NONE : removed;
+  }
+
+  /**
+   * @return the Query whose tweets changed.
+   */
+  public Query getQuery()
+  {
+    return (Query) getSource();
+  }
+
+  /**
+   * @return the tweets before the change.
+   */
+  public TweetStore.Snapshot getOldSnapshot()
+  {
+    return oldSnapshot;
+  }
+
+  /**
+   * @return the tweets after the change.
+   */
+  public TweetStore.Snapshot getNewSnapshot()
+  {
+    return newSnapshot;
+  }
+
+  /**
+   * @return the positions, in ascending order, of the new tweets in the new snapshot.
+   */
+  public int[] getAdded()
+  {
+    return added.clone();
+  }
+
+  /**
+   * @return the positions, in ascending order, of the removed tweets in the old snapshot.
+   */
+  public int[] getRemoved()
+  {
+    return removed.clone();
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
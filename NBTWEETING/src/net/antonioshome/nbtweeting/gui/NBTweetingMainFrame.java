@@ -4,12 +4,23 @@ package net.antonioshome.nbtweeting.gui;
 import java.awt.BorderLayout;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.event.ListSelectionEvent;
+import javax.swing.event.ListSelectionListener;
+import net.antonioshome.nbtweeting.dao.HttpTransport;
+import net.antonioshome.nbtweeting.dao.TweetArchive;
 import net.antonioshome.nbtweeting.entities.Query;
 import net.antonioshome.nbtweeting.entities.abilities.HasTextContent;
 import net.antonioshome.nbtweeting.nodes.QueryNode;
 import net.antonioshome.nbtweeting.nodes.TweetNode;
+import net.antonioshome.nbtweeting.nodes.abilities.FilterableNode;
 import net.antonioshome.nbtweeting.nodes.abilities.ReloadableNode;
+import org.netbeans.swing.outline.DefaultOutlineModel;
+import org.netbeans.swing.outline.Outline;
 import org.openide.explorer.ExplorerManager;
 import org.openide.explorer.propertysheet.PropertySheet;
 import org.openide.explorer.propertysheet.PropertySheetView;
@@ -17,7 +28,9 @@ import org.openide.explorer.view.BeanTreeView;
 import org.openide.explorer.view.ListView;
 import org.openide.explorer.view.OutlineView;
 import org.openide.nodes.Node;
+import org.openide.util.Cancellable;
 import org.openide.util.Exceptions;
+import org.openide.util.RequestProcessor;
 
 /**
  * NBTweetingMainFrame is a plain JFrame that uses different NetBeans
@@ -30,11 +43,21 @@ import org.openide.util.Exceptions;
 public class NBTweetingMainFrame extends javax.swing.JFrame
   implements ExplorerManager.Provider {
 
+  /** Number of pages of results retrieved for each search */
+  private static final int MAX_PAGES = 5;
+  /** Maximum time (milliseconds) spent retrieving pages of results */
+  private static final long PAGING_TIME_BUDGET = 30000L;
+  /** Maximum number of tweets kept for each search */
+  private static final int MAX_TWEETS = 2000;
+
   private ExplorerManager explorerManager = new ExplorerManager();
   private OutlineView outlineView;
   private ListView listView;
   private BeanTreeView beanTreeView;
   private PropertySheet propertySheetView;
+  private JTextField txtFilter;
+  private Outline outline;
+  private TweetOutlineModel outlineModel;
 
   /** 
    * Creates new form NBTweetingMainFrame 
@@ -49,6 +72,24 @@ public class NBTweetingMainFrame extends javax.swing.JFrame
     outlineView.getOutline().setSelectionMode( ListSelectionModel.SINGLE_SELECTION );
     outlineView.setPropertyColumns(TweetNode.DATE_PROPERTY, "Tweet date", TweetNode.AUTHOR_PROPERTY, "Author");
     pnlOutlineViewContainer.add(outlineView, BorderLayout.CENTER);
+    // Add a filter box to narrow the tweets shown, without searching again
+    txtFilter = new JTextField();
+    txtFilter.setToolTipText("Filter tweets: words, prefix* or \"a phrase\"");
+    txtFilter.getDocument().addDocumentListener(new DocumentListener() {
+
+      public void insertUpdate(DocumentEvent e) {
+        filterChanged();
+      }
+
+      public void removeUpdate(DocumentEvent e) {
+        filterChanged();
+      }
+
+      public void changedUpdate(DocumentEvent e) {
+        filterChanged();
+      }
+    });
+    pnlOutlineViewContainer.add(txtFilter, BorderLayout.NORTH);
     // Create a ListView and add it to this window
     listView = new ListView();
     listView.setSelectionMode( ListSelectionModel.SINGLE_SELECTION );
@@ -57,6 +98,20 @@ public class NBTweetingMainFrame extends javax.swing.JFrame
     beanTreeView = new BeanTreeView();
     beanTreeView.setSelectionMode( ListSelectionModel.SINGLE_SELECTION );
     pnlBeanTreeViewContainer.add(beanTreeView, BorderLayout.CENTER);
+    // Add an Outline that reads the tweets straight from the query, for
+    // searches with lots of tweets
+    outline = new Outline();
+    outline.setRootVisible(false);
+    outline.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+    outline.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+
+      public void valueChanged(ListSelectionEvent e) {
+        if (!e.getValueIsAdjusting()) {
+          outlineSelectionChanged();
+        }
+      }
+    });
+    leftPanel.addTab(org.openide.util.NbBundle.getMessage(NBTweetingMainFrame.class, "NBTweetingMainFrame.outline.tabTitle"), new JScrollPane(outline)); // NOI18N
     // Create a PropertySheetView and add it to this window
     propertySheetView = new PropertySheetView();
     pnlPropertySheetContainer.add(propertySheetView, BorderLayout.CENTER);
@@ -74,6 +129,56 @@ public class NBTweetingMainFrame extends javax.swing.JFrame
     });
   }
 
+  /**
+   * Shows the tweets of a query in the outline, instead of the tweets of
+   * the previous query.
+   * @param query The query.
+   */
+  private void showTweets(Query query) {
+    if (outlineModel != null) {
+      outlineModel.detach();
+    }
+    outlineModel = new TweetOutlineModel(query, outline);
+    outline.setModel(DefaultOutlineModel.createOutlineModel(outlineModel, outlineModel, true, "Tweet")); // NOI18N
+    outline.setRenderDataProvider(outlineModel);
+  }
+
+  /**
+   * This method will be invoked whenever a row is selected in the outline.
+   * A TweetNode is created for the selected tweet only, and shown in the
+   * property sheet.
+   */
+  private void outlineSelectionChanged() {
+    int row = outline.getSelectedRow();
+    TweetNode node = row < 0 || outlineModel == null ? null
+      : outlineModel.createNode(outline.getOutlineModel().getValueAt(outline.convertRowIndexToModel(row), 0));
+    if (node == null) {
+      txtTweet.setText("");
+      propertySheetView.setNodes(new Node[0]);
+    } else {
+      HasTextContent ctc = node.getLookup().lookup(HasTextContent.class);
+      txtTweet.setText(ctc == null ? "No text content" : ctc.getText());
+      propertySheetView.setNodes(new Node[]{node});
+    }
+  }
+
+  /**
+   * This method will be invoked whenever the text in the filter box changes.
+   */
+  private void filterChanged() {
+    FilterableNode fn = explorerManager.getRootContext().getLookup().lookup(FilterableNode.class);
+    if (fn == null) {
+      return;
+    }
+    String filter = txtFilter.getText();
+    // The word being typed matches any word starting with it
+    if (filter.trim().length() > 0 && Character.isLetterOrDigit(filter.charAt(filter.length() - 1))
+      && filter.split("\"", -1).length % 2 == 1) { // NOI18N
+      filter += "*"; // NOI18N
+    }
+    fn.setFilter(filter);
+  }
+
   /**
    * This method will be invoked whenever a node is selected in the ExplorerManager.
    * @param selectedNodes An array with the selected nodes.
@@ -234,8 +339,24 @@ public class NBTweetingMainFrame extends javax.swing.JFrame
       Query query = new Query();
       // ... set its keyword
       query.setKeyword(txtSearchTerm.getText());
+      // ... and how many pages of older results we want to see
+      query.setMaxPages(MAX_PAGES);
+      query.setPagingTimeBudget(PAGING_TIME_BUDGET);
+      // ... and how many tweets to keep, however long it's open
+      query.setMaxTweets(MAX_TWEETS);
+      // ... and keep its tweets in the archive (the ones kept last time are
+      // restored by the loader of the node, outside the event dispatch thread)
+      query.setArchive(TweetArchive.getDefault(query.getKeyword()));
       // Create a node from the query...
       QueryNode node = new QueryNode(query);
+      // ... cancel the search of the query it replaces, if still running...
+      Cancellable previous = explorerManager.getRootContext().getLookup().lookup(Cancellable.class);
+      if (previous != null) {
+        previous.cancel();
+      }
+      // ... show all its tweets...
+      txtFilter.setText("");
+      showTweets(query);
       // ... and set this explorer's manager root node to it
       explorerManager.setRootContext(node);
 
@@ -247,8 +368,24 @@ public class NBTweetingMainFrame extends javax.swing.JFrame
       Query query = new Query();
       // ... set its keyword
       query.setKeyword(txtSearchTerm.getText());
+      // ... and how many pages of older results we want to see
+      query.setMaxPages(MAX_PAGES);
+      query.setPagingTimeBudget(PAGING_TIME_BUDGET);
+      // ... and how many tweets to keep, however long it's open
+      query.setMaxTweets(MAX_TWEETS);
+      // ... and keep its tweets in the archive (the ones kept last time are
+      // restored by the loader of the node, outside the event dispatch thread)
+      query.setArchive(TweetArchive.getDefault(query.getKeyword()));
       // Create a node from the query...
       QueryNode node = new QueryNode(query);
+      // ... cancel the search of the query it replaces, if still running...
+      Cancellable previous = explorerManager.getRootContext().getLookup().lookup(Cancellable.class);
+      if (previous != null) {
+        previous.cancel();
+      }
+      // ... show all its tweets...
+      txtFilter.setText("");
+      showTweets(query);
       // ... and set this explorer's manager root node to it
       explorerManager.setRootContext(node);
 
@@ -263,9 +400,10 @@ public class NBTweetingMainFrame extends javax.swing.JFrame
         ReloadableNode reloadableNode = nodes[0].getLookup().lookup(ReloadableNode.class);
         if (reloadableNode != null) {
           try {
-            // ... and if it is then reload its children
+            // ... and if it is then reload its children, all of them,
             // since the children are a ChildFactory this will be done in
             // a background thread
+            txtFilter.setText("");
             reloadableNode.reloadChildren();
           } catch (Exception ex) {
             Exceptions.printStackTrace(ex);
@@ -279,6 +417,14 @@ public class NBTweetingMainFrame extends javax.swing.JFrame
    * @param args the command line arguments
    */
   public static void main(String args[]) {
+    // Connect to Twitter in the background, so that the first search
+    // finds an established connection in the pool
+    RequestProcessor.getDefault().post(new Runnable()     {
+
+      public void run() {
+        HttpTransport.getDefault().warmUp("search.twitter.com"); // NOI18N
+      }
+    });
     java.awt.EventQueue.invokeLater(new Runnable()     {
 
       public void run() {
@@ -0,0 +1,323 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.gui;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Image;
+import java.net.URL;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.swing.Icon;
+import javax.swing.ImageIcon;
+import javax.swing.SwingUtilities;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import javax.swing.tree.TreeModel;
+import javax.swing.tree.TreePath;
+import net.antonioshome.nbtweeting.dao.AvatarLoader;
+import net.antonioshome.nbtweeting.entities.Query;
+import net.antonioshome.nbtweeting.entities.Tweet;
+import net.antonioshome.nbtweeting.entities.TweetAuthor;
+import net.antonioshome.nbtweeting.entities.TweetStore;
+import net.antonioshome.nbtweeting.entities.TweetsEvent;
+import net.antonioshome.nbtweeting.entities.TweetsListener;
+import net.antonioshome.nbtweeting.nodes.TweetNode;
+import org.netbeans.swing.outline.RenderDataProvider;
+import org.netbeans.swing.outline.RowModel;
+import org.openide.util.ImageUtilities;
+
+/**
+ * TweetOutlineModel shows the tweets of a Query in an Outline without
+ * Nodes: the rows are the positions of the tweets in the last snapshot
+ * of the Query, and the columns are read straight from the snapshot, so
+ * only the rows painted are ever read. Changes are applied in the event
+ * dispatch thread, one snapshot after the other.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+final class TweetOutlineModel
+  implements TreeModel, RowModel, RenderDataProvider, TweetsListener {
+
+  private static final int DATE_COLUMN = 0;
+  private static final int AUTHOR_COLUMN = 1;
+  private static final Icon TWEET_ICON = new ImageIcon(ImageUtilities.loadImage("net/antonioshome/nbtweeting/nodes/resources/tweet.png")); // NOI18N
+
+  private final Query query;
+  private final Component view;
+  /** Repaints the view when an avatar is loaded */
+  private final ChangeListener avatarListener = new ChangeListener() {
+
+    public void stateChanged(ChangeEvent e) {
+      view.repaint();
+    }
+  };
+  /** The avatars shown, so that icons are not created for each cell painted */
+  private final Map<Image, Icon> avatars = new WeakHashMap<Image, Icon>();
+  private final List<TreeModelListener> listeners = new CopyOnWriteArrayList<TreeModelListener>();
+  /** The tweets shown, only used in the event dispatch thread */
+  private TweetStore.Snapshot snapshot;
+
+  /**
+   * Creates a model for the tweets of a query. The model follows the
+   * changes of the query until {@link #detach()} is invoked.
+   * @param query The query.
+   * @param view The component that shows the model, repainted when avatars are loaded.
+   */
+  TweetOutlineModel(Query query, Component view) {
+    this.query = query;
+    this.view = view;
+    this.snapshot = query.getSnapshot();
+    query.addTweetsListener(this);
+  }
+
+  /**
+   * Stops following the changes of the query.
+   */
+  void detach() {
+    query.removeTweetsListener(this);
+  }
+
+  /**
+   * @param row A row of the model, as returned by {@link #getChild(Object, int)}.
+   * @return A TweetNode for the tweet in that row, or null if the row is not a tweet.
+   */
+  TweetNode createNode(Object row) {
+    if (!(row instanceof Integer) || ((Integer) row).intValue() >= snapshot.size()) {
+      return null;
+    }
+    return new TweetNode(snapshot.get(((Integer) row).intValue()));
+  }
+
+  /**
+   * Invoked by the query in the thread that changes its tweets.
+   * @param event What changed.
+   */
+  public void tweetsChanged(final TweetsEvent event) {
+    SwingUtilities.invokeLater(new Runnable() {
+
+      public void run() {
+        apply(event);
+      }
+    });
+  }
+
+  private void apply(TweetsEvent event) {
+    if (event.getOldSnapshot().getVersion() != snapshot.getVersion()) {
+      // We've lost track, start over
+      snapshot = event.getNewSnapshot();
+      fire(new TreeModelEvent(this, new Object[]{query}), 0);
+      return;
+    }
+    snapshot = event.getNewSnapshot();
+    int[] removed = event.getRemoved();
+    if (removed.length > 0) {
+      fire(new TreeModelEvent(this, new Object[]{query}, removed, rows(removed)), 2);
+    }
+    int[] added = event.getAdded();
+    if (added.length > 0) {
+      fire(new TreeModelEvent(this, new Object[]{query}, added, rows(added)), 1);
+    }
+  }
+
+  private static Object[] rows(int[] indices) {
+    Object[] rows = new Object[indices.length];
+    for (int i = 0; i < indices.length; i++) {
+      rows[i] = Integer.valueOf(indices[i]);
+    }
+    return rows;
+  }
+
+  /**
+   * @param type 0 for structure changed, 1 for nodes inserted and 2 for nodes removed.
+   */
+  private void fire(TreeModelEvent event, int type) {
+    for (TreeModelListener listener : listeners) {
+      switch (type) {
+        case 0:
+          listener.treeStructureChanged(event);
+          break;
+        case 1:
+          listener.treeNodesInserted(event);
+          break;
+        default:
+          listener.treeNodesRemoved(event);
+      }
+    }
+  }
+
+  /*
+   * TreeModel: the query is the root, and the rows are Integers with
+   * the position of each tweet in the snapshot.
+   */
+
+  public Object getRoot() {
+    return query;
+  }
+
+  public Object getChild(Object parent, int index) {
+    return Integer.valueOf(index);
+  }
+
+  public int getChildCount(Object parent) {
+    return parent == query ? snapshot.size() : 0;
+  }
+
+  public boolean isLeaf(Object node) {
+    return node != query;
+  }
+
+  public void valueForPathChanged(TreePath path, Object newValue) {
+    // Read only
+  }
+
+  public int getIndexOfChild(Object parent, Object child) {
+    return parent == query && child instanceof Integer ? ((Integer) child).intValue() : -1;
+  }
+
+  public void addTreeModelListener(TreeModelListener l) {
+    listeners.add(l);
+  }
+
+  public void removeTreeModelListener(TreeModelListener l) {
+    listeners.remove(l);
+  }
+
+  /*
+   * RowModel: the same columns as TweetNodes have.
+   */
+
+  public int getColumnCount() {
+    return 2;
+  }
+
+  public Object getValueFor(Object node, int column) {
+    if (!(node instanceof Integer)) {
+      return null;
+    }
+    int row = ((Integer) node).intValue();
+    if (row >= snapshot.size()) {
+      return null;
+    }
+    if (column == DATE_COLUMN) {
+      return new Date(snapshot.getTimestamp(row));
+    }
+    TweetAuthor author = snapshot.getAuthor(row);
+    return author == null ? null : author.getName();
+  }
+
+  public Class<?> getColumnClass(int column) {
+    return column == DATE_COLUMN ? Date.class : String.class;
+  }
+
+  public boolean isCellEditable(Object node, int column) {
+    return false;
+  }
+
+  public void setValueFor(Object node, int column, Object value) {
+    // Read only
+  }
+
+  public String getColumnName(int column) {
+    return column == AUTHOR_COLUMN ? "Author" : "Tweet date";
+  }
+
+  /*
+   * RenderDataProvider: tweets are shown as TweetNodes are, only the
+   * content of the rows painted is decoded.
+   */
+
+  public String getDisplayName(Object node) {
+    if (!(node instanceof Integer)) {
+      return String.valueOf(node);
+    }
+    int row = ((Integer) node).intValue();
+    if (row >= snapshot.size()) {
+      return "";
+    }
+    TweetAuthor author = snapshot.getAuthor(row);
+    String result = (author == null ? "" : author.getName()) + " said " + snapshot.getContent(row);
+    return result.length() > 60 ? result.substring(0, 55) + "..." : result;
+  }
+
+  public boolean isHtmlDisplayName(Object node) {
+    return false;
+  }
+
+  public Color getBackground(Object node) {
+    return null;
+  }
+
+  public Color getForeground(Object node) {
+    return null;
+  }
+
+  public String getTooltipText(Object node) {
+    if (!(node instanceof Integer) || ((Integer) node).intValue() >= snapshot.size()) {
+      return null;
+    }
+    Tweet tweet = snapshot.get(((Integer) node).intValue());
+    return tweet.getContent();
+  }
+
+  public Icon getIcon(Object node) {
+    if (!(node instanceof Integer) || ((Integer) node).intValue() >= snapshot.size()) {
+      return null;
+    }
+    TweetAuthor author = snapshot.getAuthor(((Integer) node).intValue());
+    URL imageURL = author == null ? null : author.getImageURL();
+    Image avatar = imageURL == null ? null : AvatarLoader.getDefault().getAvatar(imageURL, avatarListener);
+    if (avatar == null) {
+      return TWEET_ICON;
+    }
+    Icon icon = avatars.get(avatar);
+    if (icon == null) {
+      icon = new ImageIcon(avatar);
+      avatars.put(avatar, icon);
+    }
+    return icon;
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -4,6 +4,7 @@ package net.antonioshome.nbtweeting.nodes;
 import java.awt.Image;
 import javax.swing.Action;
 import net.antonioshome.nbtweeting.entities.Query;
+import net.antonioshome.nbtweeting.nodes.abilities.FilterableNode;
 import net.antonioshome.nbtweeting.nodes.abilities.ReloadableNode;
 import net.antonioshome.nbtweeting.nodes.actions.ReloadAction;
 import org.openide.nodes.AbstractNode;
@@ -23,38 +24,46 @@ public final class QueryNode
 
   private Query query;
   private InstanceContent instanceContent;
+  private QueryNodeChildFactory factory;
 
   /**
    * Public constructor from an entity.
    * @param query The entity that this node represents visually.
    */
   public QueryNode(Query query) {
-    this(query, new InstanceContent());
+    this(query, new InstanceContent(), new QueryNodeChildFactory(query));
   }
 
   /**
-   * Private constructor from an entity and an InstanceContent
+   * Private constructor from an entity, an InstanceContent and a ChildFactory
    * @param query The entity that this node represents visually.
    * @param ic The InstanceContent object that keeps this node's abilities.
+   * @param factory The ChildFactory that creates this node's children.
    */
-  private QueryNode(Query query, InstanceContent ic) {
+  private QueryNode(Query query, InstanceContent ic, QueryNodeChildFactory factory) {
     // Invoke the super constructor, passing it a list of children 
     // to be retrieved with a QueryNodeChildFactory, and
     // a ProxyLookup that combines this node's abilities with the entity's
-    super(Children.create(new QueryNodeChildFactory(query), true), 
+    super(Children.create(factory, true), 
       new ProxyLookup( // Combination of lookups
         query.getLookup(), // The entitie's abilities
         new AbstractLookup(ic))); // This node's abilities
     // Keep the entity and the instancecontent on member variables
     this.query = query;
     this.instanceContent = ic;
+    this.factory = factory;
     // Add a new ability for this node to be reloaded
     this.instanceContent.add(new ReloadableNode()  {
       public void reloadChildren() throws Exception {
-        // To reload this node just set a new set of children
-        // using a QueryNodeChildFactory object, that retrieves
-        // children asynchronously
-        setChildren(Children.create(new QueryNodeChildFactory(QueryNode.this.query), true));
+        // To reload this node just refresh its children: the nodes
+        // of known tweets are kept, and nodes are created for new ones only
+        QueryNode.this.factory.reload();
+      }
+    });
+    // And another one for its children to be filtered
+    this.instanceContent.add(new FilterableNode() {
+      public void setFilter(String filter) {
+        QueryNode.this.factory.setFilter(filter);
       }
     });
   }
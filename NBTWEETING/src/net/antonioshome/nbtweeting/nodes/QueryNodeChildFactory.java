@@ -1,24 +1,80 @@
 /* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
 package net.antonioshome.nbtweeting.nodes;
 
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import net.antonioshome.nbtweeting.dao.TweetSink;
 import net.antonioshome.nbtweeting.entities.Query;
 import net.antonioshome.nbtweeting.entities.Tweet;
+import net.antonioshome.nbtweeting.entities.TweetStore;
+import net.antonioshome.nbtweeting.entities.TweetsEvent;
+import net.antonioshome.nbtweeting.entities.TweetsListener;
+import net.antonioshome.nbtweeting.entities.abilities.Pageable;
 import net.antonioshome.nbtweeting.entities.abilities.Reloadable;
+import net.antonioshome.nbtweeting.entities.abilities.Searchable;
+import net.antonioshome.nbtweeting.entities.abilities.Streamable;
 import org.openide.nodes.ChildFactory;
 import org.openide.nodes.Node;
+import org.openide.util.Cancellable;
+import org.openide.util.RequestProcessor;
 
 /**
  * QueryNodeChildFactory is a ChildFactory for QueryNodes, responsible
  *   for retrieving the Tweets for a given Query, and for wrapping
  *   those Tweets into TweetNodes.
- * QueryNodeChildFactory is also Reloadable.
+ * The Query is reloaded, and older pages retrieved, in a loader thread
+ *   that streams the new tweets to this factory as they are parsed, and
+ *   this factory shows them in small batches. Tweets evicted by the
+ *   retention limits of the Query while loading are removed with each batch.
+ * When a filter is given the known tweets that match it are shown
+ *   instead, found in the text index of the Query, without reloading.
+ * Tweets are equal when their ids are, so when the factory is reloaded
+ *   or filtered again the nodes of the tweets already shown are kept,
+ *   and only the nodes of new tweets are created.
+ * QueryNodeChildFactory is also Reloadable. When its nodes are no longer
+ *   needed the search in progress, if any, is cancelled.
  * @author Antonio Vieiro (antonio@antonioshome.net)
  */
 class QueryNodeChildFactory
-  extends ChildFactory<Tweet> { // Tweet is the type of "child entity"
+  extends ChildFactory.Detachable<Tweet> { // Tweet is the type of "child entity"
+
+  /** Retrieves the tweets of the queries being shown */
+  private static final RequestProcessor LOADER = new RequestProcessor(QueryNodeChildFactory.class.getName(), 4);
+  /** Maximum number of tweets shown at once */
+  private static final int BATCH_SIZE = 20;
+  /** Maximum time (milliseconds) to wait for more tweets before showing a batch */
+  private static final long BATCH_LINGER = 100;
+  /** Marks the end of the stream of tweets */
+  private static final Tweet END = new Tweet();
+  /** Marks the start of the tweets restored, that go after the ones shown */
+  private static final Tweet RESTORING = new Tweet();
+  /** Marks the end of the tweets restored, new tweets go before all of them */
+  private static final Tweet RESTORED = new Tweet();
 
   private Query query;
+  /** The search the tweets shown have to match, null to reload the query */
+  private volatile String filter;
+  /** The tweets retrieved by the loader and not shown yet, null if not loading */
+  private volatile BlockingQueue<Tweet> arrived;
+  /** The tweets evicted by the loader and not removed yet, null if not loading */
+  private Queue<Tweet> evicted;
+  /** The tweets evicted before being shown */
+  private Set<Tweet> dropped;
+  /** Where the next tweet retrieved is to be shown */
+  private int insertIndex;
+  /** True while the query is being searched */
+  private volatile boolean loading;
+  /** True when a reload has been requested while the tweets retrieved were not shown */
+  private volatile boolean reloadPending;
+  /** True when the children are no longer needed */
+  private volatile boolean detached;
 
   /**
    * Constructor from a Query entity.
@@ -28,6 +84,30 @@ class QueryNodeChildFactory
     this.query = query;
   }
 
+  /**
+   * Reloads the query, showing the new tweets before the ones already
+   * shown, unless it's being reloaded already.
+   */
+  void reload() {
+    filter = null;
+    if (loading) {
+      reloadPending = true;
+    } else {
+      refresh(false);
+    }
+  }
+
+  /**
+   * Shows only the known tweets that match a filter. The query is
+   * reloaded when the search in progress, if any, is finished.
+   * @param filter The search the tweets have to match (see {@link Searchable}),
+   *   an empty one shows all tweets.
+   */
+  void setFilter(String filter) {
+    this.filter = filter;
+    refresh(false);
+  }
+
   /**
    * Responsible for creating a Node that visually represents a child entity.
    * @param key The child entity (a Tweet)
@@ -41,31 +121,198 @@ class QueryNodeChildFactory
   /**
    * This method will be invoked by the NetBeans Platform, we have to
    * populate the list with the child entities of our Query.
+   * The first invocation shows the tweets already known and starts
+   * reloading the query, and following invocations add the new tweets
+   * as they arrive, a few at a time, so that the first tweets are shown
+   * as soon as they are parsed.
    * @param list The list of tweets to populate
    * @return true if the list is all set, false if we need to be invoked
    *   again later to fill-in more child entities
    */
   @Override
   protected boolean createKeys(List<Tweet> list) {
+    if (detached) {
+      // Nobody is interested any more
+      arrived = null;
+      evicted = null;
+      return true;
+    }
+    if (filter != null) {
+      // Known tweets only, found in the text index
+      Searchable s = query.getLookup().lookup(Searchable.class);
+      list.addAll(s == null ? query.getTweets() : s.search(filter));
+      return true;
+    }
+    if (arrived == null) {
+      // Known tweets are shown right away, new ones go before them
+      list.addAll(query.getTweets());
+      insertIndex = 0;
+      arrived = new LinkedBlockingQueue<Tweet>();
+      evicted = new ConcurrentLinkedQueue<Tweet>();
+      dropped = new HashSet<Tweet>();
+      loading = true;
+      final BlockingQueue<Tweet> queue = arrived;
+      final Queue<Tweet> evictions = evicted;
+      LOADER.post(new Runnable() {
 
+        public void run() {
+          load(queue, evictions);
+        }
+      });
+      if (!list.isEmpty()) {
+        return false;
+      }
+    }
+    try {
+      // Wait for one tweet, and for a few more for a little while
+      Tweet tweet = arrived.take();
+      long deadline = System.currentTimeMillis() + BATCH_LINGER;
+      for (int count = 1; tweet != END; count++) {
+        if (tweet == RESTORING) {
+          insertIndex = list.size();
+        } else if (tweet == RESTORED) {
+          insertIndex = 0;
+        } else if (!dropped.remove(tweet)) {
+          list.add(insertIndex++, tweet);
+        }
+        long wait = deadline - System.currentTimeMillis();
+        tweet = count < BATCH_SIZE && wait > 0 ? arrived.poll(wait, TimeUnit.MILLISECONDS) : null;
+        if (tweet == null) {
+          removeEvicted(list);
+          if (!detached && filter == null) {
+            // Show this batch, more will come
+            return false;
+          }
+          break;
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+    // All set
+    removeEvicted(list);
+    arrived = null;
+    evicted = null;
+    dropped = null;
+    return true;
+  }
+
+  /**
+   * Removes the tweets evicted so far from the list. Evicted tweets
+   * not shown yet are remembered, so that they're not shown when they arrive.
+   * @param list The list of tweets.
+   */
+  private void removeEvicted(List<Tweet> list) {
+    if (evicted.isEmpty()) {
+      return;
+    }
+    for (Tweet tweet = evicted.poll(); tweet != null; tweet = evicted.poll()) {
+      dropped.add(tweet);
+    }
+    int index = 0;
+    for (Iterator<Tweet> tweets = list.iterator(); tweets.hasNext(); index++) {
+      if (dropped.remove(tweets.next())) {
+        tweets.remove();
+        if (index < insertIndex) {
+          insertIndex--;
+        }
+        index--;
+      }
+    }
+  }
+
+  /**
+   * Restores the tweets kept in the archive of the query, if not yet
+   * restored, reloads the query, and retrieves older pages of results
+   * if any, giving the new tweets to this factory as they are retrieved,
+   * and the tweets evicted as they are evicted.
+   * @param queue Where new tweets go.
+   * @param evictions Where evicted tweets go.
+   */
+  private void load(final BlockingQueue<Tweet> queue, final Queue<Tweet> evictions) {
+    TweetSink sink = new TweetSink() {
+
+      public void add(Tweet tweet) {
+        queue.add(tweet);
+      }
+    };
+    TweetsListener listener = new TweetsListener() {
+
+      public void tweetsChanged(TweetsEvent event) {
+        TweetStore.Snapshot previous = event.getOldSnapshot();
+        for (int index : event.getRemoved()) {
+          evictions.add(previous.get(index));
+        }
+      }
+    };
+    query.addTweetsListener(listener);
     // The query node is reloadable, isn't it? Then just
-    // get this ability from the lookup ...
+    // get the abilities from the lookup ...
+    Streamable s = query.getLookup().lookup(Streamable.class);
     Reloadable r = query.getLookup().lookup(Reloadable.class);
-
-    // ... and  use the ability
-    if (r != null) {
-      try {
-        r.reload();
-      } catch (Exception e) {
-        // Empty
+    Pageable p = query.getLookup().lookup(Pageable.class);
+    if (s != null) {
+      s.addTweetSink(sink);
+    }
+    try {
+      // The tweets kept last time go after the ones known, and the new ones before them
+      int restored = query.restore();
+      if (restored > 0) {
+        List<Tweet> known = query.getTweets();
+        queue.add(RESTORING);
+        queue.addAll(known.subList(known.size() - restored, known.size()));
+        queue.add(RESTORED);
+      }
+      // ... and use them
+      if (r != null) {
+        try {
+          r.reload();
+        } catch (Exception e) {
+          // Empty
+        }
+      }
+      // Retrieve older pages, one by one
+      while (p != null && !detached && p.hasNextPage()) {
+        try {
+          p.loadNextPage();
+        } catch (Exception e) {
+          break;
+        }
+      }
+    } finally {
+      query.removeTweetsListener(listener);
+      if (s != null) {
+        s.removeTweetSink(sink);
+      }
+      loading = false;
+      queue.add(END);
+      if (reloadPending) {
+        reloadPending = false;
+        if (arrived != queue) {
+          // The tweets retrieved were not shown because of a filter
+          refresh(false);
+        }
       }
     }
+  }
 
-    // Now populate the list of child entities...
-    list.addAll(query.getTweets());
+  @Override
+  protected void addNotify() {
+    detached = false;
+  }
 
-    // And return true since we're all set
-    return true;
+  /**
+   * Invoked when the children are no longer needed, because the query
+   * node has been collapsed or replaced: the search in progress is
+   * cancelled so that the loader thread is free again.
+   */
+  @Override
+  protected void removeNotify() {
+    detached = true;
+    Cancellable c = query.getLookup().lookup(Cancellable.class);
+    if (loading && c != null) {
+      c.cancel();
+    }
   }
 }
 /*
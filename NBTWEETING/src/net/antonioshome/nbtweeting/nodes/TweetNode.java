@@ -4,17 +4,18 @@ package net.antonioshome.nbtweeting.nodes;
 import java.awt.Image;
 import java.beans.PropertyEditor;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URL;
 import java.util.Date;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import net.antonioshome.nbtweeting.dao.AvatarLoader;
 import net.antonioshome.nbtweeting.entities.Tweet;
 import net.antonioshome.nbtweeting.propertyeditors.TimestampPropertyEditor;
 import org.openide.nodes.AbstractNode;
 import org.openide.nodes.Children;
-import org.openide.nodes.PropertySupport;
 import org.openide.nodes.Sheet;
 import org.openide.util.ImageUtilities;
-import org.openide.util.lookup.AbstractLookup;
-import org.openide.util.lookup.InstanceContent;
-import org.openide.util.lookup.ProxyLookup;
+import org.openide.util.lookup.Lookups;
 
 /**
  * TweetNode is a Node that visually represents a Tweet.
@@ -24,7 +25,10 @@ public final class TweetNode
   extends AbstractNode {
 
   private Tweet tweet;
-  private InstanceContent ic;
+  /** The properties of this node, null until requested */
+  private PropertySet[] propertySets;
+  /** Updates the icon when the avatar of the author is loaded, null until required */
+  private ChangeListener avatarListener;
 
   public static String DATE_PROPERTY = "DATE";
   public static String AUTHOR_PROPERTY = "AUTHOR";
@@ -34,26 +38,13 @@ public final class TweetNode
    * @param tweet The entity that this node represents visually.
    */
   public TweetNode(Tweet tweet) {
-    this(tweet, new InstanceContent());
-  }
-
-  /**
-   * Private constructor from a Tweet entity and an empty InstanceContent.
-   * @param tweet The entity that this node represents visually.
-   * @param ic An InstanceContent used to hold this node's abilities.
-   */
-  private TweetNode(Tweet tweet, InstanceContent ic) {
     // Invoke the super constructor
     super(Children.LEAF, // With the Children.LEAF constant, because we have no children
-      new ProxyLookup( // With a lookup that combines...
-        tweet.getLookup(), // the entitie's abilities
-      new AbstractLookup(ic)) ); // and this node's own abilities
+      Lookups.proxy(tweet)); // With the entity's abilities, that include the entity itself
+                             // (this is handy to retrieve the entity from a node).
+                             // The entity's lookup is built only if this node's is queried.
     // Keep instance variables for later use
     this.tweet = tweet;
-    this.ic = ic;
-    // Add the entity to the list of this node's abilities
-    // (this is handy to retrieve the entity from a node
-    this.ic.add(tweet);
   }
 
   @Override
@@ -81,66 +72,196 @@ public final class TweetNode
   
 
   /**
-   * An icon when this node is closed
+   * An icon when this node is closed, the avatar of the author if loaded.
+   * Avatars are loaded in the background, and the icon changes when the
+   * avatar arrives.
    * @param type The type of icon, ignored.
    * @return The icon.
    */
   @Override
   public Image getIcon(int type) {
+    URL imageURL = tweet.getAuthor().getImageURL();
+    if (imageURL != null) {
+      if (avatarListener == null) {
+        avatarListener = new ChangeListener() {
+
+          public void stateChanged(ChangeEvent e) {
+            fireIconChange();
+          }
+        };
+      }
+      Image avatar = AvatarLoader.getDefault().getAvatar(imageURL, avatarListener);
+      if (avatar != null) {
+        return avatar;
+      }
+    }
     return ImageUtilities.loadImage("net/antonioshome/nbtweeting/nodes/resources/tweet.png"); // NOI18N
   }
 
   /**
-   * This method is invoked once to create a Sheet of Properties of this node.
-   * @return A Sheet of Properties for this node.
+   * The properties of this node are created when first requested, and
+   * read the tweet through definitions shared by all TweetNodes, so no
+   * Sheet is built for each node.
+   * @return The properties of this node.
    */
   @Override
-  protected Sheet createSheet() {
-
-    // Create an empty sheet
-    Sheet sheet = Sheet.createDefault();
-    // Create a set of properties
-    Sheet.Set set = Sheet.createPropertiesSet();
-
-    // The Date read-only property
-    Property tweetDateProperty = new PropertySupport.ReadOnly<Date>( DATE_PROPERTY, Date.class, "Tweet date", "The date where the tweet was sent") {
-      @Override
-      public Date getValue() throws IllegalAccessException, InvocationTargetException {
-        // Returns this node's entity date
-        return new Date( tweet.getTimestamp() );
-      }
+  public synchronized PropertySet[] getPropertySets() {
+    if (propertySets == null) {
+      propertySets = new PropertySet[]{ new TweetPropertySet( tweet ) };
+    }
+    return propertySets;
+  }
 
-      @Override
-        public PropertyEditor getPropertyEditor()
-      {
-        // Returns a PropertyEditor that visually represents (and allows editing) this
-        // node's property.
-        return new TimestampPropertyEditor();
-      }
-    };
-    set.put( tweetDateProperty );
+  /**
+   * Definition is the part of a property of TweetNodes that is the same
+   * for all of them, so only one of each is created.
+   */
+  private static abstract class Definition<T> {
+    final String name;
+    final Class<T> type;
+    final String displayName;
+    final String description;
 
-    // A read-only property that represents the author (String type)
-    Property tweetAuthorProperty = 
-      new PropertySupport.ReadOnly<String>( AUTHOR_PROPERTY, String.class, "Author", "The author of the Tweet") {
+    Definition(String name, Class<T> type, String displayName, String description) {
+      this.name = name;
+      this.type = type;
+      this.displayName = displayName;
+      this.description = description;
+    }
 
-      @Override
-      public String getValue() throws IllegalAccessException, InvocationTargetException {
-        return tweet.getAuthor().getName();
-      }
+    /**
+     * @return The value of this property for a tweet.
+     */
+    abstract T getValue(Tweet tweet);
+
+    /**
+     * @return The PropertyEditor for the values of this property, or null for the default one.
+     */
+    PropertyEditor getPropertyEditor() {
+      return null;
+    }
 
-    };
-    // Add the tweetAuthorProperty to the set of properties
-    set.put( tweetAuthorProperty);
+    /**
+     * @return The property of a tweet, as defined by this.
+     */
+    Property<T> createProperty(Tweet tweet) {
+      return new TweetProperty<T>( this, tweet );
+    }
+  }
+
+  /** Reads and shows the date of tweets */
+  private static final Definition<Date> DATE = new Definition<Date>( DATE_PROPERTY, Date.class, "Tweet date", "The date where the tweet was sent") {
+    @Override
+    Date getValue(Tweet tweet) {
+      return new Date( tweet.getTimestamp() );
+    }
+
+    @Override
+    PropertyEditor getPropertyEditor() {
+      // A PropertyEditor that visually represents (and allows editing) dates,
+      // one for each caller because editors keep the value being edited
+      return new TimestampPropertyEditor();
+    }
+  };
 
+  /** Reads the name of the author of tweets */
+  private static final Definition<String> AUTHOR = new Definition<String>( AUTHOR_PROPERTY, String.class, "Author", "The author of the Tweet") {
+    @Override
+    String getValue(Tweet tweet) {
+      return tweet.getAuthor().getName();
+    }
+  };
 
-    // Add the set of properties to the sheet
-    sheet.put( set );
+  private static final Definition<?>[] DEFINITIONS = { DATE, AUTHOR };
 
-    return sheet;
+  /**
+   * TweetProperty is a read-only property of a tweet, as defined by a Definition.
+   */
+  private static final class TweetProperty<T> extends Property<T> {
+    private final Definition<T> definition;
+    private final Tweet tweet;
+
+    TweetProperty(Definition<T> definition, Tweet tweet) {
+      super( definition.type );
+      this.definition = definition;
+      this.tweet = tweet;
+    }
+
+    @Override
+    public String getName() {
+      return definition.name;
+    }
+
+    @Override
+    public String getDisplayName() {
+      return definition.displayName;
+    }
+
+    @Override
+    public String getShortDescription() {
+      return definition.description;
+    }
+
+    @Override
+    public boolean canRead() {
+      return true;
+    }
+
+    @Override
+    public T getValue() throws IllegalAccessException, InvocationTargetException {
+      return definition.getValue( tweet );
+    }
+
+    @Override
+    public boolean canWrite() {
+      return false;
+    }
+
+    @Override
+    public void setValue(T value) throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
+      throw new IllegalAccessException( "Read only property: " + getName() );
+    }
+
+    @Override
+    public PropertyEditor getPropertyEditor() {
+      PropertyEditor editor = definition.getPropertyEditor();
+      return editor == null ? super.getPropertyEditor() : editor;
+    }
+  }
+
+  /**
+   * TweetPropertySet is the set of properties of a tweet.
+   */
+  private static final class TweetPropertySet extends PropertySet {
+    private final Tweet tweet;
+    private Property<?>[] properties;
+
+    TweetPropertySet(Tweet tweet) {
+      this.tweet = tweet;
+    }
+
+    @Override
+    public String getName() {
+      return Sheet.PROPERTIES;
+    }
+
+    @Override
+    public String getDisplayName() {
+      return "Properties";
+    }
+
+    @Override
+    public synchronized Property<?>[] getProperties() {
+      if (properties == null) {
+        properties = new Property<?>[DEFINITIONS.length];
+        for (int i=0; i<DEFINITIONS.length; i++) {
+          properties[i] = DEFINITIONS[i].createProperty( tweet );
+        }
+      }
+      return properties;
+    }
   }
 
-  
 }
 /*
 Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
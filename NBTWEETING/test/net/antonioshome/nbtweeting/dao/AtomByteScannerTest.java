@@ -0,0 +1,286 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import net.antonioshome.nbtweeting.entities.AuthorRegistry;
+import net.antonioshome.nbtweeting.entities.Tweet;
+import net.antonioshome.nbtweeting.entities.TweetAuthor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Conformance tests for AtomByteScanner: it must produce exactly the same
+ * tweets as the StAX based AtomParseEngine.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class AtomByteScannerTest {
+
+  private static final String[] WORDS = {
+    "netbeans", "#NetBeans", "@netbeans", "&amp;", "&lt;b&gt;", "&quot;quoted&quot;", "it&apos;s",
+    "&#233;t&#xE9;", "&#x1F600;", "élève", "日本語", "😀", "a\r\nb", "c\rd",
+    "<![CDATA[<raw> & stuff]]>", "<!-- comment -->", "http://bit.ly/fG74xF", "  ", "\t", ">"
+  };
+
+  public AtomByteScannerTest() {
+  }
+
+  /**
+   * Test that test.xml is scanned as with StAX, also when streamed.
+   */
+  @Test
+  public void testConformance() throws Exception {
+    System.out.println("conformance");
+    byte[] feed = read(AtomByteScannerTest.class.getResourceAsStream("test.xml"));
+    assertConformance(feed, EnumSet.allOf(AtomField.class));
+    assertConformance(feed, EnumSet.of(AtomField.TIMESTAMP, AtomField.AUTHOR));
+  }
+
+  /**
+   * Test that generated feeds are scanned as with StAX, also when streamed.
+   */
+  @Test
+  public void testGeneratedConformance() throws Exception {
+    System.out.println("generatedConformance");
+    Random random = new Random(20110305L);
+    for (int i = 0; i < 200; i++) {
+      byte[] feed = generate(random).getBytes("UTF-8");
+      assertConformance(feed, EnumSet.allOf(AtomField.class));
+      assertConformance(feed, EnumSet.of(AtomField.ID, AtomField.URL, AtomField.CONTENT));
+    }
+  }
+
+  /**
+   * Test scanning a memory-mapped file.
+   */
+  @Test
+  public void testMappedFile() throws Exception {
+    System.out.println("mappedFile");
+    byte[] feed = read(AtomByteScannerTest.class.getResourceAsStream("test.xml"));
+    File file = File.createTempFile("feed", ".xml");
+    try {
+      FileOutputStream output = new FileOutputStream(file);
+      output.write(feed);
+      output.close();
+      SearchPage page = new TwitterSearchDAO().load(file);
+      SearchPage expected = AtomParseEngine.getDefault().parse(new ByteArrayInputStream(feed));
+      assertEquals(describe(expected), describe(page));
+    } finally {
+      file.delete();
+    }
+  }
+
+  /**
+   * Test that lazily decoded fields may be set before being decoded.
+   */
+  @Test
+  public void testLazyTweet() throws Exception {
+    System.out.println("lazyTweet");
+    byte[] feed = read(AtomByteScannerTest.class.getResourceAsStream("test.xml"));
+    List<Tweet> tweets = new AtomByteScanner(ByteBuffer.wrap(feed)).scanPage().getTweets();
+    Tweet first = tweets.get(0);
+    first.setContent("changed");
+    assertEquals("changed", first.getContent());
+    assertNotNull(first.getAuthor().getName());
+    assertNotNull(first.getUrl());
+    // Tweets don't depend on the buffer being scanned
+    Arrays.fill(feed, (byte) ' ');
+    assertEquals(describe(AtomParseEngine.getDefault().parse(AtomByteScannerTest.class.getResourceAsStream("test.xml"))).subList(2, 101),
+      describe(tweets).subList(1, 100));
+  }
+
+  /**
+   * Test that tweets from the same account share their author, whatever the parser.
+   */
+  @Test
+  public void testSharedAuthors() throws Exception {
+    System.out.println("sharedAuthors");
+    byte[] feed = read(AtomByteScannerTest.class.getResourceAsStream("test.xml"));
+    List<Tweet> parsed = AtomParseEngine.getDefault().parse(new ByteArrayInputStream(feed)).getTweets();
+    List<Tweet> scanned = new AtomByteScanner(ByteBuffer.wrap(feed)).scanPage().getTweets();
+    Map<String, TweetAuthor> authors = new HashMap<String, TweetAuthor>();
+    for (Tweet tweet : parsed) {
+      TweetAuthor author = tweet.getAuthor();
+      TweetAuthor known = authors.put(author.getTwitterURL().toString(), author);
+      assertTrue(known == null || known == author);
+    }
+    assertTrue(authors.size() < parsed.size());
+    for (int i = 0; i < scanned.size(); i++) {
+      assertSame(parsed.get(i).getAuthor(), scanned.get(i).getAuthor());
+      assertNotNull(scanned.get(i).getAuthor().getImageURL());
+    }
+    assertSame(authors.values().iterator().next(),
+      AuthorRegistry.getDefault().get(authors.keySet().iterator().next()));
+  }
+
+  private static void assertConformance(byte[] feed, Set<AtomField> projection) throws Exception {
+    SearchPage expected = new AtomParseEngine(projection).parse(new ByteArrayInputStream(feed));
+    ByteBuffer buffer = ByteBuffer.allocateDirect(feed.length);
+    buffer.put(feed).flip();
+    SearchPage page = new AtomByteScanner(buffer).scanPage(projection);
+    assertEquals(describe(expected), describe(page));
+    // The same, arriving in pieces
+    assertEquals(describe(expected), describe(streamParse(feed, projection, 1)));
+    assertEquals(describe(expected), describe(streamParse(feed, projection, 1000)));
+  }
+
+  private static SearchPage streamParse(byte[] feed, Set<AtomField> projection, int pieceSize) {
+    AtomStreamParser parser = new AtomStreamParser(projection);
+    for (int offset = 0; offset < feed.length; offset += pieceSize) {
+      parser.feed(feed, offset, Math.min(pieceSize, feed.length - offset));
+    }
+    return parser.getPage();
+  }
+
+  private static List<String> describe(SearchPage page) {
+    List<String> description = new ArrayList<String>();
+    description.add("refresh=" + page.getRefreshURL() + ",next=" + page.getNextURL());
+    description.addAll(describe(page.getTweets()));
+    return description;
+  }
+
+  private static List<String> describe(List<Tweet> tweets) {
+    List<String> description = new ArrayList<String>();
+    for (Tweet tweet : tweets) {
+      description.add(tweet.getId() + "|" + tweet.getTimestamp() + "|" + tweet.getUrl() + "|" + tweet.getContent()
+        + "|" + tweet.getAuthor().getName() + "|" + tweet.getAuthor().getTwitterURL());
+    }
+    return description;
+  }
+
+  private static String generate(Random random) {
+    // Accounts are not shared between feeds, so that their names are decoded
+    String account = "http://twitter.com/g" + random.nextInt(Integer.MAX_VALUE) + "u";
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<!-- <entry>commented out</entry> -->\n");
+    sb.append("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:twitter=\"http://api.twitter.com/\">\r\n");
+    sb.append("  <id>tag:search.twitter.com,2005:search/generated</id>\n");
+    if (random.nextBoolean()) {
+      sb.append("  <link type='application/atom+xml' rel='refresh' href='http://search.twitter.com/search.atom?q=x&amp;since_id=").append(random.nextInt(100000)).append("'/>\n");
+    }
+    int entries = random.nextInt(20);
+    for (int i = 0; i < entries; i++) {
+      List<String> children = new ArrayList<String>();
+      if (random.nextInt(10) > 0) {
+        children.add("<id>tag:search.twitter.com,2005:" + (random.nextLong() >>> (random.nextInt(40) + 1)) + "</id>");
+      }
+      if (random.nextInt(10) > 0) {
+        children.add("<published>" + sdf.format(new Date(random.nextLong() >>> 23)) + "</published>");
+      }
+      String href = "http://twitter.com/u" + i + "/statuses/" + random.nextInt(1000) + "?a=1&amp;b=2";
+      switch (random.nextInt(4)) {
+        case 0:
+          children.add("<link type=\"text/html\" href=\"" + href + "\" rel=\"alternate\"/>");
+          break;
+        case 1:
+          children.add("<link href='" + href + "' title='a > b'></link>");
+          break;
+        case 2:
+          children.add("<link\n  rel=\"alternate\"\n  href=\"" + href + "\t\"\n/>");
+          break;
+        default:
+          break;
+      }
+      children.add("<link type=\"image/png\" href=\"http://a3.twimg.com/" + i + ".jpg\" rel=\"image\"/>");
+      if (random.nextInt(10) > 0) {
+        children.add("<title>" + text(random) + "</title>");
+      }
+      children.add("<content type=\"html\">" + text(random) + "</content>");
+      children.add("<twitter:metadata><twitter:result_type>recent</twitter:result_type><title>nested</title></twitter:metadata>");
+      children.add("<twitter:geo/>");
+      if (random.nextInt(10) > 0) {
+        children.add("<author><name>" + text(random) + "</name><uri>" + account + i + "</uri></author>");
+      }
+      Collections.shuffle(children, random);
+      sb.append("  <entry>");
+      for (String child : children) {
+        sb.append("\n    ").append(child);
+      }
+      sb.append("\n  </entry>\n");
+    }
+    if (random.nextBoolean()) {
+      sb.append("  <entry/>\n");
+    }
+    sb.append("  <link type=\"application/atom+xml\" href=\"http://search.twitter.com/search.atom?page=2&amp;q=x\" rel=\"next\"/>\n");
+    sb.append("</feed>\n");
+    return sb.toString();
+  }
+
+  private static String text(Random random) {
+    StringBuilder sb = new StringBuilder();
+    int words = random.nextInt(8);
+    for (int i = 0; i < words; i++) {
+      sb.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+    }
+    return sb.toString();
+  }
+
+  private static byte[] read(InputStream input) throws Exception {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+      output.write(buffer, 0, n);
+    }
+    input.close();
+    return output.toByteArray();
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,107 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.TimeZone;
+import net.antonioshome.nbtweeting.entities.Tweet;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for AtomParseEngine.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class AtomParseEngineTest {
+
+  public AtomParseEngineTest() {
+  }
+
+  /**
+   * Test of parseTimestamp, compared with SimpleDateFormat.
+   */
+  @Test
+  public void testParseTimestamp() throws Exception {
+    System.out.println("parseTimestamp");
+    SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+    sdf.setTimeZone(TimeZone.getTimeZone("UTC"));
+    String[] timestamps = {
+      "2011-03-05T05:51:02Z", "1970-01-01T00:00:00Z", "2000-02-29T23:59:59Z",
+      "2012-12-31T12:00:00Z", "1969-07-20T20:17:40Z", "2100-03-01T00:00:01Z"
+    };
+    for (String timestamp : timestamps) {
+      assertEquals(timestamp, sdf.parse(timestamp).getTime(), AtomParseEngine.parseTimestamp(timestamp));
+    }
+    assertEquals(sdf.parse("2011-03-05T05:51:02Z").getTime() + 250,
+      AtomParseEngine.parseTimestamp("2011-03-05T05:51:02.25Z"));
+    assertEquals(sdf.parse("2011-03-05T05:51:02Z").getTime(),
+      AtomParseEngine.parseTimestamp("2011-03-05T06:51:02+01:00"));
+    assertEquals(-1, AtomParseEngine.parseTimestamp("05/03/2011 05:51:02"));
+  }
+
+  /**
+   * Test that fields out of the projection are not decoded.
+   */
+  @Test
+  public void testProjection() throws Exception {
+    System.out.println("projection");
+    AtomParseEngine engine = new AtomParseEngine(EnumSet.of(AtomField.TIMESTAMP, AtomField.AUTHOR));
+
+    InputStream input = AtomParseEngineTest.class.getResourceAsStream("test.xml");
+    List<Tweet> tweets = engine.parse(input).getTweets();
+    InputStream complete = AtomParseEngineTest.class.getResourceAsStream("test.xml");
+    List<Tweet> expected = AtomParseEngine.getDefault().parse(complete).getTweets();
+
+    assertEquals(expected.size(), tweets.size());
+    for (int i = 0; i < tweets.size(); i++) {
+      Tweet tweet = tweets.get(i);
+      assertEquals(expected.get(i).getTimestamp(), tweet.getTimestamp());
+      assertEquals(expected.get(i).getAuthor().getName(), tweet.getAuthor().getName());
+      assertEquals(0, tweet.getId());
+      assertNull(tweet.getContent());
+      assertNull(tweet.getUrl());
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
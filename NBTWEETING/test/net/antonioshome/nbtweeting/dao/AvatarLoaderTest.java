@@ -0,0 +1,143 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the AvatarLoader.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class AvatarLoaderTest {
+
+  public AvatarLoaderTest() {
+  }
+
+  /**
+   * Test that images are scaled to fit, centered, in a square.
+   */
+  @Test
+  public void testDownscale() throws Exception {
+    System.out.println("downscale");
+    BufferedImage image = new BufferedImage(96, 48, BufferedImage.TYPE_INT_RGB);
+    for (int x = 0; x < 96; x++) {
+      for (int y = 0; y < 48; y++) {
+        image.setRGB(x, y, 0xFF0000);
+      }
+    }
+    BufferedImage scaled = AvatarLoader.downscale(image, 16);
+    assertEquals(16, scaled.getWidth());
+    assertEquals(16, scaled.getHeight());
+    // 16x8, with 4 transparent rows above and below
+    assertEquals(0, scaled.getRGB(8, 1) >>> 24);
+    assertEquals(0xFFFF0000, scaled.getRGB(8, 8));
+    assertEquals(0, scaled.getRGB(8, 14) >>> 24);
+    BufferedImage small = AvatarLoader.downscale(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), 16);
+    assertEquals(16, small.getWidth());
+  }
+
+  /**
+   * Test that an image that could not be loaded is not tried again for a
+   * while, and is loaded once the retry delay is over.
+   */
+  @Test
+  public void testRetry() throws Exception {
+    System.out.println("retry");
+    ByteArrayOutputStream png = new ByteArrayOutputStream();
+    ImageIO.write(new BufferedImage(48, 48, BufferedImage.TYPE_INT_RGB), "png", png);
+    final byte[] body = png.toByteArray();
+    final AtomicInteger requests = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/avatar.png", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        if (requests.incrementAndGet() == 1) {
+          exchange.sendResponseHeaders(503, -1);
+        } else {
+          exchange.sendResponseHeaders(200, body.length);
+          exchange.getResponseBody().write(body);
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+    File directory = File.createTempFile("avatars", "");
+    directory.delete();
+    try {
+      AvatarLoader loader = new AvatarLoader(directory, 16, 8);
+      loader.setRetryDelay(500);
+      URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/avatar.png");
+      long start = System.currentTimeMillis();
+      Image image = loader.getAvatar(url, null);
+      while (image == null && System.currentTimeMillis() - start < 10000) {
+        Thread.sleep(10);
+        image = loader.getAvatar(url, null);
+      }
+      assertNotNull(image);
+      assertEquals(16, image.getWidth(null));
+      // Failed once, and not tried again until the delay was over
+      assertEquals(2, requests.get());
+      assertTrue(System.currentTimeMillis() - start >= 500);
+    } finally {
+      server.stop(0);
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,140 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the NioHttpClient.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class NioHttpClientTest {
+
+  public NioHttpClientTest() {
+  }
+
+  /**
+   * Test that a handler that throws fails its own request, even once the
+   * response is complete, and that the client goes on with other requests.
+   */
+  @Test
+  public void testBrokenHandler() throws Exception {
+    System.out.println("brokenHandler");
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = "hello".getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+      }
+    });
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getAddress().getPort();
+      for (String broken : new String[]{"head", "body", "completed"}) {
+        Recorder recorder = new Recorder(broken);
+        NioHttpClient.getDefault().get(new URL(base + "/" + broken), Collections.<String, String>emptyMap(), 5000, 5000, recorder);
+        assertTrue("Never told about " + broken, recorder.done.await(10, TimeUnit.SECONDS));
+        IOException failure = recorder.failure.get();
+        assertNotNull(broken, failure);
+        assertTrue(failure.getCause() instanceof IllegalStateException);
+      }
+      Recorder recorder = new Recorder(null);
+      NioHttpClient.getDefault().get(new URL(base + "/fine"), Collections.<String, String>emptyMap(), 5000, 5000, recorder);
+      assertTrue(recorder.done.await(10, TimeUnit.SECONDS));
+      assertNull(recorder.failure.get());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Recorder tells how a request ended, throwing in one of the methods.
+   */
+  private static final class Recorder implements NioHttpClient.Handler {
+
+    private final String broken;
+    final CountDownLatch done = new CountDownLatch(1);
+    final AtomicReference<IOException> failure = new AtomicReference<IOException>();
+
+    Recorder(String broken) {
+      this.broken = broken;
+    }
+
+    public void head(int status, Map<String, String> headers) {
+      check("head");
+    }
+
+    public void body(byte[] bytes, int offset, int length) {
+      check("body");
+    }
+
+    public void completed() {
+      check("completed");
+      done.countDown();
+    }
+
+    public void failed(IOException failure) {
+      this.failure.set(failure);
+      done.countDown();
+    }
+
+    private void check(String method) {
+      if (method.equals(broken)) {
+        throw new IllegalStateException("Broken " + method);
+      }
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,123 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for RateLimiter.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class RateLimiterTest {
+
+  /**
+   * Test that waiting requests are served by priority.
+   */
+  @Test
+  public void testPriority() throws Exception {
+    System.out.println("priority");
+    final RateLimiter limiter = new RateLimiter(2.0, 1);
+    limiter.acquire(RateLimiter.Priority.HIGH);
+
+    final List<RateLimiter.Priority> served = Collections.synchronizedList(new ArrayList<RateLimiter.Priority>());
+    Thread[] threads = new Thread[3];
+    RateLimiter.Priority[] priorities = {RateLimiter.Priority.LOW, RateLimiter.Priority.NORMAL, RateLimiter.Priority.HIGH};
+    for (int i = 0; i < threads.length; i++) {
+      final RateLimiter.Priority priority = priorities[i];
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          try {
+            limiter.acquire(priority);
+            served.add(priority);
+          } catch (InterruptedException ex) {
+            // Empty
+          }
+        }
+      };
+      threads[i].start();
+      Thread.sleep(50);
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    assertEquals(3, served.size());
+    assertEquals(RateLimiter.Priority.HIGH, served.get(0));
+    assertEquals(RateLimiter.Priority.NORMAL, served.get(1));
+    assertEquals(RateLimiter.Priority.LOW, served.get(2));
+  }
+
+  /**
+   * Test that nobody gets a token while throttled, and that the rate decreases.
+   */
+  @Test
+  public void testThrottled() throws Exception {
+    System.out.println("throttled");
+    RateLimiter limiter = new RateLimiter(100.0, 10);
+    long delay = limiter.throttled(300);
+    assertTrue(delay > 250 && delay <= 300);
+    assertEquals(50.0, limiter.getRate(), 0.001);
+
+    long start = System.currentTimeMillis();
+    limiter.acquire(RateLimiter.Priority.HIGH);
+    assertTrue(System.currentTimeMillis() - start >= 250);
+
+    // Without Retry-After there's a backoff anyway
+    assertTrue(limiter.throttled(-1) > 0);
+  }
+
+  /**
+   * Test of parsing Retry-After headers.
+   */
+  @Test
+  public void testRetryAfter() {
+    System.out.println("retryAfter");
+    assertEquals(120000, HttpTransport.parseRetryAfter("120"));
+    assertEquals(-1, HttpTransport.parseRetryAfter(null));
+    assertEquals(-1, HttpTransport.parseRetryAfter("soon"));
+    assertEquals(0, HttpTransport.parseRetryAfter("Sat, 05 Mar 2011 05:51:02 GMT"));
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
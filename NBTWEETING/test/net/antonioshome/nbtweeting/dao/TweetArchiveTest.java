@@ -0,0 +1,129 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.dao;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import net.antonioshome.nbtweeting.entities.AuthorRegistry;
+import net.antonioshome.nbtweeting.entities.Tweet;
+import net.antonioshome.nbtweeting.entities.TweetAuthor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for TweetArchive.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class TweetArchiveTest {
+
+  /**
+   * Test that archived tweets are read back, newest first, after reopening
+   * the archive, with and without the indexes of full segments.
+   */
+  @Test
+  public void testArchive() throws Exception {
+    System.out.println("archive");
+    File directory = File.createTempFile("archive", "");
+    directory.delete();
+    TweetAuthor dave = AuthorRegistry.getDefault().intern("http://twitter.com/archive_dave", "Dave");
+    TweetArchive archive = new TweetArchive(directory, 16 * 1024);
+    try {
+      // Pages arrive newest first, but older pages come later
+      for (int page = 0; page < 20; page++) {
+        for (int i = 99; i >= 0; i--) {
+          long id = (page % 2 == 0 ? 10000 : 0) + page * 100 + i;
+          Tweet tweet = new Tweet();
+          tweet.setId(id);
+          tweet.setTimestamp(id * 1000);
+          tweet.setAuthor(i % 2 == 0 ? dave : null);
+          tweet.setContent(i % 3 == 0 ? null : "tweet #" + id + " élève");
+          tweet.setUrlSpec("http://twitter.com/u/statuses/" + id);
+          assertTrue(archive.append(tweet));
+        }
+      }
+      assertEquals(2000, archive.size());
+      assertTrue(directory.list().length > 2);
+
+      TweetArchive reopened = new TweetArchive(directory, 16 * 1024);
+      assertEquals(2000, reopened.size());
+      List<Tweet> newest = read(reopened, 150, 0);
+      assertEquals(150, newest.size());
+      assertEquals(11899, newest.get(0).getId());
+      assertEquals(11800, newest.get(99).getId());
+      assertEquals(11699, newest.get(100).getId());
+      assertNull(newest.get(0).getContent());
+      assertEquals("tweet #11898 élève", newest.get(1).getContent());
+      assertEquals("http://twitter.com/u/statuses/11800", newest.get(99).getUrl().toString());
+      assertSame(dave, newest.get(99).getAuthor());
+      assertEquals(1000L * 11899, newest.get(0).getTimestamp());
+      assertEquals(1000, read(reopened, 0, 10000L * 1000).size());
+
+      // Without indexes the segments are scanned
+      for (File file : directory.listFiles()) {
+        if (file.getName().endsWith(".idx")) {
+          file.delete();
+        }
+      }
+      reopened = new TweetArchive(directory, 16 * 1024);
+      assertEquals(2000, read(reopened, 0, 0).size());
+      Tweet tweet = new Tweet();
+      tweet.setId(20000);
+      assertTrue(reopened.append(tweet));
+      assertEquals(20000, read(reopened, 1, 0).get(0).getId());
+    } finally {
+      archive.clear();
+      directory.delete();
+    }
+  }
+
+  private static List<Tweet> read(TweetArchive archive, int max, long oldest) {
+    final List<Tweet> tweets = new ArrayList<Tweet>();
+    archive.read(max, oldest, new TweetSink() {
+
+      public void add(Tweet tweet) {
+        tweets.add(tweet);
+      }
+    });
+    return tweets;
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -5,14 +5,54 @@
 
 package net.antonioshome.nbtweeting.dao;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
+import net.antonioshome.nbtweeting.entities.Query;
 import net.antonioshome.nbtweeting.entities.Tweet;
 import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import static org.junit.Assert.*;
 
 /**
  *
@@ -53,6 +93,944 @@ public class TwitterSearchDAOTest {
       System.out.println( i + "=" + tweets.get(i));
   }
 
+  /**
+   * Test that feed-level links and tweet ids are parsed.
+   */
+  @Test
+  public void testFeedLinks() throws Exception {
+    System.out.println("feedLinks");
+    TwitterSearchDAO dao = new TwitterSearchDAO();
+
+    InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+    SearchPage page = dao.scanPage( input );
+    assertEquals( 43943829296005120L, page.getSinceId() );
+    assertTrue( page.getRefreshURL().endsWith("since_id=43943829296005120") );
+    assertTrue( page.getNextURL().contains("page=2") );
+    assertEquals( 43911377227755521L, page.getTweets().get(0).getId() );
+  }
+
+  /**
+   * Test that concurrent requests for the same page share a single fetch.
+   */
+  @Test
+  public void testCoalescing() throws Exception {
+    System.out.println("coalescing");
+    final AtomicInteger requests = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+          Thread.sleep(500);
+        } catch (InterruptedException ex) {
+          // Empty
+        }
+        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(200, 0);
+        GZIPOutputStream output = new GZIPOutputStream(exchange.getResponseBody());
+        InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+        byte[] buffer = new byte[8192];
+        for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+          output.write(buffer, 0, n);
+        }
+        input.close();
+        output.close();
+      }
+    });
+    server.start();
+    try {
+      final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search.atom?q=netbeans&rpp=100";
+      final FeedCache cache = new FeedCache(createTempDirectory());
+      final List<SearchPage> pages = Collections.synchronizedList(new ArrayList<SearchPage>());
+      Thread[] threads = new Thread[4];
+      for (int i = 0; i < threads.length; i++) {
+        // Same parameters, different order
+        final String pageURL = i % 2 == 0 ? url : url.replace("q=netbeans&rpp=100", "rpp=100&q=netbeans");
+        threads[i] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              pages.add(new TwitterSearchDAO(AtomParseEngine.getDefault(), cache).searchNext(pageURL));
+            } catch (Exception ex) {
+              ex.printStackTrace();
+            }
+          }
+        };
+        threads[i].start();
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+      assertEquals(threads.length, pages.size());
+      assertEquals(1, requests.get());
+      for (SearchPage page : pages) {
+        assertEquals(100, page.getTweets().size());
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Test that asynchronous searches share the page retrieved by other
+   * searches, and that cancelling some of them doesn't cancel the rest.
+   */
+  @Test
+  public void testCoalescingAsync() throws Exception {
+    System.out.println("coalescingAsync");
+    final AtomicInteger requests = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+          Thread.sleep(500);
+        } catch (InterruptedException ex) {
+          // Empty
+        }
+        exchange.sendResponseHeaders(200, 0);
+        InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+        byte[] buffer = new byte[8192];
+        for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+          exchange.getResponseBody().write(buffer, 0, n);
+        }
+        input.close();
+        exchange.close();
+      }
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    server.setExecutor(executor);
+    server.start();
+    try {
+      final String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search.atom?q=shared";
+      final TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      dao.setRateLimiter(new RateLimiter(1000.0, 100));
+      SearchFuture first = dao.searchNextAsync(url, null);
+      SearchFuture second = dao.searchNextAsync(url, null);
+      SearchFuture cancelled = dao.searchNextAsync(url, null);
+      final List<SearchPage> pages = Collections.synchronizedList(new ArrayList<SearchPage>());
+      Thread blocking = new Thread() {
+        @Override
+        public void run() {
+          try {
+            pages.add(dao.searchNext(url));
+          } catch (Exception ex) {
+            ex.printStackTrace();
+          }
+        }
+      };
+      blocking.start();
+      Thread.sleep(100);
+      cancelled.cancel(true);
+      assertEquals(100, first.get(10, TimeUnit.SECONDS).getTweets().size());
+      assertEquals(100, second.get(10, TimeUnit.SECONDS).getTweets().size());
+      assertTrue(first.get().getTweets() != second.get().getTweets());
+      blocking.join();
+      assertEquals(1, pages.size());
+      assertEquals(100, pages.get(0).getTweets().size());
+      try {
+        cancelled.get();
+        fail("Cancelled");
+      } catch (CancellationException ex) {
+        // Expected
+      }
+      assertEquals(1, requests.get());
+
+      // A search abandoned by all of them is retrieved again
+      SearchFuture abandoned = dao.searchNextAsync(url + "&page=2", null);
+      Thread.sleep(100);
+      abandoned.cancel(true);
+      SearchFuture again = dao.searchNextAsync(url + "&page=2", null);
+      assertEquals(100, again.get(10, TimeUnit.SECONDS).getTweets().size());
+    } finally {
+      server.stop(0);
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Test that sequential requests to a server reuse one kept-alive
+   * connection, whether responses have a length or are chunked.
+   */
+  @Test
+  public void testKeepAlive() throws Exception {
+    System.out.println("keepAlive");
+    final List<Integer> ports = Collections.synchronizedList(new ArrayList<Integer>());
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        ports.add(exchange.getRemoteAddress().getPort());
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+        byte[] buffer = new byte[8192];
+        for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+          body.write(buffer, 0, n);
+        }
+        input.close();
+        boolean chunked = exchange.getRequestURI().getQuery().contains("chunked");
+        exchange.sendResponseHeaders(200, chunked ? 0 : body.size());
+        exchange.getResponseBody().write(body.toByteArray());
+        exchange.close();
+      }
+    });
+    server.start();
+    String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search.atom?rpp=100&q=";
+    try {
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      dao.setRateLimiter(new RateLimiter(1000.0, 100));
+      for (int i = 0; i < 6; i++) {
+        String q = (i % 2 == 0 ? "length" : "chunked") + i;
+        assertEquals(100, dao.searchNext(url + q).getTweets().size());
+      }
+      assertEquals(6, ports.size());
+      assertEquals(ports.toString(), 1, new HashSet<Integer>(ports).size());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Test that responses are served from the disk cache while fresh,
+   * revalidated when stale and served offline.
+   */
+  @Test
+  public void testCache() throws Exception {
+    System.out.println("cache");
+    final AtomicInteger requests = new AtomicInteger();
+    final AtomicInteger notModified = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        exchange.getResponseHeaders().add("ETag", "\"v1\"");
+        if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+          notModified.incrementAndGet();
+          exchange.sendResponseHeaders(304, -1);
+          exchange.close();
+          return;
+        }
+        exchange.sendResponseHeaders(200, 0);
+        InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+        byte[] buffer = new byte[8192];
+        for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+          exchange.getResponseBody().write(buffer, 0, n);
+        }
+        input.close();
+        exchange.close();
+      }
+    });
+    server.start();
+    File directory = createTempDirectory();
+    String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search.atom?q=cache&rpp=100";
+    try {
+      FeedCache cache = new FeedCache(directory);
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), cache);
+      assertEquals(100, dao.searchNext(url).getTweets().size());
+      assertEquals(1, requests.get());
+
+      // Fresh: no request at all
+      assertEquals(100, dao.searchNext(url).getTweets().size());
+      assertEquals(1, requests.get());
+
+      // Stale: revalidated
+      cache.setTimeToLive(0);
+      assertEquals(100, dao.searchNext(url).getTweets().size());
+      assertEquals(2, requests.get());
+      assertEquals(1, notModified.get());
+    } finally {
+      server.stop(0);
+    }
+
+    // Offline, from a new cache on the same directory
+    FeedCache cache = new FeedCache(directory);
+    cache.setOffline(true);
+    TwitterSearchDAO dao = new TwitterSearchDAO(new AtomParseEngine(EnumSet.of(AtomField.ID)), cache);
+    SearchPage page = dao.searchNext(url);
+    assertEquals(100, page.getTweets().size());
+    assertEquals(43911377227755521L, page.getTweets().get(0).getId());
+    try {
+      dao.searchNext(url.replace("q=cache", "q=missing"));
+      fail("Should not be available offline");
+    } catch (IOException ex) {
+      // Expected
+    }
+
+    // Evicted when the cache is too small
+    cache.setMaxSize(0);
+    assertNull(cache.get(url));
+    assertEquals(0, directory.listFiles().length);
+  }
+
+  /**
+   * Test that tweets reach a TweetSink before the whole response has arrived,
+   * and that cached pages are given to the sink too.
+   */
+  @Test
+  public void testTweetSink() throws Exception {
+    System.out.println("tweetSink");
+    final CountDownLatch firstTweet = new CountDownLatch(1);
+    final AtomicInteger streamedEarly = new AtomicInteger();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, 0);
+        InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+        byte[] buffer = new byte[16384];
+        int n = input.read(buffer);
+        exchange.getResponseBody().write(buffer, 0, n);
+        exchange.getResponseBody().flush();
+        try {
+          // The rest of the feed is sent once the first tweet has been seen
+          if (firstTweet.await(5, TimeUnit.SECONDS)) {
+            streamedEarly.incrementAndGet();
+          }
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        for (n = input.read(buffer); n != -1; n = input.read(buffer)) {
+          exchange.getResponseBody().write(buffer, 0, n);
+        }
+        input.close();
+        exchange.close();
+      }
+    });
+    server.start();
+    String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search.atom?q=sink&rpp=100";
+    try {
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      final List<Tweet> received = new ArrayList<Tweet>();
+      TweetSink sink = new TweetSink() {
+        public void add(Tweet tweet) {
+          received.add(tweet);
+          firstTweet.countDown();
+        }
+      };
+      SearchPage page = dao.searchNext(url, null, sink);
+      assertEquals(1, streamedEarly.get());
+      assertEquals(page.getTweets(), received);
+
+      // Fresh in the cache, no parsing as it arrives but the same tweets
+      received.clear();
+      page = dao.searchNext(url, null, sink);
+      assertEquals(100, received.size());
+      assertEquals(page.getTweets(), received);
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Test that a cancelled search closes its connection right away.
+   */
+  @Test
+  public void testCancel() throws Exception {
+    System.out.println("cancel");
+    final CountDownLatch started = new CountDownLatch(1);
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        // Half a feed, and then nothing else for a long time
+        exchange.sendResponseHeaders(200, 0);
+        exchange.getResponseBody().write("<?xml version=\"1.0\"?><feed xmlns=\"http://www.w3.org/2005/Atom\">".getBytes("UTF-8"));
+        exchange.getResponseBody().flush();
+        started.countDown();
+        try {
+          Thread.sleep(10000);
+        } catch (InterruptedException ex) {
+          // Empty
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+    try {
+      String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search.atom?q=cancel";
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      final Cancellation cancellation = new Cancellation();
+      new Thread() {
+        @Override
+        public void run() {
+          try {
+            started.await();
+            Thread.sleep(100);
+          } catch (InterruptedException ex) {
+            // Empty
+          }
+          cancellation.cancel();
+        }
+      }.start();
+      long start = System.currentTimeMillis();
+      try {
+        dao.searchNext(url, cancellation);
+        fail("Should have been cancelled");
+      } catch (InterruptedIOException ex) {
+        // Expected
+      }
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertFalse(Thread.interrupted());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Test many asynchronous searches at once, with gzipped chunked responses.
+   */
+  @Test
+  public void testSearchAsync() throws Exception {
+    System.out.println("searchAsync");
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+        exchange.sendResponseHeaders(200, 0);
+        GZIPOutputStream output = new GZIPOutputStream(exchange.getResponseBody());
+        InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+        byte[] buffer = new byte[1000];
+        for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+          output.write(buffer, 0, n);
+          output.flush();
+        }
+        input.close();
+        output.close();
+      }
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    server.setExecutor(executor);
+    server.start();
+    String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/search.atom?q=async";
+    try {
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      dao.setRateLimiter(new RateLimiter(1000.0, 100));
+      final AtomicInteger callbacks = new AtomicInteger();
+      final CountDownLatch done = new CountDownLatch(50);
+      SearchCallback callback = new SearchCallback() {
+        public void completed(SearchPage page) {
+          callbacks.incrementAndGet();
+          done.countDown();
+        }
+
+        public void failed(Exception failure) {
+          failure.printStackTrace();
+          done.countDown();
+        }
+      };
+      List<SearchFuture> futures = new ArrayList<SearchFuture>();
+      for (int i = 0; i < 50; i++) {
+        futures.add(dao.searchNextAsync(url + i, callback));
+      }
+      for (SearchFuture future : futures) {
+        SearchPage page = future.get(30, TimeUnit.SECONDS);
+        assertEquals(100, page.getTweets().size());
+        assertEquals(43911377227755521L, page.getTweets().get(0).getId());
+        assertTrue(page.getNextURL().contains("page=2"));
+      }
+      done.await();
+      assertEquals(50, callbacks.get());
+    } finally {
+      server.stop(0);
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Test that redirects are followed, with or without blocking, but not
+   * forever.
+   */
+  @Test
+  public void testRedirect() throws Exception {
+    System.out.println("redirect");
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/moved.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Location", "/search.atom?" + exchange.getRequestURI().getQuery());
+        exchange.sendResponseHeaders(301, -1);
+        exchange.close();
+      }
+    });
+    server.createContext("/loop.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Location", "/loop.atom");
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+      }
+    });
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(200, 0);
+        InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+        byte[] buffer = new byte[8192];
+        for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+          exchange.getResponseBody().write(buffer, 0, n);
+        }
+        input.close();
+        exchange.close();
+      }
+    });
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getAddress().getPort();
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      assertEquals(100, dao.searchNext(base + "/moved.atom?q=redirect").getTweets().size());
+      try {
+        dao.searchNext(base + "/loop.atom");
+        fail("Should not follow redirects forever");
+      } catch (IOException ex) {
+        assertTrue(ex.getMessage().contains("redirects"));
+      }
+      // The same without blocking
+      assertEquals(100, dao.searchNextAsync(base + "/moved.atom?q=async", null).get(10, TimeUnit.SECONDS).getTweets().size());
+      try {
+        dao.searchNextAsync(base + "/loop.atom?q=async", null).get(10, TimeUnit.SECONDS);
+        fail("Should not follow redirects forever");
+      } catch (ExecutionException ex) {
+        assertTrue(ex.getCause().getMessage().contains("redirects"));
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Test that each query of a batch has its own time, counted from when
+   * it starts, and that the queries that run out of time don't hold up
+   * the rest.
+   */
+  @Test
+  public void testBatchSearch() throws Exception {
+    System.out.println("batchSearch");
+    final CountDownLatch release = new CountDownLatch(1);
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        try {
+          if (query.contains("q=slow")) {
+            // Half a feed, and then nothing else until the test is over
+            exchange.sendResponseHeaders(200, 0);
+            exchange.getResponseBody().write("<?xml version=\"1.0\"?><feed xmlns=\"http://www.w3.org/2005/Atom\">".getBytes("UTF-8"));
+            exchange.getResponseBody().flush();
+            release.await(20, TimeUnit.SECONDS);
+            exchange.close();
+            return;
+          }
+          Thread.sleep(300);
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+        exchange.sendResponseHeaders(200, 0);
+        InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+        byte[] buffer = new byte[8192];
+        for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+          exchange.getResponseBody().write(buffer, 0, n);
+        }
+        input.close();
+        exchange.close();
+      }
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(20);
+    server.setExecutor(executor);
+    server.start();
+    try {
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      dao.setRateLimiter(new RateLimiter(1000.0, 100));
+      dao.setSearchURL("http://127.0.0.1:" + server.getAddress().getPort() + "/search.atom");
+
+      // More queries than searches run at once: those that wait still have all their time
+      List<Query> queries = new ArrayList<Query>();
+      for (int i = 0; i < 12; i++) {
+        queries.add(query("queued" + i));
+      }
+      BatchSearchResult result = dao.search(queries, 500, 10000);
+      assertTrue(String.valueOf(result.getFailures()), result.isComplete());
+      assertEquals(100, result.getPage(queries.get(11)).getTweets().size());
+
+      // A query that times out is cancelled, and the rest succeed
+      Query fast = query("fast");
+      Query slow = query("slow");
+      long start = System.currentTimeMillis();
+      result = dao.search(Arrays.asList(fast, slow), 1000, 10000);
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertFalse(result.isComplete());
+      assertEquals(100, result.getPage(fast).getTweets().size());
+      assertNull(result.getPage(slow));
+      assertTrue(result.getFailure(slow) instanceof TimeoutException);
+
+      // The batch times out, with partial results
+      fast = query("fast2");
+      slow = query("slow2");
+      start = System.currentTimeMillis();
+      result = dao.search(Arrays.asList(fast, slow), 20000, 1500);
+      assertTrue(System.currentTimeMillis() - start < 5000);
+      assertEquals(1, result.getPages().size());
+      assertEquals(100, result.getPage(fast).getTweets().size());
+      assertTrue(result.getFailure(slow) instanceof TimeoutException);
+    } finally {
+      release.countDown();
+      server.stop(0);
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Test that feeds in other encodings than UTF-8, declared in the feed or
+   * in the Content-Type, are read right by every path and cached in UTF-8.
+   */
+  @Test
+  public void testEncoding() throws Exception {
+    System.out.println("encoding");
+    final byte[] declared = latin1Feed(true).getBytes("ISO-8859-1");
+    final byte[] labelled = latin1Feed(false).getBytes("ISO-8859-1");
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/declared.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/atom+xml");
+        exchange.sendResponseHeaders(200, declared.length);
+        exchange.getResponseBody().write(declared);
+        exchange.close();
+      }
+    });
+    server.createContext("/labelled.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/atom+xml; charset=ISO-8859-1");
+        exchange.sendResponseHeaders(200, labelled.length);
+        exchange.getResponseBody().write(labelled);
+        exchange.close();
+      }
+    });
+    server.start();
+    try {
+      String base = "http://127.0.0.1:" + server.getAddress().getPort();
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      dao.setRateLimiter(new RateLimiter(1000.0, 100));
+      for (String path : Arrays.asList("/declared.atom", "/labelled.atom")) {
+        assertLatin1(dao.searchNext(base + path + "?q=blocking"));
+        // From the cache
+        assertLatin1(dao.searchNext(base + path + "?q=blocking"));
+        assertLatin1(dao.searchNextAsync(base + path + "?q=async", null).get(10, TimeUnit.SECONDS));
+        assertLatin1(dao.searchNextAsync(base + path + "?q=async", null).get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      server.stop(0);
+    }
+    File file = File.createTempFile("latin1", ".atom");
+    try {
+      OutputStream output = new FileOutputStream(file);
+      output.write(declared);
+      output.close();
+      assertLatin1(new TwitterSearchDAO().load(file));
+    } finally {
+      file.delete();
+    }
+  }
+
+  private static void assertLatin1(SearchPage page) {
+    assertEquals(20, page.getTweets().size());
+    Tweet tweet = page.getTweets().get(0);
+    assertEquals(20, tweet.getId());
+    assertEquals("Anaïs", tweet.getAuthor().getName());
+    assertTrue(tweet.getContent(), tweet.getContent().startsWith("élève #20"));
+  }
+
+  /**
+   * Builds a feed to be sent in ISO-8859-1, with its encoding declared or not.
+   */
+  private static String latin1Feed(boolean declared) {
+    StringBuilder sb = new StringBuilder();
+    if (declared) {
+      sb.append("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n");
+    }
+    sb.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">\n");
+    for (int id = 20; id > 0; id--) {
+      sb.append("  <entry>\n");
+      sb.append("    <id>tag:search.twitter.com,2005:").append(id).append("</id>\n");
+      sb.append("    <published>2011-03-05T05:51:02Z</published>\n");
+      sb.append("    <link type=\"text/html\" href=\"http://twitter.com/latin1/statuses/").append(id).append("\" rel=\"alternate\"/>\n");
+      sb.append("    <title>élève #").append(id).append(" à Nîmes</title>\n");
+      sb.append("    <content type=\"html\">élève #").append(id).append(" à Nîmes</content>\n");
+      sb.append("    <author>\n");
+      sb.append("      <name>Anaïs</name>\n");
+      sb.append("      <uri>http://twitter.com/latin1</uri>\n");
+      sb.append("    </author>\n");
+      sb.append("  </entry>\n");
+    }
+    sb.append("</feed>\n");
+    return sb.toString();
+  }
+
+  /**
+   * Test that https feeds are read through TLS, that the certificate must
+   * be that of the host, and that http redirects to https are followed.
+   */
+  @Test
+  public void testHttps() throws Exception {
+    System.out.println("https");
+    SSLContext context = createSSLContext();
+    HttpTransport.getDefault().setSSLSocketFactory(context.getSocketFactory());
+    TlsServer tls = new TlsServer(context);
+    final String secure = "https://localhost:" + tls.getPort();
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/moved.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().add("Location", secure + "/search.atom?" + exchange.getRequestURI().getQuery());
+        exchange.sendResponseHeaders(302, -1);
+        exchange.close();
+      }
+    });
+    server.start();
+    try {
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      assertEquals(100, dao.searchNext(secure + "/search.atom?q=https").getTweets().size());
+      assertEquals(100, dao.searchNext("http://127.0.0.1:" + server.getAddress().getPort() + "/moved.atom?q=moved").getTweets().size());
+      // Without blocking too, though TLS blocks
+      assertEquals(100, dao.searchNextAsync(secure + "/search.atom?q=async", null).get(10, TimeUnit.SECONDS).getTweets().size());
+      assertEquals(Arrays.asList("GET /search.atom?q=https HTTP/1.1", "GET /search.atom?q=moved HTTP/1.1",
+        "GET /search.atom?q=async HTTP/1.1"), tls.getRequests());
+      try {
+        // The certificate is for localhost only
+        dao.searchNext("https://127.0.0.1:" + tls.getPort() + "/search.atom?q=mismatch");
+        fail("Should not trust a certificate of another host");
+      } catch (IOException ex) {
+        assertEquals(3, tls.getRequests().size());
+      }
+    } finally {
+      server.stop(0);
+      tls.close();
+      HttpTransport.getDefault().setSSLSocketFactory((SSLSocketFactory) SSLSocketFactory.getDefault());
+    }
+  }
+
+  /**
+   * Test that https feeds go through a tunnel in an HTTP proxy, with TLS
+   * end to end.
+   */
+  @Test
+  public void testProxyTunnel() throws Exception {
+    System.out.println("proxyTunnel");
+    SSLContext context = createSSLContext();
+    HttpTransport.getDefault().setSSLSocketFactory(context.getSocketFactory());
+    TlsServer tls = new TlsServer(context);
+    final TunnelProxy tunnel = new TunnelProxy();
+    ProxySelector previous = ProxySelector.getDefault();
+    ProxySelector.setDefault(new ProxySelector() {
+      @Override
+      public List<Proxy> select(URI uri) {
+        return Collections.singletonList(new Proxy(Proxy.Type.HTTP, new InetSocketAddress("127.0.0.1", tunnel.getPort())));
+      }
+
+      @Override
+      public void connectFailed(URI uri, SocketAddress address, IOException ex) {
+      }
+    });
+    try {
+      TwitterSearchDAO dao = new TwitterSearchDAO(AtomParseEngine.getDefault(), new FeedCache(createTempDirectory()));
+      assertEquals(100, dao.searchNext("https://localhost:" + tls.getPort() + "/search.atom?q=tunnel").getTweets().size());
+      assertEquals(Arrays.asList("CONNECT localhost:" + tls.getPort() + " HTTP/1.1"), tunnel.getRequests());
+      assertEquals(Arrays.asList("GET /search.atom?q=tunnel HTTP/1.1"), tls.getRequests());
+    } finally {
+      ProxySelector.setDefault(previous);
+      tunnel.close();
+      tls.close();
+      HttpTransport.getDefault().setSSLSocketFactory((SSLSocketFactory) SSLSocketFactory.getDefault());
+    }
+  }
+
+  private static SSLContext createSSLContext() throws Exception {
+    char[] password = "changeit".toCharArray();
+    KeyStore keyStore = KeyStore.getInstance("JKS");
+    InputStream input = TwitterSearchDAOTest.class.getResourceAsStream("localhost.jks");
+    try {
+      keyStore.load(input, password);
+    } finally {
+      input.close();
+    }
+    KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keys.init(keyStore, password);
+    TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trust.init(keyStore);
+    SSLContext context = SSLContext.getInstance("TLS");
+    context.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+    return context;
+  }
+
+  private static String readLine(InputStream input) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (int c = input.read(); c != '\n'; c = input.read()) {
+      if (c == -1) {
+        return null;
+      }
+      if (c != '\r') {
+        line.write(c);
+      }
+    }
+    return line.toString("ISO-8859-1");
+  }
+
+  /**
+   * Accepts connections on a local server socket, each served in a thread
+   * of its own.
+   */
+  private static abstract class LocalServer implements Runnable {
+
+    private final ServerSocket serverSocket;
+    private final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    LocalServer(ServerSocket serverSocket) {
+      this.serverSocket = serverSocket;
+      Thread thread = new Thread(this, getClass().getSimpleName());
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int getPort() {
+      return serverSocket.getLocalPort();
+    }
+
+    List<String> getRequests() {
+      return new ArrayList<String>(requests);
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+
+    public void run() {
+      while (!serverSocket.isClosed()) {
+        final Socket socket;
+        try {
+          socket = serverSocket.accept();
+        } catch (IOException ex) {
+          return;
+        }
+        Thread thread = new Thread() {
+          @Override
+          public void run() {
+            try {
+              serve(socket, new BufferedInputStream(socket.getInputStream()), socket.getOutputStream());
+            } catch (IOException ex) {
+              // Closed, or the client refused the certificate
+            } finally {
+              try {
+                socket.close();
+              } catch (IOException ex) {
+                // Empty
+              }
+            }
+          }
+        };
+        thread.setDaemon(true);
+        thread.start();
+      }
+    }
+
+    /**
+     * Reads the request line and the headers.
+     * @return the request line, or null at the end of the connection.
+     */
+    String readRequest(InputStream input) throws IOException {
+      String request = readLine(input);
+      if (request != null) {
+        requests.add(request);
+        for (String header = readLine(input); header != null && header.length() > 0; header = readLine(input)) {
+          // Skip
+        }
+      }
+      return request;
+    }
+
+    abstract void serve(Socket socket, InputStream input, OutputStream output) throws IOException;
+  }
+
+  /**
+   * An HTTPS server on a local SSLServerSocket that serves test.xml to
+   * every request, keeping connections alive.
+   */
+  private static final class TlsServer extends LocalServer {
+
+    TlsServer(SSLContext context) throws IOException {
+      super((SSLServerSocket) context.getServerSocketFactory().createServerSocket(0, 0, InetAddress.getByName("127.0.0.1")));
+    }
+
+    @Override
+    void serve(Socket socket, InputStream input, OutputStream output) throws IOException {
+      ByteArrayOutputStream feed = new ByteArrayOutputStream();
+      InputStream resource = TwitterSearchDAOTest.class.getResourceAsStream("test.xml");
+      byte[] buffer = new byte[8192];
+      for (int n = resource.read(buffer); n != -1; n = resource.read(buffer)) {
+        feed.write(buffer, 0, n);
+      }
+      resource.close();
+      while (readRequest(input) != null) {
+        output.write(("HTTP/1.1 200 OK\r\nContent-Type: application/atom+xml\r\nContent-Length: " + feed.size() + "\r\n\r\n").getBytes("ISO-8859-1"));
+        feed.writeTo(output);
+        output.flush();
+      }
+    }
+  }
+
+  /**
+   * An HTTP proxy that only opens tunnels with CONNECT.
+   */
+  private static final class TunnelProxy extends LocalServer {
+
+    TunnelProxy() throws IOException {
+      super(new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1")));
+    }
+
+    @Override
+    void serve(Socket socket, InputStream input, OutputStream output) throws IOException {
+      String request = readRequest(input);
+      if (request == null || !request.startsWith("CONNECT ")) {
+        output.write("HTTP/1.1 405 Method Not Allowed\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1"));
+        return;
+      }
+      String[] target = request.split(" ")[1].split(":");
+      final Socket server = new Socket(target[0], Integer.parseInt(target[1]));
+      try {
+        output.write("HTTP/1.1 200 Connection established\r\n\r\n".getBytes("ISO-8859-1"));
+        output.flush();
+        final OutputStream toClient = output;
+        Thread back = new Thread() {
+          @Override
+          public void run() {
+            try {
+              copy(server.getInputStream(), toClient);
+            } catch (IOException ex) {
+              // Closed
+            }
+          }
+        };
+        back.setDaemon(true);
+        back.start();
+        copy(input, server.getOutputStream());
+      } finally {
+        server.close();
+      }
+    }
+
+    private static void copy(InputStream input, OutputStream output) throws IOException {
+      byte[] buffer = new byte[8192];
+      for (int n = input.read(buffer); n != -1; n = input.read(buffer)) {
+        output.write(buffer, 0, n);
+        output.flush();
+      }
+    }
+  }
+
+  private static Query query(String keyword) {
+    Query query = new Query();
+    query.setKeyword(keyword);
+    return query;
+  }
+
+  private static File createTempDirectory() throws IOException {
+    File directory = File.createTempFile("feedcache", "");
+    directory.delete();
+    directory.mkdirs();
+    directory.deleteOnExit();
+    return directory;
+  }
+
 }
 /*
 Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
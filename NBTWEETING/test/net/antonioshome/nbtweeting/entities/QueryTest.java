@@ -0,0 +1,292 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import net.antonioshome.nbtweeting.dao.SearchPage;
+import net.antonioshome.nbtweeting.dao.TwitterSearchDAO;
+import net.antonioshome.nbtweeting.entities.abilities.Pageable;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the Query entity.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class QueryTest {
+
+  private static final int THREADS = 4;
+  private static final int UPDATES = 25;
+  private static final int PAGE_SIZE = 10;
+
+  public QueryTest() {
+  }
+
+  /**
+   * Test that updates from several threads and older pages loaded meanwhile
+   * are merged one after the other: tweets end up newest first, once.
+   */
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    System.out.println("concurrentUpdates");
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    final String base = "http://127.0.0.1:" + server.getAddress().getPort();
+    server.createContext("/next.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        long max = Long.parseLong(exchange.getRequestURI().getQuery().substring("max=".length()));
+        try {
+          Thread.sleep(20);
+        } catch (InterruptedException ex) {
+          // Empty
+        }
+        byte[] body = feed(max, base).getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+      }
+    });
+    server.start();
+    File directory = File.createTempFile("query", "");
+    directory.delete();
+    directory.mkdirs();
+    try {
+      final Query query = new Query();
+      query.setKeyword("concurrent");
+      query.setMaxPages(3);
+      // Each thread updates the query with pages newer or older than the others'
+      TwitterSearchDAO dao = new TwitterSearchDAO();
+      final SearchPage[][] pages = new SearchPage[THREADS][UPDATES];
+      for (int t = 0; t < THREADS; t++) {
+        for (int u = 0; u < UPDATES; u++) {
+          File file = new File(directory, t + "-" + u + ".atom");
+          OutputStream output = new FileOutputStream(file);
+          output.write(feed((u * THREADS + t + 1) * 1000L + 999, base).getBytes("UTF-8"));
+          output.close();
+          pages[t][u] = dao.load(file);
+        }
+      }
+      final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+      Thread[] updaters = new Thread[THREADS];
+      for (int t = 0; t < THREADS; t++) {
+        final int thread = t;
+        updaters[t] = new Thread() {
+          @Override
+          public void run() {
+            try {
+              for (SearchPage page : pages[thread]) {
+                query.update(page);
+                Thread.sleep(10);
+              }
+            } catch (Throwable ex) {
+              failures.add(ex);
+            }
+          }
+        };
+        updaters[t].start();
+      }
+      final Pageable pageable = query.getLookup().lookup(Pageable.class);
+      final boolean[] done = new boolean[1];
+      Thread pager = new Thread() {
+        @Override
+        public void run() {
+          try {
+            while (!isDone()) {
+              if (pageable.hasNextPage()) {
+                pageable.loadNextPage();
+              } else {
+                Thread.sleep(5);
+              }
+            }
+          } catch (Throwable ex) {
+            failures.add(ex);
+          }
+        }
+
+        private boolean isDone() {
+          synchronized (done) {
+            return done[0];
+          }
+        }
+      };
+      pager.start();
+      for (Thread updater : updaters) {
+        updater.join();
+      }
+      synchronized (done) {
+        done[0] = true;
+      }
+      pager.join();
+      assertTrue(failures.toString(), failures.isEmpty());
+
+      TweetStore.Snapshot snapshot = query.getSnapshot();
+      assertEquals(query.getTweetStore().size(), snapshot.size());
+      assertTrue(snapshot.size() >= PAGE_SIZE);
+      assertEquals(THREADS * UPDATES * 1000L + 999, snapshot.getId(0));
+      assertEquals(snapshot.getId(0), query.getSinceId());
+      for (int i = 1; i < snapshot.size(); i++) {
+        assertTrue("Not newest first at " + i, snapshot.getId(i - 1) > snapshot.getId(i));
+      }
+    } finally {
+      server.stop(0);
+      for (File file : directory.listFiles()) {
+        file.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  /**
+   * Test that older pages are followed through their rel="next" links,
+   * up to the maximum number of pages of a refresh, and only while the
+   * time budget of the refresh lasts.
+   */
+  @Test
+  public void testPaging() throws Exception {
+    System.out.println("paging");
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    final String base = "http://127.0.0.1:" + server.getAddress().getPort();
+    final List<String> requested = Collections.synchronizedList(new ArrayList<String>());
+    server.createContext("/next.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getQuery();
+        requested.add(query);
+        long max = Long.parseLong(query.substring("max=".length()));
+        if (max >= 2000) {
+          // Slow pages, for the time budget
+          try {
+            Thread.sleep(300);
+          } catch (InterruptedException ex) {
+            // Empty
+          }
+        }
+        byte[] body = feed(max, base).getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+      }
+    });
+    server.start();
+    File file = File.createTempFile("paging", ".atom");
+    try {
+      TwitterSearchDAO dao = new TwitterSearchDAO();
+
+      // Three pages at most
+      Query query = new Query();
+      query.setKeyword("paging");
+      query.setMaxPages(3);
+      OutputStream output = new FileOutputStream(file);
+      output.write(feed(1999, base).getBytes("UTF-8"));
+      output.close();
+      query.update(dao.load(file));
+      Pageable pageable = query.getLookup().lookup(Pageable.class);
+      while (pageable.hasNextPage()) {
+        pageable.loadNextPage();
+      }
+      assertEquals(Arrays.asList("max=1989", "max=1979"), requested);
+      assertEquals(3 * PAGE_SIZE, query.getTweets().size());
+      assertEquals(1999L, query.getTweets().get(0).getId());
+      assertEquals(1999L - 3 * PAGE_SIZE + 1, query.getTweets().get(3 * PAGE_SIZE - 1).getId());
+
+      // As many pages as fit in half a second, with slow pages
+      requested.clear();
+      query = new Query();
+      query.setKeyword("budget");
+      query.setMaxPages(50);
+      query.setPagingTimeBudget(500);
+      output = new FileOutputStream(file);
+      output.write(feed(2999, base).getBytes("UTF-8"));
+      output.close();
+      query.update(dao.load(file));
+      pageable = query.getLookup().lookup(Pageable.class);
+      while (pageable.hasNextPage()) {
+        pageable.loadNextPage();
+      }
+      assertTrue(requested.toString(), requested.size() >= 1 && requested.size() <= 3);
+      assertEquals((requested.size() + 1) * PAGE_SIZE, query.getTweets().size());
+    } finally {
+      server.stop(0);
+      file.delete();
+    }
+  }
+
+  /**
+   * Builds a page of tweets with ids from max down, linking to the next
+   * page until the ids of the thousand are used up.
+   */
+  private static String feed(long max, String base) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">\n");
+    if (max % 1000 >= 2 * PAGE_SIZE) {
+      sb.append("  <link type=\"application/atom+xml\" href=\"").append(base)
+        .append("/next.atom?max=").append(max - PAGE_SIZE).append("\" rel=\"next\"/>\n");
+    }
+    for (long id = max; id > max - PAGE_SIZE; id--) {
+      sb.append("  <entry>\n");
+      sb.append("    <id>tag:search.twitter.com,2005:").append(id).append("</id>\n");
+      sb.append("    <published>2011-03-05T05:51:02Z</published>\n");
+      sb.append("    <link type=\"text/html\" href=\"http://twitter.com/query_test/statuses/")
+        .append(id).append("\" rel=\"alternate\"/>\n");
+      sb.append("    <content type=\"html\">tweet #").append(id).append(" &amp; more</content>\n");
+      sb.append("    <author>\n");
+      sb.append("      <name>query_test</name>\n");
+      sb.append("      <uri>http://twitter.com/query_test</uri>\n");
+      sb.append("    </author>\n");
+      sb.append("  </entry>\n");
+    }
+    sb.append("</feed>\n");
+    return sb.toString();
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,91 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the TextIndex.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class TextIndexTest {
+
+  /**
+   * Test term, prefix and phrase lookups, and that removed tweets are not found.
+   */
+  @Test
+  public void testSearch() throws Exception {
+    System.out.println("search");
+    TextIndex index = new TextIndex();
+    index.add(1, "NetBeans Platform rocks");
+    index.add(2, "The #NetBeans platform, by @antonio");
+    index.add(3, "Rocks and platforms");
+    index.add(4, null);
+    assertArrayEquals(new long[]{1, 2}, index.term("netbeans"));
+    assertArrayEquals(new long[]{1, 2, 3}, index.prefix("Plat"));
+    assertArrayEquals(new long[]{1, 2}, index.phrase("netbeans platform"));
+    assertArrayEquals(new long[0], index.phrase("platform netbeans"));
+    assertArrayEquals(new long[]{1}, index.search("rocks \"netbeans platform\""));
+    assertArrayEquals(new long[]{1, 3}, index.search("plat* rocks"));
+    assertArrayEquals(new long[]{2}, index.search("@antonio"));
+    index.remove(1);
+    assertArrayEquals(new long[]{2}, index.term("netbeans"));
+    assertEquals(3, index.size());
+
+    // Removed tweets are left out of the posting lists eventually
+    for (int i = 10; i < 5000; i++) {
+      index.add(i, "tweet number " + i + (i % 2 == 0 ? " even" : " odd"));
+    }
+    for (int i = 10; i < 4000; i++) {
+      index.remove(i);
+    }
+    assertEquals(1003, index.size());
+    assertEquals(500, index.term("even").length);
+    assertArrayEquals(new long[]{4999}, index.search("\"number 4999 odd\""));
+    assertArrayEquals(new long[]{2}, index.phrase("netbeans platform"));
+  }
+
+  private static void assertArrayEquals(long[] expected, long[] actual) {
+    assertEquals(java.util.Arrays.toString(expected), java.util.Arrays.toString(actual));
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,100 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import java.util.List;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the TrendCounter.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class TrendCounterTest {
+
+  /**
+   * Test that the most frequent tags are found, and forgotten when the window slides.
+   */
+  @Test
+  public void testTrends() throws Exception {
+    System.out.println("trends");
+    assertEquals("[#netbeans, @antonio, #java_ee]", TrendCounter.tags("#NetBeans by @antonio, #java_ee a#b # @").toString());
+
+    TrendCounter counter = new TrendCounter(60000, 6, 10);
+    long now = 1000000;
+    for (int i = 0; i < 100000; i++) {
+      // Lots of rare tags, and a few frequent ones
+      String text = "tweet #tag" + i + " @user" + (i % 5000);
+      if (i % 10 == 0) {
+        text += " #netbeans";
+      }
+      if (i % 20 == 0) {
+        text += " @antonio";
+      }
+      counter.add(now + i / 10, text);
+    }
+    List<Trend> trends = counter.getTrends(2);
+    assertEquals(2, trends.size());
+    assertEquals("#netbeans", trends.get(0).getTag());
+    assertTrue(trends.get(0).getCount() >= 10000);
+    assertEquals("@antonio", trends.get(1).getTag());
+    assertTrue(counter.estimate("#netbeans") < 11000);
+
+    // Tweets written in the first window are counted too
+    TrendCounter early = new TrendCounter(60000, 6, 10);
+    early.add(1000, "#netbeans");
+    early.add(50000, "#netbeans");
+    assertEquals(2, early.estimate("#netbeans"));
+
+    // An older tweet within the window counts, one out of it doesn't
+    counter.add(now, "#netbeans");
+    counter.add(now - 60000, "#netbeans");
+    assertEquals(trends.get(0).getCount() + 1, counter.getTrends(1).get(0).getCount());
+
+    // Later on, only new tags are counted
+    counter.add(now + 200000, "#platform #platform");
+    trends = counter.getTrends(5);
+    assertEquals(1, trends.size());
+    assertEquals("#platform", trends.get(0).getTag());
+    assertEquals(2, trends.get(0).getCount());
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,324 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.entities;
+
+import java.nio.charset.Charset;
+import java.util.ConcurrentModificationException;
+import java.util.List;
+import net.antonioshome.nbtweeting.entities.abilities.HasTextContent;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the columnar TweetStore.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class TweetStoreTest {
+
+  public TweetStoreTest() {
+  }
+
+  /**
+   * Test that tweets are kept in display order and read back as they were.
+   */
+  @Test
+  public void testAdd() throws Exception {
+    System.out.println("add");
+    TweetStore store = new TweetStore();
+    TweetAuthor alice = AuthorRegistry.getDefault().intern("http://twitter.com/store_alice", "Alice");
+    for (int i = 0; i < 1000; i++) {
+      store.add(0, tweet(i + 1, 1000L * i, i % 3 == 0 ? alice : null, "tweet #" + i + " élève 😀"));
+    }
+    store.add(tweet(5000, 5, alice, null));
+    assertEquals(1001, store.size());
+    assertEquals(1000, store.getId(0));
+    assertEquals(999000L, store.getTimestamp(0));
+    assertEquals("tweet #999 élève 😀", store.getContent(0));
+    assertSame(alice, store.getAuthor(0));
+    Tweet view = store.get(1);
+    assertEquals(999, view.getId());
+    assertEquals("tweet #998 élève 😀", view.getContent());
+    assertEquals("http://twitter.com/u/statuses/999", view.getUrl().toString());
+    assertEquals(view, store.get(1));
+    assertEquals(view.hashCode(), store.get(1).hashCode());
+    assertNull(store.get(1000).getContent());
+    assertEquals(1001, store.asList().size());
+    assertEquals(store.get(500), store.asList().get(500));
+  }
+
+  /**
+   * Test sorted views, range scans and tweets by author.
+   */
+  @Test
+  public void testViews() throws Exception {
+    System.out.println("views");
+    TweetStore store = new TweetStore();
+    TweetAuthor bob = AuthorRegistry.getDefault().intern("http://twitter.com/store_bob", "Bob");
+    long[] timestamps = {30, 10, 50, 20, 40, 10};
+    for (int i = 0; i < timestamps.length; i++) {
+      store.add(tweet(i + 1, timestamps[i], i % 2 == 0 ? bob : null, "t" + i));
+    }
+    List<Tweet> sorted = store.sortedByTimestamp();
+    assertEquals(6, sorted.size());
+    assertEquals(3, sorted.get(0).getId());
+    assertEquals(2, sorted.get(4).getId());
+    assertEquals(6, sorted.get(5).getId());
+
+    List<Tweet> range = store.range(20, 41);
+    assertEquals(3, range.size());
+    assertEquals(5, range.get(0).getId());
+    assertEquals(4, range.get(2).getId());
+    assertEquals(0, store.range(60, 100).size());
+
+    List<Tweet> bobs = store.getTweetsBy(bob);
+    assertEquals(3, bobs.size());
+    assertEquals(1, bobs.get(0).getId());
+    assertEquals(5, bobs.get(2).getId());
+
+    store.clear();
+    try {
+      sorted.get(0);
+      fail("Views are no longer valid when cleared");
+    } catch (ConcurrentModificationException ex) {
+      // Expected
+    }
+  }
+
+  /**
+   * Test that the abilities of views are found in their lookups.
+   */
+  @Test
+  public void testLookup() throws Exception {
+    System.out.println("lookup");
+    TweetStore store = new TweetStore();
+    store.add(tweet(1, 1, null, "hello"));
+    Tweet view = store.get(0);
+    assertSame(view, view.getLookup().lookup(Tweet.class));
+    assertEquals("hello", view.getLookup().lookup(HasTextContent.class).getText());
+    assertSame(view.getLookup(), view.getLookup());
+  }
+
+  /**
+   * Test that snapshots don't change when the store does.
+   */
+  @Test
+  public void testSnapshot() throws Exception {
+    System.out.println("snapshot");
+    TweetStore store = new TweetStore();
+    TweetStore.Snapshot empty = store.snapshot();
+    for (int i = 0; i < 200; i++) {
+      store.add(0, tweet(i + 1, i, null, "t" + i));
+    }
+    TweetStore.Snapshot full = store.snapshot();
+    assertTrue(full.getVersion() > empty.getVersion());
+    assertEquals(0, empty.size());
+    assertEquals(200, full.size());
+    for (int i = 0; i < 300; i++) {
+      store.add(100, tweet(1000 + i, i, null, "more " + i));
+    }
+    store.clear();
+    store.add(tweet(5000, 0, null, "after"));
+    assertEquals(200, full.size());
+    assertEquals(200, full.getId(0));
+    assertEquals("t100", full.getContent(99));
+    assertEquals(1, full.getTweets().get(199).getId());
+    try {
+      full.getTweets().add(tweet(1, 1, null, null));
+      fail("Snapshots can't be modified");
+    } catch (UnsupportedOperationException ex) {
+      // Expected
+    }
+    TweetsListener listener = new TweetsListener() {
+      public void tweetsChanged(TweetsEvent event) {
+        assertEquals(0, event.getNewSnapshot().size());
+        assertEquals(0, event.getAdded().length);
+      }
+    };
+    Query query = new Query();
+    query.addTweetsListener(listener);
+    query.setKeyword("snapshot");
+    assertSame(query.getSnapshot().getTweets(), query.getTweets());
+  }
+
+  /**
+   * Test that tweets beyond the count and age limits are evicted.
+   */
+  @Test
+  public void testRetain() throws Exception {
+    System.out.println("retain");
+    TweetStore store = new TweetStore();
+    TweetAuthor carol = AuthorRegistry.getDefault().intern("http://twitter.com/store_carol", "Carol");
+    for (int i = 0; i < 1000; i++) {
+      store.add(0, tweet(i + 1, 1000L + i, i % 2 == 0 ? carol : null, "tweet #" + i));
+    }
+    TweetStore.Snapshot before = store.snapshot();
+    assertEquals(0, store.retain(0, 0).length);
+    int[] evicted = store.retain(600, 1500L);
+    assertEquals(500, evicted.length);
+    assertEquals(500, evicted[0]);
+    assertEquals(999, evicted[499]);
+    assertEquals(500, store.size());
+    assertEquals(1000, store.getId(0));
+    assertEquals(501, store.getId(499));
+    assertEquals("tweet #500", store.getContent(499));
+    assertSame(carol, store.getAuthor(1));
+    assertEquals(250, store.getTweetsBy(carol).size());
+    evicted = store.retain(100, 0);
+    assertEquals(400, evicted.length);
+    assertEquals(100, evicted[0]);
+    assertEquals(100, store.size());
+    store.add(tweet(5000, 0, null, "after"));
+    assertEquals("after", store.getContent(100));
+    assertEquals(1000, before.size());
+    assertEquals("tweet #0", before.getContent(999));
+  }
+
+  /**
+   * Test that tweets not decoded yet are stored as raw bytes, and decoded
+   * only when read from the store.
+   */
+  @Test
+  public void testRawText() throws Exception {
+    System.out.println("rawText");
+    TweetStore store = new TweetStore();
+    Raw raw = new Raw("http://twitter.com/u/statuses/7", "a &amp; b");
+    Tweet lazy = new Tweet(raw);
+    lazy.setId(7);
+    store.add(lazy);
+    assertEquals(0, raw.decoded);
+    Tweet eager = tweet(8, 0, null, "eager");
+    store.add(eager);
+    assertEquals("a & b", store.getContent(0));
+    assertEquals("http://twitter.com/u/statuses/7", store.get(0).getUrl().toString());
+    assertEquals("eager", store.getContent(1));
+    assertEquals(0, raw.decoded);
+    // Views are copied to other stores as they are
+    TweetStore copy = new TweetStore();
+    copy.add(store.get(0));
+    store.retain(1, 0);
+    assertEquals("a & b", copy.getContent(0));
+    assertEquals("a & b", store.snapshot().getContent(0));
+    // Tweets whose text has been read or set are stored decoded
+    raw = new Raw(null, "x &amp; y");
+    lazy = new Tweet(raw);
+    assertEquals("x & y", lazy.getContent());
+    store.add(lazy);
+    // The content once, and then the url
+    assertEquals(2, raw.decoded);
+    assertEquals("x & y", store.getContent(1));
+    assertNull(store.get(1).getUrl());
+  }
+
+  private static Tweet tweet(long id,long timestamp, TweetAuthor author, String content) {
+    Tweet tweet = new Tweet();
+    tweet.setId(id);
+    tweet.setTimestamp(timestamp);
+    tweet.setAuthor(author);
+    tweet.setContent(content);
+    tweet.setUrlSpec("http://twitter.com/u/statuses/" + id);
+    return tweet;
+  }
+
+  /**
+   * Raw keeps the url and content with "&amp;" escaped, and counts the
+   * times they are decoded by the tweet.
+   */
+  private static final class Raw implements Tweet.RawText {
+
+    private static final Tweet.Encoding UNESCAPE = new Tweet.Encoding() {
+
+      public String decode(int field, byte[] bytes, int start, int end) {
+        return unescape(new String(bytes, start, end - start, Charset.forName("UTF-8")));
+      }
+    };
+
+    private final String[] fields;
+    private int decoded;
+
+    Raw(String urlSpec, String content) {
+      this.fields = new String[]{urlSpec, content};
+    }
+
+    public int getLength(int field) {
+      return fields[field] == null ? -1 : bytes(field).length;
+    }
+
+    public void copy(int field, byte[] target, int offset) {
+      byte[] bytes = bytes(field);
+      System.arraycopy(bytes, 0, target, offset, bytes.length);
+    }
+
+    public Tweet.Encoding getEncoding() {
+      return UNESCAPE;
+    }
+
+    public String getUrlSpec() {
+      decoded++;
+      return fields[URL] == null ? null : unescape(fields[URL]);
+    }
+
+    public String getContent() {
+      decoded++;
+      return fields[CONTENT] == null ? null : unescape(fields[CONTENT]);
+    }
+
+    public String getAuthorName() {
+      return null;
+    }
+
+    public String getAuthorURI() {
+      return null;
+    }
+
+    public String getAuthorImage() {
+      return null;
+    }
+
+    private byte[] bytes(int field) {
+      return fields[field].getBytes(Charset.forName("UTF-8"));
+    }
+
+    private static String unescape(String text) {
+      return text.replace("&amp;", "&");
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,206 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.gui;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.event.TreeModelEvent;
+import javax.swing.event.TreeModelListener;
+import net.antonioshome.nbtweeting.dao.SearchPage;
+import net.antonioshome.nbtweeting.dao.TwitterSearchDAO;
+import net.antonioshome.nbtweeting.entities.Query;
+import net.antonioshome.nbtweeting.entities.Tweet;
+import net.antonioshome.nbtweeting.nodes.TweetNode;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the TweetOutlineModel.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class TweetOutlineModelTest {
+
+  public TweetOutlineModelTest() {
+  }
+
+  /**
+   * Test that rows are the positions of the tweets in the snapshot, and
+   * that columns read the tweet in each row.
+   */
+  @Test
+  public void testRowsAndColumns() throws Exception {
+    System.out.println("rowsAndColumns");
+    Query query = new Query();
+    query.setKeyword("outline");
+    query.update(page(3, 2, 1));
+    TweetOutlineModel model = new TweetOutlineModel(query, new JPanel());
+    try {
+      assertSame(query, model.getRoot());
+      assertFalse(model.isLeaf(query));
+      assertEquals(3, model.getChildCount(query));
+      Object row = model.getChild(query, 1);
+      assertTrue(model.isLeaf(row));
+      assertEquals(0, model.getChildCount(row));
+      assertEquals(1, model.getIndexOfChild(query, row));
+      assertEquals(-1, model.getIndexOfChild(row, row));
+
+      Tweet second = query.getTweets().get(1);
+      assertEquals(2, model.getColumnCount());
+      assertEquals(Date.class, model.getColumnClass(0));
+      assertEquals(String.class, model.getColumnClass(1));
+      assertEquals("Tweet date", model.getColumnName(0));
+      assertEquals("Author", model.getColumnName(1));
+      assertEquals(new Date(second.getTimestamp()), model.getValueFor(row, 0));
+      assertEquals("author2", model.getValueFor(row, 1));
+      assertEquals("author2 said tweet #2", model.getDisplayName(row));
+      assertEquals("tweet #2", model.getTooltipText(row));
+      assertFalse(model.isCellEditable(row, 0));
+      // Rows beyond the snapshot show nothing
+      assertNull(model.getValueFor(Integer.valueOf(3), 0));
+      assertNull(model.createNode(Integer.valueOf(3)));
+
+      TweetNode node = model.createNode(row);
+      assertEquals(2, node.getLookup().lookup(Tweet.class).getId());
+    } finally {
+      model.detach();
+    }
+  }
+
+  /**
+   * Test that the tweets added and evicted are told to the listeners as
+   * rows inserted and removed, and the rows map to the new snapshot.
+   */
+  @Test
+  public void testChanges() throws Exception {
+    System.out.println("changes");
+    Query query = new Query();
+    query.setKeyword("outline changes");
+    query.setMaxTweets(4);
+    query.update(page(3, 2, 1));
+    TweetOutlineModel model = new TweetOutlineModel(query, new JPanel());
+    final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+    model.addTreeModelListener(new TreeModelListener() {
+
+      public void treeNodesChanged(TreeModelEvent e) {
+        events.add("changed " + Arrays.toString(e.getChildIndices()));
+      }
+
+      public void treeNodesInserted(TreeModelEvent e) {
+        events.add("inserted " + Arrays.toString(e.getChildIndices()));
+      }
+
+      public void treeNodesRemoved(TreeModelEvent e) {
+        events.add("removed " + Arrays.toString(e.getChildIndices()));
+      }
+
+      public void treeStructureChanged(TreeModelEvent e) {
+        events.add("structure");
+      }
+    });
+    try {
+      query.update(page(6, 5, 4));
+      // Changes are applied in the event dispatch thread
+      SwingUtilities.invokeAndWait(new Runnable() {
+
+        public void run() {
+        }
+      });
+      assertEquals(Arrays.asList("inserted [0, 1, 2]", "removed [4, 5]"), events);
+      assertEquals(4, model.getChildCount(query));
+      assertEquals("author6 said tweet #6", model.getDisplayName(model.getChild(query, 0)));
+      assertEquals("author3 said tweet #3", model.getDisplayName(model.getChild(query, 3)));
+
+      // Once detached, changes are not followed
+      model.detach();
+      query.update(page(7));
+      SwingUtilities.invokeAndWait(new Runnable() {
+
+        public void run() {
+        }
+      });
+      assertEquals(2, events.size());
+      assertEquals(4, model.getChildCount(query));
+    } finally {
+      model.detach();
+    }
+  }
+
+  /**
+   * Builds a page with tweets, newest first.
+   */
+  private static SearchPage page(long... ids) throws Exception {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">\n");
+    for (long id : ids) {
+      sb.append("  <entry>\n");
+      sb.append("    <id>tag:search.twitter.com,2005:").append(id).append("</id>\n");
+      sb.append("    <published>2011-03-05T05:51:0").append(id).append("Z</published>\n");
+      sb.append("    <link type=\"text/html\" href=\"http://twitter.com/author").append(id)
+        .append("/statuses/").append(id).append("\" rel=\"alternate\"/>\n");
+      sb.append("    <title>tweet #").append(id).append("</title>\n");
+      sb.append("    <author>\n");
+      sb.append("      <name>author").append(id).append("</name>\n");
+      sb.append("      <uri>http://twitter.com/author").append(id).append("</uri>\n");
+      sb.append("    </author>\n");
+      sb.append("  </entry>\n");
+    }
+    sb.append("</feed>\n");
+    File file = File.createTempFile("outline", ".atom");
+    try {
+      OutputStream output = new FileOutputStream(file);
+      output.write(sb.toString().getBytes("UTF-8"));
+      output.close();
+      return new TwitterSearchDAO().load(file);
+    } finally {
+      file.delete();
+    }
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
@@ -0,0 +1,299 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.nodes;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.antonioshome.nbtweeting.dao.TweetArchive;
+import net.antonioshome.nbtweeting.entities.AuthorRegistry;
+import net.antonioshome.nbtweeting.entities.Query;
+import net.antonioshome.nbtweeting.entities.Tweet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openide.nodes.Children;
+import org.openide.nodes.Node;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the QueryNodeChildFactory. Searches go through a local HTTP
+ * proxy that answers for the search server.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class QueryNodeChildFactoryTest {
+
+  private HttpServer server;
+  private ProxySelector previous;
+  /** The ids of the tweets of the next search, newest first */
+  private volatile long[] results = new long[0];
+
+  public QueryNodeChildFactoryTest() {
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/search.atom", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = feed(results).getBytes("UTF-8");
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream output = exchange.getResponseBody();
+        output.write(body);
+        output.close();
+      }
+    });
+    server.start();
+    final Proxy proxy = new Proxy(Proxy.Type.HTTP, server.getAddress());
+    previous = ProxySelector.getDefault();
+    ProxySelector.setDefault(new ProxySelector() {
+      @Override
+      public List<Proxy> select(URI uri) {
+        return Collections.singletonList(proxy);
+      }
+
+      @Override
+      public void connectFailed(URI uri, SocketAddress address, IOException ex) {
+      }
+    });
+  }
+
+  @After
+  public void tearDown() {
+    ProxySelector.setDefault(previous);
+    server.stop(0);
+  }
+
+  /**
+   * Test that the tweets kept in the archive are restored by the loader,
+   * after the ones known and before the ones found by the reload.
+   */
+  @Test
+  public void testRestore() throws Exception {
+    System.out.println("restore");
+    File directory = File.createTempFile("archive", "");
+    directory.delete();
+    TweetArchive archive = new TweetArchive(directory);
+    try {
+      for (long id = 1; id <= 5; id++) {
+        archive.append(tweet(id));
+      }
+      archive.flush();
+      Query query = query("restore");
+      query.setArchive(archive);
+      results = new long[]{12, 11};
+      Children children = Children.create(new QueryNodeChildFactory(query), true);
+      assertEquals(list(12, 11, 5, 4, 3, 2, 1), ids(children.getNodes(true)));
+      assertEquals(list(12, 11, 5, 4, 3, 2, 1), ids(query.getTweets()));
+      // Only once
+      assertEquals(0, query.restore());
+    } finally {
+      archive.clear();
+      directory.delete();
+    }
+  }
+
+  /**
+   * Test that a reload shows the new tweets before the ones shown, in
+   * batches, keeping the nodes of the tweets already shown.
+   */
+  @Test
+  public void testReload() throws Exception {
+    System.out.println("reload");
+    Query query = query("reload");
+    results = new long[]{12, 11};
+    final AtomicInteger batches = new AtomicInteger();
+    QueryNodeChildFactory factory = new QueryNodeChildFactory(query) {
+      @Override
+      protected boolean createKeys(List<Tweet> list) {
+        batches.incrementAndGet();
+        return super.createKeys(list);
+      }
+    };
+    Children children = Children.create(factory, true);
+    Node[] before = children.getNodes(true);
+    assertEquals(list(12, 11), ids(before));
+
+    long[] more = new long[50];
+    for (int i = 0; i < more.length; i++) {
+      more[i] = 100 - i;
+    }
+    results = more;
+    batches.set(0);
+    factory.reload();
+    Node[] after = children.getNodes(true);
+    List<Long> expected = ids(query.getTweets());
+    assertEquals(52, expected.size());
+    assertEquals(expected, ids(after));
+    assertEquals(list(100, 99), ids(after).subList(0, 2));
+    // The new tweets are shown a few at a time
+    assertTrue("Batches: " + batches.get(), batches.get() >= 3);
+    assertSame(before[0], after[50]);
+    assertSame(before[1], after[51]);
+  }
+
+  /**
+   * Test that the tweets evicted by the retention limits of the query
+   * while loading are not shown.
+   */
+  @Test
+  public void testEviction() throws Exception {
+    System.out.println("eviction");
+    Query query = query("eviction");
+    query.setMaxTweets(3);
+    results = new long[]{15, 14, 13, 12, 11};
+    QueryNodeChildFactory factory = new QueryNodeChildFactory(query);
+    Children children = Children.create(factory, true);
+    assertEquals(list(15, 14, 13), ids(children.getNodes(true)));
+
+    results = new long[]{17, 16, 15, 14, 13};
+    factory.reload();
+    assertEquals(list(17, 16, 15), ids(children.getNodes(true)));
+    assertEquals(list(17, 16, 15), ids(query.getTweets()));
+  }
+
+  /**
+   * Test that a filter shows the known tweets that match it, without
+   * searching, and that the nodes of the tweets shown are kept.
+   */
+  @Test
+  public void testFilter() throws Exception {
+    System.out.println("filter");
+    Query query = query("filter");
+    results = new long[]{14, 13, 12, 11};
+    QueryNodeChildFactory factory = new QueryNodeChildFactory(query);
+    Children children = Children.create(factory, true);
+    Node[] all = children.getNodes(true);
+    assertEquals(list(14, 13, 12, 11), ids(all));
+
+    results = new long[]{16, 15};
+    factory.setFilter("even");
+    Node[] even = children.getNodes(true);
+    assertEquals(list(14, 12), ids(even));
+    assertSame(all[0], even[0]);
+    assertSame(all[2], even[1]);
+
+    factory.setFilter("");
+    assertEquals(list(14, 13, 12, 11), ids(children.getNodes(true)));
+    assertEquals(list(14, 13, 12, 11), ids(query.getTweets()));
+  }
+
+  /**
+   * @return a query with a keyword that no previous run has searched for,
+   *   so that no cached results are found.
+   */
+  static Query query(String keyword) {
+    Query query = new Query();
+    query.setKeyword(keyword + System.nanoTime());
+    return query;
+  }
+
+  static Tweet tweet(long id) {
+    Tweet tweet = new Tweet();
+    tweet.setId(id);
+    tweet.setTimestamp(1000L * id);
+    tweet.setUrlSpec("http://twitter.com/factory_test/statuses/" + id);
+    tweet.setContent("tweet #" + id);
+    tweet.setAuthor(AuthorRegistry.getDefault().intern("http://twitter.com/factory_test", "factory_test"));
+    return tweet;
+  }
+
+  static List<Long> list(long... ids) {
+    List<Long> list = new ArrayList<Long>();
+    for (long id : ids) {
+      list.add(id);
+    }
+    return list;
+  }
+
+  static List<Long> ids(Node[] nodes) {
+    List<Long> ids = new ArrayList<Long>();
+    for (Node node : nodes) {
+      ids.add(node.getLookup().lookup(Tweet.class).getId());
+    }
+    return ids;
+  }
+
+  static List<Long> ids(List<Tweet> tweets) {
+    List<Long> ids = new ArrayList<Long>();
+    for (Tweet tweet : tweets) {
+      ids.add(tweet.getId());
+    }
+    return ids;
+  }
+
+  /**
+   * Builds a page of tweets.
+   */
+  static String feed(long... ids) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+    sb.append("<feed xmlns=\"http://www.w3.org/2005/Atom\">\n");
+    for (long id : ids) {
+      sb.append("  <entry>\n");
+      sb.append("    <id>tag:search.twitter.com,2005:").append(id).append("</id>\n");
+      sb.append("    <published>2011-03-05T05:51:02Z</published>\n");
+      sb.append("    <link type=\"text/html\" href=\"http://twitter.com/factory_test/statuses/")
+        .append(id).append("\" rel=\"alternate\"/>\n");
+      sb.append("    <title>tweet #").append(id).append(id % 2 == 0 ? " even" : " odd").append("</title>\n");
+      sb.append("    <author>\n");
+      sb.append("      <name>factory_test</name>\n");
+      sb.append("      <uri>http://twitter.com/factory_test</uri>\n");
+      sb.append("    </author>\n");
+      sb.append("  </entry>\n");
+    }
+    sb.append("</feed>\n");
+    return sb.toString();
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file
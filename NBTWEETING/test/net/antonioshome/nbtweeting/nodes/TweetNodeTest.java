@@ -0,0 +1,114 @@
+/* (C) 2011, 2012 Antonio Vieiro (antonio@antonioshome.net). All rights reserved. */
+package net.antonioshome.nbtweeting.nodes;
+
+import java.beans.PropertyEditor;
+import java.util.Date;
+import net.antonioshome.nbtweeting.entities.AuthorRegistry;
+import net.antonioshome.nbtweeting.entities.Tweet;
+import org.openide.nodes.Node;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the TweetNode.
+ * @author Antonio Vieiro (antonio@antonioshome.net)
+ */
+public class TweetNodeTest {
+
+  public TweetNodeTest() {
+  }
+
+  /**
+   * Test that the properties read the tweet of each node, and that each
+   * caller gets a date editor of its own.
+   */
+  @Test
+  public void testProperties() throws Exception {
+    System.out.println("properties");
+    TweetNode first = new TweetNode(tweet(1, 1000L, "Alice"));
+    TweetNode second = new TweetNode(tweet(2, 2000L, "Bob"));
+    assertSame(first.getPropertySets(), first.getPropertySets());
+
+    Node.Property<?> firstDate = property(first, TweetNode.DATE_PROPERTY);
+    Node.Property<?> secondDate = property(second, TweetNode.DATE_PROPERTY);
+    assertEquals(Date.class, firstDate.getValueType());
+    assertEquals(new Date(1000L), firstDate.getValue());
+    assertEquals(new Date(2000L), secondDate.getValue());
+    assertFalse(firstDate.canWrite());
+    assertEquals("Alice", property(first, TweetNode.AUTHOR_PROPERTY).getValue());
+    assertEquals("Bob", property(second, TweetNode.AUTHOR_PROPERTY).getValue());
+
+    // Editors keep the value being edited, so they can't be shared
+    PropertyEditor firstEditor = firstDate.getPropertyEditor();
+    PropertyEditor secondEditor = secondDate.getPropertyEditor();
+    PropertyEditor again = firstDate.getPropertyEditor();
+    assertTrue(firstEditor != secondEditor);
+    assertTrue(firstEditor != again);
+    firstEditor.setValue(firstDate.getValue());
+    secondEditor.setValue(secondDate.getValue());
+    again.setAsText("05 Mar 2011 05:51:02");
+    assertEquals(new Date(1000L), firstEditor.getValue());
+    assertEquals(new Date(2000L), secondEditor.getValue());
+  }
+
+  private static Node.Property<?> property(Node node, String name) {
+    for (Node.PropertySet set : node.getPropertySets()) {
+      for (Node.Property<?> property : set.getProperties()) {
+        if (name.equals(property.getName())) {
+          return property;
+        }
+      }
+    }
+    fail("No property " + name);
+    return null;
+  }
+
+  private static Tweet tweet(long id, long timestamp, String author) {
+    Tweet tweet = new Tweet();
+    tweet.setId(id);
+    tweet.setTimestamp(timestamp);
+    tweet.setAuthor(AuthorRegistry.getDefault().intern("http://twitter.com/node_" + author, author));
+    tweet.setContent("tweet #" + id);
+    return tweet;
+  }
+}
+/*
+Copyright 2011-2012 Antonio Vieiro-Varela. ALl rights reserved.
+
+Oracle and Java are registered trademarks of Oracle and/or its affiliates.
+Other names may be trademarks of their respective owners.
+
+The contents of this file are subject to the terms of either the GNU
+General Public License Version 2 only ("GPL") or the Common
+Development and Distribution License("CDDL") (collectively, the
+"License"). You may not use this file except in compliance with the
+License. You can obtain a copy of the License at
+http://www.netbeans.org/cddl-gplv2.html
+or nbbuild/licenses/CDDL-GPL-2-CP. See the License for the
+specific language governing permissions and limitations under the
+License.  When distributing the software, include this License Header
+Notice in each file and include the License file at
+nbbuild/licenses/CDDL-GPL-2-CP.  Antonio designates this
+particular file as subject to the "Classpath" exception as provided
+by Antonio in the GPL Version 2 section of the License file that
+accompanied this code. If applicable, add the following below the
+License Header, with the fields enclosed by brackets [] replaced by
+your own identifying information:
+"Portions Copyrighted [year] [name of copyright owner]"
+
+Contributor(s):
+
+The Original Software is NBTWEETING. The Initial Developer of the Original
+Software is Antonio Vieiro.
+
+If you wish your version of this file to be governed by only the CDDL
+or only the GPL Version 2, indicate your decision by adding
+"[Contributor] elects to include this software in this distribution
+under the [CDDL or GPL Version 2] license." If you do not indicate a
+single choice of license, a recipient has the option to distribute
+your version of this file under either the CDDL, the GPL Version 2 or
+to extend the choice of license to its licensees as provided above.
+However, if you add GPL Version 2 code and therefore, elected the GPL
+Version 2 license, then the option applies only if the new code is
+made subject to such option by the copyright holder.
+*/
\ No newline at end of file